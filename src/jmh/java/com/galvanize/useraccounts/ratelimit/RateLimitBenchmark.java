@@ -0,0 +1,51 @@
+package com.galvanize.useraccounts.ratelimit;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What {@link RateLimitFilter} adds to a request: finding the route and taking a token, for one busy client and
+ * for many distinct ones, from several threads at once. Both should stay well under a microsecond:
+ * ./gradlew jmh -PjmhIncludes=RateLimitBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RateLimitBenchmark {
+    private static final int CLIENTS = 10_000;
+
+    private RateLimiter rateLimiter;
+    private String[] addresses;
+
+    @State(Scope.Thread)
+    public static class Client {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // refilled faster than the benchmark can drain it, so every request takes the allowed path
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.getRoutes().forEach(route -> route.setRefillPerSecond(1e9));
+        rateLimiter = new RateLimiter(properties);
+        addresses = new String[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) addresses[i] = "10.0." + (i >> 8) + "." + (i & 0xff);
+    }
+
+    @Benchmark
+    public long oneClient() {
+        RateLimiter.Limit limit = rateLimiter.limitFor("GET", "/api/users/99/condensed");
+        return rateLimiter.tryAcquire(limit, "10.0.0.1");
+    }
+
+    @Benchmark
+    public long manyClients(Client client) {
+        RateLimiter.Limit limit = rateLimiter.limitFor("GET", "/api/users/99/condensed");
+        return rateLimiter.tryAcquire(limit, addresses[client.next++ % CLIENTS]);
+    }
+}
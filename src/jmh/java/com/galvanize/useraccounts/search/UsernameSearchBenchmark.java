@@ -0,0 +1,107 @@
+package com.galvanize.useraccounts.search;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@code LOWER(username) LIKE '%x%'} scan behind {@code GET /api/users?username=}
+ * with narrowing the candidates through {@link UsernameTrigramIndex} and fetching only the matches by guid.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UsernameSearchBenchmark {
+    private static final String[] NAMES = {"baker", "bob", "jane", "doe", "chef", "cesar", "andy", "li", "rafael", "monica"};
+
+    @Param({"100000", "1000000"})
+    int users;
+
+    @Param({"cesar4242", "bob77"})
+    String query;
+
+    private Connection connection;
+    private PreparedStatement likeScan;
+    private UsernameTrigramIndex index;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:bench" + users + ";DB_CLOSE_DELAY=-1", "sa", "sa");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS users");
+            statement.execute("CREATE TABLE users (id BIGINT AUTO_INCREMENT PRIMARY KEY, guid BIGINT UNIQUE, username VARCHAR(40) UNIQUE)");
+        }
+
+        index = new UsernameTrigramIndex();
+        Random random = new Random(42);
+
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO users (guid, username) VALUES (?, ?)")) {
+            for (int i = 0; i < users; i++) {
+                String username = NAMES[random.nextInt(NAMES.length)] + NAMES[random.nextInt(NAMES.length)] + i;
+                insert.setLong(1, i);
+                insert.setString(2, username);
+                insert.addBatch();
+                index.add((long) i, username);
+
+                if (i % 1000 == 999) insert.executeBatch();
+            }
+            insert.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+        index.markReady();
+
+        likeScan = connection.prepareStatement("SELECT * FROM users WHERE LOWER(username) LIKE LOWER(?)");
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE users");
+        }
+        connection.close();
+    }
+
+    @Benchmark
+    public void likeScan(Blackhole blackhole) throws SQLException {
+        likeScan.setString(1, "%" + query + "%");
+        consume(likeScan, blackhole);
+    }
+
+    @Benchmark
+    public void trigramIndex(Blackhole blackhole) throws SQLException {
+        List<Long> guids = index.search(query);
+        if (guids.isEmpty()) return;
+
+        StringBuilder sql = new StringBuilder("SELECT * FROM users WHERE guid IN (");
+        for (int i = 0; i < guids.size(); i++) sql.append(i == 0 ? "?" : ", ?");
+        sql.append(')');
+
+        try (PreparedStatement byGuid = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < guids.size(); i++) byGuid.setLong(i + 1, guids.get(i));
+            consume(byGuid, blackhole);
+        }
+    }
+
+    private static void consume(PreparedStatement statement, Blackhole blackhole) throws SQLException {
+        try (ResultSet rows = statement.executeQuery()) {
+            while (rows.next()) {
+                blackhole.consume(rows.getLong("guid"));
+                blackhole.consume(rows.getString("username"));
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.galvanize.useraccounts.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the cold path of {@link JwtTokenAuthenticationFilter} through jjwt with {@link HmacJwtVerifier}, both
+ * ending in the principal and authorities the filter needs. Run with {@code -prof gc} to compare allocation too:
+ * ./gradlew jmh -PjmhIncludes=JwtVerificationBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JwtVerificationBenchmark {
+    private static final byte[] KEY = "EZYOP-DCyVi-DIS56-UrUh9-x9vJr-TRRTz-JE1xQ-4JDSE".getBytes();
+
+    @Param({"HS256", "HS512"})
+    String algorithm;
+
+    private String token;
+    private HmacJwtVerifier verifier;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        long now = System.currentTimeMillis();
+        token = Jwts.builder()
+                .setHeaderParam("typ", "JWT")
+                .setSubject("bakerBob")
+                .claim("guid", 99)
+                .claim("email", "bakerBob@gmail.com")
+                .claim("authorities", Arrays.asList("ROLE_USER"))
+                .setIssuedAt(new Date(now))
+                .setExpiration(new Date(now + TimeUnit.DAYS.toMillis(1)))
+                .signWith(SignatureAlgorithm.forName(algorithm), KEY)
+                .compact();
+        verifier = new HmacJwtVerifier(KEY);
+    }
+
+    @Benchmark
+    public VerifiedTokenCache.Verified jjwt() {
+        Claims claims = Jwts.parser().setSigningKey(KEY).parseClaimsJws(token).getBody();
+
+        @SuppressWarnings("unchecked")
+        List<String> names = (List<String>) claims.get("authorities");
+        List<GrantedAuthority> authorities = names.stream().map(SimpleGrantedAuthority::new).collect(Collectors.toList());
+        JwtUser principal = new JwtUser(claims.get("guid", Long.class), claims.getSubject(), claims.get("email", String.class), names);
+        return new VerifiedTokenCache.Verified(principal, authorities, claims.getExpiration().getTime());
+    }
+
+    @Benchmark
+    public VerifiedTokenCache.Verified hmacVerifier() {
+        return verifier.verify(token);
+    }
+}
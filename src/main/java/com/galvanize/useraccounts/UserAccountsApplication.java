@@ -1,17 +1,31 @@
 package com.galvanize.useraccounts;
 
 import com.galvanize.useraccounts.security.JwtProperties;
+import com.galvanize.useraccounts.shard.ShardRebalanceRunner;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class UserAccountsApplication {
 
     public static void main(String[] args) {
+        if (ShardRebalanceRunner.isRequested(args)) System.exit(rebalance(args));
+
         SpringApplication.run(UserAccountsApplication.class, args);
     }
 
+    // the rebalancing job: no web server, and the exit code of ShardRebalanceRunner once the context is closed
+    static int rebalance(String[] args) {
+        SpringApplication application = new SpringApplication(UserAccountsApplication.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+        application.setAdditionalProfiles(ShardRebalanceRunner.PROFILE);
+        return SpringApplication.exit(application.run(args));
+    }
+
     @Bean
     public JwtProperties getJwtProperties(){
         return new JwtProperties();
@@ -0,0 +1,147 @@
+package com.galvanize.useraccounts.availability;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.event.UserChangedEvent;
+import com.galvanize.useraccounts.model.UserCondensed;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Counting Bloom filters over lower-cased usernames and emails that are in use.
+ * <p>
+ * "Not contained" is definite, so availability checks can skip the database for names nobody has;
+ * "might contain" still has to be confirmed by a query. Creates add to the counters and deletes decrement them.
+ * Updates only touch a counter when the username or email actually changed, replacing the previous value, so
+ * saving the same user again does not count it twice. Updates replayed from other pods do not know the previous
+ * values; they only add what is missing, and a replaced value lingers as a false positive until the next
+ * {@link #rebuild(Stream) rebuild}.
+ * Until the first rebuild every lookup answers "might contain".
+ */
+@Component
+public class AvailabilityFilter {
+    private final UsersProperties.Availability settings;
+    private volatile Filters current;
+    private Filters next;
+    private List<UserCondensed> removedDuringRebuild;
+
+    private static final class Filters {
+        final CountingBloomFilter usernames;
+        final CountingBloomFilter emails;
+
+        Filters(UsersProperties.Availability settings) {
+            usernames = new CountingBloomFilter(settings.getExpectedInsertions(), settings.getFalsePositiveRate());
+            emails = new CountingBloomFilter(settings.getExpectedInsertions(), settings.getFalsePositiveRate());
+        }
+
+        void add(String username, String email) {
+            if (username != null) usernames.add(normalize(username));
+            if (email != null) emails.add(normalize(email));
+        }
+
+        // for updates whose previous values are unknown: counting a value twice would outlive its delete
+        void addMissing(String username, String email) {
+            if (username != null && !usernames.mightContain(normalize(username))) usernames.add(normalize(username));
+            if (email != null && !emails.mightContain(normalize(email))) emails.add(normalize(email));
+        }
+
+        void remove(String username, String email) {
+            if (username != null) usernames.remove(normalize(username));
+            if (email != null) emails.remove(normalize(email));
+        }
+    }
+
+    public AvailabilityFilter(UsersProperties usersProperties) {
+        this.settings = usersProperties.getAvailability();
+    }
+
+    static String normalize(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    public boolean isReady() {
+        return current != null;
+    }
+
+    public boolean mightContainUsername(String username) {
+        Filters filters = current;
+        return filters == null || filters.usernames.mightContain(normalize(username));
+    }
+
+    public boolean mightContainEmail(String email) {
+        Filters filters = current;
+        return filters == null || filters.emails.mightContain(normalize(email));
+    }
+
+    /**
+     * Replaces the filters with fresh ones built from {@code users}, which drops the false positives
+     * left behind by renames. Writes that happen while the stream is read go to both generations;
+     * deletes are applied to the new one only after the scan, so they cannot cancel a row the scan adds later.
+     */
+    public void rebuild(Stream<UserCondensed> users) {
+        Filters building = new Filters(settings);
+        synchronized (this) {
+            next = building;
+            removedDuringRebuild = new ArrayList<>();
+        }
+
+        try {
+            users.forEach(user -> building.add(user.getUsername(), user.getEmail()));
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                next = null;
+                removedDuringRebuild = null;
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            removedDuringRebuild.forEach(user -> building.remove(user.getUsername(), user.getEmail()));
+            current = building;
+            next = null;
+            removedDuringRebuild = null;
+        }
+    }
+
+    @EventListener
+    public synchronized void onUserChanged(UserChangedEvent event) {
+        Filters filters = current;
+
+        if (event.isDeleted()) {
+            if (filters != null) filters.remove(event.getUsername(), event.getEmail());
+            if (next != null) removedDuringRebuild.add(event.toCondensed());
+        } else if (event.getType() == UserChangedEvent.Type.CREATED) {
+            if (filters != null) filters.add(event.getUsername(), event.getEmail());
+            if (next != null) next.add(event.getUsername(), event.getEmail());
+        } else if (event.isPreviousKnown()) {
+            String addedUsername = changed(event.getPreviousUsername(), event.getUsername());
+            String addedEmail = changed(event.getPreviousEmail(), event.getEmail());
+            String removedUsername = addedUsername == null ? null : event.getPreviousUsername();
+            String removedEmail = addedEmail == null ? null : event.getPreviousEmail();
+            if (addedUsername == null && addedEmail == null) return;
+
+            if (filters != null) {
+                filters.add(addedUsername, addedEmail);
+                filters.remove(removedUsername, removedEmail);
+            }
+            if (next != null) {
+                next.add(addedUsername, addedEmail);
+                removedDuringRebuild.add(new UserCondensed(event.getGuid(), removedUsername, null, removedEmail));
+            }
+        } else {
+            if (filters != null) filters.addMissing(event.getUsername(), event.getEmail());
+            if (next != null) next.addMissing(event.getUsername(), event.getEmail());
+        }
+    }
+
+    // the new value when it differs from the previous one, ignoring case; null when it is unchanged
+    private static String changed(String previous, String value) {
+        if (value == null) return null;
+        if (previous != null && normalize(previous).equals(normalize(value))) return null;
+        return value;
+    }
+}
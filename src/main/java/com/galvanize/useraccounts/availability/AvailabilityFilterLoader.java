@@ -0,0 +1,49 @@
+package com.galvanize.useraccounts.availability;
+
+import com.galvanize.useraccounts.model.UserCondensed;
+import com.galvanize.useraccounts.repository.UsersRepository;
+import com.galvanize.useraccounts.shard.Shards;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.stream.Stream;
+
+/**
+ * Builds the availability filter from a streaming scan of the users table at startup, and rebuilds it
+ * every {@code users.availability.rebuild-interval} to shed false positives left by renames. With sharding,
+ * the shards are read one after the other.
+ */
+@Component
+public class AvailabilityFilterLoader implements ApplicationRunner {
+    private final UsersRepository usersRepository;
+    private final AvailabilityFilter availabilityFilter;
+    private final Shards shards;
+
+    public AvailabilityFilterLoader(UsersRepository usersRepository, AvailabilityFilter availabilityFilter, Shards shards) {
+        this.usersRepository = usersRepository;
+        this.availabilityFilter = availabilityFilter;
+        this.shards = shards;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void run(ApplicationArguments args) {
+        rebuild();
+    }
+
+    @Transactional(readOnly = true)
+    @Scheduled(fixedDelayString = "#{@usersProperties.availability.rebuildInterval.toMillis()}",
+            initialDelayString = "#{@usersProperties.availability.rebuildInterval.toMillis()}")
+    public void rebuild() {
+        if (shards.isSharded()) {
+            availabilityFilter.rebuild(shards.concat(usersRepository::findAllCondensed));
+            return;
+        }
+        try (Stream<UserCondensed> users = usersRepository.streamAllCondensed()) {
+            availabilityFilter.rebuild(users);
+        }
+    }
+}
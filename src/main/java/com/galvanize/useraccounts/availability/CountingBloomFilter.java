@@ -0,0 +1,106 @@
+package com.galvanize.useraccounts.availability;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter with 4-bit counters instead of bits, so keys can be removed again.
+ * <p>
+ * Sixteen counters are packed into each long and updated with CAS, so adds, removes and lookups never block.
+ * A counter that reaches 15 sticks there: it can no longer be decremented safely, which only costs
+ * false positives. Removing a key that was never added is not detected and must be avoided by the caller.
+ */
+public class CountingBloomFilter {
+    private static final int COUNTERS_PER_WORD = 16;
+    private static final long MAX_COUNT = 0xF;
+
+    private final AtomicLongArray words;
+    private final long counters;
+    private final int hashes;
+
+    public CountingBloomFilter(long expectedInsertions, double falsePositiveRate) {
+        long n = Math.max(1, expectedInsertions);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.counters = Math.max(COUNTERS_PER_WORD, m);
+        this.hashes = Math.max(1, (int) Math.round((double) counters / n * Math.log(2)));
+        this.words = new AtomicLongArray((int) ((counters + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD));
+    }
+
+    public void add(String key) {
+        long h1 = hash(key);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < hashes; i++) increment(index(h1, h2, i));
+    }
+
+    public void remove(String key) {
+        long h1 = hash(key);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < hashes; i++) decrement(index(h1, h2, i));
+    }
+
+    public boolean mightContain(String key) {
+        long h1 = hash(key);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < hashes; i++) {
+            if (count(index(h1, h2, i)) == 0) return false;
+        }
+        return true;
+    }
+
+    public int hashes() {
+        return hashes;
+    }
+
+    public long counters() {
+        return counters;
+    }
+
+    // Kirsch-Mitzenmacher: k indexes from two hashes behave like k independent ones
+    private long index(long h1, long h2, int i) {
+        return Math.floorMod(h1 + i * h2, counters);
+    }
+
+    private long count(long index) {
+        return (words.get((int) (index / COUNTERS_PER_WORD)) >>> shift(index)) & MAX_COUNT;
+    }
+
+    private void increment(long index) {
+        int word = (int) (index / COUNTERS_PER_WORD);
+        int shift = shift(index);
+        while (true) {
+            long current = words.get(word);
+            if (((current >>> shift) & MAX_COUNT) == MAX_COUNT) return;
+            if (words.compareAndSet(word, current, current + (1L << shift))) return;
+        }
+    }
+
+    private void decrement(long index) {
+        int word = (int) (index / COUNTERS_PER_WORD);
+        int shift = shift(index);
+        while (true) {
+            long current = words.get(word);
+            long count = (current >>> shift) & MAX_COUNT;
+            if (count == 0 || count == MAX_COUNT) return;
+            if (words.compareAndSet(word, current, current - (1L << shift))) return;
+        }
+    }
+
+    private static int shift(long index) {
+        return (int) (index % COUNTERS_PER_WORD) * 4;
+    }
+
+    private static long hash(String key) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        return mix(h);
+    }
+
+    // splitmix64 finalizer, spreads FNV's weak low bits
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
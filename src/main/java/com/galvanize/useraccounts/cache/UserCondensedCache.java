@@ -0,0 +1,84 @@
+package com.galvanize.useraccounts.cache;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.event.UserChangedEvent;
+import com.galvanize.useraccounts.model.UserCondensed;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded near cache of condensed users keyed by guid.
+ * <p>
+ * Caffeine evicts by W-TinyLFU, so a burst of one-off lookups cannot push out the users that are read all
+ * the time. Entries are dropped whenever a user row is written, and expire after a TTL as a backstop.
+ * A load that overlaps an invalidation is not stored, because it may have read the row before the write committed.
+ */
+@Component
+public class UserCondensedCache implements MeterBinder {
+    private final Cache<Long, UserCondensed> cache;
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public UserCondensedCache(UsersProperties usersProperties) {
+        UsersProperties.Condensed condensed = usersProperties.getCondensed();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(condensed.getCacheMaximumSize())
+                .expireAfterWrite(condensed.getCacheTtl())
+                .recordStats()
+                .build();
+    }
+
+    public UserCondensed get(Long guid, Function<Long, UserCondensed> loader) {
+        UserCondensed user = cache.getIfPresent(guid);
+        if (user != null) return user;
+
+        long seen = invalidations.get();
+        user = loader.apply(guid);
+        if (user != null && invalidations.get() == seen) cache.put(guid, user);
+
+        return user;
+    }
+
+    public Map<Long, UserCondensed> getAllPresent(Collection<Long> guids) {
+        return cache.getAllPresent(guids);
+    }
+
+    /**
+     * Stores users loaded by the caller; {@code seen} is {@link #generation()} read before the load started.
+     */
+    public void putAll(Map<Long, UserCondensed> users, long seen) {
+        if (invalidations.get() == seen) cache.putAll(users);
+    }
+
+    public long generation() {
+        return invalidations.get();
+    }
+
+    public void invalidate(Long guid) {
+        invalidations.incrementAndGet();
+        cache.invalidate(guid);
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    @EventListener
+    public void onUserChanged(UserChangedEvent event) {
+        if (event.getType() != UserChangedEvent.Type.CREATED) invalidate(event.getGuid());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "users.condensed");
+    }
+}
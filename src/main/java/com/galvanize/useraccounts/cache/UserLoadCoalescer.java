@@ -0,0 +1,45 @@
+package com.galvanize.useraccounts.cache;
+
+import com.galvanize.useraccounts.model.User;
+import com.galvanize.useraccounts.model.UserCondensed;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Function;
+
+/**
+ * Single-flight guards for the per-guid user lookups, so a hot profile costs one query per burst
+ * instead of one per request.
+ */
+@Component
+public class UserLoadCoalescer implements MeterBinder {
+    private final SingleFlight<Long, User> users = new SingleFlight<>();
+    private final SingleFlight<Long, UserCondensed> condensed = new SingleFlight<>();
+
+    public User loadUser(Long guid, Function<Long, User> loader) {
+        return users.load(guid, loader);
+    }
+
+    public UserCondensed loadCondensed(Long guid, Function<Long, UserCondensed> loader) {
+        return condensed.load(guid, loader);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bind(registry, "user", users);
+        bind(registry, "condensed", condensed);
+    }
+
+    private static void bind(MeterRegistry registry, String resource, SingleFlight<?, ?> flight) {
+        FunctionCounter.builder("users.singleflight.loads", flight, SingleFlight::loads)
+                .description("Database loads started by the first caller for a guid")
+                .tag("resource", resource)
+                .register(registry);
+        FunctionCounter.builder("users.singleflight.coalesced", flight, SingleFlight::coalesced)
+                .description("Callers that shared a load already in flight instead of querying")
+                .tag("resource", resource)
+                .register(registry);
+    }
+}
@@ -0,0 +1,160 @@
+package com.galvanize.useraccounts.concurrency;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps concurrent {@code /api/users} requests with a {@link GradientLimit} for reads (GET, HEAD, OPTIONS) and one for
+ * writes, and turns away what is over the limit with 503 right away. Without it a spike has every Tomcat thread
+ * waiting on the connection pool, and every endpoint slows down together.
+ * <p>
+ * Runs before security, so shed requests cost no token parsing either. A request that goes async keeps its permit
+ * until the async request completes, not just until the first dispatch returns, but its time is not a sample: it
+ * follows how fast the client reads, not how fast the database answers. Streamed NDJSON searches run for minutes, so
+ * they have a fixed limit of their own and never hold read permits.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+@EnableConfigurationProperties(ConcurrencyLimitProperties.class)
+public class ConcurrencyLimitFilter extends OncePerRequestFilter implements MeterBinder {
+    private static final String USERS = "/api/users";
+    private static final String NDJSON = "application/x-ndjson";
+
+    private final boolean enabled;
+    private final GradientLimit read;
+    private final GradientLimit write;
+    // never sampled, so it stays where it started
+    private final GradientLimit stream;
+    private final LongAdder readRejected = new LongAdder();
+    private final LongAdder writeRejected = new LongAdder();
+    private final LongAdder streamRejected = new LongAdder();
+
+    public ConcurrencyLimitFilter(ConcurrencyLimitProperties properties) {
+        this.enabled = properties.isEnabled();
+        this.read = new GradientLimit(properties.getRead(), properties.getRttTolerance());
+        this.write = new GradientLimit(properties.getWrite(), properties.getRttTolerance());
+        int streams = properties.getStreams();
+        this.stream = new GradientLimit(new ConcurrencyLimitProperties.Bounds(streams, streams, streams), properties.getRttTolerance());
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        // custom methods like /api/users:bulk as well
+        return !enabled || !(path.equals(USERS) || path.startsWith(USERS + "/") || path.startsWith(USERS + ":"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        boolean reading = isRead(request.getMethod());
+        boolean streaming = reading && isStream(request);
+        GradientLimit limit = streaming ? stream : reading ? read : write;
+        if (!limit.tryAcquire()) {
+            (streaming ? streamRejected : reading ? readRejected : writeRejected).increment();
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value());
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean completed = false;
+        try {
+            chain.doFilter(request, response);
+            completed = true;
+        } finally {
+            if (!completed) limit.release();
+            else if (request.isAsyncStarted()) request.getAsyncContext().addListener(new ReleaseOnComplete(limit));
+            else if (streaming) limit.release();
+            else limit.release(System.nanoTime() - start);
+        }
+    }
+
+    // the container always calls onComplete last, also after a timeout or an error
+    private static final class ReleaseOnComplete implements AsyncListener {
+        private final GradientLimit limit;
+
+        ReleaseOnComplete(GradientLimit limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            limit.release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    private static boolean isRead(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method);
+    }
+
+    // the NDJSON search, GET /api/users with Accept: application/x-ndjson
+    private static boolean isStream(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        return path.equals(USERS) && accept != null && accept.contains(NDJSON);
+    }
+
+    GradientLimit read() {
+        return read;
+    }
+
+    GradientLimit write() {
+        return write;
+    }
+
+    GradientLimit stream() {
+        return stream;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bind(registry, "read", read, readRejected);
+        bind(registry, "write", write, writeRejected);
+        bind(registry, "stream", stream, streamRejected);
+    }
+
+    private static void bind(MeterRegistry registry, String kind, GradientLimit limit, LongAdder rejected) {
+        Gauge.builder("users.concurrency.limit", limit, GradientLimit::getLimit)
+                .description("Concurrent requests currently allowed")
+                .tag("kind", kind)
+                .register(registry);
+        Gauge.builder("users.concurrency.in-flight", limit, GradientLimit::getInFlight)
+                .description("Requests currently being served")
+                .tag("kind", kind)
+                .register(registry);
+        FunctionCounter.builder("users.concurrency.rejected", rejected, LongAdder::sum)
+                .description("Requests turned away with 503 because the limit was reached")
+                .tag("kind", kind)
+                .register(registry);
+    }
+}
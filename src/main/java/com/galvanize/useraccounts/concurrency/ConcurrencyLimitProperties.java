@@ -0,0 +1,87 @@
+package com.galvanize.useraccounts.concurrency;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * {@code users.concurrency-limit.*}: bounds for the adaptive limits on concurrent {@code /api/users} requests, one
+ * for reads and one for writes so a burst of one cannot starve the other, plus a fixed one for streamed searches.
+ */
+@ConfigurationProperties("users.concurrency-limit")
+public class ConcurrencyLimitProperties {
+    private boolean enabled = true;
+    // how much slower than usual requests may get before the limit comes down
+    private double rttTolerance = 1.5;
+    private final Bounds read = new Bounds(40, 8, 200);
+    // writes hold a primary connection for the whole request, so they start near the pool size
+    private final Bounds write = new Bounds(10, 2, 50);
+    // NDJSON exports run for minutes, so they get a fixed number of their own instead of a share of the read limit
+    private int streams = 4;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public double getRttTolerance() {
+        return rttTolerance;
+    }
+
+    public void setRttTolerance(double rttTolerance) {
+        this.rttTolerance = rttTolerance;
+    }
+
+    public int getStreams() {
+        return streams;
+    }
+
+    public void setStreams(int streams) {
+        this.streams = streams;
+    }
+
+    public Bounds getRead() {
+        return read;
+    }
+
+    public Bounds getWrite() {
+        return write;
+    }
+
+    public static class Bounds {
+        private int initialLimit;
+        private int minLimit;
+        private int maxLimit;
+
+        public Bounds(int initialLimit, int minLimit, int maxLimit) {
+            this.initialLimit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+        }
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+    }
+}
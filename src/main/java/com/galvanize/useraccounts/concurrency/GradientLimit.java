@@ -0,0 +1,91 @@
+package com.galvanize.useraccounts.concurrency;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A concurrency limit that follows latency: it compares each request's time with a long-running average, and
+ * while requests are no slower than {@code rttTolerance} times that average it grows by a few requests, otherwise
+ * it shrinks in proportion. Requests queueing for a connection are what make them slower, so the limit settles
+ * near the concurrency the database can actually serve.
+ * <p>
+ * Taking and returning a permit is lock-free; only the limit update after a request is synchronized.
+ */
+public class GradientLimit {
+    // requests the limit may grow by per adjustment, before smoothing
+    private static final double QUEUE_SIZE = 4;
+    private static final double SMOOTHING = 0.2;
+    // samples the long-running average is taken over, and how many are averaged plainly before it starts
+    private static final int LONG_WINDOW = 600;
+    private static final int WARMUP = 10;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double rttTolerance;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+
+    // guarded by this
+    private double estimate;
+    private double longRtt;
+    private long samples;
+
+    public GradientLimit(ConcurrencyLimitProperties.Bounds bounds, double rttTolerance) {
+        this.minLimit = bounds.getMinLimit();
+        this.maxLimit = bounds.getMaxLimit();
+        this.rttTolerance = rttTolerance;
+        this.estimate = Math.max(minLimit, Math.min(maxLimit, bounds.getInitialLimit()));
+        this.limit = (int) estimate;
+    }
+
+    /**
+     * @return whether the request may go ahead; if so it must call one of the release methods when done
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) return false;
+            if (inFlight.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    /**
+     * Returns the permit of a request that completed in {@code rttNanos} and adjusts the limit to it.
+     */
+    public void release(long rttNanos) {
+        int concurrent = inFlight.getAndDecrement();
+        onSample(rttNanos, concurrent);
+    }
+
+    /**
+     * Returns the permit of a request that failed, without taking its time into account.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private synchronized void onSample(long rttNanos, int concurrent) {
+        double shortRtt = Math.max(1, rttNanos);
+        samples++;
+        longRtt = samples <= WARMUP ? longRtt + (shortRtt - longRtt) / samples
+                : longRtt + (shortRtt - longRtt) * 2 / (LONG_WINDOW + 1);
+        // after a long overload the average is far above normal again; bring it down faster than the window would
+        if (longRtt / shortRtt > 2) longRtt *= 0.95;
+
+        // too few requests to tell whether more would be slower
+        if (concurrent < estimate / 2) return;
+
+        double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * longRtt / shortRtt));
+        double next = estimate * gradient + QUEUE_SIZE;
+        next = estimate * (1 - SMOOTHING) + next * SMOOTHING;
+        estimate = Math.max(minLimit, Math.min(maxLimit, next));
+        limit = (int) estimate;
+    }
+}
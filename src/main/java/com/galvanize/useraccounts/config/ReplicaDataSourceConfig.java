@@ -0,0 +1,64 @@
+package com.galvanize.useraccounts.config;
+
+import com.galvanize.useraccounts.datasource.ReplicaLagMonitor;
+import com.galvanize.useraccounts.datasource.ReplicaRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Splits the database into two pools once {@code users.replica.jdbc-url} is set: read-only transactions go to
+ * the replica pool ({@code users.replica.*}, the same keys as {@code spring.datasource.hikari.*}), everything
+ * else to the primary pool configured by {@code spring.datasource}. Without the property, Boot's single pool is
+ * used as before. Ignored when {@code users.sharding.enabled} is set.
+ */
+@Configuration
+// a replica URL is set and sharding, which brings its own pools, is off
+@ConditionalOnExpression("!'${users.replica.jdbc-url:}'.isEmpty() and !${users.sharding.enabled:false}")
+public class ReplicaDataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        primary.setPoolName("primary");
+        return primary;
+    }
+
+    @Bean
+    @ConfigurationProperties("users.replica")
+    public HikariDataSource replicaDataSource() {
+        HikariDataSource replica = new HikariDataSource();
+        replica.setPoolName("replica");
+        replica.setReadOnly(true);
+        return replica;
+    }
+
+    @Bean
+    public ReplicaLagMonitor replicaLagMonitor(@Qualifier("primaryDataSource") DataSource primary,
+                                               @Qualifier("replicaDataSource") DataSource replica, UsersProperties usersProperties) {
+        return new ReplicaLagMonitor(primary, replica, usersProperties);
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource routingDataSource(@Qualifier("primaryDataSource") DataSource primary,
+                                                      @Qualifier("replicaDataSource") DataSource replica, ReplicaLagMonitor lagMonitor) {
+        return new ReplicaRoutingDataSource(primary, replica, lagMonitor::isReplicaUsable);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource routingDataSource) {
+        // Hibernate asks for a connection when the transaction begins, before it is marked read-only;
+        // the proxy only picks a pool once the first statement runs
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+}
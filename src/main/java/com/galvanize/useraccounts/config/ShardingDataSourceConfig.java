@@ -0,0 +1,77 @@
+package com.galvanize.useraccounts.config;
+
+import com.galvanize.useraccounts.shard.ShardRoutingDataSource;
+import com.galvanize.useraccounts.shard.ShardSchemaInitializer;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.jpa.boot.internal.EntityManagerFactoryBuilderImpl;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Replaces the single database with one pool per {@code users.sharding.shards.<name>} once
+ * {@code users.sharding.enabled} is set; {@code spring.datasource} is then unused. Users are placed by a consistent
+ * hash of their guid, see {@link com.galvanize.useraccounts.shard.Shards}. Not combined with {@code users.replica}.
+ * <p>
+ * Requires {@code spring.jpa.open-in-view=false}: one entity manager for the whole request would mix entities of
+ * different shards in one persistence context.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "users.sharding", name = "enabled", havingValue = "true")
+public class ShardingDataSourceConfig {
+
+    @Bean
+    public ShardRoutingDataSource shardRoutingDataSource(UsersProperties usersProperties,
+                                                         @Value("${spring.jpa.open-in-view:true}") boolean openInView) {
+        if (openInView) throw new IllegalStateException("users.sharding.enabled requires spring.jpa.open-in-view=false");
+
+        UsersProperties.Sharding sharding = usersProperties.getSharding();
+        if (sharding.getShards().isEmpty()) throw new IllegalStateException("users.sharding.shards must name at least one shard");
+        Map<String, HikariDataSource> pools = new TreeMap<>();
+        sharding.getShards().forEach((name, shard) -> {
+            HikariDataSource pool = new HikariDataSource();
+            pool.setPoolName("shard-" + name);
+            pool.setJdbcUrl(shard.getJdbcUrl());
+            pool.setUsername(shard.getUsername());
+            pool.setPassword(shard.getPassword());
+            pool.setMaximumPoolSize(shard.getMaximumPoolSize());
+            pools.put(name, pool);
+        });
+        return new ShardRoutingDataSource(pools, sharding.resolveHome());
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ShardRoutingDataSource shardRoutingDataSource) {
+        // a transaction begins before the service has named its shard; the proxy only picks one at the first statement
+        return new LazyConnectionDataSourceProxy(shardRoutingDataSource);
+    }
+
+    @Bean
+    public ShardSchemaInitializer shardSchemaInitializer(UsersProperties usersProperties,
+                                                         @Value("${spring.jpa.hibernate.ddl-auto:none}") String ddlAuto) {
+        UsersProperties.Sharding sharding = usersProperties.getSharding();
+        List<String> otherShards = sharding.getShards().keySet().stream()
+                .filter(name -> !name.equals(sharding.resolveHome()))
+                .collect(Collectors.toList());
+        return new ShardSchemaInitializer(otherShards, !"none".equals(ddlAuto) && !"validate".equals(ddlAuto));
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer shardSchemaIntegrator(ShardSchemaInitializer shardSchemaInitializer) {
+        return properties -> properties.put(EntityManagerFactoryBuilderImpl.INTEGRATOR_PROVIDER,
+                (IntegratorProvider) () -> Collections.singletonList(shardSchemaInitializer));
+    }
+}
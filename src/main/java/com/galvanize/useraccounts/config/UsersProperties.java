@@ -0,0 +1,412 @@
+package com.galvanize.useraccounts.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+
+@Configuration
+@ConfigurationProperties("users")
+public class UsersProperties {
+    private final Search search = new Search();
+    private final Condensed condensed = new Condensed();
+    private final Availability availability = new Availability();
+    private final Bulk bulk = new Bulk();
+    private final Replication replication = new Replication();
+    private final Sharding sharding = new Sharding();
+    private final Outbox outbox = new Outbox();
+    private final Invalidation invalidation = new Invalidation();
+
+    public Search getSearch() {
+        return search;
+    }
+
+    public Condensed getCondensed() {
+        return condensed;
+    }
+
+    public Availability getAvailability() {
+        return availability;
+    }
+
+    public Bulk getBulk() {
+        return bulk;
+    }
+
+    public Replication getReplication() {
+        return replication;
+    }
+
+    public Sharding getSharding() {
+        return sharding;
+    }
+
+    public Outbox getOutbox() {
+        return outbox;
+    }
+
+    public Invalidation getInvalidation() {
+        return invalidation;
+    }
+
+    public static class Search {
+        private int pageLimit = 50;
+        private int maxPageLimit = 200;
+        private int typeaheadLimit = 10;
+        private int typeaheadMaxLimit = 50;
+
+        public int getPageLimit() {
+            return pageLimit;
+        }
+
+        public void setPageLimit(int pageLimit) {
+            this.pageLimit = pageLimit;
+        }
+
+        public int getMaxPageLimit() {
+            return maxPageLimit;
+        }
+
+        public void setMaxPageLimit(int maxPageLimit) {
+            this.maxPageLimit = maxPageLimit;
+        }
+
+        public int getTypeaheadLimit() {
+            return typeaheadLimit;
+        }
+
+        public void setTypeaheadLimit(int typeaheadLimit) {
+            this.typeaheadLimit = typeaheadLimit;
+        }
+
+        public int getTypeaheadMaxLimit() {
+            return typeaheadMaxLimit;
+        }
+
+        public void setTypeaheadMaxLimit(int typeaheadMaxLimit) {
+            this.typeaheadMaxLimit = typeaheadMaxLimit;
+        }
+    }
+
+    public static class Condensed {
+        private int batchMaxSize = 500;
+        private int batchChunkSize = 100;
+        private long cacheMaximumSize = 100_000;
+        private Duration cacheTtl = Duration.ofMinutes(10);
+
+        public int getBatchMaxSize() {
+            return batchMaxSize;
+        }
+
+        public void setBatchMaxSize(int batchMaxSize) {
+            this.batchMaxSize = batchMaxSize;
+        }
+
+        public int getBatchChunkSize() {
+            return batchChunkSize;
+        }
+
+        public void setBatchChunkSize(int batchChunkSize) {
+            this.batchChunkSize = batchChunkSize;
+        }
+
+        public long getCacheMaximumSize() {
+            return cacheMaximumSize;
+        }
+
+        public void setCacheMaximumSize(long cacheMaximumSize) {
+            this.cacheMaximumSize = cacheMaximumSize;
+        }
+
+        public Duration getCacheTtl() {
+            return cacheTtl;
+        }
+
+        public void setCacheTtl(Duration cacheTtl) {
+            this.cacheTtl = cacheTtl;
+        }
+    }
+
+    public static class Availability {
+        private long expectedInsertions = 1_000_000;
+        private double falsePositiveRate = 0.01;
+        private Duration rebuildInterval = Duration.ofHours(6);
+
+        public long getExpectedInsertions() {
+            return expectedInsertions;
+        }
+
+        public void setExpectedInsertions(long expectedInsertions) {
+            this.expectedInsertions = expectedInsertions;
+        }
+
+        public double getFalsePositiveRate() {
+            return falsePositiveRate;
+        }
+
+        public void setFalsePositiveRate(double falsePositiveRate) {
+            this.falsePositiveRate = falsePositiveRate;
+        }
+
+        public Duration getRebuildInterval() {
+            return rebuildInterval;
+        }
+
+        public void setRebuildInterval(Duration rebuildInterval) {
+            this.rebuildInterval = rebuildInterval;
+        }
+    }
+
+    public static class Bulk {
+        private int batchSize = 500;
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+
+    public static class Replication {
+        private Duration maxLag = Duration.ofSeconds(5);
+        private Duration heartbeatInterval = Duration.ofSeconds(1);
+
+        public Duration getMaxLag() {
+            return maxLag;
+        }
+
+        public void setMaxLag(Duration maxLag) {
+            this.maxLag = maxLag;
+        }
+
+        public Duration getHeartbeatInterval() {
+            return heartbeatInterval;
+        }
+
+        public void setHeartbeatInterval(Duration heartbeatInterval) {
+            this.heartbeatInterval = heartbeatInterval;
+        }
+    }
+
+    public static class Sharding {
+        private boolean enabled;
+        private int virtualNodes = 128;
+        private String home;
+        private boolean directory;
+        private int scatterThreads = 8;
+        private final Map<String, Shard> shards = new TreeMap<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getVirtualNodes() {
+            return virtualNodes;
+        }
+
+        public void setVirtualNodes(int virtualNodes) {
+            this.virtualNodes = virtualNodes;
+        }
+
+        public String getHome() {
+            return home;
+        }
+
+        public void setHome(String home) {
+            this.home = home;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(boolean directory) {
+            this.directory = directory;
+        }
+
+        public int getScatterThreads() {
+            return scatterThreads;
+        }
+
+        public void setScatterThreads(int scatterThreads) {
+            this.scatterThreads = scatterThreads;
+        }
+
+        public Map<String, Shard> getShards() {
+            return shards;
+        }
+
+        /**
+         * The shard that holds the uniqueness directory and takes connections made outside any shard:
+         * {@code home} when set, otherwise the first shard by name.
+         */
+        public String resolveHome() {
+            if (home != null) return home;
+            return shards.isEmpty() ? null : shards.keySet().iterator().next();
+        }
+    }
+
+    public static class Shard {
+        private String jdbcUrl;
+        private String username;
+        private String password;
+        private int maximumPoolSize = 10;
+
+        public String getJdbcUrl() {
+            return jdbcUrl;
+        }
+
+        public void setJdbcUrl(String jdbcUrl) {
+            this.jdbcUrl = jdbcUrl;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+
+        public int getMaximumPoolSize() {
+            return maximumPoolSize;
+        }
+
+        public void setMaximumPoolSize(int maximumPoolSize) {
+            this.maximumPoolSize = maximumPoolSize;
+        }
+    }
+
+    public static class Outbox {
+        // where the relay publishes changes: none, memory, or file (users.outbox.file, one JSON change per line)
+        private String sink = "none";
+        private String file;
+        private Duration relayInterval = Duration.ofSeconds(1);
+        private int batchSize = 500;
+        // younger changes are held back: ids are taken at INSERT, so a transaction may commit after a higher id
+        private Duration settleDelay = Duration.ofSeconds(2);
+        private Duration retention = Duration.ofDays(7);
+        private Duration purgeInterval = Duration.ofHours(1);
+        private int pageLimit = 100;
+        private int maxPageLimit = 1000;
+
+        public String getSink() {
+            return sink;
+        }
+
+        public void setSink(String sink) {
+            this.sink = sink;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public Duration getRelayInterval() {
+            return relayInterval;
+        }
+
+        public void setRelayInterval(Duration relayInterval) {
+            this.relayInterval = relayInterval;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public Duration getSettleDelay() {
+            return settleDelay;
+        }
+
+        public void setSettleDelay(Duration settleDelay) {
+            this.settleDelay = settleDelay;
+        }
+
+        public Duration getRetention() {
+            return retention;
+        }
+
+        public void setRetention(Duration retention) {
+            this.retention = retention;
+        }
+
+        public Duration getPurgeInterval() {
+            return purgeInterval;
+        }
+
+        public void setPurgeInterval(Duration purgeInterval) {
+            this.purgeInterval = purgeInterval;
+        }
+
+        public int getPageLimit() {
+            return pageLimit;
+        }
+
+        public void setPageLimit(int pageLimit) {
+            this.pageLimit = pageLimit;
+        }
+
+        public int getMaxPageLimit() {
+            return maxPageLimit;
+        }
+
+        public void setMaxPageLimit(int maxPageLimit) {
+            this.maxPageLimit = maxPageLimit;
+        }
+    }
+
+    public static class Invalidation {
+        // off for a single pod, whose writes already update its own caches
+        private boolean enabled;
+        private Duration pollInterval = Duration.ofMillis(500);
+        private int batchSize = 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getPollInterval() {
+            return pollInterval;
+        }
+
+        public void setPollInterval(Duration pollInterval) {
+            this.pollInterval = pollInterval;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+}
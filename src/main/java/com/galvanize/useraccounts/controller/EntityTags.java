@@ -0,0 +1,77 @@
+package com.galvanize.useraccounts.controller;
+
+import com.galvanize.useraccounts.exception.PreconditionFailedException;
+import com.galvanize.useraccounts.model.User;
+import com.galvanize.useraccounts.model.UserCondensed;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Strong ETags for user resources, computable without serializing the body.
+ */
+final class EntityTags {
+
+    private EntityTags() {
+    }
+
+    // a user's tag is its version, which every write to the user or to one of its addresses increments
+    static String of(Long guid, Long version) {
+        return "\"" + Long.toHexString(guid) + "-" + Long.toHexString(version == null ? 0 : version) + "\"";
+    }
+
+    static String of(User user) {
+        return of(user.getGuid(), user.getVersion());
+    }
+
+    /**
+     * The versions an If-Match header makes a write conditional on, or null for an unconditional write (no header or
+     * "*"). The header may list several tags and the write goes ahead when any of them matches. Weak tags never match
+     * a strong comparison and tags that are not this user's never match at all, so a header left with none of this
+     * user's strong tags fails the precondition right away.
+     */
+    static Set<Long> expectedVersions(Long guid, String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) return null;
+
+        String prefix = "\"" + Long.toHexString(guid) + "-";
+        Set<Long> versions = new HashSet<>();
+        for (String tag : split(ifMatch)) {
+            if (!tag.startsWith(prefix) || !tag.endsWith("\"") || tag.length() <= prefix.length() + 1) continue;
+            try {
+                versions.add(Long.parseUnsignedLong(tag.substring(prefix.length(), tag.length() - 1), 16));
+            } catch (NumberFormatException e) {
+                // not one of ours either
+            }
+        }
+        if (versions.isEmpty()) throw new PreconditionFailedException();
+        return versions;
+    }
+
+    // an opaque tag may itself contain commas, so only those outside the quotes separate tags
+    private static List<String> split(String header) {
+        List<String> tags = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < header.length(); i++) {
+            char c = header.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                tags.add(header.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        tags.add(header.substring(start).trim());
+        return tags;
+    }
+
+    // condensed users come from the cache without updatedAt, so their tag is a digest of the four fields
+    static String of(UserCondensed user) {
+        String fields = user.getGuid() + "\u0000" + user.getUsername() + "\u0000" + user.getAvatar() + "\u0000" + user.getEmail();
+        return "\"" + DigestUtils.md5DigestAsHex(fields.getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+}
@@ -2,9 +2,14 @@ package com.galvanize.useraccounts.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.galvanize.useraccounts.exception.AddressNotFoundException;
+import com.galvanize.useraccounts.exception.BatchTooLargeException;
 import com.galvanize.useraccounts.exception.DuplicateEmailException;
 import com.galvanize.useraccounts.exception.DuplicateUserException;
+import com.galvanize.useraccounts.exception.InvalidCursorException;
+import com.galvanize.useraccounts.exception.PreconditionFailedException;
+import com.galvanize.useraccounts.exception.UserForbiddenException;
 import com.galvanize.useraccounts.exception.UserNotFoundException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -21,7 +26,11 @@ public class ExceptionHandlerAdvice {
         ADDRESS_NOT_FOUND("Address not found"),
         DUPLICATE_USER("Username already taken, please choose a different username"),
         USER_NOT_FOUND("Username not found"),
-        DUPLICATE_EMAIL("Email already taken, please choose a different email");
+        DUPLICATE_EMAIL("Email already taken, please choose a different email"),
+        INVALID_CURSOR("Invalid next cursor, please restart the search"),
+        BATCH_TOO_LARGE("Too many guids in one batch, please split the request"),
+        PRECONDITION_FAILED("User was changed by someone else, please reload it and try again"),
+        FORBIDDEN("You can only create the account of your own guid");
 
         public final String label;
 
@@ -84,6 +93,26 @@ public class ExceptionHandlerAdvice {
 
     }
 
+    @ExceptionHandler(InvalidCursorException.class)
+    public ResponseEntity<JsonResponse> handleInvalidCursorException(InvalidCursorException e) {
+        return new ResponseEntity<>(new JsonResponse(ErrorMessage.INVALID_CURSOR.toString()), HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(BatchTooLargeException.class)
+    public ResponseEntity<JsonResponse> handleBatchTooLargeException(BatchTooLargeException e) {
+        return new ResponseEntity<>(new JsonResponse(ErrorMessage.BATCH_TOO_LARGE.toString()), HttpStatus.BAD_REQUEST);
+    }
+
+    // If-Match named an older version, or a concurrent write committed between our read and our UPDATE
+    @ExceptionHandler({PreconditionFailedException.class, OptimisticLockingFailureException.class})
+    public ResponseEntity<JsonResponse> handlePreconditionFailedException(RuntimeException e) {
+        return new ResponseEntity<>(new JsonResponse(ErrorMessage.PRECONDITION_FAILED.toString()), HttpStatus.PRECONDITION_FAILED);
+    }
+
+    @ExceptionHandler(UserForbiddenException.class)
+    public ResponseEntity<JsonResponse> handleUserForbiddenException(UserForbiddenException e) {
+        return new ResponseEntity<>(new JsonResponse(ErrorMessage.FORBIDDEN.toString()), HttpStatus.FORBIDDEN);
+    }
 
     @ExceptionHandler(MethodArgumentNotValidException.class)
     public ResponseEntity<JsonResponse> handleInvalidAddressException(MethodArgumentNotValidException e) {
@@ -1,57 +1,94 @@
 package com.galvanize.useraccounts.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.galvanize.useraccounts.UsersList;
 import com.galvanize.useraccounts.exception.*;
 import com.galvanize.useraccounts.model.Address;
+import com.galvanize.useraccounts.model.Availability;
+import com.galvanize.useraccounts.model.BulkImportResult;
 import com.galvanize.useraccounts.model.UserCondensed;
+import com.galvanize.useraccounts.model.UserChanges;
+import com.galvanize.useraccounts.model.UserCondensedBatch;
 import com.galvanize.useraccounts.request.UserAvatarRequest;
+import com.galvanize.useraccounts.request.UserCondensedBatchRequest;
 import com.galvanize.useraccounts.security.JwtUser;
 import com.galvanize.useraccounts.service.AddressesService;
+import com.galvanize.useraccounts.service.BulkImportService;
+import com.galvanize.useraccounts.service.UserChangesService;
 import com.galvanize.useraccounts.service.UsersService;
 import com.galvanize.useraccounts.model.User;
 import com.galvanize.useraccounts.request.UserPasswordRequest;
 import com.galvanize.useraccounts.request.UserRequest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 @CrossOrigin
 @RestController
 @RequestMapping("/api")
 public class UsersController {
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    static final String ADDRESS_VIEW = "address";
+
     UsersService usersService;
     AddressesService addressesService;
+    BulkImportService bulkImportService;
+    UserChangesService changesService;
+    ObjectWriter userWriter;
 
-    public UsersController(UsersService usersService, AddressesService addressesService) {
+    public UsersController(UsersService usersService, AddressesService addressesService, BulkImportService bulkImportService,
+                           UserChangesService changesService, ObjectMapper objectMapper) {
         this.usersService = usersService;
         this.addressesService = addressesService;
+        this.bulkImportService = bulkImportService;
+        this.changesService = changesService;
+        // one user per line; the servlet buffer decides when to flush, and the stream stays open between users
+        this.userWriter = objectMapper.writerFor(User.class)
+                .without(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
     }
 
     @PreAuthorize("hasAuthority('ROLE_USER')")
     @PostMapping("/users")
     public User createUser(@Valid @RequestBody User user, @AuthenticationPrincipal JwtUser jwtUser) throws InvalidUserException, DuplicateUserException, InvalidAddressException {
-        // check whether guid already exists
-        Long jwtGuid = jwtUser.getGuid();
-        User foundUser = usersService.getUser(jwtGuid);
-        if (foundUser == null) {
-            return usersService.createUser(user);
-        } else {
-            throw new DuplicateUserException();
-        }
+        // a token may only create the account of its own guid
+        if (!jwtUser.getGuid().equals(user.getGuid())) throw new UserForbiddenException();
+
+        // creating it a second time, or with a taken username or email, is reported by the INSERT itself
+        return usersService.createUser(user);
+    }
+
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    @PostMapping(value = "/users:bulk", consumes = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<BulkImportResult> importUsers(InputStream body) throws IOException {
+        // read straight from the request so the import never holds the whole file in memory
+        return ResponseEntity.ok(bulkImportService.importUsers(body));
     }
 
     @PreAuthorize("hasAuthority('ROLE_USER')")
     @PatchMapping("/users/{guid}")
-    public ResponseEntity<User> update(@PathVariable Long guid, @RequestBody UserRequest updatedUser, @AuthenticationPrincipal JwtUser jwtUser) throws InvalidUserException, DuplicateEmailException {
+    public ResponseEntity<User> update(@PathVariable Long guid, @RequestBody UserRequest updatedUser,
+                                       @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                       @AuthenticationPrincipal JwtUser jwtUser) throws InvalidUserException, DuplicateEmailException {
         // get guid from token
         Long jwtGuid = jwtUser.getGuid();
         Optional<User> oFoundUser;
@@ -60,12 +97,13 @@ public class UsersController {
         User updatedUserReturned = null;
         // compare jwt user with user's guid
         if (jwtGuid.equals(guid)) {
-            oFoundUser = usersService.searchByEmail(updatedUser.getEmail());
+            // a PATCH without an email keeps the current one, nothing to check
+            oFoundUser = updatedUser.getEmail() == null ? Optional.empty() : usersService.searchByEmail(updatedUser.getEmail());
 
             if (oFoundUser.isPresent() && !jwtUser.getUsername().equals(oFoundUser.get().getUsername())) {
                 throw new DuplicateEmailException();
             } else {
-                updatedUserReturned = usersService.updateUser(guid, updatedUser);
+                updatedUserReturned = usersService.updateUser(guid, updatedUser, EntityTags.expectedVersions(guid, ifMatch));
             }
 
         } else {
@@ -73,16 +111,19 @@ public class UsersController {
             throw new UserNotFoundException();
         }
 
-        return updatedUserReturned == null ? ResponseEntity.noContent().build() : ResponseEntity.ok(updatedUserReturned);
+        // the new tag lets the client make its next write conditional without reading the user again
+        return updatedUserReturned == null ? ResponseEntity.noContent().build()
+                : ResponseEntity.ok().eTag(EntityTags.of(updatedUserReturned)).body(updatedUserReturned);
     }
 
     @PreAuthorize("hasAuthority('ROLE_USER')")
     @DeleteMapping("/users/{guid}")
-    public ResponseEntity deleteUser(@PathVariable Long guid, @AuthenticationPrincipal JwtUser jwtUser) {
+    public ResponseEntity deleteUser(@PathVariable Long guid, @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                     @AuthenticationPrincipal JwtUser jwtUser) {
         Long jwtGuid = jwtUser.getGuid();
 
         if (jwtGuid.equals(guid) && usersService.getUser(jwtGuid) != null) {
-            usersService.deleteUser(guid);
+            usersService.deleteUser(guid, EntityTags.expectedVersions(guid, ifMatch));
         } else {
             return ResponseEntity.noContent().build();
         }
@@ -92,19 +133,26 @@ public class UsersController {
 
     @PreAuthorize("hasAuthority('ROLE_USER')")
     @GetMapping("/users/{guid}")
-    public ResponseEntity<User> getUser(@PathVariable Long guid, @AuthenticationPrincipal JwtUser jwtUser) {
+    public ResponseEntity<User> getUser(@PathVariable Long guid, @AuthenticationPrincipal JwtUser jwtUser, WebRequest request) {
         Long jwtGuid = jwtUser.getGuid();
 
         User user = null;
 
         if (jwtGuid.equals(guid)) {
+            // revalidation reads only the version; the user and its addresses are loaded only when they changed
+            if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+                Long version = usersService.getUserVersion(guid);
+                String tag = version == null ? null : EntityTags.of(guid, version);
+                if (tag != null && request.checkNotModified(tag)) return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tag).build();
+            }
+
             user = usersService.getUser(guid);
             if (user == null) return ResponseEntity.noContent().build();
         } else {
             return ResponseEntity.noContent().build();
         }
 
-        return ResponseEntity.ok(user);
+        return ResponseEntity.ok().eTag(EntityTags.of(user)).body(user);
     }
 
     /*Addresses*/
@@ -120,26 +168,38 @@ public class UsersController {
 
     @PreAuthorize("hasAuthority('ROLE_USER')")
     @PatchMapping("/users/{guid}/addresses/{addressId}")
-    public ResponseEntity<User> updateAddress(@PathVariable Long guid, @PathVariable Long addressId, @Valid @RequestBody Address address,
-                                              @AuthenticationPrincipal JwtUser jwtUser) throws UserNotFoundException, InvalidAddressException, AddressNotFoundException {
+    public ResponseEntity<?> updateAddress(@PathVariable Long guid, @PathVariable Long addressId, @Valid @RequestBody Address address,
+                                           @RequestParam(required = false, defaultValue = "user") String view,
+                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                           @AuthenticationPrincipal JwtUser jwtUser) throws UserNotFoundException, InvalidAddressException, AddressNotFoundException {
         Long jwtGuid = jwtUser.getGuid();
 
-        User updatedUser = null;
+        if (!jwtGuid.equals(guid)) throw new UserNotFoundException();
+
+        // addresses are versioned through their user: If-Match carries the user's tag
+        Set<Long> expectedVersions = EntityTags.expectedVersions(guid, ifMatch);
 
-        if (jwtGuid.equals(guid)) updatedUser = usersService.updateAddress(guid, addressId, address);
+        // view=address answers with the one changed row instead of the whole user
+        if (ADDRESS_VIEW.equals(view)) return ResponseEntity.ok(usersService.updateAddressOnly(guid, addressId, address, expectedVersions));
+
+        User updatedUser = usersService.updateAddress(guid, addressId, address, expectedVersions);
 
         if (updatedUser == null) throw new UserNotFoundException();
-        else return ResponseEntity.ok(updatedUser);
+        else return ResponseEntity.ok().eTag(EntityTags.of(updatedUser)).body(updatedUser);
     }
 
     @PreAuthorize("hasAuthority('ROLE_USER')")
     @DeleteMapping("/users/{guid}/addresses/{addressId}")
-    public ResponseEntity deleteAddress(@PathVariable Long guid, @PathVariable Long addressId, @AuthenticationPrincipal JwtUser jwtUser) {
+    public ResponseEntity deleteAddress(@PathVariable Long guid, @PathVariable Long addressId,
+                                        @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                        @AuthenticationPrincipal JwtUser jwtUser) {
         Long jwtGuid = jwtUser.getGuid();
 
-        if (jwtGuid.equals(guid) && usersService.getUser(jwtGuid) != null) {
-            usersService.deleteAddress(guid, addressId);
-        } else {
+        if (!jwtGuid.equals(guid)) return ResponseEntity.noContent().build();
+
+        try {
+            usersService.deleteAddress(guid, addressId, EntityTags.expectedVersions(guid, ifMatch));
+        } catch (UserNotFoundException e) {
             return ResponseEntity.noContent().build();
         }
 
@@ -148,19 +208,75 @@ public class UsersController {
 
     @PreAuthorize("hasAuthority('ROLE_USER')")
     @GetMapping("/users")
-    public ResponseEntity<UsersList> searchUsers(@RequestParam(required = false) String username) {
-        UsersList users = usersService.searchUsers(username);
+    public ResponseEntity<UsersList> searchUsers(@RequestParam(required = false) String username,
+                                                 @RequestParam(required = false) Integer limit,
+                                                 @RequestParam(required = false) String next) {
+        UsersList users = usersService.searchUsers(username, limit, next);
 
         return users == null || users.isEmpty() ? ResponseEntity.noContent().build() : ResponseEntity.ok(users);
     }
 
+    @PreAuthorize("hasAuthority('ROLE_USER')")
+    @GetMapping(value = "/users", produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamUsers(@RequestParam(required = false) String username) {
+        StreamingResponseBody body = out -> {
+            boolean[] first = {true};
+
+            usersService.streamUsers(username, user -> {
+                try {
+                    userWriter.writeValue(out, user);
+                    out.write('\n');
+                    // push the first line out immediately so time-to-first-byte does not wait for a full buffer
+                    if (first[0]) {
+                        out.flush();
+                        first[0] = false;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE)).body(body);
+    }
+
+    @GetMapping("/users/availability")
+    public ResponseEntity<Availability> checkAvailability(@RequestParam(required = false) String username,
+                                                          @RequestParam(required = false) String email) {
+        return ResponseEntity.ok(usersService.checkAvailability(username, email));
+    }
+
+    @PreAuthorize("hasAuthority('ROLE_USER')")
+    @GetMapping("/users/typeahead")
+    public ResponseEntity<List<UserCondensed>> typeahead(@RequestParam String prefix, @RequestParam(required = false) Integer limit) {
+        List<UserCondensed> users = usersService.typeahead(prefix, limit);
+
+        return users.isEmpty() ? ResponseEntity.noContent().build() : ResponseEntity.ok(users);
+    }
+
     @GetMapping("/users/{guid}/condensed")
-    public ResponseEntity<UserCondensed> getUserCondensed(@PathVariable Long guid) {
+    public ResponseEntity<UserCondensed> getUserCondensed(@PathVariable Long guid, WebRequest request) {
         UserCondensed userCondensed;
         userCondensed = usersService.getUserCondensed(guid);
 
         if (userCondensed == null) throw new UserNotFoundException();
-        else return ResponseEntity.ok(userCondensed);
+
+        String tag = EntityTags.of(userCondensed);
+        if (request.checkNotModified(tag)) return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tag).build();
+        else return ResponseEntity.ok().eTag(tag).body(userCondensed);
+    }
+
+    @PreAuthorize("hasAuthority('ROLE_USER')")
+    @GetMapping("/users/changes")
+    public ResponseEntity<UserChanges> getChanges(@RequestParam(required = false) String since,
+                                                  @RequestParam(required = false) Integer limit) {
+        // always 200 with the cursor to poll from next, even when nothing changed
+        return ResponseEntity.ok(changesService.getChanges(since, limit));
+    }
+
+    @PostMapping("/users/condensed:batch")
+    public ResponseEntity<UserCondensedBatch> getUsersCondensed(@Valid @RequestBody UserCondensedBatchRequest request) {
+        return ResponseEntity.ok(usersService.getUsersCondensed(request.getGuids()));
     }
 
 }
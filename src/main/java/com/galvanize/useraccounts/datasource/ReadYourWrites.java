@@ -0,0 +1,51 @@
+package com.galvanize.useraccounts.datasource;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.event.UserChangedEvent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Remembers which guids were written recently, so reads of them can go to the primary until the replicas
+ * have caught up.
+ * <p>
+ * The window is {@code users.replication.max-lag} plus one heartbeat: replicas further behind than max-lag
+ * are not read at all, and the lag is only measured once per heartbeat.
+ */
+@Component
+public class ReadYourWrites {
+    private final Cache<Long, Boolean> written;
+
+    @Autowired
+    public ReadYourWrites(UsersProperties usersProperties) {
+        this(usersProperties, Ticker.systemTicker());
+    }
+
+    ReadYourWrites(UsersProperties usersProperties, Ticker ticker) {
+        UsersProperties.Replication replication = usersProperties.getReplication();
+        Duration window = replication.getMaxLag().plus(replication.getHeartbeatInterval());
+        this.written = Caffeine.newBuilder()
+                .expireAfterWrite(window)
+                .ticker(ticker)
+                .build();
+    }
+
+    public void wrote(Long guid) {
+        if (guid != null) written.put(guid, Boolean.TRUE);
+    }
+
+    public boolean recentlyWrote(Long guid) {
+        return guid != null && written.getIfPresent(guid) != null;
+    }
+
+    @EventListener
+    public void onUserChanged(UserChangedEvent event) {
+        wrote(event.getGuid());
+    }
+}
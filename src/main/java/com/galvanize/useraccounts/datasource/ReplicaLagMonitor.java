@@ -0,0 +1,86 @@
+package com.galvanize.useraccounts.datasource;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures replica lag with a heartbeat row: the current time is written to the primary, read back from the
+ * replica, and the difference is how far the replica is behind. Replication carries the row over like any
+ * other, so this works without access to the replica's own status.
+ */
+public class ReplicaLagMonitor implements MeterBinder {
+    static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS replica_heartbeat (id INT NOT NULL PRIMARY KEY, beat BIGINT NOT NULL)";
+    static final String UPDATE_BEAT = "UPDATE replica_heartbeat SET beat = ? WHERE id = 1";
+    static final String INSERT_BEAT = "INSERT INTO replica_heartbeat (id, beat) VALUES (1, ?)";
+    static final String SELECT_BEAT = "SELECT beat FROM replica_heartbeat WHERE id = 1";
+
+    private final JdbcTemplate primary;
+    private final JdbcTemplate replica;
+    private final long maxLagMillis;
+    private final LongAdder failures = new LongAdder();
+    private volatile boolean tableCreated;
+    // NaN until the first heartbeat has been read back, and again whenever one fails
+    private volatile double lagMillis = Double.NaN;
+
+    public ReplicaLagMonitor(DataSource primary, DataSource replica, UsersProperties usersProperties) {
+        this.primary = new JdbcTemplate(primary);
+        this.replica = new JdbcTemplate(replica);
+        this.maxLagMillis = usersProperties.getReplication().getMaxLag().toMillis();
+    }
+
+    @Scheduled(fixedDelayString = "#{@usersProperties.replication.heartbeatInterval.toMillis()}")
+    public void beat() {
+        long now = System.currentTimeMillis();
+        try {
+            if (!tableCreated) {
+                primary.execute(CREATE_TABLE);
+                tableCreated = true;
+            }
+            if (primary.update(UPDATE_BEAT, now) == 0) primary.update(INSERT_BEAT, now);
+
+            List<Long> seen = replica.queryForList(SELECT_BEAT, Long.class);
+            lagMillis = seen.isEmpty() ? Double.NaN : Math.max(0, System.currentTimeMillis() - seen.get(0));
+        } catch (DataAccessException e) {
+            failures.increment();
+            lagMillis = Double.NaN;
+        }
+    }
+
+    public double lagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * Whether reads may go to the replica: only once its lag has been measured and is within
+     * {@code users.replication.max-lag}. An unreachable replica fails the heartbeat and so stops being read.
+     */
+    public boolean isReplicaUsable() {
+        double lag = lagMillis;
+        return !Double.isNaN(lag) && lag <= maxLagMillis;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        TimeGauge.builder("users.replica.lag", this, TimeUnit.MILLISECONDS, ReplicaLagMonitor::lagMillis)
+                .description("How far the replica is behind the primary, as of the last heartbeat")
+                .register(registry);
+        Gauge.builder("users.replica.usable", this, monitor -> monitor.isReplicaUsable() ? 1 : 0)
+                .description("1 while read-only transactions are routed to the replica, 0 while they fall back to the primary")
+                .register(registry);
+        FunctionCounter.builder("users.replica.heartbeat.failures", failures, LongAdder::sum)
+                .description("Heartbeats that could not be written to the primary or read from the replica")
+                .register(registry);
+    }
+}
@@ -0,0 +1,84 @@
+package com.galvanize.useraccounts.datasource;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Hands out replica connections to read-only transactions and primary connections to everything else.
+ * <p>
+ * The read-only flag is only known once the transaction has started, so this must sit behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}. Reads fall back to the primary
+ * while the thread is pinned with {@link #onPrimary(Supplier)} or the replica is too far behind.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements MeterBinder {
+    enum Target {PRIMARY, REPLICA}
+
+    private static final ThreadLocal<Boolean> PINNED = ThreadLocal.withInitial(() -> false);
+
+    private final BooleanSupplier replicaUsable;
+    private final LongAdder primaryRoutes = new LongAdder();
+    private final LongAdder replicaRoutes = new LongAdder();
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, BooleanSupplier replicaUsable) {
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(Target.PRIMARY, primary);
+        targets.put(Target.REPLICA, replica);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        this.replicaUsable = replicaUsable;
+    }
+
+    /**
+     * Runs {@code work} with every connection it takes coming from the primary, even inside a read-only transaction.
+     */
+    public static <T> T onPrimary(Supplier<T> work) {
+        boolean pinned = PINNED.get();
+        PINNED.set(true);
+        try {
+            return work.get();
+        } finally {
+            PINNED.set(pinned);
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        boolean replica = TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                && !PINNED.get()
+                && replicaUsable.getAsBoolean();
+
+        (replica ? replicaRoutes : primaryRoutes).increment();
+        return replica ? Target.REPLICA : Target.PRIMARY;
+    }
+
+    public long primaryRoutes() {
+        return primaryRoutes.sum();
+    }
+
+    public long replicaRoutes() {
+        return replicaRoutes.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bind(registry, "primary", primaryRoutes);
+        bind(registry, "replica", replicaRoutes);
+    }
+
+    private static void bind(MeterRegistry registry, String target, LongAdder routes) {
+        FunctionCounter.builder("users.datasource.connections", routes, LongAdder::sum)
+                .description("Connections handed out by the routing data source")
+                .tag("target", target)
+                .register(registry);
+    }
+}
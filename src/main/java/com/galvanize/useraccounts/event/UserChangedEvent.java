@@ -0,0 +1,97 @@
+package com.galvanize.useraccounts.event;
+
+import com.galvanize.useraccounts.model.User;
+import com.galvanize.useraccounts.model.UserCondensed;
+
+public class UserChangedEvent {
+    public enum Type {
+        CREATED,
+        UPDATED,
+        DELETED
+    }
+
+    private final Type type;
+    private final Long guid;
+    private final String username;
+    private final String avatar;
+    private final String email;
+    // what an update replaced; both null when not known, e.g. for changes made on another pod
+    private final String previousUsername;
+    private final String previousEmail;
+
+    public UserChangedEvent(Type type, Long guid, String username, String avatar, String email) {
+        this(type, guid, username, avatar, email, null, null);
+    }
+
+    public UserChangedEvent(Type type, Long guid, String username, String avatar, String email,
+                            String previousUsername, String previousEmail) {
+        this.type = type;
+        this.guid = guid;
+        this.username = username;
+        this.avatar = avatar;
+        this.email = email;
+        this.previousUsername = previousUsername;
+        this.previousEmail = previousEmail;
+    }
+
+    public static UserChangedEvent of(Type type, User user) {
+        return new UserChangedEvent(type, user.getGuid(), user.getUsername(), user.getAvatar(), user.getEmail());
+    }
+
+    /**
+     * An update of {@code user}, whose username and email were {@code previousUsername} and {@code previousEmail}.
+     */
+    public static UserChangedEvent updated(User user, String previousUsername, String previousEmail) {
+        return new UserChangedEvent(Type.UPDATED, user.getGuid(), user.getUsername(), user.getAvatar(), user.getEmail(),
+                previousUsername, previousEmail);
+    }
+
+    public UserCondensed toCondensed() {
+        return new UserCondensed(guid, username, avatar, email);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public boolean isDeleted() {
+        return type == Type.DELETED;
+    }
+
+    public Long getGuid() {
+        return guid;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getAvatar() {
+        return avatar;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getPreviousUsername() {
+        return previousUsername;
+    }
+
+    public String getPreviousEmail() {
+        return previousEmail;
+    }
+
+    public boolean isPreviousKnown() {
+        return previousUsername != null || previousEmail != null;
+    }
+
+    @Override
+    public String toString() {
+        return "UserChangedEvent{" +
+                "type=" + type +
+                ", guid=" + guid +
+                ", username='" + username + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,63 @@
+package com.galvanize.useraccounts.event;
+
+import com.galvanize.useraccounts.model.User;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+/**
+ * Publishes a {@link UserChangedEvent} whenever Hibernate writes a user row, so in-memory
+ * structures stay in sync no matter which code path (service or repository) made the change.
+ * Hibernate obtains this listener through Spring's bean container, which is how the publisher gets injected.
+ * <p>
+ * The callbacks run at flush time, before the transaction has committed, so the event captures the row as
+ * written but is only published once the transaction commits; a rollback publishes nothing. Updates carry the
+ * username and email the row had when it was loaded, so listeners can tell whether either changed.
+ */
+public class UserEntityListener {
+    private final ApplicationEventPublisher publisher;
+
+    public UserEntityListener(ApplicationEventPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    @PostLoad
+    public void loaded(User user) {
+        user.markStored();
+    }
+
+    @PostPersist
+    public void created(User user) {
+        publishAfterCommit(UserChangedEvent.of(UserChangedEvent.Type.CREATED, user));
+        user.markStored();
+    }
+
+    @PostUpdate
+    public void updated(User user) {
+        publishAfterCommit(UserChangedEvent.updated(user, user.getStoredUsername(), user.getStoredEmail()));
+        user.markStored();
+    }
+
+    @PostRemove
+    public void deleted(User user) {
+        publishAfterCommit(UserChangedEvent.of(UserChangedEvent.Type.DELETED, user));
+    }
+
+    private void publishAfterCommit(UserChangedEvent event) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publisher.publishEvent(event);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                publisher.publishEvent(event);
+            }
+        });
+    }
+}
@@ -0,0 +1,4 @@
+package com.galvanize.useraccounts.exception;
+
+public class PreconditionFailedException extends RuntimeException {
+}
@@ -0,0 +1,91 @@
+package com.galvanize.useraccounts.invalidation;
+
+import com.galvanize.useraccounts.event.UserChangedEvent;
+import com.galvanize.useraccounts.model.UserChange;
+import com.galvanize.useraccounts.model.UserCondensed;
+import com.galvanize.useraccounts.repository.UserChangesRepository;
+import com.galvanize.useraccounts.repository.UsersRepository;
+import com.galvanize.useraccounts.shard.Shards;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Replays the changes other pods made as local {@link UserChangedEvent}s, so the condensed cache, the username
+ * indexes and the availability filter on this pod follow writes made anywhere. Changed users are read back from
+ * the primary in one query per batch; a delete carries no username or email, so the availability filter keeps
+ * those as a false positive until its next rebuild. This pod's own writes come back too and are skipped, since
+ * they were applied when they committed. A user whose only change in the batch is its creation is replayed as
+ * created, anything else as an update without the previous values.
+ */
+@Component
+@ConditionalOnProperty(prefix = "users.invalidation", name = "enabled", havingValue = "true")
+public class ClusterInvalidationListener {
+    private final UsersRepository usersRepository;
+    private final UserChangesRepository userChangesRepository;
+    private final Shards shards;
+    private final ApplicationEventPublisher publisher;
+    private final TransactionTemplate transactionTemplate;
+
+    public ClusterInvalidationListener(InvalidationBus bus, UsersRepository usersRepository,
+                                       UserChangesRepository userChangesRepository, Shards shards,
+                                       ApplicationEventPublisher publisher, PlatformTransactionManager transactionManager) {
+        this.usersRepository = usersRepository;
+        this.userChangesRepository = userChangesRepository;
+        this.shards = shards;
+        this.publisher = publisher;
+        // read-write, so the users are read from the primary and not from a replica that may not have them yet
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        bus.subscribe(this::onChanges);
+    }
+
+    void onChanges(List<UserChange> changes) {
+        String origin = userChangesRepository.origin();
+        Set<Long> changed = new LinkedHashSet<>();
+        Set<Long> created = new HashSet<>();
+        Set<Long> deleted = new LinkedHashSet<>();
+        for (UserChange change : changes) {
+            if (origin != null && origin.equals(change.getOrigin())) continue;
+
+            switch (change.getType()) {
+                case CREATED:
+                    if (!changed.contains(change.getGuid())) created.add(change.getGuid());
+                    changed.add(change.getGuid());
+                    deleted.remove(change.getGuid());
+                    break;
+                case UPDATED:
+                    created.remove(change.getGuid());
+                    changed.add(change.getGuid());
+                    deleted.remove(change.getGuid());
+                    break;
+                case DELETED:
+                    deleted.add(change.getGuid());
+                    changed.remove(change.getGuid());
+                    created.remove(change.getGuid());
+                    break;
+                default:
+                    // addresses are not held in memory
+            }
+        }
+
+        if (!changed.isEmpty()) {
+            List<UserCondensed> users = transactionTemplate.execute(status -> shards.gather(changed, usersRepository::findCondensedByGuidIn));
+            for (UserCondensed user : users) {
+                changed.remove(user.getGuid());
+                UserChangedEvent.Type type = created.contains(user.getGuid()) ? UserChangedEvent.Type.CREATED : UserChangedEvent.Type.UPDATED;
+                publisher.publishEvent(new UserChangedEvent(type, user.getGuid(), user.getUsername(),
+                        user.getAvatar(), user.getEmail()));
+            }
+            // gone again by the time they were read
+            deleted.addAll(changed);
+        }
+        deleted.forEach(guid -> publisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.DELETED, guid, null, null, null)));
+    }
+}
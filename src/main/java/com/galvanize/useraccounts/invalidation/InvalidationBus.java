@@ -0,0 +1,14 @@
+package com.galvanize.useraccounts.invalidation;
+
+import com.galvanize.useraccounts.model.UserChange;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Delivers the user changes committed by any pod of the cluster, so every pod can drop what it holds in memory
+ * about those users. Delivery is at-least-once and a batch may repeat a change, so listeners must be idempotent.
+ */
+public interface InvalidationBus {
+    void subscribe(Consumer<List<UserChange>> listener);
+}
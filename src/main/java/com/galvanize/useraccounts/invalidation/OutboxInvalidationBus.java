@@ -0,0 +1,161 @@
+package com.galvanize.useraccounts.invalidation;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.model.UserChange;
+import com.galvanize.useraccounts.repository.UserChangesRepository;
+import com.galvanize.useraccounts.shard.Shards;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * An {@link InvalidationBus} that polls the change outbox of every database every
+ * {@code users.invalidation.poll-interval}. Writes already record their changes there in their own transaction,
+ * so broadcasting costs nothing extra and a change is delivered exactly when it is committed.
+ * <p>
+ * Ids are taken at INSERT, so a lower id can become visible after a higher one. Changes are delivered as soon as
+ * they are seen, but the poll keeps re-reading from the last change older than {@code users.outbox.settle-delay}
+ * and only skips the ids it has already delivered, so a late commit is still picked up. A batch a listener fails
+ * on is not marked delivered, so it is delivered again, to every listener, on the next poll.
+ */
+@Component
+@ConditionalOnProperty(prefix = "users.invalidation", name = "enabled", havingValue = "true")
+public class OutboxInvalidationBus implements InvalidationBus, SmartInitializingSingleton, MeterBinder {
+    private static final Logger log = LoggerFactory.getLogger(OutboxInvalidationBus.class);
+
+    private final UsersProperties usersProperties;
+    private final UserChangesRepository changesRepository;
+    private final Shards shards;
+    private final List<Consumer<List<UserChange>>> listeners = new CopyOnWriteArrayList<>();
+    // only touched by the polling thread, and by startup before the first poll
+    private final Map<String, Tail> tails = new HashMap<>();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile Timer delay;
+
+    private static final class Tail {
+        // every change up to here is settled and was delivered
+        long settled;
+        // ids above settled that were delivered already
+        final TreeSet<Long> delivered = new TreeSet<>();
+
+        Tail(long settled) {
+            this.settled = settled;
+        }
+    }
+
+    public OutboxInvalidationBus(UsersProperties usersProperties, UserChangesRepository changesRepository, Shards shards) {
+        this.usersProperties = usersProperties;
+        this.changesRepository = changesRepository;
+        this.shards = shards;
+    }
+
+    @Override
+    public void subscribe(Consumer<List<UserChange>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Starts at the end of each outbox: whatever this pod holds in memory is loaded after that.
+     */
+    @Override
+    public synchronized void afterSingletonsInstantiated() {
+        for (String database : shards.databases()) {
+            tails.put(database, new Tail(shards.onShard(database, changesRepository::lastId)));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "#{@usersProperties.invalidation.pollInterval.toMillis()}")
+    public synchronized void poll() {
+        for (String database : shards.databases()) {
+            Tail tail = tails.computeIfAbsent(database, name -> new Tail(0));
+            Batch batch = read(database, tail);
+            if (!batch.fresh.isEmpty()) {
+                try {
+                    for (Consumer<List<UserChange>> listener : listeners) listener.accept(batch.fresh);
+                } catch (RuntimeException e) {
+                    // the tail stays where it was, so the whole batch is delivered again on the next poll
+                    failures.increment();
+                    log.warn("Could not apply {} changes from {}, retrying on the next poll", batch.fresh.size(), database, e);
+                    continue;
+                }
+
+                long now = System.currentTimeMillis();
+                Timer delay = this.delay;
+                if (delay != null) batch.fresh.forEach(change -> delay.record(Math.max(0, now - change.getOccurredAt().getTime()), TimeUnit.MILLISECONDS));
+                received.add(batch.fresh.size());
+                batch.fresh.forEach(change -> tail.delivered.add(change.getId()));
+            }
+
+            tail.settled = batch.settled;
+            tail.delivered.headSet(tail.settled, true).clear();
+        }
+    }
+
+    private static final class Batch {
+        final List<UserChange> fresh = new ArrayList<>();
+        long settled;
+    }
+
+    /**
+     * Reads what {@code tail} has not delivered yet, without moving it: that only happens once it was delivered.
+     */
+    private Batch read(String database, Tail tail) {
+        int batchSize = usersProperties.getInvalidation().getBatchSize();
+        // the database's clock, which occurred_at was taken from
+        Timestamp settledAt = shards.onShard(database, () -> changesRepository.ago(usersProperties.getOutbox().getSettleDelay()));
+        Batch batch = new Batch();
+        batch.settled = tail.settled;
+        boolean settling = true;
+        long from = tail.settled;
+        List<UserChange> page;
+        do {
+            long after = from;
+            page = shards.onShard(database, () -> changesRepository.findAfter(after, batchSize));
+            for (UserChange change : page) {
+                if (!tail.delivered.contains(change.getId())) batch.fresh.add(change);
+                // the position only moves over settled changes, so the unsettled ones are read again next time
+                settling = settling && !change.getOccurredAt().after(settledAt);
+                if (settling) batch.settled = change.getId();
+                from = change.getId();
+            }
+        } while (page.size() == batchSize);
+        return batch;
+    }
+
+    public long received() {
+        return received.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("users.invalidation.received", received, LongAdder::sum)
+                .description("Changes received from the cluster's outboxes")
+                .register(registry);
+        FunctionCounter.builder("users.invalidation.failures", failures, LongAdder::sum)
+                .description("Polls whose changes a listener could not apply; they are delivered again")
+                .register(registry);
+        delay = Timer.builder("users.invalidation.delay")
+                .description("Time from a change being written to this pod receiving it")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+    }
+}
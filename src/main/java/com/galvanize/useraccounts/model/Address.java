@@ -33,6 +33,11 @@ public class Address {
     private String apartment;
     private String label;
 
+    @Version
+    @JsonIgnore
+    @Column(columnDefinition = "bigint default 0 not null")
+    private Long version;
+
     public Address() {
     }
 
@@ -45,6 +50,14 @@ public class Address {
         this.label = label;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public Long getId() {
         return id;
     }
@@ -0,0 +1,35 @@
+package com.galvanize.useraccounts.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Whether the requested username and email are free; a field is absent when it was not asked about.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Availability {
+    private Boolean username;
+    private Boolean email;
+
+    public Availability() {}
+
+    public Availability(Boolean username, Boolean email) {
+        this.username = username;
+        this.email = email;
+    }
+
+    public Boolean getUsername() {
+        return username;
+    }
+
+    public void setUsername(Boolean username) {
+        this.username = username;
+    }
+
+    public Boolean getEmail() {
+        return email;
+    }
+
+    public void setEmail(Boolean email) {
+        this.email = email;
+    }
+}
@@ -0,0 +1,69 @@
+package com.galvanize.useraccounts.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a bulk import: how many users were created and, for every rejected line, why.
+ */
+public class BulkImportResult {
+    private int created;
+    private List<RowError> failed = new ArrayList<>();
+
+    public static class RowError {
+        private int line;
+        private List<String> errors;
+
+        public RowError() {}
+
+        public RowError(int line, List<String> errors) {
+            this.line = line;
+            this.errors = errors;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public void setLine(int line) {
+            this.line = line;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public void setErrors(List<String> errors) {
+            this.errors = errors;
+        }
+    }
+
+    public void created(int count) {
+        this.created += count;
+    }
+
+    public void fail(int line, String error) {
+        fail(line, Collections.singletonList(error));
+    }
+
+    public void fail(int line, List<String> errors) {
+        failed.add(new RowError(line, errors));
+    }
+
+    public int getCreated() {
+        return created;
+    }
+
+    public void setCreated(int created) {
+        this.created = created;
+    }
+
+    public List<RowError> getFailed() {
+        return failed;
+    }
+
+    public void setFailed(List<RowError> failed) {
+        this.failed = failed;
+    }
+}
@@ -2,7 +2,10 @@ package com.galvanize.useraccounts.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.galvanize.useraccounts.event.UserEntityListener;
+import org.hibernate.annotations.BatchSize;
 import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.DynamicUpdate;
 import org.hibernate.annotations.UpdateTimestamp;
 
 import javax.persistence.*;
@@ -12,28 +15,45 @@ import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 import java.sql.Timestamp;
 
 @Entity
-@Table(name = "users")
+// constraint names are matched by UsersService#createUser to report which field was taken
+@Table(name = "users", uniqueConstraints = {
+        @UniqueConstraint(name = User.GUID_CONSTRAINT, columnNames = "guid"),
+        @UniqueConstraint(name = User.USERNAME_CONSTRAINT, columnNames = "username"),
+        @UniqueConstraint(name = User.EMAIL_CONSTRAINT, columnNames = "email")
+}, indexes = @Index(name = "ix_users_username_key", columnList = "username_key, guid"))
+@EntityListeners(UserEntityListener.class)
+// a PATCH that changes only the bio writes only bio and updated_at
+@DynamicUpdate
 public class User {
+    public static final String GUID_CONSTRAINT = "uk_users_guid";
+    public static final String USERNAME_CONSTRAINT = "uk_users_username";
+    public static final String EMAIL_CONSTRAINT = "uk_users_email";
+
     @Id
     @JsonIgnore
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @Column(unique = true)
     @NotNull(message = "Guid cannot be null")
     private Long guid;
 
-    @Column(unique = true)
     @NotBlank(message = "Username cannot be null and trimmed length must be greater than zero.")
     @Size(min = 5, max = 20, message = "Username must have between 5-20 characters.")
     private String username;
 
+    // what username searches sort and resume by, see usernameKey(String)
+    @JsonIgnore
+    @Column(name = "username_key", length = 160)
+    private String usernameKey;
+
     @NotBlank(message = "First name cannot be null and trimmed length must be greater than zero.")
     private String firstName;
 
@@ -42,11 +62,12 @@ public class User {
 
     private String avatar;
 
+    // a page of users initialises its address lists together instead of one query per user
     @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.LAZY, mappedBy = "user", orphanRemoval = true)
+    @BatchSize(size = 50)
     @Valid
     private List<Address> addresses = new ArrayList<>();
 
-    @Column(unique = true)
     @NotBlank(message = "Email cannot be null and trimmed length must be greater than zero.")
     @Email(message = "Email should be valid.")
     @Size(max = 30, message = "Email should not be greater than 30.")
@@ -55,12 +76,27 @@ public class User {
     private String bio;
     private boolean verified;
 
+    // the ETag; the column default covers rows written by plain SQL and rows that predate it
+    @Version
+    @JsonIgnore
+    @Column(columnDefinition = "bigint default 0 not null")
+    private Long version;
+
     @CreationTimestamp
     private Timestamp createdAt;
 
     @UpdateTimestamp
     private Timestamp updatedAt;
 
+    // username and email as last read from or written to the database, so change events can tell what changed
+    @Transient
+    @JsonIgnore
+    private String storedUsername;
+
+    @Transient
+    @JsonIgnore
+    private String storedEmail;
+
     public User() {
     }
 
@@ -100,6 +136,21 @@ public class User {
         this.verified = verified;
     }
 
+    @JsonIgnore
+    public String getStoredUsername() {
+        return storedUsername;
+    }
+
+    @JsonIgnore
+    public String getStoredEmail() {
+        return storedEmail;
+    }
+
+    public void markStored() {
+        this.storedUsername = username;
+        this.storedEmail = email;
+    }
+
     public void addAddress(Address address) {
         this.addresses.add(address);
         address.setUser(this);
@@ -143,6 +194,34 @@ public class User {
 
     public void setUsername(String username) {
         this.username = username;
+        this.usernameKey = usernameKey(username);
+    }
+
+    @JsonIgnore
+    public String getUsernameKey() {
+        return usernameKey;
+    }
+
+    /**
+     * The lower-cased username as hex of its UTF-8 bytes. Hex digits sort the same under every collation, and UTF-8
+     * byte order is code point order, so the database sorts keys like
+     * {@link com.galvanize.useraccounts.search.SearchCursor#USERNAME_ORDER} sorts usernames, and an index on
+     * (username_key, guid) serves the keyset pages.
+     */
+    public static String usernameKey(String username) {
+        if (username == null) return null;
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : username.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8)) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return key.toString();
+    }
+
+    // the constructors set the username directly
+    @PrePersist
+    void keyUsername() {
+        this.usernameKey = usernameKey(username);
     }
 
     public Long getGuid() {
@@ -185,6 +264,14 @@ public class User {
         this.addresses = addresses;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public Timestamp getCreatedAt() {
         return createdAt;
     }
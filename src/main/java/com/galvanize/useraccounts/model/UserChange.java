@@ -0,0 +1,109 @@
+package com.galvanize.useraccounts.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import javax.persistence.*;
+import java.sql.Timestamp;
+
+/**
+ * One row of the change outbox, written in the same transaction as the change it records. Only the guid is kept:
+ * consumers read the current user when they need more.
+ */
+@Entity
+@Table(name = "user_changes", indexes = @Index(name = "ix_user_changes_occurred_at", columnList = "occurred_at"))
+public class UserChange {
+    public enum Type {
+        CREATED,
+        UPDATED,
+        DELETED,
+        ADDRESS_ADDED,
+        ADDRESS_UPDATED,
+        ADDRESS_DELETED
+    }
+
+    // per database; with sharding, positions in the feed are kept per shard
+    @Id
+    @JsonIgnore
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long guid;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "change_type", nullable = false, length = 16)
+    private Type type;
+
+    @Column(nullable = false)
+    private Timestamp occurredAt;
+
+    // the process that wrote the change, so it can skip its own changes when they come back through the outbox
+    @JsonIgnore
+    @Column(length = 64)
+    private String origin;
+
+    public UserChange() {
+    }
+
+    public UserChange(Long id, Long guid, Type type, Timestamp occurredAt) {
+        this(id, guid, type, occurredAt, null);
+    }
+
+    public UserChange(Long id, Long guid, Type type, Timestamp occurredAt, String origin) {
+        this.id = id;
+        this.guid = guid;
+        this.type = type;
+        this.occurredAt = occurredAt;
+        this.origin = origin;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getGuid() {
+        return guid;
+    }
+
+    public void setGuid(Long guid) {
+        this.guid = guid;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public Timestamp getOccurredAt() {
+        return occurredAt;
+    }
+
+    public void setOccurredAt(Timestamp occurredAt) {
+        this.occurredAt = occurredAt;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public void setOrigin(String origin) {
+        this.origin = origin;
+    }
+
+    @Override
+    public String toString() {
+        return "UserChange{" +
+                "id=" + id +
+                ", guid=" + guid +
+                ", type=" + type +
+                ", occurredAt=" + occurredAt +
+                '}';
+    }
+}
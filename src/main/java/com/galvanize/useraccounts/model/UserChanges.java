@@ -0,0 +1,36 @@
+package com.galvanize.useraccounts.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of the change feed and the cursor to read the next one from. The cursor is there even when the page
+ * is empty: it is where the consumer polls from next time.
+ */
+public class UserChanges {
+    private List<UserChange> changes = new ArrayList<>();
+    private String next;
+
+    public UserChanges() {}
+
+    public UserChanges(List<UserChange> changes, String next) {
+        this.changes = changes;
+        this.next = next;
+    }
+
+    public List<UserChange> getChanges() {
+        return changes;
+    }
+
+    public void setChanges(List<UserChange> changes) {
+        this.changes = changes;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
+}
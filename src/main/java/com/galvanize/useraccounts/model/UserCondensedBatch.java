@@ -0,0 +1,38 @@
+package com.galvanize.useraccounts.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of a batch condensed lookup: the users that were found, keyed by guid in request order,
+ * and the requested guids that do not exist.
+ */
+public class UserCondensedBatch {
+    private Map<Long, UserCondensed> users = new LinkedHashMap<>();
+    private List<Long> missing = new ArrayList<>();
+
+    public UserCondensedBatch() {}
+
+    public UserCondensedBatch(Map<Long, UserCondensed> users, List<Long> missing) {
+        this.users = users;
+        this.missing = missing;
+    }
+
+    public Map<Long, UserCondensed> getUsers() {
+        return users;
+    }
+
+    public void setUsers(Map<Long, UserCondensed> users) {
+        this.users = users;
+    }
+
+    public List<Long> getMissing() {
+        return missing;
+    }
+
+    public void setMissing(List<Long> missing) {
+        this.missing = missing;
+    }
+}
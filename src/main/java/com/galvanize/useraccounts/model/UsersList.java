@@ -8,6 +8,7 @@ import java.util.List;
 
 public class UsersList {
     private List<User> users;
+    private String next;
 
     public UsersList() {}
 
@@ -28,6 +29,14 @@ public class UsersList {
         this.users = users;
     }
 
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
+
     public int size() {
         return this.users.size();
     }
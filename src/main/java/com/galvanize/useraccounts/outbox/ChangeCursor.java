@@ -0,0 +1,130 @@
+package com.galvanize.useraccounts.outbox;
+
+import com.galvanize.useraccounts.exception.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Position in the change feed, keyed by shard name ("" without sharding): for each database the settled position
+ * and the ids already read above it (see {@link ChangeWindow}). Clients only ever see the opaque
+ * {@link #encode() encoded} form.
+ * <p>
+ * The ids above a position are written as runs of consecutive ids, each relative to the end of the one before, and a
+ * page stops before a database needs more than {@link #MAX_TAKEN_RUNS} of them, so the cursor stays small enough to
+ * send back in a URL.
+ */
+public class ChangeCursor {
+    public static final ChangeCursor START = new ChangeCursor(Collections.emptyMap());
+    public static final int MAX_TAKEN_RUNS = 50;
+
+    // far more than pages ever take before the position settles past them; more can only come from a forged cursor
+    private static final long MAX_TAKEN_IDS = 100_000;
+
+    private final Map<String, Long> positions;
+    private final Map<String, Set<Long>> taken;
+
+    public ChangeCursor(Map<String, Long> positions) {
+        this(positions, Collections.emptyMap());
+    }
+
+    private ChangeCursor(Map<String, Long> positions, Map<String, Set<Long>> taken) {
+        this.positions = Collections.unmodifiableMap(new TreeMap<>(positions));
+        this.taken = Collections.unmodifiableMap(new TreeMap<>(taken));
+    }
+
+    public static ChangeCursor decode(String value) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+            if (decoded.isEmpty()) return START;
+
+            Map<String, Long> positions = new TreeMap<>();
+            Map<String, Set<Long>> taken = new TreeMap<>();
+            for (String entry : decoded.split(",")) {
+                int separator = entry.lastIndexOf('=');
+                if (separator < 0) throw new InvalidCursorException();
+                String database = entry.substring(0, separator);
+                // position+run+run..., a run being gap or gap-length past the end of the previous one
+                String[] runs = entry.substring(separator + 1).split("\\+");
+                long previous = Long.parseLong(runs[0]);
+                positions.put(database, previous);
+                Set<Long> above = new TreeSet<>();
+                for (int i = 1; i < runs.length; i++) {
+                    int dash = runs[i].indexOf('-');
+                    long first = previous + Long.parseLong(dash < 0 ? runs[i] : runs[i].substring(0, dash));
+                    long last = dash < 0 ? first : first + Long.parseLong(runs[i].substring(dash + 1));
+                    if (first <= previous || last < first || last - first >= MAX_TAKEN_IDS - above.size()) throw new InvalidCursorException();
+                    for (long id = first; id <= last; id++) above.add(id);
+                    previous = last;
+                }
+                if (!above.isEmpty()) taken.put(database, above);
+            }
+            return new ChangeCursor(positions, taken);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException();
+        }
+    }
+
+    public String encode() {
+        StringJoiner joined = new StringJoiner(",");
+        positions.forEach((database, position) -> {
+            StringBuilder entry = new StringBuilder(database).append('=').append(position);
+            long previous = position;
+            for (long[] run : runs(takenOf(database))) {
+                entry.append('+').append(run[0] - previous);
+                if (run[1] > run[0]) entry.append('-').append(run[1] - run[0]);
+                previous = run[1];
+            }
+            joined.add(entry);
+        });
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(joined.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the last change id read from {@code database}, 0 before the first
+     */
+    public long positionOf(String database) {
+        return positions.getOrDefault(database, 0L);
+    }
+
+    /**
+     * @return the ids above {@link #positionOf(String) the position} already read from {@code database}
+     */
+    public Set<Long> takenOf(String database) {
+        return taken.getOrDefault(database, Collections.emptySet());
+    }
+
+    /**
+     * @return the runs of consecutive ids in {@code ids}, each as its first and last id, in id order
+     */
+    public static List<long[]> runs(Set<Long> ids) {
+        List<long[]> runs = new ArrayList<>();
+        for (long id : new TreeSet<>(ids)) {
+            long[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (last != null && last[1] == id - 1) last[1] = id;
+            else runs.add(new long[]{id, id});
+        }
+        return runs;
+    }
+
+    public ChangeCursor with(String database, long position) {
+        return with(database, position, Collections.emptySet());
+    }
+
+    public ChangeCursor with(String database, long position, Set<Long> takenAbove) {
+        Map<String, Long> moved = new TreeMap<>(positions);
+        moved.put(database, position);
+        Map<String, Set<Long>> movedTaken = new TreeMap<>(taken);
+        if (takenAbove.isEmpty()) movedTaken.remove(database);
+        else movedTaken.put(database, Collections.unmodifiableSet(new TreeSet<>(takenAbove)));
+        return new ChangeCursor(moved, movedTaken);
+    }
+}
@@ -0,0 +1,13 @@
+package com.galvanize.useraccounts.outbox;
+
+import com.galvanize.useraccounts.model.UserChange;
+
+import java.util.List;
+
+/**
+ * Where {@link OutboxRelay} publishes recorded changes, chosen with {@code users.outbox.sink}. Delivery is at least
+ * once: a batch is published again when the relay fails before it has stored its new position.
+ */
+public interface ChangeSink {
+    void publish(List<UserChange> changes);
+}
@@ -0,0 +1,101 @@
+package com.galvanize.useraccounts.outbox;
+
+import com.galvanize.useraccounts.model.UserChange;
+import com.galvanize.useraccounts.repository.UserChangesRepository;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * What a reader of one database's outbox has not taken yet: the changes after its settled position that are not
+ * among the ids it already took above it, in id order.
+ * <p>
+ * Ids are taken at INSERT, so a lower id can become visible after a higher one. Changes are handed out as soon as
+ * they are seen, but the position only moves over changes that occurred before {@code settledAt}; the ids taken
+ * above it are kept, so the next read skips them and still picks up a late commit in between. This is how
+ * {@link com.galvanize.useraccounts.invalidation.OutboxInvalidationBus} reads the outbox too.
+ */
+public class ChangeWindow {
+    private final long position;
+    private final Set<Long> taken;
+    private final Timestamp settledAt;
+    // every change read, taken before or not, up to the last one in fresh
+    private final List<UserChange> read;
+    private final List<UserChange> fresh;
+
+    private ChangeWindow(long position, Set<Long> taken, Timestamp settledAt, List<UserChange> read, List<UserChange> fresh) {
+        this.position = position;
+        this.taken = taken;
+        this.settledAt = settledAt;
+        this.read = read;
+        this.fresh = fresh;
+    }
+
+    /**
+     * Reads up to {@code limit} changes not taken yet, in pages of {@code limit}.
+     */
+    public static ChangeWindow read(UserChangesRepository repository, long position, Set<Long> taken, int limit, Timestamp settledAt) {
+        List<UserChange> read = new ArrayList<>();
+        List<UserChange> fresh = new ArrayList<>();
+        long from = position;
+        List<UserChange> page;
+        do {
+            page = repository.findAfter(from, limit);
+            for (UserChange change : page) {
+                if (fresh.size() == limit) break;
+                read.add(change);
+                if (!taken.contains(change.getId())) fresh.add(change);
+                from = change.getId();
+            }
+        } while (page.size() == limit && fresh.size() < limit);
+        return new ChangeWindow(position, taken, settledAt, read, fresh);
+    }
+
+    /**
+     * @return the changes not taken yet, in id order
+     */
+    public List<UserChange> fresh() {
+        return Collections.unmodifiableList(fresh);
+    }
+
+    /**
+     * @return the position once the first {@code count} fresh changes were taken: past every settled change up to
+     * the first one that is unsettled or not taken
+     */
+    public long positionAfter(int count) {
+        Set<Long> takenNow = takenWith(count);
+        long moved = position;
+        for (UserChange change : read) {
+            if (change.getOccurredAt().after(settledAt) || !takenNow.contains(change.getId())) break;
+            moved = change.getId();
+        }
+        return moved;
+    }
+
+    /**
+     * @return the ids taken above {@link #positionAfter(int) the position} once the first {@code count} fresh
+     * changes were taken
+     */
+    public TreeSet<Long> takenAfter(int count) {
+        TreeSet<Long> takenNow = takenWith(count);
+        takenNow.headSet(positionAfter(count), true).clear();
+        return takenNow;
+    }
+
+    /**
+     * @return how many runs of consecutive ids {@link #takenAfter(int)} makes, which is what a cursor carries
+     */
+    public int takenRunsAfter(int count) {
+        return ChangeCursor.runs(takenAfter(count)).size();
+    }
+
+    private TreeSet<Long> takenWith(int count) {
+        TreeSet<Long> takenNow = new TreeSet<>(taken);
+        fresh.subList(0, count).forEach(change -> takenNow.add(change.getId()));
+        return takenNow;
+    }
+}
@@ -0,0 +1,47 @@
+package com.galvanize.useraccounts.outbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.model.UserChange;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Appends every published change to {@code users.outbox.file} as one JSON object per line
+ * ({@code users.outbox.sink=file}), one write per batch.
+ */
+@Component
+@ConditionalOnProperty(prefix = "users.outbox", name = "sink", havingValue = "file")
+public class FileChangeSink implements ChangeSink {
+    private final Path file;
+    private final ObjectWriter changeWriter;
+
+    public FileChangeSink(UsersProperties usersProperties, ObjectMapper objectMapper) {
+        String file = usersProperties.getOutbox().getFile();
+        if (file == null) throw new IllegalStateException("users.outbox.sink=file requires users.outbox.file");
+
+        this.file = Paths.get(file);
+        this.changeWriter = objectMapper.writerFor(UserChange.class);
+    }
+
+    @Override
+    public synchronized void publish(List<UserChange> changes) {
+        StringBuilder lines = new StringBuilder();
+        try {
+            for (UserChange change : changes) lines.append(changeWriter.writeValueAsString(change)).append('\n');
+            Files.write(file, lines.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
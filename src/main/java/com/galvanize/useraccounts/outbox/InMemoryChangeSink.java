@@ -0,0 +1,30 @@
+package com.galvanize.useraccounts.outbox;
+
+import com.galvanize.useraccounts.model.UserChange;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps every published change in memory ({@code users.outbox.sink=memory}); meant for tests and local runs.
+ */
+@Component
+@ConditionalOnProperty(prefix = "users.outbox", name = "sink", havingValue = "memory")
+public class InMemoryChangeSink implements ChangeSink {
+    private final List<UserChange> published = new ArrayList<>();
+
+    @Override
+    public synchronized void publish(List<UserChange> changes) {
+        published.addAll(changes);
+    }
+
+    public synchronized List<UserChange> published() {
+        return new ArrayList<>(published);
+    }
+
+    public synchronized void clear() {
+        published.clear();
+    }
+}
@@ -0,0 +1,150 @@
+package com.galvanize.useraccounts.outbox;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.model.UserChange;
+import com.galvanize.useraccounts.repository.UserChangesRepository;
+import com.galvanize.useraccounts.shard.Shards;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Publishes the change outbox to the configured {@link ChangeSink} every {@code users.outbox.relay-interval}, in
+ * batches of {@code users.outbox.batch-size}, and purges relayed changes older than {@code users.outbox.retention}.
+ * <p>
+ * Each database keeps how far it has been relayed in one locked row, so relays on several pods take turns instead
+ * of publishing a batch twice. Changes are relayed as soon as they are committed; the ids relayed above the
+ * settled position are kept in {@code user_changes_relayed}, so a late commit below them is still relayed once
+ * (see {@link ChangeWindow}). Publishing and moving the position share a transaction: a failure publishes the
+ * batch again on the next run. Without a sink nothing is relayed and changes are only purged by age.
+ */
+@Component
+public class OutboxRelay implements SmartInitializingSingleton, MeterBinder {
+    static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS user_changes_relay " +
+            "(name VARCHAR(32) NOT NULL PRIMARY KEY, relayed_id BIGINT NOT NULL)";
+    static final String INSERT_POSITION = "INSERT INTO user_changes_relay (name, relayed_id) VALUES (?, 0)";
+    static final String CREATE_RELAYED_TABLE = "CREATE TABLE IF NOT EXISTS user_changes_relayed " +
+            "(name VARCHAR(32) NOT NULL, change_id BIGINT NOT NULL, PRIMARY KEY (name, change_id))";
+    private static final String SELECT_RELAYED = "SELECT change_id FROM user_changes_relayed WHERE name = ?";
+    private static final String INSERT_RELAYED = "INSERT INTO user_changes_relayed (name, change_id) VALUES (?, ?)";
+    private static final String DELETE_RELAYED = "DELETE FROM user_changes_relayed WHERE name = ? AND change_id <= ?";
+    private static final String LOCK_POSITION = "SELECT relayed_id FROM user_changes_relay WHERE name = ? FOR UPDATE";
+    private static final String SELECT_POSITION = "SELECT relayed_id FROM user_changes_relay WHERE name = ?";
+    private static final String UPDATE_POSITION = "UPDATE user_changes_relay SET relayed_id = ? WHERE name = ?";
+    static final String RELAY = "relay";
+
+    private final UsersProperties.Outbox outbox;
+    private final Shards shards;
+    private final JdbcTemplate jdbcTemplate;
+    private final UserChangesRepository changesRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectProvider<ChangeSink> sink;
+    private final LongAdder relayed = new LongAdder();
+
+    public OutboxRelay(UsersProperties usersProperties, Shards shards, JdbcTemplate jdbcTemplate, UserChangesRepository changesRepository,
+                       PlatformTransactionManager transactionManager, ObjectProvider<ChangeSink> sink) {
+        this.outbox = usersProperties.getOutbox();
+        this.shards = shards;
+        this.jdbcTemplate = jdbcTemplate;
+        this.changesRepository = changesRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.sink = sink;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        for (String database : shards.databases()) {
+            onDatabase(database, () -> {
+                jdbcTemplate.execute(CREATE_TABLE);
+                jdbcTemplate.execute(CREATE_RELAYED_TABLE);
+                try {
+                    jdbcTemplate.update(INSERT_POSITION, RELAY);
+                } catch (DuplicateKeyException e) {
+                    // relayed before
+                }
+                return null;
+            });
+        }
+    }
+
+    @Scheduled(fixedDelayString = "#{@usersProperties.outbox.relayInterval.toMillis()}")
+    public void relay() {
+        ChangeSink sink = this.sink.getIfAvailable();
+        if (sink == null) return;
+
+        for (String database : shards.databases()) {
+            while (relayBatch(database, sink) == outbox.getBatchSize()) {
+                // a full batch, there may be more
+            }
+        }
+    }
+
+    private int relayBatch(String database, ChangeSink sink) {
+        return onDatabase(database, () -> {
+            Long position = jdbcTemplate.queryForObject(LOCK_POSITION, Long.class, RELAY);
+            Set<Long> taken = new HashSet<>(jdbcTemplate.queryForList(SELECT_RELAYED, Long.class, RELAY));
+            ChangeWindow window = ChangeWindow.read(changesRepository, position, taken, outbox.getBatchSize(),
+                    changesRepository.ago(outbox.getSettleDelay()));
+            List<UserChange> changes = window.fresh();
+            long moved = window.positionAfter(changes.size());
+            if (changes.isEmpty() && moved == position) return 0;
+
+            if (!changes.isEmpty()) sink.publish(changes);
+            jdbcTemplate.update(UPDATE_POSITION, moved, RELAY);
+            jdbcTemplate.update(DELETE_RELAYED, RELAY, moved);
+            Set<Long> relayedAbove = window.takenAfter(changes.size());
+            relayedAbove.removeAll(taken);
+            if (!relayedAbove.isEmpty()) {
+                jdbcTemplate.batchUpdate(INSERT_RELAYED, relayedAbove, relayedAbove.size(), (ps, id) -> {
+                    ps.setString(1, RELAY);
+                    ps.setLong(2, id);
+                });
+            }
+            relayed.add(changes.size());
+            return changes.size();
+        });
+    }
+
+    @Scheduled(fixedDelayString = "#{@usersProperties.outbox.purgeInterval.toMillis()}",
+            initialDelayString = "#{@usersProperties.outbox.purgeInterval.toMillis()}")
+    public void purge() {
+        boolean relaying = sink.getIfAvailable() != null;
+
+        for (String database : shards.databases()) {
+            onDatabase(database, () -> {
+                // never a change the sink has not seen yet
+                long upTo = relaying ? jdbcTemplate.queryForObject(SELECT_POSITION, Long.class, RELAY) : Long.MAX_VALUE;
+                return changesRepository.deleteBefore(upTo, changesRepository.ago(outbox.getRetention()));
+            });
+        }
+    }
+
+    public long relayed() {
+        return relayed.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("users.outbox.relayed", relayed, LongAdder::sum)
+                .description("Changes published to the outbox sink")
+                .register(registry);
+    }
+
+    private <T> T onDatabase(String database, Supplier<T> work) {
+        return shards.onShard(database, () -> transactionTemplate.execute(status -> work.get()));
+    }
+}
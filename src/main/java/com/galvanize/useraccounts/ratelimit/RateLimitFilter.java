@@ -0,0 +1,56 @@
+package com.galvanize.useraccounts.ratelimit;
+
+import com.galvanize.useraccounts.security.JwtUser;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the {@link RateLimiter} after authentication: a caller with a token is limited by its guid, anyone else
+ * by address. The address is the one the servlet container reports: with {@code server.forward-headers-strategy=native}
+ * Tomcat resolves it from X-Forwarded-For, skipping the hops that match {@code server.tomcat.remoteip.internal-proxies}
+ * (the gateway), so a caller cannot pick its own bucket by sending the header itself.
+ * A limited request gets 429 with a Retry-After in whole seconds.
+ */
+public class RateLimitFilter extends OncePerRequestFilter {
+    private final RateLimiter rateLimiter;
+
+    public RateLimitFilter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        // the decoded path, as Spring Security matches it
+        String path = request.getPathInfo() == null ? request.getServletPath() : request.getServletPath() + request.getPathInfo();
+        RateLimiter.Limit limit = rateLimiter.limitFor(request.getMethod(), path);
+        if (limit != null) {
+            long wait = rateLimiter.tryAcquire(limit, clientOf(request));
+            if (wait > 0) {
+                response.setHeader("Retry-After", Long.toString((wait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1)));
+                response.sendError(HttpStatus.TOO_MANY_REQUESTS.value());
+                return;
+            }
+        }
+        chain.doFilter(request, response);
+    }
+
+    private static Object clientOf(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof JwtUser) {
+            Long guid = ((JwtUser) authentication.getPrincipal()).getGuid();
+            if (guid != null) return guid;
+        }
+        // a String never equals a Long guid, so addresses and users get separate buckets
+        return request.getRemoteAddr();
+    }
+}
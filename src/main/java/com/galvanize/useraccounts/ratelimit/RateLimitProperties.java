@@ -0,0 +1,105 @@
+package com.galvanize.useraccounts.ratelimit;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code security.rate-limit.*}: token buckets for the routes anyone may call. The first route a request matches
+ * limits it; requests matching none are not limited.
+ */
+public class RateLimitProperties {
+    private boolean enabled = true;
+    // how often buckets that have filled up again are dropped
+    private Duration sweepInterval = Duration.ofMinutes(1);
+    private List<Route> routes = new ArrayList<>(List.of(
+            new Route("condensed", "GET", "/api/users/*/condensed", 20, 10),
+            new Route("condensed-batch", "POST", "/api/users/condensed:batch", 5, 1),
+            new Route("lookups", "GET", "/api/users/**", 50, 20)));
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getSweepInterval() {
+        return sweepInterval;
+    }
+
+    public void setSweepInterval(Duration sweepInterval) {
+        this.sweepInterval = sweepInterval;
+    }
+
+    public List<Route> getRoutes() {
+        return routes;
+    }
+
+    public void setRoutes(List<Route> routes) {
+        this.routes = routes;
+    }
+
+    public static class Route {
+        private String name;
+        // any method when empty
+        private String method;
+        // Ant-style, as in SecurityCredentialsConfig
+        private String pattern;
+        // requests a client may make at once
+        private int capacity;
+        // requests a client may make per second after that
+        private double refillPerSecond;
+
+        public Route() {}
+
+        public Route(String name, String method, String pattern, int capacity, double refillPerSecond) {
+            this.name = name;
+            this.method = method;
+            this.pattern = pattern;
+            this.capacity = capacity;
+            this.refillPerSecond = refillPerSecond;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public void setMethod(String method) {
+            this.method = method;
+        }
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        public void setPattern(String pattern) {
+            this.pattern = pattern;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public double getRefillPerSecond() {
+            return refillPerSecond;
+        }
+
+        public void setRefillPerSecond(double refillPerSecond) {
+            this.refillPerSecond = refillPerSecond;
+        }
+    }
+}
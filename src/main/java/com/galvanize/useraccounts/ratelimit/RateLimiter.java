@@ -0,0 +1,139 @@
+package com.galvanize.useraccounts.ratelimit;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.AntPathMatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket per route and client, without locks: each bucket is a single {@link AtomicLong} holding the time
+ * it will be full again, and taking a token is one compare-and-set that moves that time on by one refill interval.
+ * A bucket that has filled up again is no different from a new one, so {@link #sweep()} drops those.
+ * <p>
+ * Buckets live in a {@link ConcurrentHashMap} per route, whose reads take no lock and whose writes only lock one
+ * bin. A request racing the sweep may take a token from a bucket just dropped; that lets one extra request through.
+ */
+public class RateLimiter implements MeterBinder {
+    private static final AntPathMatcher MATCHER = new AntPathMatcher();
+
+    private final List<Limit> limits;
+    private final LongSupplier nanoTime;
+
+    public RateLimiter(RateLimitProperties properties) {
+        this(properties, System::nanoTime);
+    }
+
+    RateLimiter(RateLimitProperties properties, LongSupplier nanoTime) {
+        List<Limit> limits = new ArrayList<>();
+        if (properties.isEnabled()) {
+            for (RateLimitProperties.Route route : properties.getRoutes()) limits.add(new Limit(route));
+        }
+        this.limits = Collections.unmodifiableList(limits);
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * @return the limit of the first route matching the request, or null when it is not limited
+     */
+    public Limit limitFor(String method, String path) {
+        for (int i = 0; i < limits.size(); i++) {
+            Limit limit = limits.get(i);
+            if (limit.matches(method, path)) return limit;
+        }
+        return null;
+    }
+
+    /**
+     * Takes a token from {@code client}'s bucket for {@code limit}.
+     *
+     * @return 0 when the request may go ahead, otherwise the nanoseconds until the bucket has a token again
+     */
+    public long tryAcquire(Limit limit, Object client) {
+        return limit.tryAcquire(client, nanoTime.getAsLong());
+    }
+
+    @Scheduled(fixedDelayString = "#{@rateLimitProperties.sweepInterval.toMillis()}")
+    public void sweep() {
+        long now = nanoTime.getAsLong();
+        for (Limit limit : limits) limit.buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+    }
+
+    public int buckets() {
+        int buckets = 0;
+        for (Limit limit : limits) buckets += limit.buckets.size();
+        return buckets;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Limit limit : limits) {
+            FunctionCounter.builder("users.rate-limit.rejected", limit.rejected, LongAdder::sum)
+                    .description("Requests turned away with 429 because the client's bucket was empty")
+                    .tag("route", limit.name)
+                    .register(registry);
+        }
+        Gauge.builder("users.rate-limit.buckets", this, RateLimiter::buckets)
+                .description("Clients with a bucket that has not filled up again")
+                .register(registry);
+    }
+
+    public static final class Limit {
+        private final String name;
+        private final String method;
+        private final String pattern;
+        private final long interval;
+        private final long burst;
+        private final ConcurrentHashMap<Object, AtomicLong> buckets = new ConcurrentHashMap<>();
+        private final LongAdder rejected = new LongAdder();
+
+        Limit(RateLimitProperties.Route route) {
+            if (route.getCapacity() < 1 || route.getRefillPerSecond() <= 0) {
+                throw new IllegalArgumentException("Rate limit " + route.getName() + " needs a capacity and refill rate above 0");
+            }
+            this.name = route.getName();
+            this.method = route.getMethod() == null || route.getMethod().isEmpty() ? null : route.getMethod();
+            this.pattern = route.getPattern();
+            this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / route.getRefillPerSecond()));
+            this.burst = interval * route.getCapacity();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        boolean matches(String method, String path) {
+            return (this.method == null || this.method.equalsIgnoreCase(method)) && MATCHER.match(pattern, path);
+        }
+
+        long tryAcquire(Object client, long now) {
+            AtomicLong bucket = buckets.get(client);
+            if (bucket == null) {
+                AtomicLong full = new AtomicLong(now);
+                bucket = buckets.putIfAbsent(client, full);
+                if (bucket == null) bucket = full;
+            }
+
+            while (true) {
+                long fullAt = bucket.get();
+                long next = (fullAt - now > 0 ? fullAt : now) + interval;
+                long wait = next - now - burst;
+                if (wait > 0) {
+                    rejected.increment();
+                    return wait;
+                }
+                if (bucket.compareAndSet(fullAt, next)) return 0;
+            }
+        }
+    }
+}
@@ -2,8 +2,21 @@ package com.galvanize.useraccounts.repository;
 
 import com.galvanize.useraccounts.model.Address;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface AddressRepository extends JpaRepository<Address, Long> {
+    // ownership is part of the WHERE clause: 0 rows means no such address for this user
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Address a SET a.street = :#{#address.street}, a.city = :#{#address.city}, a.state = :#{#address.state}, " +
+            "a.zipcode = :#{#address.zipcode}, a.apartment = :#{#address.apartment}, a.label = :#{#address.label}, a.version = a.version + 1 " +
+            "WHERE a.id = :id AND a.user.id = (SELECT u.id FROM User u WHERE u.guid = :guid)")
+    int updateOwned(@Param("guid") Long guid, @Param("id") Long id, @Param("address") Address address);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM Address a WHERE a.id = :id AND a.user.id = (SELECT u.id FROM User u WHERE u.guid = :guid)")
+    int deleteOwned(@Param("guid") Long guid, @Param("id") Long id);
 }
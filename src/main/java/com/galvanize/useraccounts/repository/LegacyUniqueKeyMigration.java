@@ -0,0 +1,98 @@
+package com.galvanize.useraccounts.repository;
+
+import com.galvanize.useraccounts.model.User;
+import com.galvanize.useraccounts.shard.Shards;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Replaces the unique keys Hibernate created on MySQL before they had names (UK_ and a hash) with the named ones
+ * {@link com.galvanize.useraccounts.service.UsersService} maps violations by. {@code ddl-auto=update} adds the
+ * named keys but never drops the old ones, and the old one can be the key that fires, whose name maps to nothing.
+ * <p>
+ * A legacy key is dropped when its named replacement exists and renamed to it otherwise. Other databases were
+ * never created with unnamed keys and are left alone.
+ */
+@Component
+public class LegacyUniqueKeyMigration implements SmartInitializingSingleton {
+    private static final Logger log = LoggerFactory.getLogger(LegacyUniqueKeyMigration.class);
+    static final Map<String, String> NAMED_KEYS = Map.of(
+            "guid", User.GUID_CONSTRAINT,
+            "username", User.USERNAME_CONSTRAINT,
+            "email", User.EMAIL_CONSTRAINT);
+
+    private final Shards shards;
+    private final JdbcTemplate jdbcTemplate;
+
+    public LegacyUniqueKeyMigration(Shards shards, JdbcTemplate jdbcTemplate) {
+        this.shards = shards;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        for (String database : shards.databases()) {
+            List<String> statements = shards.onShard(database, () -> jdbcTemplate.execute((ConnectionCallback<List<String>>) connection -> {
+                DatabaseMetaData metaData = connection.getMetaData();
+                if (!metaData.getDatabaseProductName().toLowerCase(Locale.ROOT).contains("mysql")) return List.of();
+
+                Map<String, Set<String>> columnsByKey = new LinkedHashMap<>();
+                try (ResultSet keys = metaData.getIndexInfo(connection.getCatalog(), null, "users", true, false)) {
+                    while (keys.next()) {
+                        String key = keys.getString("INDEX_NAME");
+                        String column = keys.getString("COLUMN_NAME");
+                        if (key == null || column == null) continue;
+                        columnsByKey.computeIfAbsent(key, name -> new TreeSet<>()).add(column.toLowerCase(Locale.ROOT));
+                    }
+                }
+                return plan(columnsByKey);
+            }));
+
+            for (String statement : statements) {
+                log.info("Replacing a legacy unique key on users: {}", statement);
+                shards.onShard(database, () -> {
+                    jdbcTemplate.execute(statement);
+                    return null;
+                });
+            }
+        }
+    }
+
+    /**
+     * @param columnsByKey the unique keys of the users table and the columns each covers
+     * @return the statements that leave exactly one key, the named one, on each of guid, username and email
+     */
+    static List<String> plan(Map<String, Set<String>> columnsByKey) {
+        Set<String> existing = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        existing.addAll(columnsByKey.keySet());
+
+        List<String> statements = new ArrayList<>();
+        columnsByKey.forEach((key, columns) -> {
+            if (columns.size() != 1 || "PRIMARY".equalsIgnoreCase(key)) return;
+            String named = NAMED_KEYS.get(columns.iterator().next());
+            if (named == null || named.equalsIgnoreCase(key)) return;
+
+            if (existing.contains(named)) {
+                statements.add("ALTER TABLE users DROP INDEX `" + key + "`");
+            } else {
+                statements.add("ALTER TABLE users RENAME INDEX `" + key + "` TO `" + named + "`");
+                existing.add(named);
+            }
+        });
+        return statements;
+    }
+}
@@ -0,0 +1,86 @@
+package com.galvanize.useraccounts.repository;
+
+import com.galvanize.useraccounts.model.UserChange;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The change outbox ({@link UserChange}). Rows are appended with plain JDBC, so recording a change costs one
+ * INSERT and nothing in the persistence context, and appends must join the transaction of the change itself.
+ * <p>
+ * {@code occurred_at} is the database's clock, not the pod's, so changes written from different pods are ordered
+ * by one clock and readers judge them settled by that same clock ({@link #ago(Duration)}).
+ */
+@Repository
+public class UserChangesRepository {
+    private static final String INSERT = "INSERT INTO user_changes (guid, change_type, occurred_at, origin) VALUES (?, ?, CURRENT_TIMESTAMP(3), ?)";
+    private static final String SELECT_AFTER = "SELECT id, guid, change_type, occurred_at, origin FROM user_changes WHERE id > ? ORDER BY id LIMIT ?";
+    private static final String SELECT_NOW = "SELECT CURRENT_TIMESTAMP(3)";
+    private static final String SELECT_LAST_ID = "SELECT COALESCE(MAX(id), 0) FROM user_changes";
+    private static final String DELETE_BEFORE = "DELETE FROM user_changes WHERE id <= ? AND occurred_at < ?";
+    private static final RowMapper<UserChange> ROW_MAPPER = (rs, row) -> new UserChange(rs.getLong("id"), rs.getLong("guid"),
+            UserChange.Type.valueOf(rs.getString("change_type")), rs.getTimestamp("occurred_at"), rs.getString("origin"));
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String origin = UUID.randomUUID().toString();
+
+    public UserChangesRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void append(Long guid, UserChange.Type type) {
+        jdbcTemplate.update(INSERT, guid, type.name(), origin);
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void appendAll(Collection<Long> guids, UserChange.Type type) {
+        jdbcTemplate.batchUpdate(INSERT, guids, guids.size(), (ps, guid) -> {
+            ps.setLong(1, guid);
+            ps.setString(2, type.name());
+            ps.setString(3, origin);
+        });
+    }
+
+    /**
+     * Identifies this process in the changes it appends.
+     */
+    public String origin() {
+        return origin;
+    }
+
+    /**
+     * Up to {@code limit} changes after {@code position} in id order, settled or not.
+     */
+    public List<UserChange> findAfter(long position, int limit) {
+        return jdbcTemplate.query(SELECT_AFTER, ROW_MAPPER, position, limit);
+    }
+
+    public long lastId() {
+        return jdbcTemplate.queryForObject(SELECT_LAST_ID, Long.class);
+    }
+
+    /**
+     * Deletes the changes up to {@code position} that are older than {@code before}.
+     */
+    public int deleteBefore(long position, Timestamp before) {
+        return jdbcTemplate.update(DELETE_BEFORE, position, before);
+    }
+
+    /**
+     * @return the database's clock minus {@code age}, to compare with {@code occurred_at}
+     */
+    public Timestamp ago(Duration age) {
+        Timestamp now = jdbcTemplate.queryForObject(SELECT_NOW, Timestamp.class);
+        return new Timestamp(now.getTime() - age.toMillis());
+    }
+}
@@ -0,0 +1,58 @@
+package com.galvanize.useraccounts.repository;
+
+import com.galvanize.useraccounts.model.User;
+import com.galvanize.useraccounts.shard.Shards;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Fills {@code username_key} for users written before the column existed. {@code ddl-auto=update} adds the column
+ * empty, and a user without a key sorts ahead of every other in the username searches.
+ * <p>
+ * Works through each database in batches by id, so a large table is never read or locked at once, and does nothing
+ * once every row has its key.
+ */
+@Component
+public class UsernameKeyBackfill implements SmartInitializingSingleton {
+    private static final Logger log = LoggerFactory.getLogger(UsernameKeyBackfill.class);
+    static final int BATCH = 500;
+
+    private final Shards shards;
+    private final JdbcTemplate jdbcTemplate;
+
+    public UsernameKeyBackfill(Shards shards, JdbcTemplate jdbcTemplate) {
+        this.shards = shards;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        for (String database : shards.databases()) {
+            int filled = shards.onShard(database, this::backfill);
+            if (filled > 0) log.info("Filled username_key for {} users on {}", filled, database);
+        }
+    }
+
+    int backfill() {
+        int filled = 0;
+        long afterId = 0;
+        while (true) {
+            List<Object[]> rows = jdbcTemplate.query(
+                    "SELECT id, username FROM users WHERE username_key IS NULL AND id > ? ORDER BY id LIMIT " + BATCH,
+                    (rs, rowNum) -> new Object[]{rs.getLong("id"), rs.getString("username")}, afterId);
+            if (rows.isEmpty()) return filled;
+
+            jdbcTemplate.batchUpdate("UPDATE users SET username_key = ? WHERE id = ?", rows, rows.size(), (ps, row) -> {
+                ps.setString(1, User.usernameKey((String) row[1]));
+                ps.setLong(2, (Long) row[0]);
+            });
+            filled += rows.size();
+            afterId = (Long) rows.get(rows.size() - 1)[0];
+        }
+    }
+}
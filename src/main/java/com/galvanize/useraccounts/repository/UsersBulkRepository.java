@@ -0,0 +1,104 @@
+package com.galvanize.useraccounts.repository;
+
+import com.galvanize.useraccounts.model.Address;
+import com.galvanize.useraccounts.model.User;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * JDBC batch inserts for bulk imports.
+ * <p>
+ * Ids stay IDENTITY-generated, which stops Hibernate from batching inserts, so this goes around it:
+ * all users of a chunk in one batch, then all of their addresses in another. With MySQL's
+ * rewriteBatchedStatements each batch becomes a single multi-row INSERT. Entity listeners do not
+ * fire for these rows; callers must publish the change events themselves.
+ */
+@Repository
+public class UsersBulkRepository {
+    private static final String INSERT_USER = "INSERT INTO users (guid, username, username_key, first_name, last_name, avatar, email, bio, verified, " +
+            "created_at, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_ADDRESS = "INSERT INTO address (user_id, street, city, state, zipcode, apartment, label) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String SELECT_IDS = "SELECT id, guid FROM users WHERE guid IN (:guids)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    public UsersBulkRepository(JdbcTemplate jdbcTemplate, NamedParameterJdbcTemplate namedJdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = namedJdbcTemplate;
+    }
+
+    public void insertAll(List<User> users, Timestamp now) {
+        jdbcTemplate.batchUpdate(INSERT_USER, users, users.size(), (ps, user) -> {
+            ps.setLong(1, user.getGuid());
+            ps.setString(2, user.getUsername());
+            ps.setString(3, User.usernameKey(user.getUsername()));
+            ps.setString(4, user.getFirstName());
+            ps.setString(5, user.getLastName());
+            ps.setString(6, user.getAvatar());
+            ps.setString(7, user.getEmail());
+            ps.setString(8, user.getBio());
+            ps.setBoolean(9, user.isVerified());
+            ps.setTimestamp(10, now);
+            ps.setTimestamp(11, now);
+        });
+        users.forEach(user -> {
+            user.setCreatedAt(now);
+            user.setUpdatedAt(now);
+        });
+
+        List<User> withAddresses = users.stream().filter(user -> !user.getAddresses().isEmpty()).collect(Collectors.toList());
+        if (withAddresses.isEmpty()) return;
+
+        // generated keys from a batch are driver-specific, so read the new ids back in one query
+        Map<Long, Long> idsByGuid = new HashMap<>();
+        MapSqlParameterSource guids = new MapSqlParameterSource("guids",
+                withAddresses.stream().map(User::getGuid).collect(Collectors.toList()));
+        namedJdbcTemplate.query(SELECT_IDS, guids, rs -> {
+            idsByGuid.put(rs.getLong("guid"), rs.getLong("id"));
+        });
+
+        List<Address> addresses = new ArrayList<>();
+        List<Long> userIds = new ArrayList<>();
+        for (User user : withAddresses) {
+            Long id = idsByGuid.get(user.getGuid());
+            user.setId(id);
+            for (Address address : user.getAddresses()) {
+                addresses.add(address);
+                userIds.add(id);
+            }
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_ADDRESS, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Address address = addresses.get(i);
+                ps.setLong(1, userIds.get(i));
+                ps.setString(2, address.getStreet());
+                ps.setString(3, address.getCity());
+                ps.setString(4, address.getState());
+                ps.setString(5, address.getZipcode());
+                ps.setString(6, address.getApartment());
+                ps.setString(7, address.getLabel());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return addresses.size();
+            }
+        });
+    }
+}
@@ -2,18 +2,46 @@ package com.galvanize.useraccounts.repository;
 
 import com.galvanize.useraccounts.model.User;
 import com.galvanize.useraccounts.model.UserCondensed;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface UsersRepository extends JpaRepository<User, Long> {
 
-    @Query(nativeQuery = true, value = "SELECT * FROM users WHERE LOWER(username) LIKE LOWER(?)")
-    List<User> findByUsername(String username);
+    @Query("SELECT u FROM User u WHERE LOWER(u.username) LIKE :pattern ORDER BY u.usernameKey, u.guid")
+    List<User> findPageByUsername(@Param("pattern") String pattern, Pageable page);
+
+    // keyset continuation after (afterUsername, afterGuid); never an OFFSET scan. Searches sort by the username_key
+    // column (User#usernameKey), whose order the cursor compares in Java.
+    default List<User> findPageByUsernameAfter(String pattern, String afterUsername, Long afterGuid, Pageable page) {
+        return findPageByUsernameKeyAfter(pattern, User.usernameKey(afterUsername), afterGuid, page);
+    }
+
+    @Query("SELECT u FROM User u WHERE LOWER(u.username) LIKE :pattern " +
+            "AND (u.usernameKey > :afterKey OR (u.usernameKey = :afterKey AND u.guid > :afterGuid)) " +
+            "ORDER BY u.usernameKey, u.guid")
+    List<User> findPageByUsernameKeyAfter(@Param("pattern") String pattern, @Param("afterKey") String afterKey,
+                                          @Param("afterGuid") Long afterGuid, Pageable page);
+
+    // forward-only cursor for the NDJSON search; must be consumed inside a transaction and closed.
+    // Addresses are joined because users are detached one by one and never batch-fetched together.
+    @QueryHints({@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true")})
+    @Query("SELECT u FROM User u LEFT JOIN FETCH u.addresses WHERE LOWER(u.username) LIKE :pattern ORDER BY u.usernameKey, u.guid")
+    Stream<User> streamByUsername(@Param("pattern") String pattern);
 
     @Query(nativeQuery = true, value = "SELECT * FROM users WHERE username = ?")
     Optional<User> findByUsernameExactMatch(String username);
@@ -23,6 +51,54 @@ public interface UsersRepository extends JpaRepository<User, Long> {
 
     @Query(nativeQuery = true, value = "SELECT * FROM users WHERE guid = ?")
     Optional<User> findByGuid(Long guid);
-    
+
+    @EntityGraph(attributePaths = "addresses")
+    Optional<User> findWithAddressesByGuid(Long guid);
+
+    List<User> findByGuidIn(Collection<Long> guids);
+
+    // bumps the version (the ETag) after a change made directly to one of the user's rows, e.g. an address
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE User u SET u.updatedAt = :updatedAt, u.version = u.version + 1 WHERE u.guid = :guid")
+    int touch(@Param("guid") Long guid, @Param("updatedAt") Timestamp updatedAt);
+
+    // compare-and-set for If-Match: 0 rows when the user is gone or at none of the expected versions
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE User u SET u.updatedAt = :updatedAt, u.version = u.version + 1 WHERE u.guid = :guid AND u.version IN :versions")
+    int touchIfVersion(@Param("guid") Long guid, @Param("versions") Collection<Long> versions, @Param("updatedAt") Timestamp updatedAt);
+
+    boolean existsByGuid(Long guid);
+
+    @Query("SELECT u.updatedAt FROM User u WHERE u.guid = :guid")
+    Optional<Timestamp> findUpdatedAtByGuid(@Param("guid") Long guid);
+
+    @Query("SELECT u.version FROM User u WHERE u.guid = :guid")
+    Optional<Long> findVersionByGuid(@Param("guid") Long guid);
+
+    // reads four columns into a DTO; no managed entity, snapshot or persistence-context entry
+    @Query("SELECT new com.galvanize.useraccounts.model.UserCondensed(u.guid, u.username, u.avatar, u.email) FROM User u WHERE u.guid = :guid")
+    Optional<UserCondensed> findCondensedByGuid(@Param("guid") Long guid);
+
+    @Query("SELECT new com.galvanize.useraccounts.model.UserCondensed(u.guid, u.username, u.avatar, u.email) FROM User u WHERE u.guid IN :guids")
+    List<UserCondensed> findCondensedByGuidIn(@Param("guids") Collection<Long> guids);
+
+    @Query("SELECT new com.galvanize.useraccounts.model.UserCondensed(u.guid, u.username, u.avatar, u.email) FROM User u")
+    List<UserCondensed> findAllCondensed();
+
+    @QueryHints({@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true")})
+    @Query("SELECT new com.galvanize.useraccounts.model.UserCondensed(u.guid, u.username, u.avatar, u.email) FROM User u")
+    Stream<UserCondensed> streamAllCondensed();
+
+    // existing rows that would collide with any of a bulk import chunk's keys
+    @Query("SELECT new com.galvanize.useraccounts.model.UserCondensed(u.guid, u.username, u.avatar, u.email) FROM User u " +
+            "WHERE u.guid IN :guids OR u.username IN :usernames OR u.email IN :emails")
+    List<UserCondensed> findCondensedConflicting(@Param("guids") Collection<Long> guids, @Param("usernames") Collection<String> usernames,
+                                                 @Param("emails") Collection<String> emails);
+
+    // '!' escapes LIKE wildcards in the prefix, see UsersService#typeahead
+    @Query("SELECT new com.galvanize.useraccounts.model.UserCondensed(u.guid, u.username, u.avatar, u.email) FROM User u " +
+            "WHERE LOWER(u.username) LIKE :prefix ESCAPE '!' ORDER BY u.usernameKey, u.guid")
+    List<UserCondensed> findCondensedByUsernamePrefix(@Param("prefix") String prefix, Pageable page);
 
 }
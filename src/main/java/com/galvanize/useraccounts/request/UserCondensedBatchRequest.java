@@ -0,0 +1,23 @@
+package com.galvanize.useraccounts.request;
+
+import javax.validation.constraints.NotNull;
+import java.util.List;
+
+public class UserCondensedBatchRequest {
+    @NotNull(message = "Guids cannot be null")
+    private List<Long> guids;
+
+    public UserCondensedBatchRequest() {}
+
+    public UserCondensedBatchRequest(List<Long> guids) {
+        this.guids = guids;
+    }
+
+    public List<Long> getGuids() {
+        return guids;
+    }
+
+    public void setGuids(List<Long> guids) {
+        this.guids = guids;
+    }
+}
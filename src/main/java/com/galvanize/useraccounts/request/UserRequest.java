@@ -1,5 +1,10 @@
 package com.galvanize.useraccounts.request;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Body of a PATCH: fields left out (or null) keep their current value. Send an empty string to clear bio or avatar.
+ */
 public class UserRequest {
 
     private String firstName;
@@ -7,13 +12,13 @@ public class UserRequest {
     private String email;
 
     private String bio;
-    private boolean verified;
+    private Boolean verified;
     private String avatar;
 
     public UserRequest() {
     }
 
-    public UserRequest(String firstName, String lastName, String email, String bio, boolean verified, String avatar) {
+    public UserRequest(String firstName, String lastName, String email, String bio, Boolean verified, String avatar) {
         this.firstName = firstName;
         this.lastName = lastName;
         this.email = email;
@@ -54,11 +59,12 @@ public class UserRequest {
         this.bio = bio;
     }
 
-    public boolean isVerified() {
+    @JsonProperty("verified")
+    public Boolean isVerified() {
         return verified;
     }
 
-    public void setVerified(boolean verified) {
+    public void setVerified(Boolean verified) {
         this.verified = verified;
     }
 
@@ -0,0 +1,77 @@
+package com.galvanize.useraccounts.search;
+
+import com.galvanize.useraccounts.exception.InvalidCursorException;
+import com.galvanize.useraccounts.model.User;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+
+/**
+ * Keyset position in a username search: the lower-cased username and guid of the last user on the previous page.
+ * Clients only ever see the opaque {@link #encode() encoded} form.
+ */
+public class SearchCursor {
+    /**
+     * The order of lower-cased usernames in every search: by code point, the order of
+     * {@link User#usernameKey(String) username_key} in the queries.
+     */
+    public static final Comparator<String> USERNAME_ORDER = SearchCursor::compareCodePoints;
+
+    private final String username;
+    private final Long guid;
+
+    public SearchCursor(String username, Long guid) {
+        this.username = username;
+        this.guid = guid;
+    }
+
+    public static SearchCursor after(User user) {
+        return new SearchCursor(UsernameTrigramIndex.normalize(user.getUsername()), user.getGuid());
+    }
+
+    public static SearchCursor decode(String value) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(':');
+            if (separator < 0) throw new InvalidCursorException();
+
+            return new SearchCursor(decoded.substring(separator + 1), Long.valueOf(decoded.substring(0, separator)));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException();
+        }
+    }
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((guid + ":" + username).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return whether a user with the given lower-cased username and guid sorts after this cursor
+     */
+    public boolean precedes(String otherUsername, Long otherGuid) {
+        int compared = USERNAME_ORDER.compare(username, otherUsername);
+        return compared < 0 || (compared == 0 && guid < otherGuid);
+    }
+
+    // String.compareTo compares UTF-16 units, which puts supplementary characters before U+E000..U+FFFF
+    private static int compareCodePoints(String a, String b) {
+        int i = 0;
+        while (i < a.length() && i < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(i);
+            if (ca != cb) return Integer.compare(ca, cb);
+            i += Character.charCount(ca);
+        }
+        return Integer.compare(a.length(), b.length());
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Long getGuid() {
+        return guid;
+    }
+}
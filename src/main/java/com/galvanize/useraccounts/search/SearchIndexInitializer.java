@@ -0,0 +1,37 @@
+package com.galvanize.useraccounts.search;
+
+import com.galvanize.useraccounts.repository.UsersRepository;
+import com.galvanize.useraccounts.shard.Shards;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Loads the in-memory search indexes from the users table, of every shard, once the application has started.
+ * Until this has run, searches fall back to the database.
+ */
+@Component
+public class SearchIndexInitializer implements ApplicationRunner {
+    private final UsersRepository usersRepository;
+    private final UsernameTrigramIndex usernameIndex;
+    private final UsernameTrie usernameTrie;
+    private final Shards shards;
+
+    public SearchIndexInitializer(UsersRepository usersRepository, UsernameTrigramIndex usernameIndex, UsernameTrie usernameTrie,
+                                  Shards shards) {
+        this.usersRepository = usersRepository;
+        this.usernameIndex = usernameIndex;
+        this.usernameTrie = usernameTrie;
+        this.shards = shards;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        shards.concat(usersRepository::findAllCondensed).forEach(user -> {
+            usernameIndex.add(user.getGuid(), user.getUsername());
+            usernameTrie.put(user);
+        });
+        usernameIndex.markReady();
+        usernameTrie.markReady();
+    }
+}
@@ -0,0 +1,214 @@
+package com.galvanize.useraccounts.search;
+
+import com.galvanize.useraccounts.event.UserChangedEvent;
+import com.galvanize.useraccounts.model.UserCondensed;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Compressed (radix) trie of lower-cased usernames with the condensed user stored at each terminal node.
+ * <p>
+ * A prefix lookup walks at most one edge per character of the prefix and then reads the subtree in
+ * lexicographic order until it has enough results, so its cost does not depend on how many users exist.
+ * Lower-casing can make two usernames share a key, which is why a terminal node holds users by guid.
+ */
+@Component
+public class UsernameTrie {
+    private final Node root = new Node("");
+    private final Map<Long, String> keysByGuid = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean ready;
+
+    private static final class Node {
+        String label;
+        final TreeMap<Character, Node> children = new TreeMap<>();
+        TreeMap<Long, UserCondensed> users;
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        boolean isTerminal() {
+            return users != null && !users.isEmpty();
+        }
+    }
+
+    public void markReady() {
+        this.ready = true;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return keysByGuid.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void put(UserCondensed user) {
+        if (user.getGuid() == null || user.getUsername() == null) return;
+
+        String key = UsernameTrigramIndex.normalize(user.getUsername());
+        lock.writeLock().lock();
+        try {
+            String previous = keysByGuid.put(user.getGuid(), key);
+            if (previous != null && !previous.equals(key)) removeKey(previous, user.getGuid());
+            insert(key, user);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long guid) {
+        if (guid == null) return;
+
+        lock.writeLock().lock();
+        try {
+            String previous = keysByGuid.remove(guid);
+            if (previous != null) removeKey(previous, guid);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return up to {@code limit} users whose lower-cased username starts with the lower-cased prefix,
+     * in username order
+     */
+    public List<UserCondensed> search(String prefix, int limit) {
+        String key = UsernameTrigramIndex.normalize(prefix);
+        List<UserCondensed> results = new ArrayList<>();
+        if (limit <= 0) return results;
+
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            int offset = 0;
+            while (offset < key.length()) {
+                Node child = node.children.get(key.charAt(offset));
+                if (child == null) return results;
+
+                int common = commonPrefixLength(child.label, key, offset);
+                if (offset + common == key.length()) {
+                    node = child;
+                    break;
+                }
+                if (common < child.label.length()) return results;
+
+                node = child;
+                offset += common;
+            }
+
+            collect(node, limit, results);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return results;
+    }
+
+    @EventListener
+    public void onUserChanged(UserChangedEvent event) {
+        if (event.isDeleted()) remove(event.getGuid());
+        else put(event.toCondensed());
+    }
+
+    private void insert(String key, UserCondensed user) {
+        Node node = root;
+        int offset = 0;
+        while (offset < key.length()) {
+            char next = key.charAt(offset);
+            Node child = node.children.get(next);
+            if (child == null) {
+                child = new Node(key.substring(offset));
+                node.children.put(next, child);
+                node = child;
+                break;
+            }
+
+            int common = commonPrefixLength(child.label, key, offset);
+            if (common < child.label.length()) {
+                Node split = new Node(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                split.children.put(child.label.charAt(0), child);
+                node.children.put(next, split);
+                child = split;
+            }
+
+            node = child;
+            offset += common;
+        }
+
+        if (node.users == null) node.users = new TreeMap<>();
+        node.users.put(user.getGuid(), user);
+    }
+
+    private void removeKey(String key, Long guid) {
+        if (key.isEmpty()) {
+            if (root.users != null) root.users.remove(guid);
+            return;
+        }
+        removeFrom(root, key, 0, guid);
+    }
+
+    private void removeFrom(Node parent, String key, int offset, Long guid) {
+        char next = key.charAt(offset);
+        Node child = parent.children.get(next);
+        if (child == null || !key.startsWith(child.label, offset)) return;
+
+        int end = offset + child.label.length();
+        if (end == key.length()) {
+            if (child.users != null) child.users.remove(guid);
+        } else {
+            removeFrom(child, key, end, guid);
+        }
+
+        if (child.isTerminal()) return;
+
+        child.users = null;
+        if (child.children.isEmpty()) {
+            parent.children.remove(next);
+        } else if (child.children.size() == 1) {
+            Node only = child.children.firstEntry().getValue();
+            only.label = child.label + only.label;
+            parent.children.put(next, only);
+        }
+    }
+
+    private static void collect(Node node, int limit, List<UserCondensed> results) {
+        if (node.users != null) {
+            for (UserCondensed user : node.users.values()) {
+                if (results.size() >= limit) return;
+                results.add(user);
+            }
+        }
+
+        for (Node child : node.children.values()) {
+            if (results.size() >= limit) return;
+            collect(child, limit, results);
+        }
+    }
+
+    private static int commonPrefixLength(String label, String key, int offset) {
+        int length = 0;
+        while (length < label.length()
+                && offset + length < key.length()
+                && label.charAt(length) == key.charAt(offset + length)) {
+            length++;
+        }
+        return length;
+    }
+}
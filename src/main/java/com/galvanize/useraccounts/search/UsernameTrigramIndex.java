@@ -0,0 +1,164 @@
+package com.galvanize.useraccounts.search;
+
+import com.galvanize.useraccounts.event.UserChangedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory inverted index from username trigrams to user guids.
+ * <p>
+ * A substring query of three or more characters can only match usernames that contain every trigram of the query,
+ * so the shortest posting list bounds the candidates; each candidate is then checked with a plain {@code contains}.
+ * Posting lists are kept in search order, so a page starts right after its cursor and stops once it is full.
+ * Shorter queries, and queries containing LIKE wildcards, are left to the database.
+ */
+@Component
+public class UsernameTrigramIndex {
+    static final int GRAM_LENGTH = 3;
+
+    private static final Comparator<SearchCursor> SEARCH_ORDER = Comparator
+            .comparing(SearchCursor::getUsername, SearchCursor.USERNAME_ORDER)
+            .thenComparing(SearchCursor::getGuid);
+
+    private final Map<String, Postings> postings = new ConcurrentHashMap<>();
+    private final Map<Long, String> usernames = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+
+    public static String normalize(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    public boolean canServe(String query) {
+        return ready
+                && query != null
+                && query.length() >= GRAM_LENGTH
+                && query.indexOf('%') < 0
+                && query.indexOf('_') < 0;
+    }
+
+    public void markReady() {
+        this.ready = true;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int size() {
+        return usernames.size();
+    }
+
+    public String usernameOf(Long guid) {
+        return usernames.get(guid);
+    }
+
+    public void add(Long guid, String username) {
+        if (guid == null || username == null) return;
+
+        String normalized = normalize(username);
+        String previous = usernames.put(guid, normalized);
+
+        if (normalized.equals(previous)) return;
+        if (previous != null) unindex(guid, previous);
+
+        SearchCursor entry = new SearchCursor(normalized, guid);
+        for (String gram : trigrams(normalized)) {
+            postings.compute(gram, (key, entries) -> {
+                Postings result = entries == null ? new Postings() : entries;
+                result.add(entry);
+                return result;
+            });
+        }
+    }
+
+    public void remove(Long guid) {
+        if (guid == null) return;
+
+        String previous = usernames.remove(guid);
+        if (previous != null) unindex(guid, previous);
+    }
+
+    /**
+     * @return guids of the users whose lower-cased username contains the lower-cased query,
+     * ordered by username and then guid
+     */
+    public List<Long> search(String query) {
+        return search(query, null, Integer.MAX_VALUE).stream().map(SearchCursor::getGuid).collect(Collectors.toList());
+    }
+
+    /**
+     * @return up to {@code count} users after {@code after} (or from the start) whose lower-cased username contains
+     * the lower-cased query, as their positions in search order
+     */
+    public List<SearchCursor> search(String query, SearchCursor after, int count) {
+        String normalized = normalize(query);
+
+        Postings smallest = null;
+        for (String gram : trigrams(normalized)) {
+            Postings entries = postings.get(gram);
+            if (entries == null) return new ArrayList<>();
+            if (smallest == null || entries.size < smallest.size) smallest = entries;
+        }
+
+        List<SearchCursor> matches = new ArrayList<>();
+        if (smallest == null) return matches;
+
+        NavigableSet<SearchCursor> candidates = after == null ? smallest.entries : smallest.entries.tailSet(after, false);
+        for (SearchCursor entry : candidates) {
+            if (matches.size() == count) break;
+            // an entry of a username that is being replaced may still be listed for a moment
+            if (entry.getUsername().contains(normalized) && entry.getUsername().equals(usernames.get(entry.getGuid()))) matches.add(entry);
+        }
+        return matches;
+    }
+
+    @EventListener
+    public void onUserChanged(UserChangedEvent event) {
+        if (event.isDeleted()) remove(event.getGuid());
+        else add(event.getGuid(), event.getUsername());
+    }
+
+    private void unindex(Long guid, String username) {
+        SearchCursor entry = new SearchCursor(username, guid);
+        for (String gram : trigrams(username)) {
+            postings.computeIfPresent(gram, (key, entries) -> {
+                entries.remove(entry);
+                return entries.size == 0 ? null : entries;
+            });
+        }
+    }
+
+    static Set<String> trigrams(String value) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= value.length(); i++) {
+            grams.add(value.substring(i, i + GRAM_LENGTH));
+        }
+        return grams;
+    }
+
+    // the size of a skip list is a full walk, so it is counted alongside; both only change inside postings.compute
+    private static final class Postings {
+        private final ConcurrentSkipListSet<SearchCursor> entries = new ConcurrentSkipListSet<>(SEARCH_ORDER);
+        private volatile int size;
+
+        private void add(SearchCursor entry) {
+            if (entries.add(entry)) size++;
+        }
+
+        private void remove(SearchCursor entry) {
+            if (entries.remove(entry)) size--;
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package com.galvanize.useraccounts.security;
+
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.SignatureException;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Verifies HMAC-signed tokens (HS256, HS384, HS512) with our claim set (sub, guid, email, authorities, exp, nbf)
+ * without jjwt: the segments are Base64url-decoded straight from the token's characters into per-thread buffers,
+ * signed with a per-thread {@link Mac} that is keyed once, and the claims are read by a flat JSON scanner. No
+ * {@code Claims} map, Jackson tree or intermediate String is built; common authorities are shared instances.
+ * <p>
+ * Anything outside that shape (another algorithm, extra header fields such as {@code zip}, nested claims,
+ * non-integer numbers, malformed input) makes {@link #verify} return null, and the caller falls back to jjwt,
+ * which then decides. A wrong signature or an expired token is rejected here, as jjwt would.
+ */
+public class HmacJwtVerifier {
+    private static final String[] ALGORITHMS = {"HS256", "HS384", "HS512"};
+    private static final String[] MAC_NAMES = {"HmacSHA256", "HmacSHA384", "HmacSHA512"};
+    private static final int MAX_TOKEN_LENGTH = 8 * 1024;
+    private static final String[] COMMON_AUTHORITIES = {"ROLE_USER", "ROLE_ADMIN"};
+
+    private static final byte[] ALG = ascii("alg");
+    private static final byte[] TYP = ascii("typ");
+    private static final byte[] SUB = ascii("sub");
+    private static final byte[] GUID = ascii("guid");
+    private static final byte[] EMAIL = ascii("email");
+    private static final byte[] AUTHORITIES = ascii("authorities");
+    private static final byte[] EXP = ascii("exp");
+    private static final byte[] NBF = ascii("nbf");
+    private static final byte[][] ALGORITHM_NAMES = Arrays.stream(ALGORITHMS).map(HmacJwtVerifier::ascii).toArray(byte[][]::new);
+    private static final byte[][] COMMON_NAMES = Arrays.stream(COMMON_AUTHORITIES).map(HmacJwtVerifier::ascii).toArray(byte[][]::new);
+    private static final GrantedAuthority[] COMMON_GRANTED = Arrays.stream(COMMON_AUTHORITIES).map(SimpleGrantedAuthority::new).toArray(GrantedAuthority[]::new);
+
+    private static final byte[] BASE64URL = new byte[128];
+
+    static {
+        Arrays.fill(BASE64URL, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) BASE64URL[alphabet.charAt(i)] = (byte) i;
+    }
+
+    // thrown for input this verifier does not handle; preallocated, it only ever means "ask jjwt"
+    private static final RuntimeException UNSUPPORTED = new RuntimeException("unsupported token", null, false, false) {};
+
+    private final SecretKeySpec[] keys;
+    private final ThreadLocal<Scratch> scratch;
+
+    public HmacJwtVerifier(byte[] signingKey) {
+        this.keys = new SecretKeySpec[MAC_NAMES.length];
+        for (int i = 0; i < MAC_NAMES.length; i++) keys[i] = new SecretKeySpec(signingKey, MAC_NAMES[i]);
+        this.scratch = ThreadLocal.withInitial(Scratch::new);
+    }
+
+    /**
+     * @return the verified principal, or null when the token is not one this verifier handles
+     * @throws JwtException when the signature does not match or the token is expired or not yet valid
+     */
+    public VerifiedTokenCache.Verified verify(String token) {
+        int length = token.length();
+        int firstDot = token.indexOf('.');
+        int secondDot = firstDot < 0 ? -1 : token.indexOf('.', firstDot + 1);
+        if (length > MAX_TOKEN_LENGTH || secondDot < 0 || secondDot == length - 1 || token.indexOf('.', secondDot + 1) >= 0) return null;
+
+        Scratch buffers = scratch.get();
+        try {
+            int algorithm = algorithm(buffers, buffers.decode(token, 0, firstDot));
+            checkSignature(buffers, token, algorithm, secondDot);
+            return claims(buffers, buffers.decode(token, firstDot + 1, secondDot));
+        } catch (JwtException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private int algorithm(Scratch buffers, int length) {
+        Scanner header = buffers.scanner.reset(buffers.decoded, length);
+        int algorithm = -1;
+        header.beginObject();
+        while (header.nextKey()) {
+            if (header.keyIs(ALG)) {
+                header.string();
+                for (int i = 0; i < ALGORITHM_NAMES.length; i++) {
+                    if (header.lastStringIs(ALGORITHM_NAMES[i])) algorithm = i;
+                }
+            } else if (header.keyIs(TYP)) {
+                header.skipScalar();
+            } else {
+                throw UNSUPPORTED;
+            }
+        }
+        header.end();
+        if (algorithm < 0) throw UNSUPPORTED;
+        return algorithm;
+    }
+
+    private void checkSignature(Scratch buffers, String token, int algorithm, int secondDot) {
+        Mac mac = buffers.mac(algorithm, keys[algorithm]);
+        byte[] signed = buffers.ascii(token, 0, secondDot);
+        mac.update(signed, 0, secondDot);
+        int macLength = mac.getMacLength();
+        try {
+            mac.doFinal(buffers.expected, 0);
+        } catch (ShortBufferException e) {
+            throw UNSUPPORTED;
+        }
+
+        int signatureLength = buffers.decode(token, secondDot + 1, token.length());
+        int difference = signatureLength ^ macLength;
+        for (int i = 0; i < macLength; i++) difference |= buffers.expected[i] ^ buffers.decoded[i];
+        if (difference != 0) throw new SignatureException("JWT signature does not match locally computed signature.");
+    }
+
+    private VerifiedTokenCache.Verified claims(Scratch buffers, int length) {
+        Scanner payload = buffers.scanner.reset(buffers.decoded, length);
+        String subject = null;
+        String email = null;
+        Long guid = null;
+        long expiration = Long.MAX_VALUE;
+        long notBefore = Long.MIN_VALUE;
+        List<String> names = null;
+        List<GrantedAuthority> authorities = null;
+
+        payload.beginObject();
+        while (payload.nextKey()) {
+            if (payload.keyIs(SUB)) {
+                subject = payload.stringValue();
+            } else if (payload.keyIs(EMAIL)) {
+                email = payload.stringValue();
+            } else if (payload.keyIs(GUID)) {
+                guid = payload.integer();
+            } else if (payload.keyIs(EXP)) {
+                expiration = Math.multiplyExact(payload.integer(), 1000L);
+            } else if (payload.keyIs(NBF)) {
+                notBefore = Math.multiplyExact(payload.integer(), 1000L);
+            } else if (payload.keyIs(AUTHORITIES)) {
+                names = new ArrayList<>(2);
+                authorities = new ArrayList<>(2);
+                payload.beginArray();
+                while (payload.nextElement()) {
+                    payload.string();
+                    int common = payload.lastStringIndexIn(COMMON_NAMES);
+                    if (common >= 0) {
+                        names.add(COMMON_AUTHORITIES[common]);
+                        authorities.add(COMMON_GRANTED[common]);
+                    } else {
+                        String name = payload.lastString();
+                        names.add(name);
+                        authorities.add(new SimpleGrantedAuthority(name));
+                    }
+                }
+            } else {
+                payload.skipScalarOrFlatArray();
+            }
+        }
+        payload.end();
+
+        // jjwt's answers for a missing subject or authorities are kept by letting it decide
+        if (subject == null || authorities == null) throw UNSUPPORTED;
+
+        long now = System.currentTimeMillis();
+        if (now > expiration) throw new JwtException("JWT expired at " + expiration + ". Current time: " + now);
+        if (now < notBefore) throw new JwtException("JWT must not be accepted before " + notBefore + ". Current time: " + now);
+
+        JwtUser principal = new JwtUser(guid, subject, email, Collections.unmodifiableList(names));
+        return new VerifiedTokenCache.Verified(principal, Collections.unmodifiableList(authorities), expiration);
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Buffers and MACs owned by one thread, grown to the largest token seen.
+     */
+    private static final class Scratch {
+        final Mac[] macs = new Mac[MAC_NAMES.length];
+        final byte[] expected = new byte[64];
+        final Scanner scanner = new Scanner();
+        byte[] decoded = new byte[512];
+        byte[] signed = new byte[1024];
+
+        Mac mac(int algorithm, SecretKeySpec key) {
+            Mac mac = macs[algorithm];
+            if (mac == null) {
+                try {
+                    mac = Mac.getInstance(MAC_NAMES[algorithm]);
+                    mac.init(key);
+                } catch (GeneralSecurityException e) {
+                    throw UNSUPPORTED;
+                }
+                macs[algorithm] = mac;
+            }
+            return mac;
+        }
+
+        byte[] ascii(String token, int from, int to) {
+            if (signed.length < to - from) signed = new byte[Integer.highestOneBit(to - from) << 1];
+            for (int i = from; i < to; i++) {
+                char c = token.charAt(i);
+                if (c > 127) throw UNSUPPORTED;
+                signed[i - from] = (byte) c;
+            }
+            return signed;
+        }
+
+        /**
+         * Decodes the unpadded Base64url in {@code token[from, to)} into {@link #decoded}.
+         *
+         * @return the number of bytes decoded
+         */
+        int decode(String token, int from, int to) {
+            int chars = to - from;
+            if (chars % 4 == 1) throw UNSUPPORTED;
+            int length = chars / 4 * 3 + Math.max(0, chars % 4 - 1);
+            if (decoded.length < length) decoded = new byte[Integer.highestOneBit(length) << 1];
+
+            int bits = 0;
+            int buffered = 0;
+            int out = 0;
+            for (int i = from; i < to; i++) {
+                char c = token.charAt(i);
+                int value = c < 128 ? BASE64URL[c] : -1;
+                if (value < 0) throw UNSUPPORTED;
+                bits = bits << 6 | value;
+                buffered += 6;
+                if (buffered >= 8) {
+                    buffered -= 8;
+                    decoded[out++] = (byte) (bits >> buffered);
+                }
+            }
+            return out;
+        }
+    }
+
+    /**
+     * Scans one flat JSON object in place. Strings are reported as ranges of the buffer and only turned into
+     * Strings when asked; anything nested or unusual throws {@link #UNSUPPORTED}.
+     */
+    private static final class Scanner {
+        private byte[] bytes;
+        private int end;
+        private int position;
+        private int keyStart;
+        private int keyEnd;
+        private int stringStart;
+        private int stringEnd;
+        private boolean stringEscaped;
+        private boolean first;
+
+        Scanner reset(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.end = length;
+            this.position = 0;
+            return this;
+        }
+
+        void beginObject() {
+            expect('{');
+            first = true;
+        }
+
+        boolean nextKey() {
+            skipWhitespace();
+            if (peek() == '}') {
+                position++;
+                return false;
+            }
+            if (!first) expect(',');
+            first = false;
+            rawString();
+            if (stringEscaped) throw UNSUPPORTED;
+            keyStart = stringStart;
+            keyEnd = stringEnd;
+            expect(':');
+            return true;
+        }
+
+        boolean keyIs(byte[] name) {
+            return rangeIs(keyStart, keyEnd, name);
+        }
+
+        void beginArray() {
+            expect('[');
+            first = true;
+        }
+
+        boolean nextElement() {
+            skipWhitespace();
+            if (peek() == ']') {
+                position++;
+                // back in the enclosing object, which has had a key already
+                first = false;
+                return false;
+            }
+            if (!first) expect(',');
+            first = false;
+            return true;
+        }
+
+        Scanner string() {
+            rawString();
+            return this;
+        }
+
+        boolean lastStringIs(byte[] value) {
+            return !stringEscaped && rangeIs(stringStart, stringEnd, value);
+        }
+
+        int lastStringIndexIn(byte[][] values) {
+            for (int i = 0; i < values.length; i++) {
+                if (lastStringIs(values[i])) return i;
+            }
+            return -1;
+        }
+
+        String stringValue() {
+            rawString();
+            return lastString();
+        }
+
+        String lastString() {
+            if (!stringEscaped) return new String(bytes, stringStart, stringEnd - stringStart, StandardCharsets.UTF_8);
+            return unescape();
+        }
+
+        long integer() {
+            skipWhitespace();
+            boolean negative = peek() == '-';
+            if (negative) position++;
+            int start = position;
+            long value = 0;
+            while (position < end && bytes[position] >= '0' && bytes[position] <= '9') {
+                value = Math.addExact(Math.multiplyExact(value, 10), bytes[position++] - '0');
+            }
+            if (position == start) throw UNSUPPORTED;
+            // fractions and exponents are left to jjwt
+            if (position < end && (bytes[position] == '.' || bytes[position] == 'e' || bytes[position] == 'E')) throw UNSUPPORTED;
+            return negative ? -value : value;
+        }
+
+        void skipScalar() {
+            skipWhitespace();
+            byte next = peek();
+            if (next == '"') rawString();
+            else if (next == '-' || (next >= '0' && next <= '9')) skipNumber();
+            else if (!literal("true") && !literal("false") && !literal("null")) throw UNSUPPORTED;
+        }
+
+        void skipScalarOrFlatArray() {
+            skipWhitespace();
+            if (peek() != '[') {
+                skipScalar();
+                return;
+            }
+            beginArray();
+            while (nextElement()) skipScalar();
+        }
+
+        void end() {
+            skipWhitespace();
+            if (position != end) throw UNSUPPORTED;
+        }
+
+        private void rawString() {
+            expect('"');
+            stringStart = position;
+            stringEscaped = false;
+            while (true) {
+                if (position >= end) throw UNSUPPORTED;
+                byte b = bytes[position];
+                if (b == '"') break;
+                if (b == '\\') {
+                    stringEscaped = true;
+                    position++;
+                }
+                position++;
+            }
+            stringEnd = position++;
+        }
+
+        private String unescape() {
+            StringBuilder value = new StringBuilder(stringEnd - stringStart);
+            int i = stringStart;
+            int literalStart = i;
+            while (i < stringEnd) {
+                if (bytes[i] != '\\') {
+                    i++;
+                    continue;
+                }
+                value.append(new String(bytes, literalStart, i - literalStart, StandardCharsets.UTF_8));
+                char escaped = (char) bytes[i + 1];
+                switch (escaped) {
+                    case '"': case '\\': case '/': value.append(escaped); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (i + 6 > stringEnd) throw UNSUPPORTED;
+                        value.append((char) Integer.parseInt(new String(bytes, i + 2, 4, StandardCharsets.US_ASCII), 16));
+                        i += 4;
+                        break;
+                    default: throw UNSUPPORTED;
+                }
+                i += 2;
+                literalStart = i;
+            }
+            value.append(new String(bytes, literalStart, stringEnd - literalStart, StandardCharsets.UTF_8));
+            return value.toString();
+        }
+
+        private void skipNumber() {
+            if (peek() == '-') position++;
+            while (position < end && "0123456789.eE+-".indexOf(bytes[position]) >= 0) position++;
+        }
+
+        private boolean literal(String word) {
+            if (end - position < word.length()) return false;
+            for (int i = 0; i < word.length(); i++) {
+                if (bytes[position + i] != word.charAt(i)) return false;
+            }
+            position += word.length();
+            return true;
+        }
+
+        private boolean rangeIs(int from, int to, byte[] value) {
+            if (to - from != value.length) return false;
+            for (int i = 0; i < value.length; i++) {
+                if (bytes[from + i] != value[i]) return false;
+            }
+            return true;
+        }
+
+        private void expect(char c) {
+            skipWhitespace();
+            if (peek() != c) throw UNSUPPORTED;
+            position++;
+        }
+
+        private byte peek() {
+            if (position >= end) throw UNSUPPORTED;
+            return bytes[position];
+        }
+
+        private void skipWhitespace() {
+            while (position < end && (bytes[position] == ' ' || bytes[position] == '\t' || bytes[position] == '\n' || bytes[position] == '\r')) {
+                position++;
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.galvanize.useraccounts.security;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Public keys for RS256 and ES256 tokens by {@code kid}, loaded from the JWKS document at
+ * {@code security.jwt.jwks-uri} (a {@code file:}, {@code classpath:} or {@code https:} location) and reloaded in the
+ * background every {@code security.jwt.jwks-refresh-interval}.
+ * <p>
+ * A reload swaps in a whole new map and lookups only read the current one, so requests never wait on a reload.
+ * A kid that is not known yet is answered with null right away and brings the next reload forward, at most once per
+ * {@code security.jwt.jwks-min-refresh-interval}. A reload that cannot read the document keeps the keys already
+ * loaded; one that can only skips the keys in it that cannot be read.
+ */
+public class JwkKeySet implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(JwkKeySet.class);
+    private static final Map<String, String> CURVES = Map.of("P-256", "secp256r1", "P-384", "secp384r1", "P-521", "secp521r1");
+    private static final int TIMEOUT_MILLIS = 5_000;
+
+    private final String location;
+    private final long minRefreshNanos;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ScheduledExecutorService refresher;
+    private final AtomicLong lastRefresh = new AtomicLong();
+    private final LongAdder failures = new LongAdder();
+    private volatile Map<String, PublicKey> keys = Collections.emptyMap();
+
+    public JwkKeySet(String location, Duration refreshInterval, Duration minRefreshInterval) {
+        this.location = location;
+        this.minRefreshNanos = minRefreshInterval.toNanos();
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jwks-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        lastRefresh.set(System.nanoTime());
+        refresh();
+        refresher.scheduleWithFixedDelay(this::refresh, refreshInterval.toMillis(), refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the key, or null when there is no key with this kid (yet)
+     */
+    public PublicKey get(String kid) {
+        PublicKey key = kid == null ? null : keys.get(kid);
+        if (key == null) refreshSoon();
+        return key;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public long failures() {
+        return failures.sum();
+    }
+
+    /**
+     * Loads the document and swaps in its keys; when the document cannot be read the current keys stay.
+     */
+    public void refresh() {
+        try {
+            keys = Collections.unmodifiableMap(parse(mapper.readTree(fetch())));
+        } catch (IOException | RuntimeException e) {
+            failures.increment();
+            log.warn("Could not load the JWKS from {}, keeping {} keys", location, keys.size(), e);
+        }
+    }
+
+    private void refreshSoon() {
+        long last = lastRefresh.get();
+        long now = System.nanoTime();
+        if (now - last >= minRefreshNanos && lastRefresh.compareAndSet(last, now)) refresher.execute(this::refresh);
+    }
+
+    private byte[] fetch() throws IOException {
+        if (location.startsWith("http:") || location.startsWith("https:")) {
+            URLConnection connection = new URL(location).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            try (InputStream in = connection.getInputStream()) {
+                return in.readAllBytes();
+            }
+        }
+        try (InputStream in = new DefaultResourceLoader().getResource(location).getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Reads the RSA and EC signing keys of a JWKS document; keys without a kid, for encryption, or of other types are
+     * skipped, and so is a key that cannot be read, so one bad entry does not hold back the others.
+     *
+     * @throws IOException when the document has no keys array
+     */
+    static Map<String, PublicKey> parse(JsonNode document) throws IOException {
+        JsonNode jwks = document.path("keys");
+        if (!jwks.isArray()) throw new IOException("JWKS document has no keys array");
+
+        Map<String, PublicKey> keys = new HashMap<>();
+        for (JsonNode jwk : jwks) {
+            String kid = jwk.path("kid").asText(null);
+            if (kid == null || "enc".equals(jwk.path("use").asText())) continue;
+
+            try {
+                PublicKey key = parseKey(jwk);
+                if (key != null) keys.put(kid, key);
+            } catch (GeneralSecurityException | RuntimeException e) {
+                log.warn("Skipping JWK {}, it cannot be read", kid, e);
+            }
+        }
+        return keys;
+    }
+
+    private static PublicKey parseKey(JsonNode jwk) throws GeneralSecurityException {
+        switch (jwk.path("kty").asText()) {
+            case "RSA":
+                return KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(unsigned(jwk, "n"), unsigned(jwk, "e")));
+            case "EC":
+                String curve = CURVES.get(jwk.path("crv").asText());
+                if (curve == null) return null;
+                AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+                parameters.init(new ECGenParameterSpec(curve));
+                return KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(
+                        new ECPoint(unsigned(jwk, "x"), unsigned(jwk, "y")), parameters.getParameterSpec(ECParameterSpec.class)));
+            default:
+                // oct keys are shared secrets and never published; anything else is not supported
+                return null;
+        }
+    }
+
+    private static BigInteger unsigned(JsonNode jwk, String field) {
+        String value = jwk.path(field).asText(null);
+        if (value == null) throw new IllegalArgumentException("JWK " + jwk.path("kid").asText() + " has no " + field);
+        return new BigInteger(1, Base64.getUrlDecoder().decode(value));
+    }
+
+    @Override
+    public void destroy() {
+        refresher.shutdownNow();
+    }
+}
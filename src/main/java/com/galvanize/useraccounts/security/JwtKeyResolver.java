@@ -0,0 +1,45 @@
+package com.galvanize.useraccounts.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SignatureException;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import io.jsonwebtoken.UnsupportedJwtException;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.Key;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+
+/**
+ * Picks the key for a token by its header: the shared secret for HS algorithms, the {@link JwkKeySet} key named by
+ * {@code kid} for RS and ES ones. The key type must match the algorithm, so a public key is never used as an HMAC
+ * secret and an RSA key never verifies an EC signature.
+ */
+public class JwtKeyResolver extends SigningKeyResolverAdapter {
+    private final byte[] secret;
+    private final JwkKeySet keySet;
+
+    public JwtKeyResolver(byte[] secret, JwkKeySet keySet) {
+        this.secret = secret;
+        this.keySet = keySet;
+    }
+
+    @Override
+    public Key resolveSigningKey(JwsHeader header, Claims claims) {
+        SignatureAlgorithm algorithm = SignatureAlgorithm.forName(header.getAlgorithm());
+        if (algorithm.isHmac()) {
+            if (secret == null) throw new UnsupportedJwtException("No shared secret for " + algorithm);
+            return new SecretKeySpec(secret, algorithm.getJcaName());
+        }
+        if (keySet == null) throw new UnsupportedJwtException("No key set for " + algorithm);
+
+        PublicKey key = keySet.get(header.getKeyId());
+        if (key == null) throw new SignatureException("No key with kid " + header.getKeyId());
+        boolean matches = algorithm.isRsa() ? key instanceof RSAPublicKey : algorithm.isEllipticCurve() && key instanceof ECPublicKey;
+        if (!matches) throw new SignatureException("Key " + header.getKeyId() + " cannot verify " + algorithm);
+        return key;
+    }
+}
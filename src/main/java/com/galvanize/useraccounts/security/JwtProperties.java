@@ -3,6 +3,8 @@ package com.galvanize.useraccounts.security;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+
 @Configuration
 @ConfigurationProperties("security.jwt")
 public class JwtProperties {
@@ -11,6 +13,14 @@ public class JwtProperties {
     private String prefix = "Bearer";
     private int expiration = 60*24;
     private String secret;
+    // verified tokens kept in memory, so a repeated token skips parsing and the signature check
+    private int tokenCacheSize = 10_000;
+    // HMAC tokens of the usual shape are checked by HmacJwtVerifier; anything else, or everything when off, by jjwt
+    private boolean fastVerification = true;
+    // JWKS with the public keys of RS256/ES256 tokens (file:, classpath: or https:); none means shared-secret tokens only
+    private String jwksUri;
+    private Duration jwksRefreshInterval = Duration.ofMinutes(5);
+    private Duration jwksMinRefreshInterval = Duration.ofSeconds(30);
 
     public String getUri() {
         return uri;
@@ -51,4 +61,44 @@ public class JwtProperties {
     public void setSecret(String secret) {
         this.secret = secret;
     }
+
+    public int getTokenCacheSize() {
+        return tokenCacheSize;
+    }
+
+    public void setTokenCacheSize(int tokenCacheSize) {
+        this.tokenCacheSize = tokenCacheSize;
+    }
+
+    public boolean isFastVerification() {
+        return fastVerification;
+    }
+
+    public void setFastVerification(boolean fastVerification) {
+        this.fastVerification = fastVerification;
+    }
+
+    public String getJwksUri() {
+        return jwksUri;
+    }
+
+    public void setJwksUri(String jwksUri) {
+        this.jwksUri = jwksUri;
+    }
+
+    public Duration getJwksRefreshInterval() {
+        return jwksRefreshInterval;
+    }
+
+    public void setJwksRefreshInterval(Duration jwksRefreshInterval) {
+        this.jwksRefreshInterval = jwksRefreshInterval;
+    }
+
+    public Duration getJwksMinRefreshInterval() {
+        return jwksMinRefreshInterval;
+    }
+
+    public void setJwksMinRefreshInterval(Duration jwksMinRefreshInterval) {
+        this.jwksMinRefreshInterval = jwksMinRefreshInterval;
+    }
 }
@@ -3,6 +3,7 @@ package com.galvanize.useraccounts.security;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -12,15 +13,37 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class JwtTokenAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtProperties jwtProperties;
+    private final VerifiedTokenCache tokenCache;
+    // read once: the secret does not change while the application runs
+    private final byte[] signingKey;
+    private final HmacJwtVerifier fastVerifier;
+    private final JwtKeyResolver keyResolver;
 
     public JwtTokenAuthenticationFilter(JwtProperties jwtProperties) {
+        this(jwtProperties, null);
+    }
+
+    /**
+     * @param keySet public keys for RS256/ES256 tokens, or null to accept shared-secret tokens only
+     */
+    public JwtTokenAuthenticationFilter(JwtProperties jwtProperties, JwkKeySet keySet) {
+        this(jwtProperties, keySet, new VerifiedTokenCache(jwtProperties.getTokenCacheSize()));
+    }
+
+    JwtTokenAuthenticationFilter(JwtProperties jwtProperties, JwkKeySet keySet, VerifiedTokenCache tokenCache) {
         this.jwtProperties = jwtProperties;
+        this.tokenCache = tokenCache;
+        this.signingKey = jwtProperties.getSecret() == null ? null : jwtProperties.getSecret().getBytes();
+        this.fastVerifier = signingKey != null && jwtProperties.isFastVerification() ? new HmacJwtVerifier(signingKey) : null;
+        this.keyResolver = new JwtKeyResolver(signingKey, keySet);
     }
 
     @Override
@@ -43,29 +66,23 @@ public class JwtTokenAuthenticationFilter extends OncePerRequestFilter {
         // And If user tried to access without access token, then he won't be authenticated and an exception will be thrown.
 
         // 3. Get the token
-        String token = header.replace(jwtProperties.getPrefix(), "");
+        String token = header.substring(jwtProperties.getPrefix().length()).trim();
 
         try {	// exceptions might be thrown in creating the claims if for example the token is expired
 
-            // 4. Validate the token
-            Claims claims = Jwts.parser()
-                    .setSigningKey(jwtProperties.getSecret().getBytes())
-                    .parseClaimsJws(token)
-                    .getBody();
-
-            String username = claims.getSubject();
-            if(username != null) {
-                @SuppressWarnings("unchecked")
-                List<String> authorities = (List<String>) claims.get("authorities");
-                JwtUser principal = new JwtUser(claims.get("guid", Long.class),
-                        username, claims.get("email", String.class),
-                        authorities.stream().map(String::new).collect(Collectors.toList()));
+            // 4. Validate the token, unless it was validated before and has not expired since
+            VerifiedTokenCache.Verified verified = tokenCache.get(token);
+            if (verified == null) {
+                verified = verify(token);
+                if (verified != null) tokenCache.put(token, verified);
+            }
 
+            if (verified != null) {
                 // 5. Create auth object
                 // UsernamePasswordAuthenticationToken: A built-in object, used by spring to represent the current authenticated / being authenticated user.
                 // It needs a list of authorities, which has type of GrantedAuthority interface, where SimpleGrantedAuthority is an implementation of that interface
                 UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(
-                        principal, null, authorities.stream().map(SimpleGrantedAuthority::new).collect(Collectors.toList()));
+                        verified.getPrincipal(), null, verified.getAuthorities());
 
                 // 6. Authenticate the user
                 // Now, user is authenticated
@@ -81,6 +98,30 @@ public class JwtTokenAuthenticationFilter extends OncePerRequestFilter {
         chain.doFilter(request, response);
     }
 
+    /**
+     * Parses and checks the signature and expiry of {@code token}; null for a valid token without a subject.
+     */
+    private VerifiedTokenCache.Verified verify(String token) {
+        if (fastVerifier != null) {
+            VerifiedTokenCache.Verified verified = fastVerifier.verify(token);
+            if (verified != null) return verified;
+        }
+
+        Claims claims = Jwts.parser()
+                .setSigningKeyResolver(keyResolver)
+                .parseClaimsJws(token)
+                .getBody();
 
+        String username = claims.getSubject();
+        if (username == null) return null;
 
-}
\ No newline at end of file
+        @SuppressWarnings("unchecked")
+        List<String> names = (List<String>) claims.get("authorities");
+        List<GrantedAuthority> authorities = new ArrayList<>(names.size());
+        for (String name : names) authorities.add(new SimpleGrantedAuthority(name));
+
+        JwtUser principal = new JwtUser(claims.get("guid", Long.class), username, claims.get("email", String.class), Collections.unmodifiableList(new ArrayList<>(names)));
+        Date expiration = claims.getExpiration();
+        return new VerifiedTokenCache.Verified(principal, authorities, expiration == null ? Long.MAX_VALUE : expiration.getTime());
+    }
+}
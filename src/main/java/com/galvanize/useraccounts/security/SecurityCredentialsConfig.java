@@ -1,5 +1,12 @@
 package com.galvanize.useraccounts.security;
 
+import com.galvanize.useraccounts.ratelimit.RateLimitFilter;
+import com.galvanize.useraccounts.ratelimit.RateLimitProperties;
+import com.galvanize.useraccounts.ratelimit.RateLimiter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
@@ -17,9 +24,28 @@ import javax.servlet.http.HttpServletResponse;
 public class SecurityCredentialsConfig extends WebSecurityConfigurerAdapter {
 
     private JwtProperties jwtProperties;
+    private ObjectProvider<JwkKeySet> keySet;
 
-    public SecurityCredentialsConfig(JwtProperties jwtProperties) {
+    public SecurityCredentialsConfig(JwtProperties jwtProperties, ObjectProvider<JwkKeySet> keySet) {
         this.jwtProperties = jwtProperties;
+        this.keySet = keySet;
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "security.jwt", name = "jwks-uri")
+    public JwkKeySet jwkKeySet() {
+        return new JwkKeySet(jwtProperties.getJwksUri(), jwtProperties.getJwksRefreshInterval(), jwtProperties.getJwksMinRefreshInterval());
+    }
+
+    @Bean
+    @ConfigurationProperties("security.rate-limit")
+    public RateLimitProperties rateLimitProperties() {
+        return new RateLimitProperties();
+    }
+
+    @Bean
+    public RateLimiter rateLimiter() {
+        return new RateLimiter(rateLimitProperties());
     }
 
     @Override
@@ -33,7 +59,9 @@ public class SecurityCredentialsConfig extends WebSecurityConfigurerAdapter {
                 .exceptionHandling().authenticationEntryPoint((req, rsp, e) -> rsp.sendError(HttpServletResponse.SC_UNAUTHORIZED))
                 .and()
                 // .addFilter(new JwtTokenAuthenticationFilter(jwtProperties))
-                .addFilterBefore(new JwtTokenAuthenticationFilter(jwtProperties), UsernamePasswordAuthenticationFilter.class)
+                .addFilterBefore(new JwtTokenAuthenticationFilter(jwtProperties, keySet.getIfAvailable()), UsernamePasswordAuthenticationFilter.class)
+                // after the token is read, so callers with one are limited by guid rather than address
+                .addFilterAfter(new RateLimitFilter(rateLimiter()), JwtTokenAuthenticationFilter.class)
                 // Add a filter to validate user credentials and add token in the response header
                 // What's the authenticationManager()?
                 // An object provided by WebSecurityConfigurerAdapter, used to authenticate the user passing user's credentials
@@ -45,6 +73,8 @@ public class SecurityCredentialsConfig extends WebSecurityConfigurerAdapter {
                 // ADMIN ACTUATOR ENDPOINTS (ARE NOT EXPOSED)
                 .antMatchers(HttpMethod.GET, "/actuator/**").hasRole("ADMIN")
                 .antMatchers(HttpMethod.GET, "/api/users/**").permitAll()
+                // batch form of the open condensed lookup
+                .antMatchers(HttpMethod.POST, "/api/users/condensed:batch").permitAll()
                 // any other requests must be authenticated
                 .anyRequest().authenticated();
     }
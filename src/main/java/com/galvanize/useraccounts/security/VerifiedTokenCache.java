@@ -0,0 +1,98 @@
+package com.galvanize.useraccounts.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.springframework.security.core.GrantedAuthority;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tokens that already passed verification, with the principal and authorities built from them, so a token that is
+ * sent again costs one hash and one lookup instead of parsing and a signature check.
+ * <p>
+ * Keys are SHA-256 digests, so the cache holds no usable bearer tokens. Each entry expires when its token does;
+ * a token without {@code exp} stays until it is evicted by size.
+ */
+public class VerifiedTokenCache {
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final Cache<ByteBuffer, Verified> cache;
+
+    public static final class Verified {
+        private final JwtUser principal;
+        private final List<GrantedAuthority> authorities;
+        // epoch millis, or Long.MAX_VALUE for a token that does not expire
+        private final long expiresAt;
+
+        public Verified(JwtUser principal, List<GrantedAuthority> authorities, long expiresAt) {
+            this.principal = principal;
+            this.authorities = authorities;
+            this.expiresAt = expiresAt;
+        }
+
+        public JwtUser getPrincipal() {
+            return principal;
+        }
+
+        public List<GrantedAuthority> getAuthorities() {
+            return authorities;
+        }
+    }
+
+    public VerifiedTokenCache(int maximumSize) {
+        this(maximumSize, Ticker.systemTicker());
+    }
+
+    VerifiedTokenCache(int maximumSize, Ticker ticker) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new Expiry<ByteBuffer, Verified>() {
+                    @Override
+                    public long expireAfterCreate(ByteBuffer key, Verified value, long currentTime) {
+                        if (value.expiresAt == Long.MAX_VALUE) return Long.MAX_VALUE;
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, value.expiresAt - System.currentTimeMillis()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(ByteBuffer key, Verified value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(ByteBuffer key, Verified value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .ticker(ticker)
+                .build();
+    }
+
+    public Verified get(String token) {
+        return cache.getIfPresent(digest(token));
+    }
+
+    public void put(String token, Verified verified) {
+        cache.put(digest(token), verified);
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    private static ByteBuffer digest(String token) {
+        return ByteBuffer.wrap(SHA_256.get().digest(token.getBytes(StandardCharsets.UTF_8)));
+    }
+}
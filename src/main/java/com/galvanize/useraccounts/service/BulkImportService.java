@@ -0,0 +1,295 @@
+package com.galvanize.useraccounts.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.event.UserChangedEvent;
+import com.galvanize.useraccounts.exception.DuplicateEmailException;
+import com.galvanize.useraccounts.exception.DuplicateUserException;
+import com.galvanize.useraccounts.model.BulkImportResult;
+import com.galvanize.useraccounts.model.User;
+import com.galvanize.useraccounts.model.UserChange;
+import com.galvanize.useraccounts.model.UserCondensed;
+import com.galvanize.useraccounts.repository.UserChangesRepository;
+import com.galvanize.useraccounts.repository.UsersBulkRepository;
+import com.galvanize.useraccounts.repository.UsersRepository;
+import com.galvanize.useraccounts.shard.Shards;
+import com.galvanize.useraccounts.shard.UserDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Imports users from NDJSON, one user per line. Lines are validated one by one and inserted in chunks,
+ * each chunk in its own transaction; a line that cannot be imported is reported by number instead of
+ * failing the whole request. With sharding, a chunk is split by shard and each shard's part is one transaction.
+ * <p>
+ * An import is not all or nothing: what committed stays. When a part fails for a reason other than a duplicate, e.g. a
+ * lost connection, each of its lines is reported as {@link #NOT_WRITTEN} and its directory claims are given back, and
+ * the import goes on with the next part.
+ */
+@Service
+public class BulkImportService {
+    static final String MALFORMED_LINE = "Line is not a valid user JSON object.";
+    static final String DUPLICATE_GUID = "Guid already exists.";
+    static final String DUPLICATE_USERNAME = "Username already taken.";
+    static final String DUPLICATE_EMAIL = "Email already taken.";
+    static final String DUPLICATE_USER = "Guid, username or email already exists.";
+    static final String NOT_WRITTEN = "User could not be written; try the line again.";
+
+    private static final Logger log = LoggerFactory.getLogger(BulkImportService.class);
+
+    private final UsersRepository usersRepository;
+    private final UsersBulkRepository bulkRepository;
+    private final ObjectReader userReader;
+    private final Validator validator;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher publisher;
+    private final UsersProperties usersProperties;
+    private final Shards shards;
+    private final UserDirectory directory;
+    private final UserChangesRepository changesRepository;
+
+    public BulkImportService(UsersRepository usersRepository, UsersBulkRepository bulkRepository, ObjectMapper objectMapper,
+                             Validator validator, PlatformTransactionManager transactionManager, ApplicationEventPublisher publisher,
+                             UsersProperties usersProperties, Shards shards, UserDirectory directory,
+                             UserChangesRepository changesRepository) {
+        this.usersRepository = usersRepository;
+        this.bulkRepository = bulkRepository;
+        this.userReader = objectMapper.readerFor(User.class);
+        this.validator = validator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.publisher = publisher;
+        this.usersProperties = usersProperties;
+        this.shards = shards;
+        this.directory = directory;
+        this.changesRepository = changesRepository;
+    }
+
+    private static class Row {
+        final int line;
+        final User user;
+        UserDirectory.Claim claim;
+        // created, or failed with its own error
+        boolean reported;
+
+        Row(int line, User user) {
+            this.line = line;
+            this.user = user;
+        }
+    }
+
+    public BulkImportResult importUsers(InputStream in) throws IOException {
+        BulkImportResult result = new BulkImportResult();
+        int batchSize = usersProperties.getBulk().getBatchSize();
+        List<Row> chunk = new ArrayList<>(batchSize);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String json;
+        int line = 0;
+        while ((json = reader.readLine()) != null) {
+            line++;
+            if (json.isBlank()) continue;
+
+            User user;
+            try {
+                user = userReader.readValue(json);
+            } catch (JsonProcessingException e) {
+                result.fail(line, MALFORMED_LINE);
+                continue;
+            }
+
+            List<String> errors = validator.validate(user).stream()
+                    .map(ConstraintViolation::getMessage)
+                    .sorted()
+                    .collect(Collectors.toList());
+            if (!errors.isEmpty()) {
+                result.fail(line, errors);
+                continue;
+            }
+
+            chunk.add(new Row(line, user));
+            if (chunk.size() == batchSize) {
+                importChunk(chunk, result);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) importChunk(chunk, result);
+
+        return result;
+    }
+
+    private void importChunk(List<Row> chunk, BulkImportResult result) {
+        List<Row> rows;
+        try {
+            rows = claim(rejectDuplicates(chunk, result), result);
+        } catch (RuntimeException e) {
+            abandon(chunk, result, e);
+            return;
+        }
+        if (rows.isEmpty()) return;
+
+        shards.byShard(rows, row -> row.user.getGuid()).values().forEach(owned -> {
+            try {
+                importOwned(owned, result);
+            } catch (RuntimeException e) {
+                abandon(owned, result, e);
+            }
+        });
+    }
+
+    // rows that all belong to one shard
+    private void importOwned(List<Row> rows, BulkImportResult result) {
+        List<User> users = rows.stream().map(row -> row.user).collect(Collectors.toList());
+        try {
+            insert(users);
+            rows.forEach(row -> row.reported = true);
+            created(users, result);
+        } catch (DataIntegrityViolationException e) {
+            // a concurrent writer took one of the keys after the pre-check; find the offending rows one at a time
+            for (Row row : rows) {
+                try {
+                    insert(Collections.singletonList(row.user));
+                    row.reported = true;
+                    created(Collections.singletonList(row.user), result);
+                } catch (DataIntegrityViolationException rowFailure) {
+                    if (row.claim != null) row.claim.release();
+                    fail(row, result, DUPLICATE_USER);
+                }
+            }
+        }
+    }
+
+    // rows that were neither created nor rejected when a write failed: report them and give their keys back
+    private void abandon(List<Row> rows, BulkImportResult result, RuntimeException cause) {
+        log.warn("Could not import lines {} to {}, reporting them as not written", rows.get(0).line, rows.get(rows.size() - 1).line, cause);
+        for (Row row : rows) {
+            if (row.reported) continue;
+            if (row.claim != null) {
+                try {
+                    row.claim.release();
+                } catch (RuntimeException e) {
+                    log.warn("Could not release the keys claimed for line {}; the rebalancer's copy pass clears them", row.line, e);
+                }
+            }
+            fail(row, result, NOT_WRITTEN);
+        }
+    }
+
+    private static void fail(Row row, BulkImportResult result, String error) {
+        fail(row, result, Collections.singletonList(error));
+    }
+
+    private static void fail(Row row, BulkImportResult result, List<String> errors) {
+        result.fail(row.line, errors);
+        row.reported = true;
+    }
+
+    private void insert(List<User> users) {
+        shards.on(users.get(0).getGuid(), () -> {
+            transactionTemplate.executeWithoutResult(status -> {
+                bulkRepository.insertAll(users, now());
+                changesRepository.appendAll(users.stream().map(User::getGuid).collect(Collectors.toList()), UserChange.Type.CREATED);
+            });
+            return null;
+        });
+    }
+
+    /**
+     * With the directory enabled, claims each row's username and email, which must also be free on every other
+     * shard; rows that cannot claim them are rejected like the other duplicates.
+     */
+    private List<Row> claim(List<Row> rows, BulkImportResult result) {
+        if (!directory.isEnabled()) return rows;
+
+        List<Row> claimed = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            try {
+                row.claim = directory.claim(row.user.getGuid(), row.user.getUsername(), row.user.getEmail());
+                claimed.add(row);
+            } catch (DuplicateUserException e) {
+                fail(row, result, DUPLICATE_USERNAME);
+            } catch (DuplicateEmailException e) {
+                fail(row, result, DUPLICATE_EMAIL);
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * Drops rows whose guid, username or email repeats an earlier line or an existing user. The unique
+     * constraints would reject them anyway, but only by failing the whole batch.
+     */
+    private List<Row> rejectDuplicates(List<Row> chunk, BulkImportResult result) {
+        Set<Long> guids = new HashSet<>();
+        Set<String> usernames = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        Set<Long> chunkGuids = chunk.stream().map(row -> row.user.getGuid()).collect(Collectors.toSet());
+        Set<String> chunkUsernames = chunk.stream().map(row -> row.user.getUsername()).collect(Collectors.toSet());
+        Set<String> chunkEmails = chunk.stream().map(row -> row.user.getEmail()).collect(Collectors.toSet());
+        // usernames and emails may collide with users on any shard
+        List<UserCondensed> existing = shards.scatter(() -> usersRepository.findCondensedConflicting(chunkGuids, chunkUsernames, chunkEmails));
+        for (UserCondensed user : existing) {
+            guids.add(user.getGuid());
+            usernames.add(key(user.getUsername()));
+            emails.add(key(user.getEmail()));
+        }
+
+        List<Row> rows = new ArrayList<>(chunk.size());
+        for (Row row : chunk) {
+            String username = key(row.user.getUsername());
+            String email = key(row.user.getEmail());
+            List<String> errors = new ArrayList<>();
+            if (guids.contains(row.user.getGuid())) errors.add(DUPLICATE_GUID);
+            if (usernames.contains(username)) errors.add(DUPLICATE_USERNAME);
+            if (emails.contains(email)) errors.add(DUPLICATE_EMAIL);
+
+            if (errors.isEmpty()) {
+                // only accepted rows claim their keys
+                guids.add(row.user.getGuid());
+                usernames.add(username);
+                emails.add(email);
+                rows.add(row);
+            } else {
+                fail(row, result, errors);
+            }
+        }
+        return rows;
+    }
+
+    private void created(List<User> users, BulkImportResult result) {
+        // the JDBC inserts bypass UserEntityListener, so announce the new users to the in-memory indexes here
+        users.forEach(user -> publisher.publishEvent(UserChangedEvent.of(UserChangedEvent.Type.CREATED, user)));
+        result.created(users.size());
+    }
+
+    // MySQL compares usernames and emails case-insensitively
+    private static String key(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    private static Timestamp now() {
+        return new Timestamp(System.currentTimeMillis());
+    }
+}
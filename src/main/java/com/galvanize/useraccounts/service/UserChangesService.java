@@ -0,0 +1,87 @@
+package com.galvanize.useraccounts.service;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.model.UserChange;
+import com.galvanize.useraccounts.model.UserChanges;
+import com.galvanize.useraccounts.outbox.ChangeCursor;
+import com.galvanize.useraccounts.outbox.ChangeWindow;
+import com.galvanize.useraccounts.repository.UserChangesRepository;
+import com.galvanize.useraccounts.shard.Shards;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the change outbox as a feed: consumers keep the returned cursor and only ever read what changed since,
+ * instead of re-reading every user they care about. Changes are returned as soon as they are committed; the cursor
+ * remembers the ones returned above its settled position, so a late commit below them is still returned once. A page
+ * ends early when those would no longer fit in {@link ChangeCursor#MAX_TAKEN_RUNS} runs; they settle within the
+ * settle delay.
+ */
+@Service
+public class UserChangesService {
+    private final UserChangesRepository changesRepository;
+    private final Shards shards;
+    private final UsersProperties usersProperties;
+
+    public UserChangesService(UserChangesRepository changesRepository, Shards shards, UsersProperties usersProperties) {
+        this.changesRepository = changesRepository;
+        this.shards = shards;
+        this.usersProperties = usersProperties;
+    }
+
+    /**
+     * @param since a cursor from an earlier page, or null to start from the oldest change still kept
+     */
+    @Transactional(readOnly = true)
+    public UserChanges getChanges(String since, Integer limit) {
+        UsersProperties.Outbox outbox = usersProperties.getOutbox();
+        int size = limit == null ? outbox.getPageLimit() : Math.min(Math.max(limit, 1), outbox.getMaxPageLimit());
+        ChangeCursor cursor = since == null ? ChangeCursor.START : ChangeCursor.decode(since);
+
+        Map<String, ChangeWindow> windows = new LinkedHashMap<>();
+        Map<String, List<UserChange>> pages = new LinkedHashMap<>();
+        for (String database : shards.databases()) {
+            long position = cursor.positionOf(database);
+            Set<Long> takenAbove = cursor.takenOf(database);
+            ChangeWindow window = shards.onShard(database, () -> ChangeWindow.read(changesRepository, position, takenAbove, size,
+                    changesRepository.ago(outbox.getSettleDelay())));
+            windows.put(database, window);
+            pages.put(database, window.fresh());
+        }
+
+        // merged by time, but each database's changes stay in id order so its position only ever skips what was read
+        List<UserChange> changes = new ArrayList<>(size);
+        Map<String, Integer> taken = new LinkedHashMap<>();
+        pages.keySet().forEach(database -> taken.put(database, 0));
+        while (changes.size() < size) {
+            String earliest = null;
+            for (Map.Entry<String, List<UserChange>> page : pages.entrySet()) {
+                int next = taken.get(page.getKey());
+                if (next == page.getValue().size()) continue;
+                if (earliest == null || page.getValue().get(next).getOccurredAt()
+                        .before(pages.get(earliest).get(taken.get(earliest)).getOccurredAt())) earliest = page.getKey();
+            }
+            if (earliest == null) break;
+            // the cursor carries the ids taken above each position; a database stops here before they scatter too far
+            if (windows.get(earliest).takenRunsAfter(taken.get(earliest) + 1) > ChangeCursor.MAX_TAKEN_RUNS) {
+                pages.put(earliest, pages.get(earliest).subList(0, taken.get(earliest)));
+                continue;
+            }
+
+            changes.add(pages.get(earliest).get(taken.get(earliest)));
+            taken.merge(earliest, 1, Integer::sum);
+        }
+
+        for (Map.Entry<String, ChangeWindow> window : windows.entrySet()) {
+            int count = taken.get(window.getKey());
+            cursor = cursor.with(window.getKey(), window.getValue().positionAfter(count), window.getValue().takenAfter(count));
+        }
+        return new UserChanges(changes, cursor.encode());
+    }
+}
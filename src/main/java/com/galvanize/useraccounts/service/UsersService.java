@@ -1,158 +1,583 @@
 package com.galvanize.useraccounts.service;
 
 import com.galvanize.useraccounts.UsersList;
+import com.galvanize.useraccounts.availability.AvailabilityFilter;
+import com.galvanize.useraccounts.cache.UserCondensedCache;
+import com.galvanize.useraccounts.cache.UserLoadCoalescer;
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.datasource.ReadYourWrites;
+import com.galvanize.useraccounts.datasource.ReplicaRoutingDataSource;
 import com.galvanize.useraccounts.exception.*;
 import com.galvanize.useraccounts.model.Address;
+import com.galvanize.useraccounts.model.Availability;
 import com.galvanize.useraccounts.model.User;
+import com.galvanize.useraccounts.model.UserChange;
 
 import com.galvanize.useraccounts.model.UserCondensed;
+import com.galvanize.useraccounts.model.UserCondensedBatch;
 import com.galvanize.useraccounts.repository.AddressRepository;
+import com.galvanize.useraccounts.repository.UserChangesRepository;
 import com.galvanize.useraccounts.repository.UsersRepository;
 import com.galvanize.useraccounts.request.UserRequest;
+import com.galvanize.useraccounts.search.SearchCursor;
+import com.galvanize.useraccounts.search.UsernameTrie;
+import com.galvanize.useraccounts.search.UsernameTrigramIndex;
+import com.galvanize.useraccounts.shard.Shards;
+import com.galvanize.useraccounts.shard.UserDirectory;
+import org.hibernate.Hibernate;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-
+import javax.persistence.EntityManager;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.IntStream;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class UsersService {
+    // the order of every username search: the username_key column, then guid
+    private static final Comparator<User> SEARCH_ORDER =
+            Comparator.comparing((User user) -> UsernameTrigramIndex.normalize(user.getUsername()), SearchCursor.USERNAME_ORDER)
+                    .thenComparing(User::getGuid);
+    private static final Comparator<UserCondensed> TYPEAHEAD_ORDER =
+            Comparator.comparing((UserCondensed user) -> UsernameTrigramIndex.normalize(user.getUsername()), SearchCursor.USERNAME_ORDER)
+                    .thenComparing(UserCondensed::getGuid);
+    static final int STREAM_PAGE_SIZE = 500;
+
     private final UsersRepository usersRepository;
     private final AddressRepository addressRepository;
+    private final UsernameTrigramIndex usernameIndex;
+    private final UsernameTrie usernameTrie;
+    private final UsersProperties usersProperties;
+    private final EntityManager entityManager;
+    private final UserCondensedCache condensedCache;
+    private final UserLoadCoalescer loads;
+    private final AvailabilityFilter availabilityFilter;
+    private final ReadYourWrites readYourWrites;
+    private final Shards shards;
+    private final UserDirectory directory;
+    private final UserChangesRepository changesRepository;
 
-    public UsersService(UsersRepository usersRepository, AddressRepository addressRepository) {
+    public UsersService(UsersRepository usersRepository, AddressRepository addressRepository, UsernameTrigramIndex usernameIndex,
+                        UsernameTrie usernameTrie, UsersProperties usersProperties, EntityManager entityManager,
+                        UserCondensedCache condensedCache, UserLoadCoalescer loads, AvailabilityFilter availabilityFilter,
+                        ReadYourWrites readYourWrites, Shards shards, UserDirectory directory,
+                        UserChangesRepository changesRepository) {
         this.usersRepository = usersRepository;
         this.addressRepository = addressRepository;
+        this.usernameIndex = usernameIndex;
+        this.usernameTrie = usernameTrie;
+        this.usersProperties = usersProperties;
+        this.entityManager = entityManager;
+        this.condensedCache = condensedCache;
+        this.loads = loads;
+        this.availabilityFilter = availabilityFilter;
+        this.readYourWrites = readYourWrites;
+        this.shards = shards;
+        this.directory = directory;
+        this.changesRepository = changesRepository;
     }
 
+    @Transactional
     public User createUser(User user) {
-        Optional<User> foundUser = usersRepository.findByUsernameExactMatch(user.getUsername());
-        Optional<User> foundUserEmail = usersRepository.findByEmailExactMatch(user.getEmail());
-
-        if (foundUser.isPresent() || foundUserEmail.isPresent()) {
-            throw new DuplicateUserException();
-        }
         //this sets up the one to many relationship between user and addresses
         user.getAddresses().forEach(address -> address.setUser(user));
 
-        return usersRepository.save(user);
+        // a shard's unique constraints only see its own users; the directory, when enabled, sees all of them
+        UserDirectory.Claim claim = directory.claim(user.getGuid(), user.getUsername(), user.getEmail());
+
+        // no existence checks: the unique constraints decide, atomically and in the same round trip as the INSERT
+        try {
+            return shards.on(user.getGuid(), () -> {
+                User saved = usersRepository.save(user);
+                changesRepository.append(saved.getGuid(), UserChange.Type.CREATED);
+                return saved;
+            });
+        } catch (RuntimeException e) {
+            claim.release();
+            throw e instanceof DataIntegrityViolationException ? duplicateOf((DataIntegrityViolationException) e) : e;
+        }
     }
 
+    private RuntimeException duplicateOf(DataIntegrityViolationException e) {
+        if (!(e.getCause() instanceof ConstraintViolationException)) return e;
+
+        // drivers decorate the name (H2: PUBLIC.UK_USERS_EMAIL_INDEX_4, MySQL 8: users.uk_users_email)
+        String constraint = ((ConstraintViolationException) e.getCause()).getConstraintName();
+        constraint = constraint == null ? "" : constraint.toLowerCase(Locale.ROOT);
+
+        if (constraint.contains(User.EMAIL_CONSTRAINT)) return new DuplicateEmailException();
+        if (constraint.contains(User.USERNAME_CONSTRAINT) || constraint.contains(User.GUID_CONSTRAINT)) return new DuplicateUserException();
+        return e;
+    }
+
+    @Transactional
     public void deleteUser(Long guid) {
-        Optional<User> user = usersRepository.findByGuid(guid);
+        deleteUser(guid, null);
+    }
+
+    /**
+     * @param expectedVersions the versions the caller accepts (If-Match), or null to delete whatever is stored
+     */
+    @Transactional
+    public void deleteUser(Long guid, Set<Long> expectedVersions) {
+        User deleted = shards.on(guid, () -> {
+            Optional<User> user = usersRepository.findByGuid(guid);
+            if (!user.isPresent()) throw new UserNotFoundException();
 
-        if (user.isPresent()) {
+            checkVersion(user.get(), expectedVersions);
+            // the DELETE also carries the version, so a write that lands in between fails it as well
             usersRepository.delete(user.get());
-        } else {
-            throw new UserNotFoundException();
-        }
+            changesRepository.append(guid, UserChange.Type.DELETED);
+            return user.get();
+        });
+
+        // the entity listener's event evicts too once the delete commits; the directory has no listener
+        afterCommit(() -> {
+            condensedCache.invalidate(guid);
+            directory.forget(guid, deleted.getUsername(), deleted.getEmail());
+        });
     }
 
+    @Transactional
     public User updateUser(Long guid, UserRequest updatedUser) {
-        User user = getUser(guid);
+        return updateUser(guid, updatedUser, null);
+    }
+
+    /**
+     * Applies only the fields present in the request. When none of them differs from what is stored, nothing is
+     * written and updatedAt stays as it was.
+     *
+     * @param expectedVersions the versions the caller accepts (If-Match), or null for an unconditional update
+     */
+    @Transactional
+    public User updateUser(Long guid, UserRequest updatedUser, Set<Long> expectedVersions) {
+        return shards.on(guid, () -> applyUpdate(guid, updatedUser, expectedVersions));
+    }
+
+    private User applyUpdate(Long guid, UserRequest updatedUser, Set<Long> expectedVersions) {
+        // not getUser: that instance may be shared with concurrent readers
+        User user = usersRepository.findWithAddressesByGuid(guid).orElse(null);
 
         if (user != null) {
-            user.setFirstName(updatedUser.getFirstName());
-            user.setLastName(updatedUser.getLastName());
-            user.setEmail(updatedUser.getEmail());
-            user.setBio(updatedUser.getBio());
-            user.setVerified(updatedUser.isVerified());
-            user.setAvatar(updatedUser.getAvatar());
-            return usersRepository.save(user);
+            checkVersion(user, expectedVersions);
+            String previousEmail = user.getEmail();
+            boolean changed = apply(updatedUser.getFirstName(), user.getFirstName(), user::setFirstName);
+            changed |= apply(updatedUser.getLastName(), user.getLastName(), user::setLastName);
+            changed |= apply(updatedUser.getEmail(), user.getEmail(), user::setEmail);
+            changed |= apply(updatedUser.getBio(), user.getBio(), user::setBio);
+            changed |= apply(updatedUser.isVerified(), user.isVerified(), user::setVerified);
+            changed |= apply(updatedUser.getAvatar(), user.getAvatar(), user::setAvatar);
+            if (!changed) return user;
+
+            String replacedEmail = Objects.equals(user.getEmail(), previousEmail) ? null : previousEmail;
+            UserDirectory.Claim claim = directory.claim(guid, null, replacedEmail == null ? null : user.getEmail());
+            User saved;
+            try {
+                // flush here so a duplicate email surfaces inside this try; @DynamicUpdate limits the UPDATE to the changed columns
+                saved = usersRepository.saveAndFlush(user);
+            } catch (RuntimeException e) {
+                claim.release();
+                // the availability filter may have let a taken email through the controller's check
+                throw e instanceof DataIntegrityViolationException ? duplicateOf((DataIntegrityViolationException) e) : e;
+            }
+            changesRepository.append(guid, UserChange.Type.UPDATED);
+            // evict once readers can no longer see the old row; the entity listener's event does the same
+            afterCommit(() -> {
+                condensedCache.invalidate(guid);
+                if (replacedEmail != null) directory.forget(guid, null, replacedEmail);
+            });
+            return saved;
         }
         return null;
     }
 
+    private static void checkVersion(User user, Set<Long> expectedVersions) {
+        if (expectedVersions != null && !expectedVersions.contains(user.getVersion())) throw new PreconditionFailedException();
+    }
+
+    private static <T> boolean apply(T requested, T current, Consumer<T> setter) {
+        if (requested == null || requested.equals(current)) return false;
+        setter.accept(requested);
+        return true;
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    // users leave a shard's transaction detached, so their addresses are loaded before it ends
+    private User withAddresses(User user) {
+        if (user != null && shards.isSharded()) Hibernate.initialize(user.getAddresses());
+        return user;
+    }
+
+    private List<User> withAddresses(List<User> users) {
+        users.forEach(this::withAddresses);
+        return users;
+    }
+
+    // a unique key of a user on any shard
+    private Optional<User> findAnywhere(Supplier<Optional<User>> query) {
+        if (!shards.isSharded()) return query.get();
+        return shards.scatter(() -> withAddresses(query.get().map(Collections::singletonList).orElse(Collections.emptyList())))
+                .stream().findFirst();
+    }
+
+    /**
+     * Concurrent calls for the same guid share one query, so the returned user may be the same instance
+     * another request is reading; callers must not modify it. Reads a replica unless the user was written
+     * within the read-your-writes window.
+     */
+    @Transactional(readOnly = true)
     public User getUser(Long guid) {
-        return usersRepository.findByGuid(guid).orElse(null);
+        Function<Long, User> load = key -> shards.on(key, () -> usersRepository.findWithAddressesByGuid(key).orElse(null));
+
+        // not coalesced: a load already in flight may be reading a replica that has not seen the write yet
+        if (readYourWrites.recentlyWrote(guid)) return ReplicaRoutingDataSource.onPrimary(() -> load.apply(guid));
+        return loads.loadUser(guid, load);
+    }
+
+    public Long getUserVersion(Long guid) {
+        return shards.on(guid, () -> usersRepository.findVersionByGuid(guid).orElse(null));
     }
 
+    @Transactional(readOnly = true)
     public Optional<User> searchByEmail(String email) {
-        return usersRepository.findByEmailExactMatch(email);
+        if (email != null && !availabilityFilter.mightContainEmail(email)) return Optional.empty();
+        return findAnywhere(() -> usersRepository.findByEmailExactMatch(email));
     }
 
-    public UsersList searchUsers(String username) {
+    public Availability checkAvailability(String username, String email) {
+        Boolean usernameAvailable = username == null ? null
+                : !availabilityFilter.mightContainUsername(username) || !findAnywhere(() -> usersRepository.findByUsernameExactMatch(username)).isPresent();
+        Boolean emailAvailable = email == null ? null : !searchByEmail(email).isPresent();
+
+        return new Availability(usernameAvailable, emailAvailable);
+    }
+
+    @Transactional(readOnly = true)
+    public UsersList searchUsers(String username, Integer limit, String next) {
         if (username == null) username = "";
 
-        UsersList users = new UsersList(usersRepository.findByUsername("%" + username + "%"));
+        UsersProperties.Search search = usersProperties.getSearch();
+        int size = limit == null ? search.getPageLimit() : Math.min(Math.max(limit, 1), search.getMaxPageLimit());
+        SearchCursor after = next == null ? null : SearchCursor.decode(next);
+
+        // one extra row tells us whether there is a next page
+        List<User> found = usernameIndex.canServe(username)
+                ? findIndexedPage(username, after, size + 1)
+                : findPage(username, after, size + 1);
+
+        UsersList users = new UsersList(new ArrayList<>(found.subList(0, Math.min(size, found.size()))));
+        if (found.size() > size) users.setNext(SearchCursor.after(found.get(size - 1)).encode());
 
         return users.isEmpty() ? null : users;
     }
 
-    public User addAddress(Long userGuid, Address address) {
-        Optional<User> user = usersRepository.findByGuid(userGuid);
+    /**
+     * Hands every user whose username contains the search string to the consumer, in search order,
+     * while the rows are read from an open database cursor. Each user is detached once consumed so
+     * the persistence context does not grow with the result set.
+     */
+    @Transactional(readOnly = true)
+    public void streamUsers(String username, Consumer<User> consumer) {
+        String pattern = "%" + UsernameTrigramIndex.normalize(username == null ? "" : username) + "%";
+        if (shards.isSharded()) {
+            streamSharded(pattern, consumer);
+            return;
+        }
 
-        user.ifPresent(u -> u.addAddress(address));
+        try (Stream<User> users = usersRepository.streamByUsername(pattern)) {
+            users.forEach(user -> {
+                consumer.accept(user);
+                entityManager.detach(user);
+            });
+        }
+    }
 
-        if (user.isPresent()) {
-            user.get().setUpdatedAt(Timestamp.valueOf(LocalDateTime.now()));
-            return usersRepository.save(user.get());
+    /**
+     * Merges every shard's users in search order. Each shard is read in keyset pages rather than from a cursor,
+     * so no shard's connection stays open while the others are drained.
+     */
+    private void streamSharded(String pattern, Consumer<User> consumer) {
+        PriorityQueue<ShardPage> heads = new PriorityQueue<>(Comparator.comparing(ShardPage::head, SEARCH_ORDER));
+        for (String shard : shards.names()) {
+            ShardPage page = new ShardPage(shard, pattern);
+            if (page.advance()) heads.add(page);
+        }
 
-        } else {
-            throw new UserNotFoundException();
+        while (!heads.isEmpty()) {
+            ShardPage page = heads.poll();
+            consumer.accept(page.head());
+            if (page.advance()) heads.add(page);
         }
     }
 
-    public User updateAddress(Long userGuid, Long addressId, Address address) {
-        Optional<User> oUser = usersRepository.findByGuid(userGuid);
-        Optional<Address> oAddress = addressRepository.findById(addressId);
-        if (oUser.isPresent()) {
-            //int doesNotWork = oUser.get().getAddresses().indexOf(oAddress);
-            int oAddressIndex = IntStream.range(0, oUser.get().getAddresses().size())
-                    .filter(i -> oUser.get().getAddresses().get(i).getId() == addressId)
-                    .findFirst().orElse(-1);
-            if (oAddressIndex != -1) {
-                Address updatedAddress = oUser.get().getAddresses().get(oAddressIndex);
-                updatedAddress.setStreet(address.getStreet());
-                updatedAddress.setCity(address.getCity());
-                updatedAddress.setState(address.getState());
-                updatedAddress.setZipcode(address.getZipcode());
-                updatedAddress.setApartment(address.getApartment());
-                updatedAddress.setLabel((address.getLabel()));
-                oUser.get().setUpdatedAt(Timestamp.valueOf(LocalDateTime.now()));
-                return usersRepository.save(oUser.get());
-            } else {
-                throw new AddressNotFoundException();
+    private class ShardPage {
+        private final String shard;
+        private final String pattern;
+        private List<User> rows = Collections.emptyList();
+        private int next;
+        private boolean last;
+        private User head;
+
+        private ShardPage(String shard, String pattern) {
+            this.shard = shard;
+            this.pattern = pattern;
+        }
+
+        private User head() {
+            return head;
+        }
+
+        private boolean advance() {
+            if (next == rows.size()) {
+                if (last) return false;
+                SearchCursor after = head == null ? null : SearchCursor.after(head);
+                rows = shards.onShard(shard, () -> withAddresses(findRows(pattern, after, STREAM_PAGE_SIZE)));
+                last = rows.size() < STREAM_PAGE_SIZE;
+                next = 0;
+                if (rows.isEmpty()) return false;
             }
-        } else {
-            throw new UserNotFoundException();
+            head = rows.get(next++);
+            return true;
         }
     }
 
-    public void deleteAddress(Long userGuid, Long addressId) {
-        Optional<User> oUser = usersRepository.findByGuid(userGuid);
-        Optional<Address> oAddress = addressRepository.findById(addressId);
-        if (oUser.isPresent()) {
-            int oAddressIndex = IntStream.range(0, oUser.get().getAddresses().size())
-                    .filter(i -> oUser.get().getAddresses().get(i).getId() == addressId)
-                    .findFirst().orElse(-1);
-            if (oAddressIndex != -1) {
-
-                oUser.get().getAddresses().remove(oAddressIndex);
-                oAddress.get().setUser(null);
-                oUser.get().setUpdatedAt(Timestamp.valueOf(LocalDateTime.now()));
-                oUser.ifPresent(usersRepository::save);
-                oAddress.ifPresent(addressRepository::delete);
+    private List<User> findPage(String username, SearchCursor after, int count) {
+        String pattern = "%" + UsernameTrigramIndex.normalize(username) + "%";
+        if (!shards.isSharded()) return findRows(pattern, after, count);
+
+        // every shard's first count rows hold the overall first count
+        return shards.scatter(() -> withAddresses(findRows(pattern, after, count))).stream()
+                .sorted(SEARCH_ORDER)
+                .limit(count)
+                .collect(Collectors.toList());
+    }
+
+    private List<User> findRows(String pattern, SearchCursor after, int count) {
+        PageRequest page = PageRequest.of(0, count);
+
+        return after == null
+                ? usersRepository.findPageByUsername(pattern, page)
+                : usersRepository.findPageByUsernameAfter(pattern, after.getUsername(), after.getGuid(), page);
+    }
+
+    // a candidate the database no longer matches would cut the page short, so candidates are pulled until count match
+    private List<User> findIndexedPage(String username, SearchCursor after, int count) {
+        List<User> matches = new ArrayList<>();
+        SearchCursor from = after;
+        while (true) {
+            int wanted = count - matches.size();
+            List<SearchCursor> candidates = usernameIndex.search(username, from, wanted);
+            matches.addAll(findIndexedMatches(candidates.stream().map(SearchCursor::getGuid).collect(Collectors.toList()), username));
+
+            if (matches.size() == count || candidates.size() < wanted) return matches;
+            from = candidates.get(candidates.size() - 1);
+        }
+    }
+
+    public List<UserCondensed> typeahead(String prefix, Integer limit) {
+        if (prefix == null || prefix.isEmpty()) return new ArrayList<>();
+
+        UsersProperties.Search search = usersProperties.getSearch();
+        int size = limit == null ? search.getTypeaheadLimit() : Math.min(Math.max(limit, 1), search.getTypeaheadMaxLimit());
+
+        if (usernameTrie.isReady()) return usernameTrie.search(prefix, size);
+
+        String pattern = UsernameTrigramIndex.normalize(prefix)
+                .replace("!", "!!")
+                .replace("%", "!%")
+                .replace("_", "!_") + "%";
+        if (!shards.isSharded()) return usersRepository.findCondensedByUsernamePrefix(pattern, PageRequest.of(0, size));
+
+        return shards.scatter(() -> usersRepository.findCondensedByUsernamePrefix(pattern, PageRequest.of(0, size))).stream()
+                .sorted(TYPEAHEAD_ORDER)
+                .limit(size)
+                .collect(Collectors.toList());
+    }
+
+    // the index is only a candidate filter, so rows are re-checked against what the database returned
+    private List<User> findIndexedMatches(List<Long> guids, String username) {
+        List<User> matches = new ArrayList<>();
+        if (guids.isEmpty()) return matches;
+
+        String normalized = UsernameTrigramIndex.normalize(username);
+        Map<Long, User> byGuid = new HashMap<>();
+        shards.gather(guids, owned -> withAddresses(usersRepository.findByGuidIn(owned))).forEach(user -> byGuid.put(user.getGuid(), user));
+
+        for (Long guid : guids) {
+            User user = byGuid.get(guid);
+            if (user != null && UsernameTrigramIndex.normalize(user.getUsername()).contains(normalized)) matches.add(user);
+        }
+
+        return matches;
+    }
+
+    @Transactional
+    public User addAddress(Long userGuid, Address address) {
+        return shards.on(userGuid, () -> {
+            Optional<User> user = usersRepository.findByGuid(userGuid);
+
+            user.ifPresent(u -> u.addAddress(address));
+
+            if (user.isPresent()) {
+                user.get().setUpdatedAt(Timestamp.valueOf(LocalDateTime.now()));
+                User saved = usersRepository.save(user.get());
+                changesRepository.append(userGuid, UserChange.Type.ADDRESS_ADDED);
+                return withAddresses(saved);
+
             } else {
-                throw new AddressNotFoundException();
+                throw new UserNotFoundException();
             }
-        } else {
+        });
+    }
+
+    @Transactional
+    public Address updateAddressOnly(Long userGuid, Long addressId, Address address) {
+        return updateAddressOnly(userGuid, addressId, address, null);
+    }
+
+    /**
+     * Rewrites one address in a single UPDATE whose WHERE clause also checks that it belongs to the user,
+     * and returns just that address; nothing else of the user is read.
+     *
+     * @param expectedVersions the user versions the caller accepts (If-Match), or null for an unconditional update
+     */
+    @Transactional
+    public Address updateAddressOnly(Long userGuid, Long addressId, Address address, Set<Long> expectedVersions) {
+        return shards.on(userGuid, () -> {
+            touch(userGuid, expectedVersions);
+            if (addressRepository.updateOwned(userGuid, addressId, address) == 0) throw new AddressNotFoundException();
+            changesRepository.append(userGuid, UserChange.Type.ADDRESS_UPDATED);
+
+            // every column was overwritten, so the request body is the new row
+            address.setId(addressId);
+            return address;
+        });
+    }
+
+    @Transactional
+    public User updateAddress(Long userGuid, Long addressId, Address address) {
+        return updateAddress(userGuid, addressId, address, null);
+    }
+
+    @Transactional
+    public User updateAddress(Long userGuid, Long addressId, Address address, Set<Long> expectedVersions) {
+        return shards.on(userGuid, () -> {
+            updateAddressOnly(userGuid, addressId, address, expectedVersions);
+            return usersRepository.findWithAddressesByGuid(userGuid).orElseThrow(UserNotFoundException::new);
+        });
+    }
+
+    @Transactional
+    public void deleteAddress(Long userGuid, Long addressId) {
+        deleteAddress(userGuid, addressId, null);
+    }
+
+    @Transactional
+    public void deleteAddress(Long userGuid, Long addressId, Set<Long> expectedVersions) {
+        shards.on(userGuid, () -> {
+            touch(userGuid, expectedVersions);
+            if (addressRepository.deleteOwned(userGuid, addressId) == 0) throw new AddressNotFoundException();
+            changesRepository.append(userGuid, UserChange.Type.ADDRESS_DELETED);
+            return null;
+        });
+    }
+
+    /**
+     * An address change is a change to its user's representation, so it moves updatedAt and the version (the ETag)
+     * too. With expected versions the bump is a compare-and-set, which makes it the If-Match check as well.
+     */
+    private void touch(Long userGuid, Set<Long> expectedVersions) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        int touched = expectedVersions == null
+                ? usersRepository.touch(userGuid, now)
+                : usersRepository.touchIfVersion(userGuid, expectedVersions, now);
+
+        if (touched == 0) {
+            if (expectedVersions != null && usersRepository.existsByGuid(userGuid)) throw new PreconditionFailedException();
             throw new UserNotFoundException();
         }
+        // bulk updates bypass UserEntityListener
+        readYourWrites.wrote(userGuid);
     }
 
+    @Transactional(readOnly = true)
     public UserCondensed getUserCondensed(Long guid) {
-        Optional<User> oUser = usersRepository.findByGuid(guid);
-        UserCondensed user;
+        Function<Long, UserCondensed> load = key -> shards.on(key, () -> usersRepository.findCondensedByGuid(key).orElse(null));
+        // a stale replica read would otherwise be cached for the whole TTL
+        UserCondensed user = condensedCache.get(guid, key -> readYourWrites.recentlyWrote(key)
+                ? ReplicaRoutingDataSource.onPrimary(() -> load.apply(key))
+                : loads.loadCondensed(key, load));
 
-        if (oUser.isPresent()) {
-            user = new UserCondensed(oUser.get().getGuid(), oUser.get().getUsername(), oUser.get().getAvatar(), oUser.get().getEmail());
-        } else {
-            throw new UserNotFoundException();
+        if (user == null) throw new UserNotFoundException();
+        return user;
+    }
+
+    public UserCondensedBatch getUsersCondensed(List<Long> guids) {
+        UsersProperties.Condensed condensed = usersProperties.getCondensed();
+        if (guids.size() > condensed.getBatchMaxSize()) throw new BatchTooLargeException();
+
+        List<Long> requested = new ArrayList<>(new LinkedHashSet<>(guids));
+        requested.remove(null);
+
+        Map<Long, UserCondensed> found = new HashMap<>(condensedCache.getAllPresent(requested));
+        List<Long> uncached = new ArrayList<>();
+        requested.forEach(guid -> {
+            if (!found.containsKey(guid)) uncached.add(guid);
+        });
+
+        // fixed-size IN lists keep the statement count bounded and the statements cacheable
+        long generation = condensedCache.generation();
+        Map<Long, UserCondensed> loaded = new HashMap<>();
+        for (int from = 0; from < uncached.size(); from += condensed.getBatchChunkSize()) {
+            List<Long> chunk = uncached.subList(from, Math.min(from + condensed.getBatchChunkSize(), uncached.size()));
+            shards.gather(chunk, usersRepository::findCondensedByGuidIn).forEach(user -> loaded.put(user.getGuid(), user));
         }
+        condensedCache.putAll(loaded, generation);
+        found.putAll(loaded);
 
-        return user;
+        Map<Long, UserCondensed> users = new LinkedHashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long guid : requested) {
+            UserCondensed user = found.get(guid);
+            if (user != null) users.put(guid, user);
+            else missing.add(guid);
+        }
+
+        return new UserCondensedBatch(users, missing);
     }
 }
@@ -0,0 +1,28 @@
+package com.galvanize.useraccounts.shard;
+
+import java.util.function.Supplier;
+
+/**
+ * The shard the current thread's connections go to; read by {@link ShardRoutingDataSource}.
+ */
+public final class ShardContext {
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private ShardContext() {
+    }
+
+    public static String current() {
+        return CURRENT.get();
+    }
+
+    public static <T> T on(String shard, Supplier<T> work) {
+        String previous = CURRENT.get();
+        CURRENT.set(shard);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) CURRENT.remove();
+            else CURRENT.set(previous);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.galvanize.useraccounts.shard;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the application as a one-off rebalancing job instead of a server:
+ * {@code java -jar user-accounts.jar --rebalance-shards=copy} or {@code --rebalance-shards=cleanup}.
+ * See {@link ShardRebalancer} for the order of the steps.
+ * <p>
+ * Only exists in the {@value #PROFILE} profile, which {@code UserAccountsApplication.main} starts without a web
+ * server when it sees the option; main then closes the context and exits with {@link #getExitCode()}.
+ */
+@Component
+@Profile(ShardRebalanceRunner.PROFILE)
+public class ShardRebalanceRunner implements ApplicationRunner, ExitCodeGenerator {
+    public static final String PROFILE = "rebalance";
+    static final String OPTION = "rebalance-shards";
+    private static final Logger log = LoggerFactory.getLogger(ShardRebalanceRunner.class);
+
+    private final ShardRebalancer rebalancer;
+    private int exitCode = 1;
+
+    public ShardRebalanceRunner(ShardRebalancer rebalancer) {
+        this.rebalancer = rebalancer;
+    }
+
+    public static boolean isRequested(String[] args) {
+        return Arrays.stream(args).anyMatch(arg -> arg.equals("--" + OPTION) || arg.startsWith("--" + OPTION + "="));
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        List<String> values = args.getOptionValues(OPTION);
+        String step = values == null || values.isEmpty() ? "copy" : values.get(0);
+        ShardRebalancer.Summary summary;
+        if ("copy".equals(step)) summary = rebalancer.copy();
+        else if ("cleanup".equals(step)) summary = rebalancer.cleanup();
+        else throw new IllegalArgumentException("--" + OPTION + " must be copy or cleanup, not " + step);
+
+        log.info("Shard rebalancing {} finished: {}", step, summary);
+        exitCode = 0;
+    }
+
+    /**
+     * 0 once the step has finished, 1 until then.
+     */
+    @Override
+    public int getExitCode() {
+        return exitCode;
+    }
+}
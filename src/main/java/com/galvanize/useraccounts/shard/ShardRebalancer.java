@@ -0,0 +1,185 @@
+package com.galvanize.useraccounts.shard;
+
+import com.galvanize.useraccounts.exception.DuplicateEmailException;
+import com.galvanize.useraccounts.exception.DuplicateUserException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Moves users to the shard the configured ring assigns them, after shards were added.
+ * <p>
+ * Rows are copied with their ids, so ids must not collide across shards (e.g. MySQL's auto_increment_increment
+ * and auto_increment_offset set per shard). Adding a shard is done in four steps:
+ * <ol>
+ *     <li>{@link #copy()} with the new ring while the application still runs with the old one;</li>
+ *     <li>deploy the new ring;</li>
+ *     <li>{@link #copy()} again, which picks up the writes the old owners took in the meantime, by version;</li>
+ *     <li>{@link #cleanup()}, which deletes every row its shard no longer owns.</li>
+ * </ol>
+ * Both passes are idempotent and can be rerun after a failure.
+ */
+@Component
+public class ShardRebalancer {
+    static final int PAGE_SIZE = 500;
+    private static final String SELECT_PAGE = "SELECT id, guid, username, email, version FROM users WHERE id > ? ORDER BY id LIMIT ?";
+    private static final String SELECT_USER = "SELECT * FROM users WHERE guid = ?";
+    private static final String SELECT_ADDRESSES = "SELECT * FROM address WHERE user_id = ?";
+    private static final String SELECT_VERSION = "SELECT version FROM users WHERE guid = ?";
+    private static final String DELETE_ADDRESSES = "DELETE FROM address WHERE user_id = (SELECT id FROM users WHERE guid = ?)";
+    private static final String DELETE_USER = "DELETE FROM users WHERE guid = ?";
+
+    private final Shards shards;
+    private final JdbcTemplate jdbcTemplate;
+    private final UserDirectory directory;
+
+    public ShardRebalancer(Shards shards, JdbcTemplate jdbcTemplate, UserDirectory directory) {
+        this.shards = shards;
+        this.jdbcTemplate = jdbcTemplate;
+        this.directory = directory;
+    }
+
+    public static class Summary {
+        private int scanned;
+        private int moved;
+        private int pending;
+        private int conflicts;
+
+        public int getScanned() {
+            return scanned;
+        }
+
+        /**
+         * Users copied to (copy) or deleted from a shard that does not own them (cleanup).
+         */
+        public int getMoved() {
+            return moved;
+        }
+
+        /**
+         * Misplaced users cleanup left alone because their owner does not have an up-to-date copy yet.
+         */
+        public int getPending() {
+            return pending;
+        }
+
+        /**
+         * Users whose username or email the directory already holds for someone else.
+         */
+        public int getConflicts() {
+            return conflicts;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("scanned=%d moved=%d pending=%d conflicts=%d", scanned, moved, pending, conflicts);
+        }
+    }
+
+    /**
+     * Copies every misplaced user, with its addresses, to its owner unless the owner already has that version or
+     * a newer one. With the directory enabled, also claims every scanned user's username and email.
+     */
+    public Summary copy() {
+        Summary summary = new Summary();
+        for (String shard : shards.names()) {
+            scan(shard, row -> {
+                Long guid = ((Number) row.get("guid")).longValue();
+                if (directory.isEnabled()) {
+                    try {
+                        directory.claim(guid, (String) row.get("username"), (String) row.get("email"));
+                    } catch (DuplicateUserException | DuplicateEmailException e) {
+                        summary.conflicts++;
+                    }
+                }
+
+                String owner = shards.shardOf(guid);
+                if (!owner.equals(shard) && copy(shard, owner, guid)) summary.moved++;
+            }, summary);
+        }
+        return summary;
+    }
+
+    /**
+     * Deletes every user its shard does not own, once the owner holds the same version or a newer one.
+     */
+    public Summary cleanup() {
+        Summary summary = new Summary();
+        for (String shard : shards.names()) {
+            scan(shard, row -> {
+                Long guid = ((Number) row.get("guid")).longValue();
+                String owner = shards.shardOf(guid);
+                if (owner.equals(shard)) return;
+
+                long version = ((Number) row.get("version")).longValue();
+                Long copied = version(owner, guid);
+                if (copied == null || copied < version) {
+                    summary.pending++;
+                    return;
+                }
+                shards.onShard(shard, () -> {
+                    jdbcTemplate.update(DELETE_ADDRESSES, guid);
+                    return jdbcTemplate.update(DELETE_USER, guid);
+                });
+                summary.moved++;
+            }, summary);
+        }
+        return summary;
+    }
+
+    private interface RowHandler {
+        void handle(Map<String, Object> row);
+    }
+
+    // keyset pages by id, each read in its own short transaction
+    private void scan(String shard, RowHandler handler, Summary summary) {
+        long afterId = 0;
+        while (true) {
+            long after = afterId;
+            List<Map<String, Object>> page = shards.onShard(shard, () -> jdbcTemplate.queryForList(SELECT_PAGE, after, PAGE_SIZE));
+            for (Map<String, Object> row : page) {
+                summary.scanned++;
+                handler.handle(row);
+            }
+            if (page.size() < PAGE_SIZE) return;
+            afterId = ((Number) page.get(page.size() - 1).get("id")).longValue();
+        }
+    }
+
+    private boolean copy(String from, String to, Long guid) {
+        List<Map<String, Object>> users = shards.onShard(from, () -> jdbcTemplate.queryForList(SELECT_USER, guid));
+        if (users.isEmpty()) return false;
+        Map<String, Object> user = users.get(0);
+        List<Map<String, Object>> addresses = shards.onShard(from, () -> jdbcTemplate.queryForList(SELECT_ADDRESSES, user.get("id")));
+
+        return shards.onShard(to, () -> {
+            List<Long> existing = jdbcTemplate.queryForList(SELECT_VERSION, Long.class, guid);
+            if (!existing.isEmpty() && existing.get(0) >= ((Number) user.get("version")).longValue()) return false;
+
+            jdbcTemplate.update(DELETE_ADDRESSES, guid);
+            jdbcTemplate.update(DELETE_USER, guid);
+            insert("users", user);
+            addresses.forEach(address -> insert("address", address));
+            return true;
+        });
+    }
+
+    private Long version(String shard, Long guid) {
+        List<Long> versions = shards.onShard(shard, () -> jdbcTemplate.queryForList(SELECT_VERSION, Long.class, guid));
+        return versions.isEmpty() ? null : versions.get(0);
+    }
+
+    // every column as read, so the copy keeps ids, timestamps and version
+    private void insert(String table, Map<String, Object> row) {
+        StringJoiner columns = new StringJoiner(", ");
+        StringJoiner values = new StringJoiner(", ");
+        row.keySet().forEach(column -> {
+            columns.add(column);
+            values.add("?");
+        });
+        jdbcTemplate.update("INSERT INTO " + table + " (" + columns + ") VALUES (" + values + ")", row.values().toArray());
+    }
+}
@@ -0,0 +1,59 @@
+package com.galvanize.useraccounts.shard;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Consistent hash ring of shard names. Each shard owns {@code virtualNodes} points on the ring and a guid
+ * belongs to the first point at or after its hash, so adding a shard only moves the guids that land on the
+ * new shard's points, about 1/n of them, and none between the existing shards.
+ */
+public class ShardRing {
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+    private final List<String> shards;
+
+    public ShardRing(Collection<String> shards, int virtualNodes) {
+        if (shards.isEmpty()) throw new IllegalArgumentException("At least one shard is required");
+
+        this.shards = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(shards)));
+        for (String shard : this.shards) {
+            for (int node = 0; node < virtualNodes; node++) ring.put(hash(shard + "#" + node), shard);
+        }
+    }
+
+    public String shardOf(long guid) {
+        Map.Entry<Long, String> owner = ring.ceilingEntry(mix(guid));
+        return owner == null ? ring.firstEntry().getValue() : owner.getValue();
+    }
+
+    public List<String> shards() {
+        return shards;
+    }
+
+    // FNV-1a over the UTF-8 bytes, then mixed so similar names do not cluster
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    // MurmurHash3's 64-bit finalizer: consecutive guids land all over the ring
+    static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
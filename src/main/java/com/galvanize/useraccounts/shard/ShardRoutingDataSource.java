@@ -0,0 +1,34 @@
+package com.galvanize.useraccounts.shard;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out connections of the shard named by {@link ShardContext}, or of the home shard when none is set.
+ * Like the replica routing, it must sit behind a {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}
+ * so the shard can still be picked after the transaction has begun.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+    private final Map<String, HikariDataSource> shards;
+
+    public ShardRoutingDataSource(Map<String, HikariDataSource> shards, String home) {
+        this.shards = shards;
+        setTargetDataSources(new HashMap<>(shards));
+        setDefaultTargetDataSource(shards.get(home));
+        // an unknown shard name is a bug, never a reason to use the home shard
+        setLenientFallback(false);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return ShardContext.current();
+    }
+
+    @Override
+    public void close() {
+        shards.values().forEach(HikariDataSource::close);
+    }
+}
@@ -0,0 +1,51 @@
+package com.galvanize.useraccounts.shard;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.tool.hbm2ddl.SchemaUpdate;
+import org.hibernate.tool.schema.TargetType;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Applies {@code spring.jpa.hibernate.ddl-auto=update} to every shard. Hibernate only updates the schema of the
+ * connection it gets at startup, which is the home shard's, so this keeps the mapping it was given and runs the
+ * same update against the other shards once the application context is up.
+ */
+public class ShardSchemaInitializer implements Integrator, SmartInitializingSingleton {
+    private final List<String> otherShards;
+    private final boolean update;
+    private Metadata metadata;
+    private SessionFactoryServiceRegistry serviceRegistry;
+
+    public ShardSchemaInitializer(List<String> otherShards, boolean update) {
+        this.otherShards = otherShards;
+        this.update = update;
+    }
+
+    @Override
+    public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+        this.metadata = metadata;
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!update || metadata == null) return;
+
+        for (String shard : otherShards) {
+            ShardContext.on(shard, () -> {
+                new SchemaUpdate().execute(EnumSet.of(TargetType.DATABASE), metadata, serviceRegistry);
+                return null;
+            });
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.galvanize.useraccounts.shard;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Runs work on the shard that owns a guid, or on every shard.
+ * <p>
+ * A transaction holds one connection, so each piece of shard work runs in a transaction of its own on that
+ * shard; entities it returns are detached once it ends. With {@code users.sharding.enabled} off there is a single
+ * database and every method simply runs the work where it is called.
+ */
+@Component
+public class Shards implements DisposableBean {
+    private final ShardRing ring;
+    private final String home;
+    private final TransactionTemplate readWrite;
+    private final TransactionTemplate readOnly;
+    private final ExecutorService scatterPool;
+
+    public Shards(UsersProperties usersProperties, PlatformTransactionManager transactionManager) {
+        UsersProperties.Sharding sharding = usersProperties.getSharding();
+        if (sharding.isEnabled()) {
+            this.ring = new ShardRing(sharding.getShards().keySet(), sharding.getVirtualNodes());
+            this.home = sharding.resolveHome();
+            this.scatterPool = Executors.newFixedThreadPool(sharding.getScatterThreads(), runnable -> {
+                Thread thread = new Thread(runnable, "shard-scatter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.ring = null;
+            this.home = null;
+            this.scatterPool = null;
+        }
+
+        this.readWrite = new TransactionTemplate(transactionManager);
+        this.readWrite.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.readOnly.setReadOnly(true);
+    }
+
+    public boolean isSharded() {
+        return ring != null;
+    }
+
+    public List<String> names() {
+        return isSharded() ? ring.shards() : Collections.emptyList();
+    }
+
+    /**
+     * Every database to visit for work that is not about one user: the shard names, or a single "" without
+     * sharding, which {@link #onShard} accepts as well.
+     */
+    public List<String> databases() {
+        return isSharded() ? names() : Collections.singletonList("");
+    }
+
+    public String home() {
+        return home;
+    }
+
+    public String shardOf(Long guid) {
+        return isSharded() ? ring.shardOf(guid) : null;
+    }
+
+    /**
+     * Runs {@code work} on the shard that owns {@code guid}, read-only if the caller's transaction is.
+     */
+    public <T> T on(Long guid, Supplier<T> work) {
+        return isSharded() ? onShard(ring.shardOf(guid), work) : work.get();
+    }
+
+    public <T> T onShard(String shard, Supplier<T> work) {
+        if (!isSharded() || shard.equals(ShardContext.current())) return work.get();
+
+        TransactionTemplate transaction = TransactionSynchronizationManager.isCurrentTransactionReadOnly() ? readOnly : readWrite;
+        return ShardContext.on(shard, () -> transaction.execute(status -> work.get()));
+    }
+
+    /**
+     * Like {@link #onShard}, but always in a read-write transaction of its own, even when already on that shard,
+     * e.g. from an afterCommit callback, where the finished transaction would no longer commit anything.
+     */
+    public <T> T inNewTransaction(String shard, Supplier<T> work) {
+        if (!isSharded()) return work.get();
+        return ShardContext.on(shard, () -> readWrite.execute(status -> work.get()));
+    }
+
+    /**
+     * Runs {@code query} on every shard in parallel and concatenates the results in shard order.
+     */
+    public <T> List<T> scatter(Supplier<List<T>> query) {
+        if (!isSharded()) return query.get();
+
+        Map<String, Supplier<List<T>>> queries = new LinkedHashMap<>();
+        names().forEach(shard -> queries.put(shard, query));
+        return gatherAll(queries);
+    }
+
+    /**
+     * Splits {@code guids} by shard and runs {@code query} once per shard with that shard's guids, in parallel.
+     */
+    public <T> List<T> gather(Collection<Long> guids, Function<Collection<Long>, List<T>> query) {
+        if (!isSharded()) return query.apply(guids);
+
+        Map<String, Supplier<List<T>>> queries = new LinkedHashMap<>();
+        byShard(guids, guid -> guid).forEach((shard, owned) -> queries.put(shard, () -> query.apply(owned)));
+        return gatherAll(queries);
+    }
+
+    /**
+     * Runs {@code query} on one shard after the other, as the stream is consumed, so only one shard's rows are
+     * held at a time.
+     */
+    public <T> Stream<T> concat(Supplier<List<T>> query) {
+        if (!isSharded()) return query.get().stream();
+        return names().stream().flatMap(shard -> ShardContext.on(shard, () -> readOnly.execute(status -> query.get())).stream());
+    }
+
+    /**
+     * Groups items by the shard that owns their guid, keeping their order within each group.
+     */
+    public <K> Map<String, List<K>> byShard(Collection<K> items, Function<K, Long> guidOf) {
+        Map<String, List<K>> groups = new LinkedHashMap<>();
+        for (K item : items) {
+            String shard = isSharded() ? ring.shardOf(guidOf.apply(item)) : "";
+            groups.computeIfAbsent(shard, key -> new ArrayList<>()).add(item);
+        }
+        return groups;
+    }
+
+    private <T> List<T> gatherAll(Map<String, Supplier<List<T>>> queries) {
+        List<CompletableFuture<List<T>>> results = new ArrayList<>();
+        queries.forEach((shard, query) -> results.add(CompletableFuture.supplyAsync(
+                () -> ShardContext.on(shard, () -> readOnly.execute(status -> query.get())), scatterPool)));
+
+        List<T> gathered = new ArrayList<>();
+        try {
+            results.forEach(result -> gathered.addAll(result.join()));
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+        return gathered;
+    }
+
+    @Override
+    public void destroy() {
+        if (scatterPool != null) scatterPool.shutdownNow();
+    }
+}
@@ -0,0 +1,120 @@
+package com.galvanize.useraccounts.shard;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.exception.DuplicateEmailException;
+import com.galvanize.useraccounts.exception.DuplicateUserException;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Global uniqueness for usernames and emails across shards, enabled with {@code users.sharding.directory}.
+ * <p>
+ * Each shard's unique constraints only see that shard's users, so every username and email is also claimed here,
+ * in one table on the home shard, before the user row is written to its own shard. The two writes are not one
+ * transaction: a claim whose user write fails is released, and a claim left behind by a crash only blocks that
+ * name until the rebalancer's copy pass, which claims every existing user's keys, is run again.
+ */
+@Component
+public class UserDirectory implements SmartInitializingSingleton {
+    static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS user_keys " +
+            "(kind VARCHAR(8) NOT NULL, key_value VARCHAR(255) NOT NULL, guid BIGINT NOT NULL, PRIMARY KEY (kind, key_value))";
+    private static final String INSERT_KEY = "INSERT INTO user_keys (kind, key_value, guid) VALUES (?, ?, ?)";
+    private static final String SELECT_OWNER = "SELECT guid FROM user_keys WHERE kind = ? AND key_value = ?";
+    private static final String DELETE_KEY = "DELETE FROM user_keys WHERE kind = ? AND key_value = ? AND guid = ?";
+    static final String USERNAME = "username";
+    static final String EMAIL = "email";
+
+    private final boolean enabled;
+    private final Shards shards;
+    private final JdbcTemplate jdbcTemplate;
+
+    public UserDirectory(UsersProperties usersProperties, Shards shards, JdbcTemplate jdbcTemplate) {
+        this.enabled = shards.isSharded() && usersProperties.getSharding().isDirectory();
+        this.shards = shards;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Keys newly claimed for one user; {@link #release()} gives them back if the user could not be written.
+     */
+    public class Claim {
+        private final Long guid;
+        private final List<String[]> keys = new ArrayList<>();
+
+        private Claim(Long guid) {
+            this.guid = guid;
+        }
+
+        public void release() {
+            if (keys.isEmpty()) return;
+            shards.inNewTransaction(shards.home(), () -> {
+                keys.forEach(key -> jdbcTemplate.update(DELETE_KEY, key[0], key[1], guid));
+                return null;
+            });
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (enabled) ShardContext.on(shards.home(), () -> jdbcTemplate.update(CREATE_TABLE));
+    }
+
+    /**
+     * Claims the username and email (either may be null) for {@code guid}. Keys the user already holds are fine.
+     *
+     * @throws DuplicateUserException  when the username belongs to another user
+     * @throws DuplicateEmailException when the email belongs to another user
+     */
+    public Claim claim(Long guid, String username, String email) {
+        Claim claim = new Claim(guid);
+        if (!enabled) return claim;
+
+        // one transaction: a taken email also gives the username back. Never the caller's, so a claim made while
+        // writing a user on the home shard is already visible to every other shard's writes
+        return shards.inNewTransaction(shards.home(), () -> {
+            if (username != null) claimKey(claim, USERNAME, username, DuplicateUserException::new);
+            if (email != null) claimKey(claim, EMAIL, email, DuplicateEmailException::new);
+            return claim;
+        });
+    }
+
+    private void claimKey(Claim claim, String kind, String value, Supplier<RuntimeException> taken) {
+        String key = key(value);
+        try {
+            jdbcTemplate.update(INSERT_KEY, kind, key, claim.guid);
+            claim.keys.add(new String[]{kind, key});
+        } catch (DuplicateKeyException e) {
+            List<Long> owner = jdbcTemplate.queryForList(SELECT_OWNER, Long.class, kind, key);
+            if (owner.isEmpty() || !owner.get(0).equals(claim.guid)) throw taken.get();
+        }
+    }
+
+    /**
+     * Gives up keys held by {@code guid}, e.g. once the user is deleted or has changed email.
+     */
+    public void forget(Long guid, String username, String email) {
+        if (!enabled) return;
+
+        shards.inNewTransaction(shards.home(), () -> {
+            if (username != null) jdbcTemplate.update(DELETE_KEY, USERNAME, key(username), guid);
+            if (email != null) jdbcTemplate.update(DELETE_KEY, EMAIL, key(email), guid);
+            return null;
+        });
+    }
+
+    // MySQL compares usernames and emails case-insensitively
+    private static String key(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,52 @@
+package com.galvanize.useraccounts;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.TestPropertySource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// requests come from 127.0.0.1, which application.properties trusts as a proxy like the gateway
+@TestPropertySource(locations = "classpath:application-test.properties", properties = {
+        "security.rate-limit.enabled=true",
+        "security.rate-limit.routes[0].name=condensed",
+        "security.rate-limit.routes[0].method=GET",
+        "security.rate-limit.routes[0].pattern=/api/users/*/condensed",
+        "security.rate-limit.routes[0].capacity=1",
+        "security.rate-limit.routes[0].refill-per-second=0.001"
+})
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class RateLimitedUserAccountsTests {
+
+    @Autowired
+    TestRestTemplate restTemplate;
+
+    private HttpStatus getCondensed(String forwardedFor) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("X-Forwarded-For", forwardedFor);
+        return restTemplate.exchange("/api/users/1/condensed", HttpMethod.GET, new HttpEntity<>(headers), String.class)
+                .getStatusCode();
+    }
+
+    @Test
+    void condensed_behindTheGateway_isLimitedPerForwardedClient() {
+        assertNotEquals(HttpStatus.TOO_MANY_REQUESTS, getCondensed("203.0.113.7"));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, getCondensed("203.0.113.7"));
+
+        assertNotEquals(HttpStatus.TOO_MANY_REQUESTS, getCondensed("203.0.113.8"));
+    }
+
+    @Test
+    void condensed_withAddressesPrependedByTheCaller_isLimitedByTheAddressTheGatewaySaw() {
+        assertNotEquals(HttpStatus.TOO_MANY_REQUESTS, getCondensed("203.0.113.9"));
+
+        // the gateway appends the address it saw, so only the last untrusted hop counts
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, getCondensed("198.51.100.1, 203.0.113.9"));
+    }
+}
@@ -0,0 +1,168 @@
+package com.galvanize.useraccounts;
+
+import com.galvanize.useraccounts.exception.DuplicateEmailException;
+import com.galvanize.useraccounts.exception.DuplicateUserException;
+import com.galvanize.useraccounts.model.Address;
+import com.galvanize.useraccounts.model.User;
+import com.galvanize.useraccounts.request.UserRequest;
+import com.galvanize.useraccounts.service.UsersService;
+import com.galvanize.useraccounts.shard.Shards;
+import org.hibernate.Hibernate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestPropertySource(locations = "classpath:application-test.properties", properties = {
+        "spring.jpa.open-in-view=false",
+        "users.sharding.enabled=true",
+        "users.sharding.directory=true",
+        "users.sharding.shards.a.jdbc-url=jdbc:h2:mem:shard-a;DB_CLOSE_DELAY=-1",
+        "users.sharding.shards.a.username=sa",
+        "users.sharding.shards.a.password=sa",
+        "users.sharding.shards.b.jdbc-url=jdbc:h2:mem:shard-b;DB_CLOSE_DELAY=-1",
+        "users.sharding.shards.b.username=sa",
+        "users.sharding.shards.b.password=sa"
+})
+@SpringBootTest
+class ShardedUserAccountsTests {
+    private static final Comparator<User> SEARCH_ORDER =
+            Comparator.comparing((User user) -> user.getUsername().toLowerCase(Locale.ROOT)).thenComparing(User::getGuid);
+
+    @Autowired
+    UsersService usersService;
+
+    @Autowired
+    Shards shards;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    private final List<Long> created = new ArrayList<>();
+
+    @AfterEach
+    void teardown() {
+        created.forEach(guid -> {
+            if (usersService.getUserVersion(guid) != null) usersService.deleteUser(guid);
+        });
+    }
+
+    private User create(Long guid, String username) {
+        User user = usersService.createUser(new User(guid, username, "first", "last", username + "@example.com"));
+        created.add(guid);
+        return user;
+    }
+
+    // the first guid after 'after' that the ring places on 'shard'
+    private Long guidOn(String shard, long after) {
+        long guid = after + 1;
+        while (!shards.shardOf(guid).equals(shard)) guid++;
+        return guid;
+    }
+
+    private Integer countOn(String shard, Long guid) {
+        return shards.onShard(shard, () -> jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users WHERE guid = ?", Integer.class, guid));
+    }
+
+    @Test
+    void createUser_writesTheUserOnlyToItsShard() {
+        Long onA = guidOn("a", 1_000);
+        Long onB = guidOn("b", 1_000);
+
+        create(onA, "shardedAlpha");
+        create(onB, "shardedBravo");
+
+        assertEquals(1, countOn("a", onA));
+        assertEquals(0, countOn("b", onA));
+        assertEquals(1, countOn("b", onB));
+        assertEquals(0, countOn("a", onB));
+        assertEquals("shardedBravo", usersService.getUser(onB).getUsername());
+    }
+
+    @Test
+    void createUser_withUsernameTakenOnAnotherShard_throwsDuplicateUser() {
+        create(guidOn("a", 2_000), "takenName");
+
+        assertThrows(DuplicateUserException.class,
+                () -> usersService.createUser(new User(guidOn("b", 2_000), "TAKENNAME", "first", "last", "other@example.com")));
+    }
+
+    @Test
+    void createUser_withEmailTakenOnAnotherShard_throwsDuplicateEmail() {
+        create(guidOn("a", 3_000), "emailOwner");
+
+        assertThrows(DuplicateEmailException.class,
+                () -> usersService.createUser(new User(guidOn("b", 3_000), "emailThief", "first", "last", "emailOwner@example.com")));
+    }
+
+    @Test
+    void deleteUser_releasesTheUsernameForEveryShard() {
+        Long first = guidOn("a", 4_000);
+        create(first, "reusedName");
+        usersService.deleteUser(first);
+
+        create(guidOn("b", 4_000), "reusedName");
+    }
+
+    @Test
+    void updateUser_movingToAnEmailTakenOnAnotherShard_throwsAndKeepsTheOldOne() {
+        Long onA = guidOn("a", 5_000);
+        create(onA, "emailKeeper");
+        create(guidOn("b", 5_000), "emailHolder");
+        UserRequest request = new UserRequest();
+        request.setEmail("emailHolder@example.com");
+
+        assertThrows(DuplicateEmailException.class, () -> usersService.updateUser(onA, request));
+
+        assertEquals("emailKeeper@example.com", usersService.getUser(onA).getEmail());
+    }
+
+    @Test
+    void addAddress_returnsTheUserWithItsAddressesLoaded() {
+        Long guid = guidOn("b", 6_000);
+        create(guid, "addressOwner");
+
+        User user = usersService.addAddress(guid, new Address("street", "city", "state", "zipcode", null, null));
+
+        assertTrue(Hibernate.isInitialized(user.getAddresses()));
+        assertEquals(1, user.getAddresses().size());
+    }
+
+    @Test
+    void searchUsers_acrossShards_pagesInSearchOrder() {
+        for (int i = 0; i < 12; i++) create(7_000L + i * 13, "scatter" + (char) ('a' + (i * 5) % 12));
+
+        List<User> found = new ArrayList<>();
+        String next = null;
+        do {
+            UsersList page = usersService.searchUsers("scatter", 5, next);
+            found.addAll(page.getUsers());
+            next = page.getNext();
+        } while (next != null);
+
+        assertEquals(12, found.size());
+        assertEquals(found.stream().sorted(SEARCH_ORDER).collect(Collectors.toList()), found);
+    }
+
+    @Test
+    void streamUsers_acrossShards_mergesInSearchOrder() {
+        for (int i = 0; i < 12; i++) create(8_000L + i * 17, "merged" + (char) ('a' + (i * 7) % 12));
+        assertTrue(created.stream().map(shards::shardOf).distinct().count() > 1);
+
+        List<User> streamed = new ArrayList<>();
+        usersService.streamUsers("merged", streamed::add);
+
+        assertEquals(12, streamed.size());
+        assertEquals(streamed.stream().sorted(SEARCH_ORDER).collect(Collectors.toList()), streamed);
+    }
+}
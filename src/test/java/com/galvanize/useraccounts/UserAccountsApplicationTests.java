@@ -3,15 +3,33 @@ package com.galvanize.useraccounts;
 import com.galvanize.useraccounts.UsersList;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.galvanize.useraccounts.datasource.ReplicaLagMonitor;
+import com.galvanize.useraccounts.datasource.ReplicaRoutingDataSource;
 import com.galvanize.useraccounts.model.Address;
+import com.galvanize.useraccounts.model.Availability;
+import com.galvanize.useraccounts.model.BulkImportResult;
 import com.galvanize.useraccounts.model.User;
+import com.galvanize.useraccounts.model.UserChange;
+import com.galvanize.useraccounts.model.UserChanges;
 import com.galvanize.useraccounts.model.UserCondensed;
+import com.galvanize.useraccounts.model.UserCondensedBatch;
+import com.galvanize.useraccounts.outbox.InMemoryChangeSink;
+import com.galvanize.useraccounts.outbox.OutboxRelay;
 import com.galvanize.useraccounts.repository.AddressRepository;
+import com.galvanize.useraccounts.exception.DuplicateEmailException;
+import com.galvanize.useraccounts.exception.DuplicateUserException;
+import com.galvanize.useraccounts.exception.PreconditionFailedException;
 import com.galvanize.useraccounts.repository.UsersRepository;
+import com.galvanize.useraccounts.request.UserCondensedBatchRequest;
 import com.galvanize.useraccounts.request.UserPasswordRequest;
 import com.galvanize.useraccounts.request.UserRequest;
+import com.galvanize.useraccounts.search.UsernameTrigramIndex;
+import com.galvanize.useraccounts.service.UserChangesService;
+import com.galvanize.useraccounts.service.UsersService;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -19,13 +37,20 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.*;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.persistence.EntityManagerFactory;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
@@ -44,6 +69,33 @@ class UserAccountsApplicationTests {
     @Autowired
     AddressRepository addressRepository;
 
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    UsersService usersService;
+
+    @Autowired
+    ReplicaRoutingDataSource routingDataSource;
+
+    @Autowired
+    ReplicaLagMonitor replicaLagMonitor;
+
+    @Autowired
+    UserChangesService changesService;
+
+    @Autowired
+    OutboxRelay outboxRelay;
+
+    @Autowired
+    InMemoryChangeSink changeSink;
+
+    @Autowired
+    UsernameTrigramIndex usernameIndex;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
     List<User> users;
     List<Address> addresses;
     ObjectMapper mapper = new ObjectMapper();
@@ -99,7 +151,8 @@ class UserAccountsApplicationTests {
                 .signWith(SignatureAlgorithm.HS512, JWT_KEY.getBytes())
                 .compact();
 
-        return String.format("Bearer %s", token);
+        // setBearerAuth adds the prefix
+        return token;
     }
 
     private String getUserToken(String username, List<String> roles, Long guid) {
@@ -115,7 +168,8 @@ class UserAccountsApplicationTests {
                 .signWith(SignatureAlgorithm.HS512, JWT_KEY.getBytes())
                 .compact();
 
-        return String.format("Bearer %s", token);
+        // setBearerAuth adds the prefix
+        return token;
     }
 
     @AfterEach
@@ -154,8 +208,9 @@ class UserAccountsApplicationTests {
 
     @Test
     void createUser_withDupUsername_returnsBadRequest() throws JsonProcessingException {
-        User user10 = new User(5L, "bakerBob", "baker", "bob", "bakerBob12345@gmail.com");
+        User user10 = new User(50L, "bakerBob", "baker", "bob", "bakerBob12345@gmail.com");
         String uri = "/api/users";
+        token = getUserToken("user", Arrays.asList("ROLE_USER"), user10.getGuid());
 
         String body = mapper.writeValueAsString(user10);
         HttpHeaders headers = new HttpHeaders();
@@ -169,10 +224,40 @@ class UserAccountsApplicationTests {
     }
 
 
+    @Test
+    void createUser_forAnotherGuid_returnsForbidden() throws JsonProcessingException {
+        // token is for guid 99
+        User user = new User(51L, "someoneElse", "some", "one", "someoneElse@gmail.com");
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setBearerAuth(token);
+
+        ResponseEntity<String> response = restTemplate.postForEntity("/api/users", new HttpEntity<>(user, headers), String.class);
+
+        assertEquals(HttpStatus.FORBIDDEN, response.getStatusCode());
+        assertFalse(usersRepository.findByUsernameExactMatch("someoneElse").isPresent());
+    }
+
+    @Test
+    void createUser_secondTimeForSameGuid_returnsBadRequest() throws JsonProcessingException {
+        // guid 99 already has an account
+        User user = new User(99L, "bakerBobAgain", "baker", "bob", "bakerBobAgain@gmail.com");
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setBearerAuth(token);
+
+        ResponseEntity<String> response = restTemplate.postForEntity("/api/users", new HttpEntity<>(user, headers), String.class);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
     @Test
     void createUser_withDupEmail_returnsBadRequest() throws JsonProcessingException {
-        User user5 = new User(5L, "bakerBob", "baker", "bob", "bakerBob1@gmail.com");
+        User user5 = new User(50L, "bakerBob50", "baker", "bob", "bakerBob1@gmail.com");
         String uri = "/api/users";
+        token = getUserToken("user", Arrays.asList("ROLE_USER"), user5.getGuid());
 
         String body = mapper.writeValueAsString(user5);
         HttpHeaders headers = new HttpHeaders();
@@ -269,6 +354,38 @@ class UserAccountsApplicationTests {
         assertTrue(response.getBody().getCreatedAt().before(response.getBody().getUpdatedAt()));
     }
 
+    @Test
+    void updateUser_withOnlyBio_writesOnceAndSkipsRepeats() {
+        restTemplate.getRestTemplate().setRequestFactory(new HttpComponentsClientHttpRequestFactory());
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        UserRequest request = new UserRequest();
+        request.setBio("Bakes bread");
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setBearerAuth(token);
+
+        statistics.clear();
+        ResponseEntity<User> response = restTemplate.exchange("/api/users/99", HttpMethod.PATCH, new HttpEntity<>(request, headers), User.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("Bakes bread", response.getBody().getBio());
+        assertEquals("baker", response.getBody().getFirstName());
+        assertEquals("bakerBob1@gmail.com", response.getBody().getEmail());
+        // one SELECT of the user with its addresses, one UPDATE
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals(1, statistics.getEntityUpdateCount());
+        Timestamp updatedAt = usersRepository.findUpdatedAtByGuid(99L).get();
+
+        statistics.clear();
+        response = restTemplate.exchange("/api/users/99", HttpMethod.PATCH, new HttpEntity<>(request, headers), User.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(0, statistics.getEntityUpdateCount());
+        assertEquals(updatedAt, usersRepository.findUpdatedAtByGuid(99L).get());
+    }
+
     @Test
     void updateUser_withGuidAndBody_returnsNotAcceptable() {
         User user = users.get(0);
@@ -532,4 +649,436 @@ class UserAccountsApplicationTests {
         assertEquals(HttpStatus.NOT_ACCEPTABLE, response.getStatusCode());
     }
 
+
+    @Test
+    void typeahead_withPrefix_returnsMatchingUsersInOrder() {
+        String uri = "/api/users/typeahead?prefix=BOB";
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(token);
+
+        HttpEntity<?> request = new HttpEntity<>(headers);
+
+        ResponseEntity<UserCondensed[]> response = restTemplate.exchange(uri, HttpMethod.GET, request, UserCondensed[].class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(2, response.getBody().length);
+        assertEquals("bobBob", response.getBody()[0].getUsername());
+        assertEquals("bobBobBob", response.getBody()[1].getUsername());
+    }
+
+
+    @Test
+    void searchUsers_withLimit_pagesThroughResultsWithCursor() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(token);
+
+        HttpEntity<?> request = new HttpEntity<>(headers);
+
+        ResponseEntity<UsersList> firstPage = restTemplate.exchange("/api/users?username=bob&limit=2", HttpMethod.GET, request, UsersList.class);
+
+        assertEquals(HttpStatus.OK, firstPage.getStatusCode());
+        assertEquals(2, firstPage.getBody().size());
+        assertEquals("bakerBob", firstPage.getBody().getUsers().get(0).getUsername());
+        assertEquals("bobBob", firstPage.getBody().getUsers().get(1).getUsername());
+        assertNotNull(firstPage.getBody().getNext());
+
+        String nextUri = "/api/users?username=bob&limit=2&next=" + firstPage.getBody().getNext();
+        ResponseEntity<UsersList> secondPage = restTemplate.exchange(nextUri, HttpMethod.GET, request, UsersList.class);
+
+        assertEquals(HttpStatus.OK, secondPage.getStatusCode());
+        assertEquals(1, secondPage.getBody().size());
+        assertEquals("bobBobBob", secondPage.getBody().getUsers().get(0).getUsername());
+        assertNull(secondPage.getBody().getNext());
+    }
+
+    @Test
+    void searchUsers_withAddresses_loadsPageWithoutPerUserQueries() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(token);
+
+        statistics.clear();
+        ResponseEntity<UsersList> response = restTemplate.exchange("/api/users?username=b", HttpMethod.GET, new HttpEntity<>(headers), UsersList.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(3, response.getBody().size());
+        assertEquals(4, response.getBody().getUsers().get(0).getAddresses().size());
+        // one query for the page, one batch for every user's addresses
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    void getUser_withAddresses_loadsUserAndAddressesInOneQuery() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(getUserToken("bakerBob", Arrays.asList("ROLE_USER"), 99L));
+
+        statistics.clear();
+        ResponseEntity<User> response = restTemplate.exchange("/api/users/99", HttpMethod.GET, new HttpEntity<>(headers), User.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(4, response.getBody().getAddresses().size());
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    void updateAddress_withAddressView_returnsOnlyTheAddressWithoutLoadingTheUser() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        Long addressId = usersRepository.findWithAddressesByGuid(99L).get().getAddresses().get(0).getId();
+        Timestamp updatedAt = usersRepository.findUpdatedAtByGuid(99L).get();
+        Address address = new Address("newStreet", "newCity", "newState", "newZip", null, "work");
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(getUserToken("bakerBob", Arrays.asList("ROLE_USER"), 99L));
+
+        statistics.clear();
+        ResponseEntity<Address> response = restTemplate.exchange(String.format("/api/users/99/addresses/%d?view=address", addressId),
+                HttpMethod.PATCH, new HttpEntity<>(address, headers), Address.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(addressId, response.getBody().getId());
+        assertEquals("newStreet", response.getBody().getStreet());
+        // one UPDATE for the owner's timestamp, one for the address
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+        assertTrue(usersRepository.findUpdatedAtByGuid(99L).get().after(updatedAt));
+    }
+
+    @Test
+    void updateAddress_ofAnotherUsersAddress_changesNothing() {
+        Address owned = usersRepository.findWithAddressesByGuid(99L).get().getAddresses().get(0);
+        Long addressId = owned.getId();
+        Address address = new Address("hijacked", "newCity", "newState", "newZip", null, null);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(getUserToken("chefCesar", Arrays.asList("ROLE_USER"), 5L));
+
+        ResponseEntity<String> response = restTemplate.exchange(String.format("/api/users/5/addresses/%d", addressId),
+                HttpMethod.PATCH, new HttpEntity<>(address, headers), String.class);
+        ResponseEntity<String> deleteResponse = restTemplate.exchange(String.format("/api/users/5/addresses/%d", addressId),
+                HttpMethod.DELETE, new HttpEntity<>(headers), String.class);
+
+        assertEquals(HttpStatus.NOT_ACCEPTABLE, response.getStatusCode());
+        assertEquals(HttpStatus.NOT_ACCEPTABLE, deleteResponse.getStatusCode());
+        assertEquals(owned.getStreet(), addressRepository.findById(addressId).get().getStreet());
+    }
+
+    @Test
+    void getUserCondensed_withGuid_loadsNoEntities() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        statistics.clear();
+        ResponseEntity<UserCondensed> response = restTemplate.getForEntity("/api/users/99/condensed", UserCondensed.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("bakerBob", response.getBody().getUsername());
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    void getUsersCondensed_withGuids_returnsFoundUsersAndMissingGuids() {
+        UserCondensedBatchRequest body = new UserCondensedBatchRequest(Arrays.asList(99L, 12345L, 3L));
+
+        ResponseEntity<UserCondensedBatch> response = restTemplate.postForEntity("/api/users/condensed:batch", body, UserCondensedBatch.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(Arrays.asList(99L, 3L), new ArrayList<>(response.getBody().getUsers().keySet()));
+        assertEquals("bakerBob", response.getBody().getUsers().get(99L).getUsername());
+        assertEquals("bobBob", response.getBody().getUsers().get(3L).getUsername());
+        assertEquals(Arrays.asList(12345L), response.getBody().getMissing());
+    }
+
+    @Test
+    void searchUsers_readsFromReplica() {
+        replicaLagMonitor.beat();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(token);
+        long primaryRoutes = routingDataSource.primaryRoutes();
+        long replicaRoutes = routingDataSource.replicaRoutes();
+
+        ResponseEntity<UsersList> response = restTemplate.exchange("/api/users?username=bob", HttpMethod.GET, new HttpEntity<>(headers), UsersList.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertThat(routingDataSource.replicaRoutes()).isGreaterThan(replicaRoutes);
+        assertEquals(primaryRoutes, routingDataSource.primaryRoutes());
+    }
+
+    @Test
+    void getUser_rightAfterItsOwnWrite_readsFromPrimary() {
+        replicaLagMonitor.beat();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(getUserToken("bobBob", Arrays.asList("ROLE_USER"), 3L));
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        UserRequest request = new UserRequest();
+        request.setBio("Reads back their own writes");
+        restTemplate.exchange("/api/users/3", HttpMethod.PATCH, new HttpEntity<>(request, headers), User.class);
+        long primaryRoutes = routingDataSource.primaryRoutes();
+        long replicaRoutes = routingDataSource.replicaRoutes();
+
+        ResponseEntity<User> response = restTemplate.exchange("/api/users/3", HttpMethod.GET, new HttpEntity<>(headers), User.class);
+
+        assertEquals("Reads back their own writes", response.getBody().getBio());
+        assertThat(routingDataSource.primaryRoutes()).isGreaterThan(primaryRoutes);
+        assertEquals(replicaRoutes, routingDataSource.replicaRoutes());
+    }
+
+    @Test
+    void getUser_withCurrentETag_returnsNotModifiedWithoutLoadingUser() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(getUserToken("bakerBob", Arrays.asList("ROLE_USER"), 99L));
+
+        ResponseEntity<User> first = restTemplate.exchange("/api/users/99", HttpMethod.GET, new HttpEntity<>(headers), User.class);
+        assertNotNull(first.getHeaders().getETag());
+
+        headers.setIfNoneMatch(first.getHeaders().getETag());
+        statistics.clear();
+        ResponseEntity<User> second = restTemplate.exchange("/api/users/99", HttpMethod.GET, new HttpEntity<>(headers), User.class);
+
+        assertEquals(HttpStatus.NOT_MODIFIED, second.getStatusCode());
+        assertEquals(first.getHeaders().getETag(), second.getHeaders().getETag());
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    void updateUser_withIfMatch_rejectsTheWriterHoldingAnOldTag() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(getUserToken("bakerBob", Arrays.asList("ROLE_USER"), 99L));
+        String tag = restTemplate.exchange("/api/users/99", HttpMethod.GET, new HttpEntity<>(headers), User.class).getHeaders().getETag();
+
+        UserRequest first = new UserRequest();
+        first.setBio("first");
+        UserRequest second = new UserRequest();
+        second.setBio("second");
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setIfMatch(tag);
+
+        ResponseEntity<User> won = restTemplate.exchange("/api/users/99", HttpMethod.PATCH, new HttpEntity<>(first, headers), User.class);
+        ResponseEntity<String> lost = restTemplate.exchange("/api/users/99", HttpMethod.PATCH, new HttpEntity<>(second, headers), String.class);
+
+        assertEquals(HttpStatus.OK, won.getStatusCode());
+        assertNotEquals(tag, won.getHeaders().getETag());
+        assertEquals(HttpStatus.PRECONDITION_FAILED, lost.getStatusCode());
+        assertEquals("first", usersRepository.findByGuid(99L).get().getBio());
+    }
+
+    @Test
+    void deleteAddress_withTagFromBeforeAnAddressChange_returnsPreconditionFailed() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(getUserToken("bakerBob", Arrays.asList("ROLE_USER"), 99L));
+        ResponseEntity<User> user = restTemplate.exchange("/api/users/99", HttpMethod.GET, new HttpEntity<>(headers), User.class);
+        String tag = user.getHeaders().getETag();
+        Long changed = user.getBody().getAddresses().get(0).getId();
+        Long deleted = user.getBody().getAddresses().get(1).getId();
+
+        usersService.updateAddress(99L, changed, new Address("newStreet", "newCity", "newState", "newZip", null, null));
+        headers.setIfMatch(tag);
+        ResponseEntity<String> response = restTemplate.exchange(String.format("/api/users/99/addresses/%d", deleted),
+                HttpMethod.DELETE, new HttpEntity<>(headers), String.class);
+
+        assertEquals(HttpStatus.PRECONDITION_FAILED, response.getStatusCode());
+        assertTrue(addressRepository.findById(deleted).isPresent());
+    }
+
+    @Test
+    void updateUser_concurrentlyFromTheSameVersion_letsExactlyOneWin() throws Exception {
+        int writers = 8;
+        Long version = usersRepository.findVersionByGuid(99L).get();
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger updated = new AtomicInteger();
+        AtomicInteger conflicts = new AtomicInteger();
+
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                UserRequest request = new UserRequest();
+                request.setBio("writer " + i);
+                results.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        usersService.updateUser(99L, request, Set.of(version));
+                        updated.incrementAndGet();
+                    } catch (PreconditionFailedException | OptimisticLockingFailureException e) {
+                        conflicts.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) result.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, updated.get());
+        assertEquals(writers - 1, conflicts.get());
+        assertEquals(version + 1, usersRepository.findVersionByGuid(99L).get());
+    }
+
+    @Test
+    void createUser_issuesOnlyTheInsert() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        statistics.clear();
+        usersService.createUser(new User(7L, "newUser7", "new", "user", "newUser7@gmail.com"));
+
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void createUser_withTakenEmail_throwsDuplicateEmail() {
+        assertThrows(DuplicateEmailException.class,
+                () -> usersService.createUser(new User(7L, "newUser7", "new", "user", "janeDoe@gmail.com")));
+    }
+
+    @Test
+    void createUser_concurrentlyWithSameUsername_createsExactlyOne() throws Exception {
+        int attempts = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(attempts);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger duplicates = new AtomicInteger();
+
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < attempts; i++) {
+                long guid = 100L + i;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        usersService.createUser(new User(guid, "racer", "race", "condition", "racer" + guid + "@gmail.com"));
+                        created.incrementAndGet();
+                    } catch (DuplicateUserException e) {
+                        duplicates.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) result.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, created.get());
+        assertEquals(attempts - 1, duplicates.get());
+        assertTrue(usersRepository.findByUsernameExactMatch("racer").isPresent());
+    }
+
+    @Test
+    void checkAvailability_reflectsWritesWithoutAuthentication() {
+        ResponseEntity<Availability> taken = restTemplate.getForEntity("/api/users/availability?username=janeDoe&email=janeDoe@gmail.com", Availability.class);
+        ResponseEntity<Availability> free = restTemplate.getForEntity("/api/users/availability?username=nobodyYet&email=nobodyYet@gmail.com", Availability.class);
+
+        assertEquals(HttpStatus.OK, taken.getStatusCode());
+        assertFalse(taken.getBody().getUsername());
+        assertFalse(taken.getBody().getEmail());
+        assertTrue(free.getBody().getUsername());
+        assertTrue(free.getBody().getEmail());
+    }
+
+    @Test
+    void importUsers_createsValidLinesAndReportsTheRest() throws JsonProcessingException {
+        User withAddress = new User(200L, "importedOne", "imported", "one", "importedOne@gmail.com");
+        withAddress.addAddress(new Address("street200", "city200", "state200", "zipcode200", null, "home"));
+        String body = String.join("\n",
+                mapper.writeValueAsString(withAddress),
+                mapper.writeValueAsString(new User(201L, "importedTwo", "imported", "two", "importedTwo@gmail.com")),
+                mapper.writeValueAsString(new User(202L, "janeDoe", "jane", "again", "janeAgain@gmail.com")),
+                "{\"guid\": 203, \"username\": \"x\"}");
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType("application/x-ndjson"));
+        headers.setBearerAuth(getToken("admin", Arrays.asList("ROLE_USER", "ROLE_ADMIN")));
+
+        ResponseEntity<BulkImportResult> response = restTemplate.exchange("/api/users:bulk", HttpMethod.POST, new HttpEntity<>(body, headers), BulkImportResult.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(2, response.getBody().getCreated());
+        assertEquals(Arrays.asList(3, 4), response.getBody().getFailed().stream().map(BulkImportResult.RowError::getLine).collect(Collectors.toList()));
+
+        User imported = usersService.getUser(200L);
+        assertNotNull(imported.getCreatedAt());
+        assertEquals(1, imported.getAddresses().size());
+        assertEquals("street200", imported.getAddresses().get(0).getStreet());
+        // the JDBC inserts publish their own events, so the in-memory indexes know the new users
+        assertEquals(2, usersService.typeahead("imported", null).size());
+        assertFalse(usersService.checkAvailability("importedTwo", null).getUsername());
+    }
+
+    @Test
+    void importUsers_withoutAdminRole_isForbidden() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType("application/x-ndjson"));
+        headers.setBearerAuth(token);
+
+        ResponseEntity<String> response = restTemplate.exchange("/api/users:bulk", HttpMethod.POST, new HttpEntity<>("{}", headers), String.class);
+
+        assertEquals(HttpStatus.FORBIDDEN, response.getStatusCode());
+    }
+
+    @Test
+    void getChanges_afterUpdate_returnsChangeOnceAndRelaysIt() {
+        restTemplate.getRestTemplate().setRequestFactory(new HttpComponentsClientHttpRequestFactory());
+        // other tests leave their changes behind, so start from the end of the feed
+        String since = changesService.getChanges(null, 1000).getNext();
+        for (UserChanges page = changesService.getChanges(since, 1000); !page.getChanges().isEmpty(); page = changesService.getChanges(since, 1000)) {
+            since = page.getNext();
+        }
+
+        UserRequest request = new UserRequest();
+        request.setBio("Bakes bread");
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setBearerAuth(token);
+        restTemplate.exchange("/api/users/99", HttpMethod.PATCH, new HttpEntity<>(request, headers), User.class);
+        restTemplate.exchange("/api/users/99/addresses/" + users.get(0).getAddresses().get(0).getId(), HttpMethod.DELETE,
+                new HttpEntity<>(headers), String.class);
+
+        ResponseEntity<UserChanges> response = restTemplate.exchange("/api/users/changes?since=" + since, HttpMethod.GET,
+                new HttpEntity<>(headers), UserChanges.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(Arrays.asList(UserChange.Type.UPDATED, UserChange.Type.ADDRESS_DELETED),
+                response.getBody().getChanges().stream().map(UserChange::getType).collect(Collectors.toList()));
+        assertTrue(response.getBody().getChanges().stream().allMatch(change -> change.getGuid() == 99L));
+
+        response = restTemplate.exchange("/api/users/changes?since=" + response.getBody().getNext(), HttpMethod.GET,
+                new HttpEntity<>(headers), UserChanges.class);
+        assertTrue(response.getBody().getChanges().isEmpty());
+
+        outboxRelay.relay();
+        assertThat(changeSink.published()).anyMatch(change -> change.getGuid() == 99L && change.getType() == UserChange.Type.ADDRESS_DELETED);
+    }
+
+    @Test
+    void getChanges_withInvalidCursor_returnsBadRequest() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(token);
+
+        ResponseEntity<String> response = restTemplate.exchange("/api/users/changes?since=not*a*cursor", HttpMethod.GET,
+                new HttpEntity<>(headers), String.class);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    void deleteUser_rolledBackAfterFlush_leavesTheUserSearchable() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            usersRepository.delete(usersRepository.findByGuid(5L).get());
+            usersRepository.flush();
+            status.setRollbackOnly();
+        });
+
+        assertEquals("chefCesar", usernameIndex.usernameOf(5L));
+    }
+
+    @Test
+    void deleteUser_committed_removesTheUserFromSearch() {
+        usersService.deleteUser(5L);
+
+        assertNull(usernameIndex.usernameOf(5L));
+    }
 }
@@ -0,0 +1,111 @@
+package com.galvanize.useraccounts.availability;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.event.UserChangedEvent;
+import com.galvanize.useraccounts.model.UserCondensed;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AvailabilityFilterTests {
+    private AvailabilityFilter filter;
+
+    @BeforeEach
+    void setup() {
+        UsersProperties properties = new UsersProperties();
+        properties.getAvailability().setExpectedInsertions(1_000);
+        filter = new AvailabilityFilter(properties);
+    }
+
+    private static UserChangedEvent event(UserChangedEvent.Type type, long guid, String username, String email) {
+        return new UserChangedEvent(type, guid, username, null, email);
+    }
+
+    @Test
+    void mightContain_beforeFirstBuild_isAlwaysTrue() {
+        assertFalse(filter.isReady());
+        assertTrue(filter.mightContainUsername("anyone"));
+        assertTrue(filter.mightContainEmail("anyone@gmail.com"));
+    }
+
+    @Test
+    void rebuild_containsScannedUsersCaseInsensitively() {
+        filter.rebuild(Stream.of(new UserCondensed(1L, "bakerBob", null, "bakerBob1@gmail.com")));
+
+        assertTrue(filter.isReady());
+        assertTrue(filter.mightContainUsername("BAKERBOB"));
+        assertTrue(filter.mightContainEmail("bakerbob1@gmail.com"));
+        assertFalse(filter.mightContainUsername("janeDoe"));
+        assertFalse(filter.mightContainEmail("janeDoe@gmail.com"));
+    }
+
+    @Test
+    void onUserChanged_tracksCreatesUpdatesAndDeletes() {
+        filter.rebuild(Stream.empty());
+
+        filter.onUserChanged(event(UserChangedEvent.Type.CREATED, 1L, "bakerBob", "bakerBob1@gmail.com"));
+        assertTrue(filter.mightContainUsername("bakerBob"));
+
+        filter.onUserChanged(event(UserChangedEvent.Type.UPDATED, 1L, "bakerBob", "bob@gmail.com"));
+        assertTrue(filter.mightContainEmail("bob@gmail.com"));
+
+        filter.onUserChanged(event(UserChangedEvent.Type.DELETED, 2L, "janeDoe", "janeDoe@gmail.com"));
+        filter.onUserChanged(event(UserChangedEvent.Type.CREATED, 3L, "chefCesar", "chefCesar@gmail.com"));
+        filter.onUserChanged(event(UserChangedEvent.Type.DELETED, 3L, "chefCesar", "chefCesar@gmail.com"));
+        assertFalse(filter.mightContainUsername("chefCesar"));
+        assertTrue(filter.mightContainUsername("bakerBob"));
+    }
+
+    private static UserChangedEvent updated(long guid, String username, String email,
+                                            String previousUsername, String previousEmail) {
+        return new UserChangedEvent(UserChangedEvent.Type.UPDATED, guid, username, null, email,
+                previousUsername, previousEmail);
+    }
+
+    @Test
+    void onUserChanged_updatesThatKeepUsernameAndEmail_doNotOutliveTheDelete() {
+        filter.rebuild(Stream.empty());
+
+        filter.onUserChanged(event(UserChangedEvent.Type.CREATED, 1L, "bakerBob", "bakerBob1@gmail.com"));
+        filter.onUserChanged(updated(1L, "bakerBob", "bakerBob1@gmail.com", "bakerBob", "bakerBob1@gmail.com"));
+        filter.onUserChanged(updated(1L, "bakerBob", "bakerBob1@gmail.com", "BakerBob", "bakerBob1@gmail.com"));
+        // a replay from another pod, without previous values
+        filter.onUserChanged(event(UserChangedEvent.Type.UPDATED, 1L, "bakerBob", "bakerBob1@gmail.com"));
+        filter.onUserChanged(event(UserChangedEvent.Type.DELETED, 1L, "bakerBob", "bakerBob1@gmail.com"));
+
+        assertFalse(filter.mightContainUsername("bakerBob"));
+        assertFalse(filter.mightContainEmail("bakerBob1@gmail.com"));
+    }
+
+    @Test
+    void onUserChanged_emailChange_replacesThePreviousEmail() {
+        filter.rebuild(Stream.empty());
+
+        filter.onUserChanged(event(UserChangedEvent.Type.CREATED, 1L, "bakerBob", "bakerBob1@gmail.com"));
+        filter.onUserChanged(updated(1L, "bakerBob", "bob@gmail.com", "bakerBob", "bakerBob1@gmail.com"));
+
+        assertFalse(filter.mightContainEmail("bakerBob1@gmail.com"));
+        assertTrue(filter.mightContainEmail("bob@gmail.com"));
+        assertTrue(filter.mightContainUsername("bakerBob"));
+    }
+
+    @Test
+    void rebuild_appliesDeletesSeenDuringScanAfterIt() {
+        UserCondensed bakerBob = new UserCondensed(1L, "bakerBob", null, "bakerBob1@gmail.com");
+        filter.rebuild(Stream.of(bakerBob));
+
+        // the scan still returns a row that is deleted while it runs, and misses a row created meanwhile
+        Stream<UserCondensed> scan = Stream.of(bakerBob)
+                .peek(user -> {
+                    filter.onUserChanged(event(UserChangedEvent.Type.DELETED, 1L, "bakerBob", "bakerBob1@gmail.com"));
+                    filter.onUserChanged(event(UserChangedEvent.Type.CREATED, 2L, "janeDoe", "janeDoe@gmail.com"));
+                });
+        filter.rebuild(scan);
+
+        assertFalse(filter.mightContainUsername("bakerBob"));
+        assertTrue(filter.mightContainUsername("janeDoe"));
+    }
+}
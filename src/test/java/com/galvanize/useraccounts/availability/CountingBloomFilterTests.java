@@ -0,0 +1,66 @@
+package com.galvanize.useraccounts.availability;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CountingBloomFilterTests {
+
+    @Test
+    void mightContain_afterAdd_isAlwaysTrue() {
+        CountingBloomFilter filter = new CountingBloomFilter(10_000, 0.01);
+
+        for (int i = 0; i < 10_000; i++) filter.add("user" + i);
+
+        for (int i = 0; i < 10_000; i++) assertTrue(filter.mightContain("user" + i));
+    }
+
+    @Test
+    void mightContain_staysNearConfiguredFalsePositiveRate() {
+        CountingBloomFilter filter = new CountingBloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) filter.add("user" + i);
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("stranger" + i)) falsePositives++;
+        }
+
+        assertTrue(falsePositives < 2_000, "false positive rate too high: " + falsePositives + " in 100000");
+    }
+
+    @Test
+    void remove_forgetsKeyButKeepsOthers() {
+        CountingBloomFilter filter = new CountingBloomFilter(1_000, 0.01);
+        for (int i = 0; i < 1_000; i++) filter.add("user" + i);
+
+        for (int i = 0; i < 1_000; i += 2) filter.remove("user" + i);
+
+        for (int i = 1; i < 1_000; i += 2) assertTrue(filter.mightContain("user" + i));
+        int stillReported = 0;
+        for (int i = 0; i < 1_000; i += 2) {
+            if (filter.mightContain("user" + i)) stillReported++;
+        }
+        assertTrue(stillReported < 50, "removed keys still reported: " + stillReported);
+    }
+
+    @Test
+    void remove_withKeyAddedTwice_needsTwoRemovals() {
+        CountingBloomFilter filter = new CountingBloomFilter(100, 0.01);
+        filter.add("bakerbob");
+        filter.add("bakerbob");
+
+        filter.remove("bakerbob");
+        assertTrue(filter.mightContain("bakerbob"));
+
+        filter.remove("bakerbob");
+        assertFalse(filter.mightContain("bakerbob"));
+    }
+
+    @Test
+    void constructor_sizesForExpectedInsertions() {
+        CountingBloomFilter filter = new CountingBloomFilter(1_000_000, 0.01);
+
+        assertEquals(7, filter.hashes());
+        assertEquals(9_585_059, filter.counters());
+    }
+}
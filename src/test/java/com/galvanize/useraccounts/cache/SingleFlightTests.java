@@ -0,0 +1,85 @@
+package com.galvanize.useraccounts.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SingleFlightTests {
+
+    @Test
+    void load_withConcurrentCallersForSameKey_runsLoaderOnce() throws Exception {
+        SingleFlight<Long, String> flight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int callers = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> flight.load(1L, guid -> {
+                    calls.incrementAndGet();
+                    await(release);
+                    return "user" + guid;
+                })));
+            }
+
+            // hold the leader until every other caller has joined its load
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (flight.coalesced() < callers - 1 && System.nanoTime() < deadline) Thread.sleep(1);
+            release.countDown();
+
+            for (Future<String> result : results) assertEquals("user1", result.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(1, flight.loads());
+        assertEquals(callers - 1, flight.coalesced());
+        assertEquals(0, flight.inFlight());
+    }
+
+    @Test
+    void load_afterCompletion_loadsAgain() {
+        SingleFlight<Long, String> flight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        flight.load(1L, guid -> "v" + calls.incrementAndGet());
+        String second = flight.load(1L, guid -> "v" + calls.incrementAndGet());
+
+        assertEquals("v2", second);
+        assertEquals(0, flight.coalesced());
+    }
+
+    @Test
+    void load_whenLoaderThrows_propagatesAndReleasesKey() {
+        SingleFlight<Long, String> flight = new SingleFlight<>();
+
+        assertThatExceptionOfType(IllegalStateException.class)
+                .isThrownBy(() -> flight.load(1L, guid -> {
+                    throw new IllegalStateException("database down");
+                }));
+
+        assertEquals("user1", flight.load(1L, guid -> "user" + guid));
+        assertEquals(0, flight.inFlight());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.galvanize.useraccounts.cache;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.event.UserChangedEvent;
+import com.galvanize.useraccounts.model.UserCondensed;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserCondensedCacheTests {
+    private UserCondensedCache cache;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    void setup() {
+        cache = new UserCondensedCache(new UsersProperties());
+        loads = new AtomicInteger();
+    }
+
+    private UserCondensed load(Long guid) {
+        loads.incrementAndGet();
+        return new UserCondensed(guid, "user" + guid, null, "user" + guid + "@gmail.com");
+    }
+
+    @Test
+    void get_afterLoad_servesFromCache() {
+        cache.get(1L, this::load);
+        UserCondensed user = cache.get(1L, this::load);
+
+        assertEquals("user1", user.getUsername());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void get_whenLoaderFindsNothing_doesNotCacheTheMiss() {
+        assertNull(cache.get(1L, guid -> null));
+
+        assertEquals("user1", cache.get(1L, this::load).getUsername());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void onUserChanged_withUpdateOrDelete_evicts() {
+        cache.get(1L, this::load);
+        cache.get(2L, this::load);
+
+        cache.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 1L, "user1", "avatar.png", "user1@gmail.com"));
+        cache.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.DELETED, 2L, "user2", null, "user2@gmail.com"));
+        cache.get(1L, this::load);
+        cache.get(2L, this::load);
+
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void get_whenInvalidatedDuringLoad_doesNotStoreTheLoadedValue() {
+        cache.get(1L, guid -> {
+            cache.invalidate(guid);
+            return load(guid);
+        });
+        cache.get(1L, this::load);
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void putAll_afterInvalidation_isDropped() {
+        long generation = cache.generation();
+        cache.invalidate(7L);
+
+        cache.putAll(Collections.singletonMap(1L, load(1L)), generation);
+
+        assertTrue(cache.getAllPresent(Collections.singletonList(1L)).isEmpty());
+    }
+
+    @Test
+    void bindTo_registersHitAndMissMeters() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+
+        cache.get(1L, this::load);
+        cache.get(1L, this::load);
+
+        assertEquals(1.0, registry.get("cache.gets").tag("cache", "users.condensed").tag("result", "hit").functionCounter().count());
+        assertEquals(1.0, registry.get("cache.gets").tag("cache", "users.condensed").tag("result", "miss").functionCounter().count());
+    }
+}
@@ -0,0 +1,108 @@
+package com.galvanize.useraccounts.concurrency;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrencyLimitFilterTests {
+    private ConcurrencyLimitFilter filter;
+
+    @BeforeEach
+    void setup() {
+        ConcurrencyLimitProperties properties = new ConcurrencyLimitProperties();
+        properties.getWrite().setInitialLimit(2);
+        properties.getWrite().setMinLimit(2);
+        filter = new ConcurrencyLimitFilter(properties);
+    }
+
+    private MockHttpServletResponse perform(String method, String path, FilterChain chain) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest(method, path), response, chain);
+        return response;
+    }
+
+    @Test
+    void doFilter_overTheWriteLimit_shedsWritesButNotReads() throws Exception {
+        filter.write().tryAcquire();
+        filter.write().tryAcquire();
+
+        assertEquals(503, perform("POST", "/api/users", new MockFilterChain()).getStatus());
+        assertEquals(503, perform("PATCH", "/api/users/99", new MockFilterChain()).getStatus());
+        assertEquals(503, perform("POST", "/api/users:bulk", new MockFilterChain()).getStatus());
+        assertEquals(200, perform("GET", "/api/users/99", new MockFilterChain()).getStatus());
+        // other endpoints are not limited
+        assertEquals(200, perform("POST", "/auth/login", new MockFilterChain()).getStatus());
+    }
+
+    @Test
+    void doFilter_returnsThePermitWhenTheRequestFails() throws Exception {
+        FilterChain failing = (request, response) -> {
+            throw new ServletException("boom");
+        };
+
+        assertThrows(ServletException.class, () -> perform("DELETE", "/api/users/99", failing));
+
+        assertEquals(0, filter.write().getInFlight());
+    }
+
+    @Test
+    void doFilter_withAsyncRequest_keepsThePermitUntilItCompletes() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/users");
+        request.setAsyncSupported(true);
+        FilterChain streaming = (req, res) -> req.startAsync();
+
+        filter.doFilter(request, new MockHttpServletResponse(), streaming);
+        assertEquals(1, filter.read().getInFlight());
+
+        request.getAsyncContext().complete();
+        assertEquals(0, filter.read().getInFlight());
+    }
+
+    @Test
+    void doFilter_withLongStream_holdsAStreamPermitAndLeavesTheReadLimitAlone() throws Exception {
+        int readLimit = filter.read().getLimit();
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/users");
+        request.addHeader("Accept", "application/x-ndjson");
+        request.setAsyncSupported(true);
+        FilterChain streaming = (req, res) -> req.startAsync();
+
+        filter.doFilter(request, new MockHttpServletResponse(), streaming);
+        assertEquals(1, filter.stream().getInFlight());
+        assertEquals(0, filter.read().getInFlight());
+
+        // the other streams are turned away, point lookups are not
+        for (int i = 1; i < filter.stream().getLimit(); i++) filter.stream().tryAcquire();
+        MockHttpServletRequest another = new MockHttpServletRequest("GET", "/api/users");
+        another.addHeader("Accept", "application/x-ndjson");
+        MockHttpServletResponse shed = new MockHttpServletResponse();
+        filter.doFilter(another, shed, new MockFilterChain());
+        assertEquals(503, shed.getStatus());
+        assertEquals(200, perform("GET", "/api/users/99", new MockFilterChain()).getStatus());
+
+        request.getAsyncContext().complete();
+        assertEquals(filter.stream().getLimit() - 1, filter.stream().getInFlight());
+        assertEquals(readLimit, filter.read().getLimit());
+    }
+
+    @Test
+    void bindTo_exposesLimitInFlightAndRejections() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        filter.bindTo(registry);
+        filter.write().tryAcquire();
+        filter.write().tryAcquire();
+        perform("POST", "/api/users", new MockFilterChain());
+
+        assertEquals(2, registry.get("users.concurrency.limit").tag("kind", "write").gauge().value());
+        assertEquals(2, registry.get("users.concurrency.in-flight").tag("kind", "write").gauge().value());
+        assertEquals(1, registry.get("users.concurrency.rejected").tag("kind", "write").functionCounter().count());
+        assertEquals(40, registry.get("users.concurrency.limit").tag("kind", "read").gauge().value());
+    }
+}
@@ -0,0 +1,64 @@
+package com.galvanize.useraccounts.concurrency;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GradientLimitTests {
+    private GradientLimit limit;
+
+    @BeforeEach
+    void setup() {
+        limit = new GradientLimit(new ConcurrencyLimitProperties.Bounds(10, 2, 50), 1.5);
+    }
+
+    // runs as many requests at once as the limit allows, all taking rttMillis
+    private void saturate(int rounds, long rttMillis) {
+        for (int i = 0; i < rounds; i++) {
+            int permits = 0;
+            while (limit.tryAcquire()) permits++;
+            for (int j = 0; j < permits; j++) limit.release(TimeUnit.MILLISECONDS.toNanos(rttMillis));
+        }
+    }
+
+    @Test
+    void tryAcquire_allowsUpToTheLimit() {
+        for (int i = 0; i < 10; i++) assertTrue(limit.tryAcquire());
+        assertFalse(limit.tryAcquire());
+        assertEquals(10, limit.getInFlight());
+
+        limit.release();
+        assertTrue(limit.tryAcquire());
+    }
+
+    @Test
+    void release_whileLatencyHolds_growsTheLimitUpToMax() {
+        saturate(100, 10);
+
+        assertEquals(50, limit.getLimit());
+        assertEquals(0, limit.getInFlight());
+    }
+
+    @Test
+    void release_whenLatencyRises_shrinksTheLimit() {
+        saturate(100, 10);
+
+        saturate(1, 40);
+
+        assertTrue(limit.getLimit() < 20, "limit was " + limit.getLimit());
+        assertTrue(limit.getLimit() >= 2);
+    }
+
+    @Test
+    void release_withFewRequestsInFlight_leavesTheLimitAlone() {
+        for (int i = 0; i < 100; i++) {
+            limit.tryAcquire();
+            limit.release(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+
+        assertEquals(10, limit.getLimit());
+    }
+}
@@ -4,12 +4,20 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.galvanize.useraccounts.UsersList;
 import com.galvanize.useraccounts.exception.*;
 import com.galvanize.useraccounts.model.Address;
+import com.galvanize.useraccounts.model.Availability;
+import com.galvanize.useraccounts.model.BulkImportResult;
 import com.galvanize.useraccounts.model.User;
+import com.galvanize.useraccounts.model.UserChange;
+import com.galvanize.useraccounts.model.UserChanges;
 import com.galvanize.useraccounts.model.UserCondensed;
+import com.galvanize.useraccounts.model.UserCondensedBatch;
 import com.galvanize.useraccounts.request.UserAvatarRequest;
+import com.galvanize.useraccounts.request.UserCondensedBatchRequest;
 import com.galvanize.useraccounts.request.UserPasswordRequest;
 import com.galvanize.useraccounts.request.UserRequest;
 import com.galvanize.useraccounts.service.AddressesService;
+import com.galvanize.useraccounts.service.BulkImportService;
+import com.galvanize.useraccounts.service.UserChangesService;
 import com.galvanize.useraccounts.service.UsersService;
 import com.jayway.jsonpath.JsonPath;
 import io.jsonwebtoken.Jwts;
@@ -27,12 +35,17 @@ import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
+import java.io.InputStream;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.IntStream;
 
 import static org.hamcrest.Matchers.*;
@@ -45,7 +58,10 @@ import static org.mockito.Mockito.when;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 //@ActiveProfiles("test")
@@ -65,6 +81,12 @@ public class UsersControllerTests {
     @MockBean
     AddressesService addressesService;
 
+    @MockBean
+    BulkImportService bulkImportService;
+
+    @MockBean
+    UserChangesService changesService;
+
     private User user;
 
     ObjectMapper mapper = new ObjectMapper();
@@ -97,7 +119,7 @@ public class UsersControllerTests {
     @DisplayName("It can successfully create a user with valid attributes, status code 200 ok")
     @Test
     public void createUser() throws Exception {
-        User userToAdd = new User(1L, "bakerBob", "bob", "baker", "bakerBob@gmail.com");
+        User userToAdd = new User(99L, "bakerBob", "bob", "baker", "bakerBob@gmail.com");
         userToAdd.setCreatedAt(Timestamp.valueOf(LocalDateTime.now()));
         userToAdd.setUpdatedAt(Timestamp.valueOf(LocalDateTime.now()));
 
@@ -133,13 +155,13 @@ public class UsersControllerTests {
         mockMvc.perform(delete("/api/users/" + userToDelete.getGuid()).header("Authorization", token))
                 .andExpect(status().isAccepted());
 
-        verify(usersService).deleteUser(anyLong());
+        verify(usersService).deleteUser(anyLong(), isNull());
     }
 
     @DisplayName("It does not return anything if there are no users, status 204 no content")
     @Test
     public void deleteUser_byId_noContentStatusCode() throws Exception {
-        doThrow(new UserNotFoundException()).when(usersService).deleteUser(anyLong());
+        doThrow(new UserNotFoundException()).when(usersService).deleteUser(anyLong(), any());
         mockMvc.perform(delete("/api/users/1495").header("Authorization", token))
                 .andExpect(status().isNoContent());
     }
@@ -153,7 +175,7 @@ public class UsersControllerTests {
 
         token = getToken(user.getUsername(), Arrays.asList("ROLE_USER"));
 
-        when(usersService.updateUser(anyLong(), any(UserRequest.class))).thenReturn(user);
+        when(usersService.updateUser(anyLong(), any(UserRequest.class), isNull())).thenReturn(user);
         when(usersService.searchByEmail(anyString())).thenReturn(java.util.Optional.of(user));
 
         mockMvc.perform(patch("/api/users/99").header("Authorization", token).contentType(MediaType.APPLICATION_JSON).content(mapper.writeValueAsString(user)))
@@ -168,7 +190,7 @@ public class UsersControllerTests {
     public void editUser_fails() throws Exception {
         User user = new User(1L, "bakerBob", "baker", "bob", "bakerBob@gmail.com");
 
-        when(usersService.updateUser(anyLong(), any(UserRequest.class))).thenReturn(null);
+        when(usersService.updateUser(anyLong(), any(UserRequest.class), isNull())).thenReturn(null);
 
         mockMvc.perform(patch("/api/users/1234").header("Authorization", token)
                 .contentType(MediaType.APPLICATION_JSON)
@@ -269,7 +291,7 @@ public class UsersControllerTests {
         user.setUpdatedAt(Timestamp.valueOf(LocalDateTime.now()));
 
         when(usersService.getUser(anyLong())).thenReturn(user);
-        when(usersService.updateAddress(anyLong(), anyLong(), any(Address.class))).thenReturn(user);
+        when(usersService.updateAddress(anyLong(), anyLong(), any(Address.class), isNull())).thenReturn(user);
 
         MvcResult result = mockMvc.perform(patch(String.format("/api/users/%d/addresses/%d", user.getGuid(), 1L)).header("Authorization", token)
                 .contentType(MediaType.APPLICATION_JSON)
@@ -284,13 +306,31 @@ public class UsersControllerTests {
         assertEquals(updatedAddress.getStreet(), street);
     }
 
+    @Test
+    public void updateAddress_withAddressView_returnsOnlyTheAddress() throws Exception {
+        Address updatedAddress = new Address("Test Street", "Test City", "Test State", "Test Zipcode", "Test Apartment", null);
+        Address stored = new Address("Test Street", "Test City", "Test State", "Test Zipcode", "Test Apartment", null);
+        stored.setId(1L);
+
+        when(usersService.updateAddressOnly(eq(99L), eq(1L), any(Address.class), isNull())).thenReturn(stored);
+
+        mockMvc.perform(patch("/api/users/99/addresses/1?view=address").header("Authorization", token)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(mapper.writeValueAsString(updatedAddress)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("id").value(1))
+                .andExpect(jsonPath("street").value("Test Street"))
+                .andExpect(jsonPath("username").doesNotExist());
+        verify(usersService, never()).updateAddress(anyLong(), anyLong(), any(Address.class), any());
+    }
+
     @DisplayName("It fails to edit a user's address, status code 400 bad request")
     @Test()
     public void updateAddress_fail() throws Exception {
         Address updatedAddress = new Address("Test Street", "Test City", "Test State", "Test Zipcode", "Test Apartment", null);
         updatedAddress.setId(1L);
 
-        when(usersService.updateAddress(anyLong(), anyLong(), any(Address.class))).thenReturn(null);
+        when(usersService.updateAddress(anyLong(), anyLong(), any(Address.class), isNull())).thenReturn(null);
 
         mockMvc.perform(patch(String.format("/api/users/%d/addresses/%d", 1L, 1L)).header("Authorization", token)
                 .contentType(MediaType.APPLICATION_JSON)
@@ -305,13 +345,24 @@ public class UsersControllerTests {
 
         mockMvc.perform(delete("/api/users/" + user.getGuid() + "/addresses/1").header("Authorization", token))
                 .andExpect(status().isAccepted());
-        verify(usersService).deleteAddress(user.getGuid(), 1L);
+        verify(usersService).deleteAddress(user.getGuid(), 1L, null);
     }
 
     @Test
-    public void createUser_withDuplicateUsernameAndEmail_returnsError() throws Exception {
+    public void createUser_forAnotherGuid_returnsForbidden() throws Exception {
         User user = new User(1L, "bob", "bob", "smith", "bakerBob2@gmail.com");
 
+        mockMvc.perform(post("/api/users").header("Authorization", token)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(mapper.writeValueAsString(user)))
+                .andExpect(status().isForbidden());
+        verify(usersService, never()).createUser(any(User.class));
+    }
+
+    @Test
+    public void createUser_withDuplicateUsernameAndEmail_returnsError() throws Exception {
+        User user = new User(99L, "bob", "bob", "smith", "bakerBob2@gmail.com");
+
         when(usersService.createUser(any(User.class))).thenThrow(DuplicateUserException.class);
 
         mockMvc.perform(post("/api/users").header("Authorization", token)
@@ -370,11 +421,293 @@ public class UsersControllerTests {
     public void searchUsername_byString_returnsNoContent() throws Exception {
         String username = "bob";
 
-        when(usersService.searchUsers(anyString())).thenReturn(new UsersList(Arrays.asList()));
+        when(usersService.searchUsers(anyString(), any(), any())).thenReturn(new UsersList(Arrays.asList()));
 
         mockMvc.perform(get("/api/users?username=" + username).header("Authorization", token))
                 .andDo(print())
                 .andExpect(status().isNoContent());
     }
 
+
+    @Test
+    public void searchUsername_withLimitAndCursor_returnsPageAndNextCursor() throws Exception {
+        UsersList page = new UsersList(Arrays.asList(user));
+        page.setNext("next-page");
+
+        when(usersService.searchUsers("bob", 1, "this-page")).thenReturn(page);
+
+        mockMvc.perform(get("/api/users?username=bob&limit=1&next=this-page").header("Authorization", token))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("users", hasSize(1)))
+                .andExpect(jsonPath("next").value("next-page"));
+    }
+
+    @Test
+    public void searchUsername_withInvalidCursor_returnsBadRequest() throws Exception {
+        when(usersService.searchUsers(anyString(), any(), anyString())).thenThrow(InvalidCursorException.class);
+
+        mockMvc.perform(get("/api/users?username=bob&next=garbage").header("Authorization", token))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void searchUsername_withNdjsonAccept_streamsOneUserPerLine() throws Exception {
+        User other = new User(100L, "bobBob", "bob", "bob", "bobBob@gmail.com");
+
+        doAnswer(invocation -> {
+            Consumer<User> consumer = invocation.getArgument(1);
+            consumer.accept(user);
+            consumer.accept(other);
+            return null;
+        }).when(usersService).streamUsers(eq("bob"), any());
+
+        MvcResult result = mockMvc.perform(get("/api/users?username=bob")
+                .header("Authorization", token)
+                .accept("application/x-ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String body = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = body.split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("bakerBob", JsonPath.read(lines[0], "$.username"));
+        assertEquals("bobBob", JsonPath.read(lines[1], "$.username"));
+        verify(usersService, never()).searchUsers(any(), any(), any());
+    }
+
+    @Test
+    public void typeahead_withPrefix_returnsCondensedUsers() throws Exception {
+        UserCondensed userCondensed = new UserCondensed(user.getGuid(), user.getUsername(), user.getAvatar(), user.getEmail());
+
+        when(usersService.typeahead("bak", 5)).thenReturn(Arrays.asList(userCondensed));
+
+        mockMvc.perform(get("/api/users/typeahead?prefix=bak&limit=5").header("Authorization", token))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].guid").value(user.getGuid()))
+                .andExpect(jsonPath("$[0].username").value(user.getUsername()));
+    }
+
+    @Test
+    public void typeahead_withoutMatches_returnsNoContent() throws Exception {
+        when(usersService.typeahead(anyString(), any())).thenReturn(new ArrayList<>());
+
+        mockMvc.perform(get("/api/users/typeahead?prefix=zzz").header("Authorization", token))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    public void getChanges_withCursor_returnsChangesAndNextCursor() throws Exception {
+        UserChange change = new UserChange(7L, 99L, UserChange.Type.UPDATED, new Timestamp(System.currentTimeMillis()));
+
+        when(changesService.getChanges("this-page", 50)).thenReturn(new UserChanges(Arrays.asList(change), "next-page"));
+
+        mockMvc.perform(get("/api/users/changes?since=this-page&limit=50").header("Authorization", token))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("changes", hasSize(1)))
+                .andExpect(jsonPath("changes[0].guid").value(99))
+                .andExpect(jsonPath("changes[0].type").value("UPDATED"))
+                .andExpect(jsonPath("changes[0].id").doesNotExist())
+                .andExpect(jsonPath("next").value("next-page"));
+    }
+
+    @Test
+    public void getChanges_withInvalidCursor_returnsBadRequest() throws Exception {
+        when(changesService.getChanges(anyString(), any())).thenThrow(InvalidCursorException.class);
+
+        mockMvc.perform(get("/api/users/changes?since=garbage").header("Authorization", token))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getUsersCondensed_withGuids_returnsMapAndMissing() throws Exception {
+        Map<Long, UserCondensed> found = new LinkedHashMap<>();
+        found.put(99L, new UserCondensed(99L, "bakerBob", null, "bakerBob@gmail.com"));
+
+        when(usersService.getUsersCondensed(Arrays.asList(99L, 12345L))).thenReturn(new UserCondensedBatch(found, Arrays.asList(12345L)));
+
+        mockMvc.perform(post("/api/users/condensed:batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(mapper.writeValueAsString(new UserCondensedBatchRequest(Arrays.asList(99L, 12345L)))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("users['99'].username").value("bakerBob"))
+                .andExpect(jsonPath("missing", contains(12345)));
+    }
+
+    @Test
+    public void getUsersCondensed_withTooManyGuids_returnsBadRequest() throws Exception {
+        when(usersService.getUsersCondensed(anyList())).thenThrow(BatchTooLargeException.class);
+
+        mockMvc.perform(post("/api/users/condensed:batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(mapper.writeValueAsString(new UserCondensedBatchRequest(Arrays.asList(1L, 2L)))))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void showUser_returnsETag() throws Exception {
+        user.setVersion(16L);
+        when(usersService.getUser(99L)).thenReturn(user);
+
+        mockMvc.perform(get("/api/users/99").header("Authorization", token))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"63-10\""));
+    }
+
+    @Test
+    public void showUser_withMatchingIfNoneMatch_returnsNotModifiedWithoutLoadingUser() throws Exception {
+        when(usersService.getUserVersion(99L)).thenReturn(16L);
+
+        mockMvc.perform(get("/api/users/99").header("Authorization", token).header("If-None-Match", "\"63-10\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"63-10\""));
+
+        verify(usersService, never()).getUser(anyLong());
+    }
+
+    @Test
+    public void showUser_withStaleIfNoneMatch_returnsUser() throws Exception {
+        user.setVersion(17L);
+        when(usersService.getUserVersion(99L)).thenReturn(user.getVersion());
+        when(usersService.getUser(99L)).thenReturn(user);
+
+        mockMvc.perform(get("/api/users/99").header("Authorization", token).header("If-None-Match", "\"63-10\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"63-11\""))
+                .andExpect(jsonPath("username").value(user.getUsername()));
+    }
+
+    @Test
+    public void editUser_withIfMatch_passesVersionAndReturnsNewETag() throws Exception {
+        user.setVersion(17L);
+        when(usersService.updateUser(eq(99L), any(UserRequest.class), eq(Set.of(16L)))).thenReturn(user);
+
+        mockMvc.perform(patch("/api/users/99").header("Authorization", token).header("If-Match", "\"63-10\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"bio\":\"new bio\"}"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"63-11\""));
+    }
+
+    @Test
+    public void editUser_withStaleIfMatch_returnsPreconditionFailed() throws Exception {
+        when(usersService.updateUser(eq(99L), any(UserRequest.class), eq(Set.of(16L)))).thenThrow(PreconditionFailedException.class);
+
+        mockMvc.perform(patch("/api/users/99").header("Authorization", token).header("If-Match", "\"63-10\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"bio\":\"new bio\"}"))
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    public void editUser_withAnotherUsersTag_failsWithoutWriting() throws Exception {
+        mockMvc.perform(patch("/api/users/99").header("Authorization", token).header("If-Match", "\"64-10\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"bio\":\"new bio\"}"))
+                .andExpect(status().isPreconditionFailed());
+
+        verify(usersService, never()).updateUser(anyLong(), any(UserRequest.class), any());
+    }
+
+    @Test
+    public void editUser_withIfMatchList_passesEveryStrongTagOfTheUser() throws Exception {
+        user.setVersion(17L);
+        when(usersService.updateUser(eq(99L), any(UserRequest.class), eq(Set.of(9L, 16L)))).thenReturn(user);
+
+        mockMvc.perform(patch("/api/users/99").header("Authorization", token)
+                .header("If-Match", "\"64-10\", W/\"63-11\", \"63-9\",\"63-10\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"bio\":\"new bio\"}"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"63-11\""));
+    }
+
+    @Test
+    public void editUser_withOnlyWeakOrForeignTags_failsWithoutWriting() throws Exception {
+        mockMvc.perform(patch("/api/users/99").header("Authorization", token).header("If-Match", "W/\"63-10\", \"64-10\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"bio\":\"new bio\"}"))
+                .andExpect(status().isPreconditionFailed());
+
+        verify(usersService, never()).updateUser(anyLong(), any(UserRequest.class), any());
+    }
+
+    @Test
+    public void deleteAddress_withIfMatch_passesVersion() throws Exception {
+        mockMvc.perform(delete("/api/users/99/addresses/1").header("Authorization", token).header("If-Match", "\"63-10\""))
+                .andExpect(status().isAccepted());
+
+        verify(usersService).deleteAddress(99L, 1L, Set.of(16L));
+    }
+
+    @Test
+    public void showUserCondensed_withMatchingIfNoneMatch_returnsNotModified() throws Exception {
+        UserCondensed userCondensed = new UserCondensed(user.getGuid(), user.getUsername(), user.getAvatar(), user.getEmail());
+        when(usersService.getUserCondensed(99L)).thenReturn(userCondensed);
+
+        String tag = mockMvc.perform(get("/api/users/99/condensed"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/api/users/99/condensed").header("If-None-Match", tag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        userCondensed.setAvatar("avatar.png");
+        mockMvc.perform(get("/api/users/99/condensed").header("If-None-Match", tag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("avatar").value("avatar.png"));
+    }
+
+    @Test
+    public void checkAvailability_withoutToken_returnsAnswers() throws Exception {
+        when(usersService.checkAvailability("bakerBob", "new@gmail.com")).thenReturn(new Availability(false, true));
+
+        mockMvc.perform(get("/api/users/availability?username=bakerBob&email=new@gmail.com"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("username").value(false))
+                .andExpect(jsonPath("email").value(true));
+    }
+
+    @Test
+    public void checkAvailability_withOnlyUsername_omitsEmail() throws Exception {
+        when(usersService.checkAvailability("bakerBob", null)).thenReturn(new Availability(true, null));
+
+        mockMvc.perform(get("/api/users/availability?username=bakerBob"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("username").value(true))
+                .andExpect(jsonPath("email").doesNotExist());
+    }
+
+    @Test
+    public void importUsers_asAdmin_returnsResult() throws Exception {
+        BulkImportResult result = new BulkImportResult();
+        result.created(1);
+        result.fail(2, "Email should be valid.");
+        when(bulkImportService.importUsers(any(InputStream.class))).thenReturn(result);
+
+        mockMvc.perform(post("/api/users:bulk")
+                .header("Authorization", getToken("admin", Arrays.asList("ROLE_USER", "ROLE_ADMIN")))
+                .contentType("application/x-ndjson")
+                .content(mapper.writeValueAsString(user) + "\n{\"email\":\"nope\"}\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("created").value(1))
+                .andExpect(jsonPath("failed[0].line").value(2))
+                .andExpect(jsonPath("failed[0].errors[0]").value("Email should be valid."));
+    }
+
+    @Test
+    public void importUsers_withoutAdminRole_isForbidden() throws Exception {
+        mockMvc.perform(post("/api/users:bulk")
+                .header("Authorization", token)
+                .contentType("application/x-ndjson")
+                .content(mapper.writeValueAsString(user) + "\n"))
+                .andExpect(status().isForbidden());
+
+        verifyNoInteractions(bulkImportService);
+    }
 }
@@ -0,0 +1,51 @@
+package com.galvanize.useraccounts.datasource;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.event.UserChangedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadYourWritesTests {
+    private final AtomicLong nanos = new AtomicLong();
+    private ReadYourWrites readYourWrites;
+
+    @BeforeEach
+    void setup() {
+        UsersProperties properties = new UsersProperties();
+        properties.getReplication().setMaxLag(Duration.ofSeconds(5));
+        properties.getReplication().setHeartbeatInterval(Duration.ofSeconds(1));
+        readYourWrites = new ReadYourWrites(properties, nanos::get);
+    }
+
+    @Test
+    void recentlyWrote_onlyForTheWrittenGuid() {
+        readYourWrites.wrote(1L);
+
+        assertTrue(readYourWrites.recentlyWrote(1L));
+        assertFalse(readYourWrites.recentlyWrote(2L));
+        assertFalse(readYourWrites.recentlyWrote(null));
+    }
+
+    @Test
+    void recentlyWrote_afterMaxLagPlusOneHeartbeat_isFalse() {
+        readYourWrites.wrote(1L);
+
+        nanos.addAndGet(Duration.ofMillis(5_999).toNanos());
+        assertTrue(readYourWrites.recentlyWrote(1L));
+
+        nanos.addAndGet(Duration.ofMillis(1).toNanos());
+        assertFalse(readYourWrites.recentlyWrote(1L));
+    }
+
+    @Test
+    void onUserChanged_startsTheWindow() {
+        readYourWrites.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 1L, "user1", null, "user1@gmail.com"));
+
+        assertTrue(readYourWrites.recentlyWrote(1L));
+    }
+}
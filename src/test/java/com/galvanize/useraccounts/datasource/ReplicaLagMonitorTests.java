@@ -0,0 +1,72 @@
+package com.galvanize.useraccounts.datasource;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplicaLagMonitorTests {
+
+    private static DataSource h2(String name) {
+        return new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "sa");
+    }
+
+    private static ReplicaLagMonitor monitor(DataSource primary, DataSource replica) {
+        UsersProperties properties = new UsersProperties();
+        properties.getReplication().setMaxLag(Duration.ofSeconds(5));
+        return new ReplicaLagMonitor(primary, replica, properties);
+    }
+
+    @Test
+    void isReplicaUsable_beforeFirstHeartbeat_isFalse() {
+        DataSource database = h2("lag-unmeasured");
+
+        assertTrue(Double.isNaN(monitor(database, database).lagMillis()));
+        assertFalse(monitor(database, database).isReplicaUsable());
+    }
+
+    @Test
+    void beat_withReplicaInSync_measuresNoLag() {
+        // both pools on one database: a replica that applies every write at once
+        DataSource database = h2("lag-in-sync");
+        ReplicaLagMonitor monitor = monitor(database, database);
+
+        monitor.beat();
+
+        assertTrue(monitor.lagMillis() < 1_000);
+        assertTrue(monitor.isReplicaUsable());
+    }
+
+    @Test
+    void beat_withReplicaBehind_measuresLagAndStopsUsingIt() {
+        DataSource primary = h2("lag-primary");
+        DataSource replica = h2("lag-replica");
+        // the replica last applied a heartbeat from a minute ago
+        JdbcTemplate replicaJdbc = new JdbcTemplate(replica);
+        replicaJdbc.execute(ReplicaLagMonitor.CREATE_TABLE);
+        replicaJdbc.update(ReplicaLagMonitor.INSERT_BEAT, System.currentTimeMillis() - 60_000);
+        ReplicaLagMonitor monitor = monitor(primary, replica);
+
+        monitor.beat();
+
+        assertTrue(monitor.lagMillis() >= 60_000);
+        assertFalse(monitor.isReplicaUsable());
+    }
+
+    @Test
+    void beat_whenReplicaUnreachable_stopsUsingIt() {
+        DataSource primary = h2("lag-unreachable");
+        // no heartbeat table on this replica, so every read fails
+        ReplicaLagMonitor monitor = monitor(primary, h2("lag-empty"));
+
+        monitor.beat();
+
+        assertTrue(Double.isNaN(monitor.lagMillis()));
+        assertFalse(monitor.isReplicaUsable());
+    }
+}
@@ -0,0 +1,80 @@
+package com.galvanize.useraccounts.datasource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ReplicaRoutingDataSourceTests {
+    private final DataSource primary = mock(DataSource.class);
+    private final DataSource replica = mock(DataSource.class);
+    private final AtomicBoolean replicaUsable = new AtomicBoolean(true);
+    private ReplicaRoutingDataSource routing;
+
+    @BeforeEach
+    void setup() {
+        routing = new ReplicaRoutingDataSource(primary, replica, replicaUsable::get);
+        routing.afterPropertiesSet();
+    }
+
+    @AfterEach
+    void teardown() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+    }
+
+    @Test
+    void getConnection_outsideReadOnlyTransaction_usesPrimary() throws SQLException {
+        routing.getConnection();
+
+        verify(primary).getConnection();
+        verifyNoInteractions(replica);
+        assertEquals(1, routing.primaryRoutes());
+    }
+
+    @Test
+    void getConnection_inReadOnlyTransaction_usesReplica() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        routing.getConnection();
+
+        verify(replica).getConnection();
+        verifyNoInteractions(primary);
+        assertEquals(1, routing.replicaRoutes());
+    }
+
+    @Test
+    void getConnection_whenPinned_usesPrimaryAndUnpinsAfterwards() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        ReplicaRoutingDataSource.onPrimary(() -> {
+            try {
+                return routing.getConnection();
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        routing.getConnection();
+
+        verify(primary).getConnection();
+        verify(replica).getConnection();
+    }
+
+    @Test
+    void getConnection_whenReplicaTooFarBehind_usesPrimary() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        replicaUsable.set(false);
+
+        routing.getConnection();
+
+        verify(primary).getConnection();
+        verifyNoInteractions(replica);
+    }
+}
@@ -0,0 +1,125 @@
+package com.galvanize.useraccounts.invalidation;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.event.UserChangedEvent;
+import com.galvanize.useraccounts.model.UserChange;
+import com.galvanize.useraccounts.model.UserCondensed;
+import com.galvanize.useraccounts.repository.UserChangesRepository;
+import com.galvanize.useraccounts.repository.UsersRepository;
+import com.galvanize.useraccounts.shard.Shards;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ClusterInvalidationListenerTests {
+    @Mock
+    InvalidationBus bus;
+    @Mock
+    UsersRepository usersRepository;
+    @Mock
+    UserChangesRepository userChangesRepository;
+    @Mock
+    ApplicationEventPublisher publisher;
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    private ClusterInvalidationListener listener;
+
+    @BeforeEach
+    void setup() {
+        listener = new ClusterInvalidationListener(bus, usersRepository, userChangesRepository, new Shards(new UsersProperties(), transactionManager),
+                publisher, transactionManager);
+    }
+
+    private static UserChange change(long guid, UserChange.Type type) {
+        return change(guid, type, "other-pod");
+    }
+
+    private static UserChange change(long guid, UserChange.Type type, String origin) {
+        return new UserChange(null, guid, type, new Timestamp(System.currentTimeMillis()), origin);
+    }
+
+    private List<UserChangedEvent> published(int count) {
+        ArgumentCaptor<UserChangedEvent> events = ArgumentCaptor.forClass(UserChangedEvent.class);
+        verify(publisher, times(count)).publishEvent(events.capture());
+        return events.getAllValues();
+    }
+
+    @Test
+    void constructor_subscribesToTheBus() {
+        verify(bus).subscribe(any());
+    }
+
+    @Test
+    void onChanges_readsChangedUsersOnceAndReplaysThemAsUpdates() {
+        when(usersRepository.findCondensedByGuidIn(new LinkedHashSet<>(Arrays.asList(1L, 2L))))
+                .thenReturn(Arrays.asList(new UserCondensed(1L, "bakerBob", null, "bakerBob@gmail.com"),
+                        new UserCondensed(2L, "chefCesar", null, "chefCesar@gmail.com")));
+
+        listener.onChanges(Arrays.asList(change(1L, UserChange.Type.CREATED), change(2L, UserChange.Type.UPDATED),
+                change(1L, UserChange.Type.UPDATED), change(2L, UserChange.Type.ADDRESS_ADDED)));
+
+        List<UserChangedEvent> events = published(2);
+        assertTrue(events.stream().allMatch(event -> event.getType() == UserChangedEvent.Type.UPDATED));
+        assertEquals(Arrays.asList("bakerBob", "chefCesar"), events.stream().map(UserChangedEvent::getUsername).collect(Collectors.toList()));
+    }
+
+    @Test
+    void onChanges_replaysUsersOnlyCreatedInTheBatchAsCreated() {
+        when(usersRepository.findCondensedByGuidIn(Collections.singleton(1L)))
+                .thenReturn(Collections.singletonList(new UserCondensed(1L, "bakerBob", null, "bakerBob@gmail.com")));
+
+        listener.onChanges(Collections.singletonList(change(1L, UserChange.Type.CREATED)));
+
+        assertEquals(UserChangedEvent.Type.CREATED, published(1).get(0).getType());
+    }
+
+    @Test
+    void onChanges_skipsChangesThisPodWrote() {
+        when(userChangesRepository.origin()).thenReturn("this-pod");
+        when(usersRepository.findCondensedByGuidIn(Collections.singleton(2L)))
+                .thenReturn(Collections.singletonList(new UserCondensed(2L, "chefCesar", null, "chefCesar@gmail.com")));
+
+        listener.onChanges(Arrays.asList(change(1L, UserChange.Type.CREATED, "this-pod"), change(1L, UserChange.Type.UPDATED, "this-pod"),
+                change(2L, UserChange.Type.UPDATED), change(3L, UserChange.Type.DELETED, "this-pod")));
+
+        List<UserChangedEvent> events = published(1);
+        assertEquals(2L, events.get(0).getGuid());
+    }
+
+    @Test
+    void onChanges_withDeletedOrVanishedUsers_replaysDeletes() {
+        when(usersRepository.findCondensedByGuidIn(Collections.singleton(2L))).thenReturn(Collections.emptyList());
+
+        listener.onChanges(Arrays.asList(change(1L, UserChange.Type.UPDATED), change(1L, UserChange.Type.DELETED),
+                change(2L, UserChange.Type.CREATED)));
+
+        List<UserChangedEvent> events = published(2);
+        assertTrue(events.stream().allMatch(UserChangedEvent::isDeleted));
+        assertEquals(Arrays.asList(1L, 2L), events.stream().map(UserChangedEvent::getGuid).collect(Collectors.toList()));
+    }
+
+    @Test
+    void onChanges_withOnlyAddressChanges_readsNothing() {
+        listener.onChanges(Collections.singletonList(change(1L, UserChange.Type.ADDRESS_DELETED)));
+
+        verifyNoInteractions(usersRepository, publisher);
+    }
+}
@@ -0,0 +1,127 @@
+package com.galvanize.useraccounts.invalidation;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.model.UserChange;
+import com.galvanize.useraccounts.repository.UserChangesRepository;
+import com.galvanize.useraccounts.shard.Shards;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class OutboxInvalidationBusTests {
+    @Mock
+    UserChangesRepository changesRepository;
+
+    private OutboxInvalidationBus bus;
+    private final List<List<UserChange>> received = new ArrayList<>();
+
+    @BeforeEach
+    void setup() {
+        UsersProperties properties = new UsersProperties();
+        properties.getOutbox().setSettleDelay(Duration.ofSeconds(2));
+        properties.getInvalidation().setBatchSize(2);
+        bus = new OutboxInvalidationBus(properties, changesRepository, new Shards(properties, mock(PlatformTransactionManager.class)));
+        bus.subscribe(received::add);
+
+        when(changesRepository.lastId()).thenReturn(10L);
+        when(changesRepository.ago(any(Duration.class)))
+                .thenAnswer(invocation -> new Timestamp(System.currentTimeMillis() - invocation.<Duration>getArgument(0).toMillis()));
+        bus.afterSingletonsInstantiated();
+    }
+
+    private static UserChange change(long id, long ageMillis) {
+        return new UserChange(id, id * 100, UserChange.Type.UPDATED, new Timestamp(System.currentTimeMillis() - ageMillis));
+    }
+
+    private List<Long> receivedIds() {
+        return received.stream().flatMap(List::stream).map(UserChange::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    void poll_startsAtTheEndOfTheOutbox() {
+        when(changesRepository.findAfter(10L, 2)).thenReturn(Collections.emptyList());
+
+        bus.poll();
+
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    void poll_deliversUnsettledChangesAtOnceAndOnlyOnce() {
+        when(changesRepository.findAfter(10L, 2)).thenReturn(Arrays.asList(change(11L, 10_000), change(12L, 0)));
+        when(changesRepository.findAfter(12L, 2)).thenReturn(Collections.emptyList());
+        when(changesRepository.findAfter(11L, 2)).thenReturn(Collections.singletonList(change(12L, 0)));
+
+        bus.poll();
+        bus.poll();
+
+        assertEquals(Arrays.asList(11L, 12L), receivedIds());
+        // a full page is followed by the next one, and the second poll re-reads from the last settled change
+        verify(changesRepository).findAfter(12L, 2);
+        verify(changesRepository).findAfter(11L, 2);
+    }
+
+    @Test
+    void poll_deliversALateCommitBelowAnAlreadyDeliveredId() {
+        when(changesRepository.findAfter(10L, 2))
+                .thenReturn(Collections.singletonList(change(12L, 0)))
+                .thenReturn(Arrays.asList(change(11L, 0), change(12L, 0)));
+        when(changesRepository.findAfter(12L, 2)).thenReturn(Collections.emptyList());
+
+        bus.poll();
+        bus.poll();
+
+        assertEquals(Arrays.asList(12L, 11L), receivedIds());
+    }
+
+    @Test
+    void poll_whenAListenerFails_deliversTheBatchAgainNextTime() {
+        List<Long> failed = new ArrayList<>();
+        bus.subscribe(changes -> {
+            if (failed.isEmpty()) {
+                changes.forEach(change -> failed.add(change.getId()));
+                throw new IllegalStateException("database down");
+            }
+        });
+        when(changesRepository.findAfter(10L, 2)).thenReturn(Collections.singletonList(change(11L, 10_000)));
+
+        bus.poll();
+        bus.poll();
+
+        assertEquals(Collections.singletonList(11L), failed);
+        // the first listener saw it both times, the batch only counts once it went through
+        assertEquals(Arrays.asList(11L, 11L), receivedIds());
+        verify(changesRepository, times(2)).findAfter(10L, 2);
+    }
+
+    @Test
+    void poll_recordsReceivedChangesAndTheirDelay() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        bus.bindTo(registry);
+        when(changesRepository.findAfter(10L, 2)).thenReturn(Collections.singletonList(change(11L, 3_000)));
+
+        bus.poll();
+
+        assertEquals(1, registry.get("users.invalidation.received").functionCounter().count());
+        assertEquals(1, registry.get("users.invalidation.delay").timer().count());
+        assertTrue(registry.get("users.invalidation.delay").timer().max(TimeUnit.MILLISECONDS) >= 3_000);
+    }
+}
@@ -0,0 +1,86 @@
+package com.galvanize.useraccounts.outbox;
+
+import com.galvanize.useraccounts.exception.InvalidCursorException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeCursorTests {
+    @Test
+    void decode_ofEncoded_keepsEveryDatabasePosition() {
+        ChangeCursor cursor = ChangeCursor.START.with("a", 12L).with("b", 7L);
+
+        ChangeCursor decoded = ChangeCursor.decode(cursor.encode());
+
+        assertEquals(12L, decoded.positionOf("a"));
+        assertEquals(7L, decoded.positionOf("b"));
+        assertEquals(0L, decoded.positionOf("c"));
+    }
+
+    @Test
+    void decode_ofEncoded_keepsTheIdsTakenAboveEachPosition() {
+        ChangeCursor cursor = ChangeCursor.START.with("a", 12L, new TreeSet<>(Arrays.asList(14L, 15L))).with("b", 7L);
+
+        ChangeCursor decoded = ChangeCursor.decode(cursor.encode());
+
+        assertEquals(12L, decoded.positionOf("a"));
+        assertEquals(new TreeSet<>(Arrays.asList(14L, 15L)), decoded.takenOf("a"));
+        assertTrue(decoded.takenOf("b").isEmpty());
+        assertTrue(decoded.with("a", 15L).takenOf("a").isEmpty());
+    }
+
+    @Test
+    void encode_writesConsecutiveTakenIdsAsOneRun() {
+        ChangeCursor cursor = ChangeCursor.START.with("", 1000L, LongStream.rangeClosed(1001, 2000).boxed().collect(Collectors.toSet()));
+
+        String encoded = new String(Base64.getUrlDecoder().decode(cursor.encode()), StandardCharsets.UTF_8);
+
+        assertEquals("=1000+1-999", encoded);
+        assertEquals(1000, ChangeCursor.decode(cursor.encode()).takenOf("").size());
+    }
+
+    @Test
+    void decode_ofRunsThatOverlapOrNeverEnd_throwsInvalidCursor() {
+        String overlapping = Base64.getUrlEncoder().encodeToString("=5+1-3+0".getBytes(StandardCharsets.UTF_8));
+        String huge = Base64.getUrlEncoder().encodeToString("=5+1-99999999".getBytes(StandardCharsets.UTF_8));
+
+        assertThatExceptionOfType(InvalidCursorException.class).isThrownBy(() -> ChangeCursor.decode(overlapping));
+        assertThatExceptionOfType(InvalidCursorException.class).isThrownBy(() -> ChangeCursor.decode(huge));
+    }
+
+    @Test
+    void decode_ofStart_isStart() {
+        ChangeCursor decoded = ChangeCursor.decode(ChangeCursor.START.encode());
+
+        assertEquals("", ChangeCursor.START.encode());
+        assertEquals(0L, decoded.positionOf(""));
+    }
+
+    @Test
+    void with_leavesTheOriginalUnchanged() {
+        ChangeCursor cursor = ChangeCursor.START.with("", 3L);
+
+        cursor.with("", 4L);
+
+        assertEquals(3L, cursor.positionOf(""));
+    }
+
+    @Test
+    void decode_ofGarbage_throwsInvalidCursor() {
+        String notBase64 = "not*a*cursor";
+        String noPosition = Base64.getUrlEncoder().encodeToString("a".getBytes(StandardCharsets.UTF_8));
+        String notANumber = Base64.getUrlEncoder().encodeToString("a=x".getBytes(StandardCharsets.UTF_8));
+
+        assertThatExceptionOfType(InvalidCursorException.class).isThrownBy(() -> ChangeCursor.decode(notBase64));
+        assertThatExceptionOfType(InvalidCursorException.class).isThrownBy(() -> ChangeCursor.decode(noPosition));
+        assertThatExceptionOfType(InvalidCursorException.class).isThrownBy(() -> ChangeCursor.decode(notANumber));
+    }
+}
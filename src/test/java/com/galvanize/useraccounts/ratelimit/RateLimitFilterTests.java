@@ -0,0 +1,66 @@
+package com.galvanize.useraccounts.ratelimit;
+
+import com.galvanize.useraccounts.security.JwtUser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RateLimitFilterTests {
+    private final AtomicLong nanos = new AtomicLong();
+    private RateLimitFilter filter;
+
+    @BeforeEach
+    void setup() {
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.setRoutes(List.of(new RateLimitProperties.Route("lookups", "GET", "/api/users/**", 1, 0.5)));
+        filter = new RateLimitFilter(new RateLimiter(properties, nanos::get));
+    }
+
+    @AfterEach
+    void teardown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    private MockHttpServletResponse get(String path, String address) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        request.setServletPath(path);
+        request.setRemoteAddr(address);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+
+    @Test
+    void doFilter_overTheLimit_respondsTooManyRequestsWithRetryAfter() throws Exception {
+        assertEquals(200, get("/api/users/99", "10.0.0.1").getStatus());
+
+        MockHttpServletResponse limited = get("/api/users/99", "10.0.0.1");
+        assertEquals(429, limited.getStatus());
+        assertEquals("2", limited.getHeader("Retry-After"));
+
+        assertEquals(200, get("/api/users/99", "10.0.0.2").getStatus());
+        assertEquals(200, get("/open/health", "10.0.0.1").getStatus());
+    }
+
+    @Test
+    void doFilter_withAuthenticatedUser_limitsByGuidInsteadOfAddress() throws Exception {
+        JwtUser user = new JwtUser(99L, "bakerBob", "bakerBob@gmail.com", List.of("ROLE_USER"));
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(user, null, List.of()));
+
+        assertEquals(200, get("/api/users/99", "10.0.0.1").getStatus());
+        assertEquals(429, get("/api/users/99", "10.0.0.2").getStatus());
+
+        SecurityContextHolder.clearContext();
+        assertEquals(200, get("/api/users/99", "10.0.0.1").getStatus());
+    }
+}
@@ -0,0 +1,110 @@
+package com.galvanize.useraccounts.ratelimit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RateLimiterTests {
+    private final AtomicLong nanos = new AtomicLong();
+    private RateLimiter rateLimiter;
+    private RateLimiter.Limit condensed;
+
+    @BeforeEach
+    void setup() {
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.setRoutes(List.of(
+                new RateLimitProperties.Route("condensed", "GET", "/api/users/*/condensed", 3, 2),
+                new RateLimitProperties.Route("lookups", "GET", "/api/users/**", 100, 100)));
+        rateLimiter = new RateLimiter(properties, nanos::get);
+        condensed = rateLimiter.limitFor("GET", "/api/users/99/condensed");
+    }
+
+    @Test
+    void limitFor_returnsTheFirstMatchingRoute() {
+        assertEquals("condensed", condensed.getName());
+        assertEquals("lookups", rateLimiter.limitFor("GET", "/api/users/99").getName());
+        assertNull(rateLimiter.limitFor("POST", "/api/users"));
+        assertNull(rateLimiter.limitFor("GET", "/actuator/health"));
+    }
+
+    @Test
+    void tryAcquire_allowsABurstOfCapacityThenRefills() {
+        for (int i = 0; i < 3; i++) assertEquals(0, rateLimiter.tryAcquire(condensed, "10.0.0.1"));
+
+        long wait = rateLimiter.tryAcquire(condensed, "10.0.0.1");
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), wait);
+        // others have their own bucket
+        assertEquals(0, rateLimiter.tryAcquire(condensed, "10.0.0.2"));
+        assertEquals(0, rateLimiter.tryAcquire(condensed, 99L));
+
+        nanos.addAndGet(wait);
+        assertEquals(0, rateLimiter.tryAcquire(condensed, "10.0.0.1"));
+        assertTrue(rateLimiter.tryAcquire(condensed, "10.0.0.1") > 0);
+    }
+
+    @Test
+    void tryAcquire_fromManyThreads_neverGivesOutMoreThanCapacity() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger allowed = new AtomicInteger();
+        for (int i = 0; i < 8; i++) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < 1000; j++) {
+                    if (rateLimiter.tryAcquire(condensed, "10.0.0.1") == 0) allowed.incrementAndGet();
+                }
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(3, allowed.get());
+    }
+
+    @Test
+    void sweep_dropsOnlyBucketsThatFilledUpAgain() {
+        rateLimiter.tryAcquire(condensed, "10.0.0.1");
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        for (int i = 0; i < 3; i++) rateLimiter.tryAcquire(condensed, "10.0.0.2");
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(400));
+
+        rateLimiter.sweep();
+
+        assertEquals(1, rateLimiter.buckets());
+        // the swept client starts over with a full bucket
+        for (int i = 0; i < 3; i++) assertEquals(0, rateLimiter.tryAcquire(condensed, "10.0.0.1"));
+    }
+
+    @Test
+    void bindTo_countsRejectionsByRoute() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        rateLimiter.bindTo(registry);
+        for (int i = 0; i < 5; i++) rateLimiter.tryAcquire(condensed, "10.0.0.1");
+
+        assertEquals(2, registry.get("users.rate-limit.rejected").tag("route", "condensed").functionCounter().count());
+        assertEquals(1, registry.get("users.rate-limit.buckets").gauge().value());
+    }
+
+    @Test
+    void disabled_limitsNothing() {
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.setEnabled(false);
+
+        assertNull(new RateLimiter(properties).limitFor("GET", "/api/users/99/condensed"));
+    }
+}
@@ -0,0 +1,45 @@
+package com.galvanize.useraccounts.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LegacyUniqueKeyMigrationTests {
+
+    @Test
+    void plan_dropsLegacyKeysNextToTheirNamedReplacement() {
+        Map<String, Set<String>> keys = new LinkedHashMap<>();
+        keys.put("PRIMARY", Set.of("id"));
+        keys.put("UK_6dotkott2kjsp8vw4d0m25fb7", Set.of("email"));
+        keys.put("uk_users_email", Set.of("email"));
+        keys.put("uk_users_username", Set.of("username"));
+
+        assertEquals(List.of("ALTER TABLE users DROP INDEX `UK_6dotkott2kjsp8vw4d0m25fb7`"), LegacyUniqueKeyMigration.plan(keys));
+    }
+
+    @Test
+    void plan_renamesLegacyKeysWithoutReplacementOnce() {
+        Map<String, Set<String>> keys = new LinkedHashMap<>();
+        keys.put("UK_r43af9ap4edm43mmtq01oddj6", Set.of("username"));
+        keys.put("UK_aaaaaaaaaaaaaaaaaaaaaaaaa", Set.of("username"));
+        keys.put("UK_multi", Set.of("username", "email"));
+
+        assertEquals(List.of(
+                "ALTER TABLE users RENAME INDEX `UK_r43af9ap4edm43mmtq01oddj6` TO `uk_users_username`",
+                "ALTER TABLE users DROP INDEX `UK_aaaaaaaaaaaaaaaaaaaaaaaaa`"), LegacyUniqueKeyMigration.plan(keys));
+    }
+
+    @Test
+    void plan_withOnlyNamedKeys_changesNothing() {
+        Map<String, Set<String>> keys = new LinkedHashMap<>();
+        keys.put("uk_users_guid", Set.of("guid"));
+        keys.put("UK_USERS_EMAIL", Set.of("email"));
+
+        assertTrue(LegacyUniqueKeyMigration.plan(keys).isEmpty());
+    }
+}
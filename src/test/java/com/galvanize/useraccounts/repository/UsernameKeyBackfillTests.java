@@ -0,0 +1,54 @@
+package com.galvanize.useraccounts.repository;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.model.User;
+import com.galvanize.useraccounts.shard.Shards;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UsernameKeyBackfillTests {
+    private static final int USERS = UsernameKeyBackfill.BATCH * 2 + 3;
+
+    private JdbcTemplate jdbcTemplate;
+    private UsernameKeyBackfill backfill;
+
+    @BeforeEach
+    void setup() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:username-key;DB_CLOSE_DELAY=-1", "sa", "sa");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        backfill = new UsernameKeyBackfill(new Shards(new UsersProperties(), new DataSourceTransactionManager(dataSource)), jdbcTemplate);
+
+        jdbcTemplate.execute("DROP TABLE IF EXISTS users");
+        jdbcTemplate.execute("CREATE TABLE users (id BIGINT PRIMARY KEY, username VARCHAR(20) NOT NULL, username_key VARCHAR(160))");
+        for (long id = 1; id <= USERS; id++) {
+            jdbcTemplate.update("INSERT INTO users (id, username) VALUES (?, ?)", id, "User" + id);
+        }
+        jdbcTemplate.update("UPDATE users SET username_key = 'kept' WHERE id = 1");
+    }
+
+    @Test
+    void afterSingletonsInstantiated_keysEveryUserWithoutOneInBatches() {
+        backfill.afterSingletonsInstantiated();
+
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users WHERE username_key IS NULL", Integer.class));
+        assertEquals("kept", jdbcTemplate.queryForObject("SELECT username_key FROM users WHERE id = 1", String.class));
+        assertEquals(User.usernameKey("User" + USERS),
+                jdbcTemplate.queryForObject("SELECT username_key FROM users WHERE id = ?", String.class, (long) USERS));
+    }
+
+    @Test
+    void backfill_secondRun_findsNothingLeft() {
+        assertEquals(USERS - 1, backfill.backfill());
+        assertEquals(0, backfill.backfill());
+
+        List<String> keys = jdbcTemplate.queryForList("SELECT username_key FROM users WHERE id = 2", String.class);
+        assertEquals(List.of(User.usernameKey("user2")), keys);
+    }
+}
@@ -0,0 +1,61 @@
+package com.galvanize.useraccounts.search;
+
+import com.galvanize.useraccounts.exception.InvalidCursorException;
+import com.galvanize.useraccounts.model.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchCursorTests {
+
+    @Test
+    void decode_readsBackWhatEncodeWrote() {
+        SearchCursor cursor = SearchCursor.decode(new SearchCursor("bakerbob", 99L).encode());
+
+        assertEquals("bakerbob", cursor.getUsername());
+        assertEquals(99L, cursor.getGuid());
+        assertThrows(InvalidCursorException.class, () -> SearchCursor.decode("not a cursor"));
+    }
+
+    @Test
+    void precedes_comparesUsernamesThenGuids() {
+        SearchCursor cursor = new SearchCursor("bob_b", 2L);
+
+        assertTrue(cursor.precedes("bob_b", 3L));
+        assertTrue(cursor.precedes("bobb", 1L));
+        assertFalse(cursor.precedes("bob_b", 2L));
+        assertFalse(cursor.precedes("bob-b", 9L));
+    }
+
+    @Test
+    void usernameOrder_isCodePointOrderLikeABinaryCollation() {
+        // U+1F600 is stored as surrogates (U+D83D U+DE00), which String.compareTo puts before U+FF41
+        String emoji = "bob\uD83D\uDE00";
+        String fullWidth = "bob\uFF41";
+        List<String> usernames = new ArrayList<>(Arrays.asList(emoji, "bob", fullWidth, "bobb"));
+
+        usernames.sort(SearchCursor.USERNAME_ORDER);
+
+        assertEquals(Arrays.asList("bob", "bobb", fullWidth, emoji), usernames);
+        assertTrue(new SearchCursor(fullWidth, 1L).precedes(emoji, 1L));
+    }
+
+    @Test
+    void usernameKey_sortsLikeUsernameOrderUnderAnyCollation() {
+        String emoji = "bob\uD83D\uDE00";
+        String fullWidth = "bob\uFF41";
+        List<String> usernames = Arrays.asList("bob", "bob_b", "bobb", fullWidth, emoji);
+
+        for (int i = 1; i < usernames.size(); i++) {
+            String before = User.usernameKey(usernames.get(i - 1));
+            String after = User.usernameKey(usernames.get(i));
+            assertTrue(before.compareTo(after) < 0, usernames.get(i - 1) + " before " + usernames.get(i));
+            assertTrue(before.compareToIgnoreCase(after) < 0, "case-insensitive collations agree");
+        }
+        assertEquals(User.usernameKey("bob_b"), User.usernameKey("BOB_B"));
+    }
+}
@@ -0,0 +1,84 @@
+package com.galvanize.useraccounts.search;
+
+import com.galvanize.useraccounts.event.UserChangedEvent;
+import com.galvanize.useraccounts.model.UserCondensed;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UsernameTrieTests {
+    private UsernameTrie trie;
+
+    @BeforeEach
+    void setup() {
+        trie = new UsernameTrie();
+        trie.put(new UserCondensed(1L, "bakerBob", null, "bakerBob1@gmail.com"));
+        trie.put(new UserCondensed(2L, "bobBobBob", null, "bakerBob2@gmail.com"));
+        trie.put(new UserCondensed(3L, "bobBob", null, "bakerBob3@gmail.com"));
+        trie.put(new UserCondensed(4L, "janeDoe", null, "janeDoe@gmail.com"));
+    }
+
+    private List<String> usernames(String prefix, int limit) {
+        return trie.search(prefix, limit).stream().map(UserCondensed::getUsername).collect(Collectors.toList());
+    }
+
+    @Test
+    void search_returnsPrefixMatchesInOrder() {
+        assertEquals(List.of("bakerBob", "bobBob", "bobBobBob"), usernames("B", 10));
+        assertEquals(List.of("bobBob", "bobBobBob"), usernames("bobb", 10));
+        assertEquals(List.of("bobBobBob"), usernames("bobbobb", 10));
+    }
+
+    @Test
+    void search_stopsAtLimit() {
+        assertEquals(List.of("bakerBob", "bobBob"), usernames("b", 2));
+        assertTrue(usernames("b", 0).isEmpty());
+    }
+
+    @Test
+    void search_withPrefixEndingInsideEdge_returnsSubtree() {
+        assertEquals(List.of("janeDoe"), usernames("jan", 10));
+        assertTrue(usernames("jax", 10).isEmpty());
+        assertTrue(usernames("janeDoes", 10).isEmpty());
+    }
+
+    @Test
+    void remove_compactsWithoutLosingSiblings() {
+        trie.remove(3L);
+
+        assertEquals(List.of("bobBobBob"), usernames("bob", 10));
+        assertEquals(3, trie.size());
+
+        trie.remove(2L);
+        trie.remove(1L);
+
+        assertTrue(usernames("b", 10).isEmpty());
+        assertEquals(List.of("janeDoe"), usernames("j", 10));
+    }
+
+    @Test
+    void put_keepsUsersWhoseNamesDifferOnlyByCase() {
+        trie.put(new UserCondensed(5L, "JaneDoe", null, "jane2@gmail.com"));
+
+        assertEquals(2, trie.search("janedoe", 10).size());
+
+        trie.remove(4L);
+        assertEquals(List.of("JaneDoe"), usernames("jane", 10));
+    }
+
+    @Test
+    void onUserChanged_refreshesPayloadAndUsername() {
+        trie.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 4L, "janeDoe", "avatar.png", "janeDoe@gmail.com"));
+        assertEquals("avatar.png", trie.search("jane", 1).get(0).getAvatar());
+
+        trie.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 4L, "janeSmith", null, "janeDoe@gmail.com"));
+        assertEquals(List.of("janeSmith"), usernames("jane", 10));
+
+        trie.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.DELETED, 4L, "janeSmith", null, "janeDoe@gmail.com"));
+        assertTrue(usernames("jane", 10).isEmpty());
+    }
+}
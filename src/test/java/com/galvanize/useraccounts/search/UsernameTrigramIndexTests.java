@@ -0,0 +1,91 @@
+package com.galvanize.useraccounts.search;
+
+import com.galvanize.useraccounts.event.UserChangedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UsernameTrigramIndexTests {
+    private UsernameTrigramIndex index;
+
+    @BeforeEach
+    void setup() {
+        index = new UsernameTrigramIndex();
+        index.add(1L, "bakerBob");
+        index.add(2L, "bobBobBob");
+        index.add(3L, "janeDoe");
+        index.markReady();
+    }
+
+    @Test
+    void search_isCaseInsensitiveAndOrderedByUsername() {
+        assertEquals(Arrays.asList(1L, 2L), index.search("BOB"));
+        assertEquals(Collections.singletonList(3L), index.search("eDo"));
+    }
+
+    @Test
+    void search_afterCursor_walksOnlyAsFarAsThePageNeeds() {
+        index.add(4L, "bob");
+        index.add(5L, "bob");
+
+        List<SearchCursor> page = index.search("bob", new SearchCursor("bakerbob", 1L), 2);
+
+        assertEquals(Arrays.asList(4L, 5L), page.stream().map(SearchCursor::getGuid).collect(Collectors.toList()));
+        assertEquals(Collections.singletonList(2L),
+                index.search("bob", page.get(1), 1).stream().map(SearchCursor::getGuid).collect(Collectors.toList()));
+    }
+
+    @Test
+    void search_withUnknownTrigram_returnsEmpty() {
+        assertTrue(index.search("xyz").isEmpty());
+    }
+
+    @Test
+    void search_verifiesCandidatesContainWholeQuery() {
+        index.add(4L, "abcXbcd");
+
+        // both trigrams of "abcd" occur in "abcxbcd", but never as one substring
+        assertTrue(index.search("abcd").isEmpty());
+        assertEquals(Collections.singletonList(4L), index.search("cxb"));
+    }
+
+    @Test
+    void canServe_onlyLongWildcardFreeQueriesOnceReady() {
+        assertTrue(index.canServe("bob"));
+        assertFalse(index.canServe("bo"));
+        assertFalse(index.canServe("b%b"));
+        assertFalse(index.canServe("b_b"));
+        assertFalse(new UsernameTrigramIndex().canServe("bob"));
+    }
+
+    @Test
+    void remove_dropsUserFromPostings() {
+        index.remove(1L);
+
+        assertEquals(Collections.singletonList(2L), index.search("bob"));
+        assertNull(index.usernameOf(1L));
+    }
+
+    @Test
+    void add_withNewUsername_reindexesGuid() {
+        index.add(3L, "robertSmith");
+
+        assertTrue(index.search("jane").isEmpty());
+        assertEquals(Collections.singletonList(3L), index.search("smith"));
+    }
+
+    @Test
+    void onUserChanged_keepsIndexInSync() {
+        index.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.CREATED, 4L, "chefCesar", null, "chefCesar@gmail.com"));
+        assertEquals(Collections.singletonList(4L), index.search("cesar"));
+
+        index.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.DELETED, 4L, "chefCesar", null, "chefCesar@gmail.com"));
+        assertTrue(index.search("cesar").isEmpty());
+    }
+}
@@ -0,0 +1,86 @@
+package com.galvanize.useraccounts.security;
+
+import io.jsonwebtoken.CompressionCodecs;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SignatureException;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.GrantedAuthority;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HmacJwtVerifierTests {
+    private static final byte[] KEY = "EZYOP-DCyVi-DIS56-UrUh9-x9vJr-TRRTz-JE1xQ-4JDSE".getBytes();
+
+    private final HmacJwtVerifier verifier = new HmacJwtVerifier(KEY);
+
+    private static io.jsonwebtoken.JwtBuilder token(long expiresInMillis) {
+        long now = System.currentTimeMillis();
+        return Jwts.builder()
+                .setHeaderParam("typ", "JWT")
+                .setSubject("bakerBob")
+                .claim("name", "bakerBob")
+                .claim("guid", 99)
+                .claim("email", "baker\"Bob\"@gmail.com")
+                .claim("authorities", Arrays.asList("ROLE_USER", "ROLE_BAKER"))
+                .setIssuedAt(new Date(now))
+                .setExpiration(new Date(now + expiresInMillis));
+    }
+
+    @Test
+    void verify_withEachHmacAlgorithm_readsTheClaims() {
+        for (SignatureAlgorithm algorithm : Arrays.asList(SignatureAlgorithm.HS256, SignatureAlgorithm.HS384, SignatureAlgorithm.HS512)) {
+            VerifiedTokenCache.Verified verified = verifier.verify(token(60_000).signWith(algorithm, KEY).compact());
+
+            JwtUser principal = verified.getPrincipal();
+            assertEquals(99L, principal.getGuid());
+            assertEquals("bakerBob", principal.getUsername());
+            assertEquals("baker\"Bob\"@gmail.com", principal.getEmail());
+            assertEquals(Arrays.asList("ROLE_USER", "ROLE_BAKER"), principal.getAuthorities());
+            assertEquals(Arrays.asList("ROLE_USER", "ROLE_BAKER"),
+                    verified.getAuthorities().stream().map(GrantedAuthority::getAuthority).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void verify_sharesCommonAuthorities() {
+        String token = token(60_000).signWith(SignatureAlgorithm.HS512, KEY).compact();
+
+        assertSame(verifier.verify(token).getAuthorities().get(0), verifier.verify(token).getAuthorities().get(0));
+    }
+
+    @Test
+    void verify_withWrongKey_throwsSignatureException() {
+        String token = token(60_000).signWith(SignatureAlgorithm.HS512, "some-other-secret".getBytes()).compact();
+
+        assertThatExceptionOfType(SignatureException.class).isThrownBy(() -> verifier.verify(token));
+    }
+
+    @Test
+    void verify_withExpiredToken_throws() {
+        String token = token(-1_000).signWith(SignatureAlgorithm.HS256, KEY).compact();
+
+        assertThatExceptionOfType(JwtException.class).isThrownBy(() -> verifier.verify(token));
+    }
+
+    @Test
+    void verify_withTokensOfAnotherShape_leavesThemToJjwt() {
+        String compressed = token(60_000).compressWith(CompressionCodecs.DEFLATE).signWith(SignatureAlgorithm.HS256, KEY).compact();
+        String nested = token(60_000).claim("address", Collections.singletonMap("city", "city1")).signWith(SignatureAlgorithm.HS256, KEY).compact();
+        String withoutAuthorities = Jwts.builder().setSubject("bakerBob").signWith(SignatureAlgorithm.HS256, KEY).compact();
+        String unsigned = Jwts.builder().setSubject("bakerBob").compact();
+
+        assertNull(verifier.verify(compressed));
+        assertNull(verifier.verify(nested));
+        assertNull(verifier.verify(withoutAuthorities));
+        assertNull(verifier.verify(unsigned));
+        assertNull(verifier.verify("not-a-token"));
+    }
+}
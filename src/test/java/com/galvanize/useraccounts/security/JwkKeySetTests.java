@@ -0,0 +1,77 @@
+package com.galvanize.useraccounts.security;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JwkKeySetTests {
+    private LocalJwks jwks;
+    private JwkKeySet keySet;
+
+    @BeforeEach
+    void setup() throws Exception {
+        jwks = new LocalJwks().withRsaKey("rsa-1").withEcKey("ec-1");
+        keySet = new JwkKeySet(jwks.location(), Duration.ofHours(1), Duration.ZERO);
+    }
+
+    @AfterEach
+    void teardown() {
+        keySet.destroy();
+    }
+
+    @Test
+    void get_returnsRsaAndEcKeysByKid() {
+        assertTrue(keySet.get("rsa-1") instanceof RSAPublicKey);
+        assertTrue(keySet.get("ec-1") instanceof ECPublicKey);
+        assertEquals(2, keySet.size());
+    }
+
+    @Test
+    void get_withUnknownKid_returnsNullAtOnceAndPicksTheKeyUpInTheBackground() throws Exception {
+        jwks.withRsaKey("rsa-2");
+
+        assertNull(keySet.get("rsa-2"));
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (keySet.get("rsa-2") == null && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertNotNull(keySet.get("rsa-2"));
+    }
+
+    @Test
+    void refresh_dropsKeysNoLongerPublished() throws Exception {
+        jwks.without("rsa-1");
+
+        keySet.refresh();
+
+        assertNull(keySet.get("rsa-1"));
+        assertNotNull(keySet.get("ec-1"));
+    }
+
+    @Test
+    void refresh_withBrokenDocument_keepsTheLoadedKeys() throws Exception {
+        jwks.corrupt();
+
+        keySet.refresh();
+
+        assertEquals(1, keySet.failures());
+        assertNotNull(keySet.get("rsa-1"));
+    }
+
+    @Test
+    void refresh_withOneMalformedKey_stillLoadsTheOthers() throws Exception {
+        jwks.withMalformedKey("broken-1").withRsaKey("rsa-2");
+
+        keySet.refresh();
+
+        assertEquals(0, keySet.failures());
+        assertNotNull(keySet.get("rsa-2"));
+        assertNotNull(keySet.get("ec-1"));
+        assertNull(keySet.get("broken-1"));
+    }
+}
@@ -0,0 +1,156 @@
+package com.galvanize.useraccounts.security;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JwtTokenAuthenticationFilterTests {
+    private static final String SECRET = "EZYOP-DCyVi-DIS56-UrUh9-x9vJr-TRRTz-JE1xQ-4JDSE";
+
+    private final AtomicLong nanos = new AtomicLong();
+    private VerifiedTokenCache tokenCache;
+    private JwtTokenAuthenticationFilter filter;
+
+    @BeforeEach
+    void setup() {
+        JwtProperties properties = new JwtProperties();
+        properties.setSecret(SECRET);
+        tokenCache = new VerifiedTokenCache(100, nanos::get);
+        filter = new JwtTokenAuthenticationFilter(properties, null, tokenCache);
+    }
+
+    @AfterEach
+    void teardown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    private static String token(String secret, Duration validFor) {
+        long now = System.currentTimeMillis();
+        return Jwts.builder()
+                .setSubject("bakerBob")
+                .claim("guid", 99)
+                .claim("email", "bakerBob@gmail.com")
+                .claim("authorities", Arrays.asList("ROLE_USER"))
+                .setIssuedAt(new Date(now))
+                .setExpiration(new Date(now + validFor.toMillis()))
+                .signWith(SignatureAlgorithm.HS512, secret.getBytes())
+                .compact();
+    }
+
+    private Authentication authenticate(String token) throws Exception {
+        SecurityContextHolder.clearContext();
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/users/99");
+        request.addHeader("Authorization", "Bearer " + token);
+
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+        return SecurityContextHolder.getContext().getAuthentication();
+    }
+
+    @Test
+    void doFilter_withPrefixSentTwice_doesNotAuthenticate() throws Exception {
+        assertNull(authenticate("Bearer " + token(SECRET, Duration.ofHours(1))));
+    }
+
+    @Test
+    void doFilter_withValidToken_authenticatesFromTheClaims() throws Exception {
+        Authentication auth = authenticate(token(SECRET, Duration.ofHours(1)));
+
+        JwtUser principal = (JwtUser) auth.getPrincipal();
+        assertEquals(99L, principal.getGuid());
+        assertEquals("bakerBob", principal.getUsername());
+        assertEquals("bakerBob@gmail.com", principal.getEmail());
+        assertEquals(Arrays.asList("ROLE_USER"), auth.getAuthorities().stream().map(GrantedAuthority::getAuthority).collect(Collectors.toList()));
+    }
+
+    @Test
+    void doFilter_withFastVerificationOff_authenticatesThroughJjwt() throws Exception {
+        JwtProperties properties = new JwtProperties();
+        properties.setSecret(SECRET);
+        properties.setFastVerification(false);
+        filter = new JwtTokenAuthenticationFilter(properties, null, tokenCache);
+
+        Authentication auth = authenticate(token(SECRET, Duration.ofHours(1)));
+
+        assertEquals("bakerBob", ((JwtUser) auth.getPrincipal()).getUsername());
+    }
+
+    @Test
+    void doFilter_withRsaAndEcTokens_verifiesThemAgainstTheKeySet() throws Exception {
+        LocalJwks jwks = new LocalJwks().withRsaKey("rsa-1").withEcKey("ec-1");
+        JwkKeySet keySet = new JwkKeySet(jwks.location(), Duration.ofHours(1), Duration.ofHours(1));
+        JwtProperties properties = new JwtProperties();
+        properties.setSecret(SECRET);
+        filter = new JwtTokenAuthenticationFilter(properties, keySet, tokenCache);
+
+        try {
+            assertEquals("bakerBob", ((JwtUser) authenticate(jwks.token("rsa-1", SignatureAlgorithm.RS256)).getPrincipal()).getUsername());
+            assertEquals("bakerBob", ((JwtUser) authenticate(jwks.token("ec-1", SignatureAlgorithm.ES256)).getPrincipal()).getUsername());
+            // shared-secret tokens keep working next to the key set
+            assertNotNull(authenticate(token(SECRET, Duration.ofHours(1))));
+        } finally {
+            keySet.destroy();
+        }
+    }
+
+    @Test
+    void doFilter_withKidOfAnotherKeyType_doesNotAuthenticate() throws Exception {
+        LocalJwks jwks = new LocalJwks().withRsaKey("rsa-1").withEcKey("ec-1");
+        String token = jwks.token("rsa-1", SignatureAlgorithm.RS256);
+        jwks.without("rsa-1").withEcKey("rsa-1");
+        JwkKeySet keySet = new JwkKeySet(jwks.location(), Duration.ofHours(1), Duration.ofHours(1));
+        filter = new JwtTokenAuthenticationFilter(new JwtProperties(), keySet, tokenCache);
+
+        try {
+            assertNull(authenticate(token));
+            assertNull(authenticate(token(SECRET, Duration.ofHours(1))));
+        } finally {
+            keySet.destroy();
+        }
+    }
+
+    @Test
+    void doFilter_withRepeatedToken_reusesTheVerifiedPrincipal() throws Exception {
+        String token = token(SECRET, Duration.ofHours(1));
+
+        Authentication first = authenticate(token);
+        Authentication second = authenticate(token);
+
+        assertNotSame(first, second);
+        assertSame(first.getPrincipal(), second.getPrincipal());
+        assertEquals(1, tokenCache.size());
+    }
+
+    @Test
+    void doFilter_withWrongSignature_doesNotAuthenticateOrCache() throws Exception {
+        assertNull(authenticate(token("some-other-secret", Duration.ofHours(1))));
+        assertEquals(0, tokenCache.size());
+    }
+
+    @Test
+    void tokenCache_dropsATokenWhenItExpires() throws Exception {
+        String token = token(SECRET, Duration.ofMinutes(1));
+        authenticate(token);
+
+        nanos.addAndGet(Duration.ofSeconds(50).toNanos());
+        assertNotNull(tokenCache.get(token));
+
+        nanos.addAndGet(Duration.ofSeconds(11).toNanos());
+        assertNull(tokenCache.get(token));
+    }
+}
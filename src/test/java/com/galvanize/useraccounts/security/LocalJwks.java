@@ -0,0 +1,114 @@
+package com.galvanize.useraccounts.security;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stands in for an identity provider in tests: generates RSA and EC key pairs, publishes their public halves as a
+ * JWKS file, and signs tokens with them.
+ */
+class LocalJwks {
+    private final Path file;
+    private final Map<String, KeyPair> keys = new LinkedHashMap<>();
+    private final List<String> malformed = new ArrayList<>();
+
+    LocalJwks() throws IOException {
+        this.file = Files.createTempFile("jwks", ".json");
+        this.file.toFile().deleteOnExit();
+    }
+
+    String location() {
+        return file.toUri().toString();
+    }
+
+    LocalJwks withRsaKey(String kid) throws GeneralSecurityException, IOException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keys.put(kid, generator.generateKeyPair());
+        return publish();
+    }
+
+    LocalJwks withEcKey(String kid) throws GeneralSecurityException, IOException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        keys.put(kid, generator.generateKeyPair());
+        return publish();
+    }
+
+    LocalJwks without(String kid) throws IOException {
+        keys.remove(kid);
+        return publish();
+    }
+
+    // published as an RSA key whose modulus is not base64url
+    LocalJwks withMalformedKey(String kid) throws IOException {
+        malformed.add(String.format("{\"kty\":\"RSA\",\"kid\":\"%s\",\"use\":\"sig\",\"n\":\"!!\",\"e\":\"AQAB\"}", kid));
+        return publish();
+    }
+
+    void corrupt() throws IOException {
+        Files.write(file, "{not json".getBytes(StandardCharsets.UTF_8));
+    }
+
+    String token(String kid, SignatureAlgorithm algorithm) {
+        long now = System.currentTimeMillis();
+        return Jwts.builder()
+                .setHeaderParam("kid", kid)
+                .setSubject("bakerBob")
+                .claim("guid", 99)
+                .claim("authorities", Arrays.asList("ROLE_USER"))
+                .setIssuedAt(new Date(now))
+                .setExpiration(new Date(now + 60_000))
+                .signWith(algorithm, keys.get(kid).getPrivate())
+                .compact();
+    }
+
+    private LocalJwks publish() throws IOException {
+        List<String> jwks = new ArrayList<>();
+        keys.forEach((kid, pair) -> {
+            if (pair.getPublic() instanceof RSAPublicKey) {
+                RSAPublicKey key = (RSAPublicKey) pair.getPublic();
+                jwks.add(String.format("{\"kty\":\"RSA\",\"kid\":\"%s\",\"use\":\"sig\",\"alg\":\"RS256\",\"n\":\"%s\",\"e\":\"%s\"}",
+                        kid, encode(key.getModulus(), 0), encode(key.getPublicExponent(), 0)));
+            } else {
+                ECPublicKey key = (ECPublicKey) pair.getPublic();
+                jwks.add(String.format("{\"kty\":\"EC\",\"kid\":\"%s\",\"use\":\"sig\",\"crv\":\"P-256\",\"x\":\"%s\",\"y\":\"%s\"}",
+                        kid, encode(key.getW().getAffineX(), 32), encode(key.getW().getAffineY(), 32)));
+            }
+        });
+        jwks.addAll(malformed);
+        Files.write(file, ("{\"keys\":[" + String.join(",", jwks) + "]}").getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    // unsigned big-endian, left-padded to length when one is given
+    private static String encode(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        if (bytes.length < length) {
+            byte[] padded = new byte[length];
+            System.arraycopy(bytes, 0, padded, length - bytes.length, bytes.length);
+            bytes = padded;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
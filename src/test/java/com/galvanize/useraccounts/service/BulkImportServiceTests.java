@@ -0,0 +1,203 @@
+package com.galvanize.useraccounts.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.event.UserChangedEvent;
+import com.galvanize.useraccounts.model.BulkImportResult;
+import com.galvanize.useraccounts.model.User;
+import com.galvanize.useraccounts.model.UserChange;
+import com.galvanize.useraccounts.model.UserCondensed;
+import com.galvanize.useraccounts.repository.UserChangesRepository;
+import com.galvanize.useraccounts.repository.UsersBulkRepository;
+import com.galvanize.useraccounts.repository.UsersRepository;
+import com.galvanize.useraccounts.shard.Shards;
+import com.galvanize.useraccounts.shard.UserDirectory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class BulkImportServiceTests {
+    @Mock
+    UsersRepository usersRepository;
+    @Mock
+    UsersBulkRepository bulkRepository;
+    @Mock
+    PlatformTransactionManager transactionManager;
+    @Mock
+    ApplicationEventPublisher publisher;
+    @Mock
+    UserChangesRepository changesRepository;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private BulkImportService bulkImportService;
+
+    @BeforeEach
+    void setup() {
+        bulkImportService = service(new UsersProperties());
+    }
+
+    private BulkImportService service(UsersProperties properties) {
+        return service(properties, mock(JdbcTemplate.class));
+    }
+
+    private BulkImportService service(UsersProperties properties, JdbcTemplate directoryJdbc) {
+        Shards shards = new Shards(properties, transactionManager);
+        return new BulkImportService(usersRepository, bulkRepository, mapper, Validation.buildDefaultValidatorFactory().getValidator(),
+                transactionManager, publisher, properties, shards, new UserDirectory(properties, shards, directoryJdbc),
+                changesRepository);
+    }
+
+    private String line(Long guid, String username, String email) throws JsonProcessingException {
+        return mapper.writeValueAsString(new User(guid, username, "first", "last", email));
+    }
+
+    private BulkImportResult importLines(BulkImportService service, String... lines) throws IOException {
+        return service.importUsers(new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<User>> insertedBatches() {
+        ArgumentCaptor<List<User>> batches = ArgumentCaptor.forClass(List.class);
+        verify(bulkRepository, atLeastOnce()).insertAll(batches.capture(), any());
+        return batches.getAllValues();
+    }
+
+    @Test
+    public void importUsers_insertsValidLinesInOneBatchAndPublishesCreated() throws Exception {
+        BulkImportResult result = importLines(bulkImportService,
+                line(1L, "bakerBob", "bakerBob@gmail.com"),
+                line(2L, "chefCesar", "chefCesar@gmail.com"));
+
+        assertEquals(2, result.getCreated());
+        assertTrue(result.getFailed().isEmpty());
+        List<List<User>> batches = insertedBatches();
+        assertEquals(1, batches.size());
+        assertEquals(Arrays.asList("bakerBob", "chefCesar"), batches.get(0).stream().map(User::getUsername).collect(Collectors.toList()));
+        verify(changesRepository).appendAll(Arrays.asList(1L, 2L), UserChange.Type.CREATED);
+
+        ArgumentCaptor<UserChangedEvent> events = ArgumentCaptor.forClass(UserChangedEvent.class);
+        verify(publisher, times(2)).publishEvent(events.capture());
+        assertTrue(events.getAllValues().stream().allMatch(event -> event.getType() == UserChangedEvent.Type.CREATED));
+    }
+
+    @Test
+    public void importUsers_reportsMalformedAndInvalidLinesByLineNumber() throws Exception {
+        BulkImportResult result = importLines(bulkImportService,
+                line(1L, "bakerBob", "bakerBob@gmail.com"),
+                "",
+                "{not json",
+                line(2L, "bob", "not-an-email"));
+
+        assertEquals(1, result.getCreated());
+        assertEquals(2, result.getFailed().size());
+        assertEquals(3, result.getFailed().get(0).getLine());
+        assertEquals(Collections.singletonList(BulkImportService.MALFORMED_LINE), result.getFailed().get(0).getErrors());
+        assertEquals(4, result.getFailed().get(1).getLine());
+        assertEquals(Arrays.asList("Email should be valid.", "Username must have between 5-20 characters."), result.getFailed().get(1).getErrors());
+    }
+
+    @Test
+    public void importUsers_rejectsDuplicatesWithinTheFileAndAgainstExistingUsers() throws Exception {
+        when(usersRepository.findCondensedConflicting(anyCollection(), anyCollection(), anyCollection()))
+                .thenReturn(Collections.singletonList(new UserCondensed(5L, "chefCesar", null, "chefCesar@gmail.com")));
+
+        BulkImportResult result = importLines(bulkImportService,
+                line(1L, "bakerBob", "bakerBob@gmail.com"),
+                line(2L, "BAKERBOB", "other@gmail.com"),
+                line(5L, "janeDoe", "chefcesar@gmail.com"));
+
+        assertEquals(1, result.getCreated());
+        assertEquals(2, result.getFailed().get(0).getLine());
+        assertEquals(Collections.singletonList(BulkImportService.DUPLICATE_USERNAME), result.getFailed().get(0).getErrors());
+        assertEquals(3, result.getFailed().get(1).getLine());
+        assertEquals(Arrays.asList(BulkImportService.DUPLICATE_GUID, BulkImportService.DUPLICATE_EMAIL), result.getFailed().get(1).getErrors());
+    }
+
+    @Test
+    public void importUsers_insertsOneBatchPerChunk() throws Exception {
+        UsersProperties properties = new UsersProperties();
+        properties.getBulk().setBatchSize(2);
+
+        BulkImportResult result = importLines(service(properties),
+                line(1L, "bakerBob", "bakerBob@gmail.com"),
+                line(2L, "chefCesar", "chefCesar@gmail.com"),
+                line(3L, "janeDoe", "janeDoe@gmail.com"));
+
+        assertEquals(3, result.getCreated());
+        List<List<User>> batches = insertedBatches();
+        assertEquals(Arrays.asList(2, 1), batches.stream().map(List::size).collect(Collectors.toList()));
+        verify(usersRepository, times(2)).findCondensedConflicting(anyCollection(), anyCollection(), anyCollection());
+    }
+
+    @Test
+    public void importUsers_whenBatchHitsAConcurrentInsert_retriesRowByRow() throws Exception {
+        DuplicateKeyException duplicate = new DuplicateKeyException("uk_users_username");
+        // the whole batch fails, then the first row alone succeeds and the second alone fails
+        doThrow(duplicate).doNothing().doThrow(duplicate).when(bulkRepository).insertAll(anyList(), any());
+
+        BulkImportResult result = importLines(bulkImportService,
+                line(1L, "bakerBob", "bakerBob@gmail.com"),
+                line(2L, "chefCesar", "chefCesar@gmail.com"));
+
+        assertEquals(1, result.getCreated());
+        assertEquals(2, result.getFailed().get(0).getLine());
+        assertEquals(Collections.singletonList(BulkImportService.DUPLICATE_USER), result.getFailed().get(0).getErrors());
+        verify(publisher, times(1)).publishEvent(any(UserChangedEvent.class));
+    }
+
+    @Test
+    public void importUsers_whenAChunkCannotBeWritten_reportsItsLinesAndGoesOn() throws Exception {
+        UsersProperties properties = new UsersProperties();
+        properties.getBulk().setBatchSize(2);
+        doThrow(new CannotGetJdbcConnectionException("connection lost")).doNothing().when(bulkRepository).insertAll(anyList(), any());
+
+        BulkImportResult result = importLines(service(properties),
+                line(1L, "bakerBob", "bakerBob@gmail.com"),
+                line(2L, "chefCesar", "chefCesar@gmail.com"),
+                line(3L, "janeDoe", "janeDoe@gmail.com"));
+
+        assertEquals(1, result.getCreated());
+        assertEquals(Arrays.asList(1, 2), result.getFailed().stream().map(BulkImportResult.RowError::getLine).collect(Collectors.toList()));
+        assertEquals(Collections.singletonList(BulkImportService.NOT_WRITTEN), result.getFailed().get(0).getErrors());
+    }
+
+    @Test
+    public void importUsers_whenAWriteFailsForAnotherReason_releasesTheDirectoryClaims() throws Exception {
+        UsersProperties properties = new UsersProperties();
+        properties.getSharding().setEnabled(true);
+        properties.getSharding().setDirectory(true);
+        properties.getSharding().getShards().put("a", new UsersProperties.Shard());
+        JdbcTemplate directoryJdbc = mock(JdbcTemplate.class);
+        doThrow(new CannotGetJdbcConnectionException("connection lost")).when(bulkRepository).insertAll(anyList(), any());
+
+        BulkImportResult result = importLines(service(properties, directoryJdbc), line(1L, "bakerBob", "bakerBob@gmail.com"));
+
+        assertEquals(0, result.getCreated());
+        assertEquals(Collections.singletonList(BulkImportService.NOT_WRITTEN), result.getFailed().get(0).getErrors());
+        verify(directoryJdbc).update(startsWith("DELETE FROM user_keys"), eq("username"), eq("bakerbob"), eq(1L));
+        verify(directoryJdbc).update(startsWith("DELETE FROM user_keys"), eq("email"), eq("bakerbob@gmail.com"), eq(1L));
+    }
+}
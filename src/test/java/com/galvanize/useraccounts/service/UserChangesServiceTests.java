@@ -0,0 +1,154 @@
+package com.galvanize.useraccounts.service;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.model.UserChange;
+import com.galvanize.useraccounts.model.UserChanges;
+import com.galvanize.useraccounts.outbox.ChangeCursor;
+import com.galvanize.useraccounts.repository.UserChangesRepository;
+import com.galvanize.useraccounts.shard.ShardContext;
+import com.galvanize.useraccounts.shard.Shards;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class UserChangesServiceTests {
+    @Mock
+    UserChangesRepository changesRepository;
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    private UserChangesService service(UsersProperties properties) {
+        when(changesRepository.ago(any(Duration.class)))
+                .thenAnswer(invocation -> new Timestamp(System.currentTimeMillis() - invocation.<Duration>getArgument(0).toMillis()));
+        return new UserChangesService(changesRepository, new Shards(properties, transactionManager), properties);
+    }
+
+    private static UserChange change(long id, long guid, long occurredAt) {
+        return new UserChange(id, guid, UserChange.Type.UPDATED, new Timestamp(occurredAt));
+    }
+
+    @Test
+    void getChanges_withoutCursor_readsFromTheStartAndReturnsTheLastPosition() {
+        when(changesRepository.findAfter(0L, 100)).thenReturn(Arrays.asList(change(1L, 10L, 1_000L), change(2L, 11L, 2_000L)));
+
+        UserChanges changes = service(new UsersProperties()).getChanges(null, null);
+
+        assertEquals(Arrays.asList(10L, 11L), changes.getChanges().stream().map(UserChange::getGuid).collect(Collectors.toList()));
+        assertEquals(2L, ChangeCursor.decode(changes.getNext()).positionOf(""));
+    }
+
+    @Test
+    void getChanges_withoutNewChanges_keepsTheCursor() {
+        String since = ChangeCursor.START.with("", 5L).encode();
+        when(changesRepository.findAfter(5L, 100)).thenReturn(Collections.emptyList());
+
+        UserChanges changes = service(new UsersProperties()).getChanges(since, null);
+
+        assertTrue(changes.getChanges().isEmpty());
+        assertEquals(since, changes.getNext());
+    }
+
+    @Test
+    void getChanges_withLimitAboveMax_clampsIt() {
+        UsersProperties properties = new UsersProperties();
+        properties.getOutbox().setMaxPageLimit(20);
+        when(changesRepository.findAfter(anyLong(), anyInt())).thenReturn(new ArrayList<>());
+
+        service(properties).getChanges(null, 5_000);
+
+        verify(changesRepository).findAfter(0L, 20);
+    }
+
+    @Test
+    void getChanges_acrossShards_mergesByTimeAndMovesEachShardOnlyPastWhatWasReturned() {
+        UsersProperties properties = new UsersProperties();
+        properties.getSharding().setEnabled(true);
+        properties.getSharding().getShards().put("a", new UsersProperties.Shard());
+        properties.getSharding().getShards().put("b", new UsersProperties.Shard());
+        String since = ChangeCursor.START.with("a", 4L).encode();
+
+        List<UserChange> onA = Arrays.asList(change(5L, 1L, 1_000L), change(6L, 2L, 3_000L), change(7L, 3L, 5_000L));
+        List<UserChange> onB = Arrays.asList(change(1L, 4L, 2_000L), change(2L, 5L, 4_000L), change(3L, 6L, 6_000L));
+        when(changesRepository.findAfter(anyLong(), eq(4)))
+                .thenAnswer(invocation -> "a".equals(ShardContext.current()) ? onA : onB);
+
+        UserChanges changes = service(properties).getChanges(since, 4);
+
+        assertEquals(Arrays.asList(1L, 4L, 2L, 5L), changes.getChanges().stream().map(UserChange::getGuid).collect(Collectors.toList()));
+        verify(changesRepository).findAfter(4L, 4);
+        verify(changesRepository).findAfter(0L, 4);
+        ChangeCursor next = ChangeCursor.decode(changes.getNext());
+        assertEquals(6L, next.positionOf("a"));
+        assertEquals(2L, next.positionOf("b"));
+    }
+
+    @Test
+    void getChanges_returnsUnsettledChangesAtOnceAndALateCommitBelowThemLater() {
+        long now = System.currentTimeMillis();
+        when(changesRepository.findAfter(0L, 100))
+                .thenReturn(Collections.singletonList(change(2L, 11L, now)))
+                .thenReturn(Arrays.asList(change(1L, 10L, now - 10_000L), change(2L, 11L, now)));
+        when(changesRepository.findAfter(1L, 100)).thenReturn(Collections.singletonList(change(2L, 11L, now)));
+        UserChangesService service = service(new UsersProperties());
+
+        UserChanges first = service.getChanges(null, null);
+        ChangeCursor cursor = ChangeCursor.decode(first.getNext());
+        assertEquals(Collections.singletonList(11L), first.getChanges().stream().map(UserChange::getGuid).collect(Collectors.toList()));
+        assertEquals(0L, cursor.positionOf(""));
+        assertEquals(Collections.singleton(2L), cursor.takenOf(""));
+
+        // id 1 commits after id 2 was returned
+        UserChanges second = service.getChanges(first.getNext(), null);
+        cursor = ChangeCursor.decode(second.getNext());
+        assertEquals(Collections.singletonList(10L), second.getChanges().stream().map(UserChange::getGuid).collect(Collectors.toList()));
+        assertEquals(1L, cursor.positionOf(""));
+        assertEquals(Collections.singleton(2L), cursor.takenOf(""));
+
+        assertTrue(service.getChanges(second.getNext(), null).getChanges().isEmpty());
+    }
+
+    @Test
+    void getChanges_withAFullPageOfUnsettledChanges_keepsTheCursorShort() {
+        long now = System.currentTimeMillis();
+        when(changesRepository.findAfter(0L, 1000)).thenReturn(LongStream.rangeClosed(1, 1000)
+                .mapToObj(id -> change(id, id, now)).collect(Collectors.toList()));
+
+        UserChanges changes = service(new UsersProperties()).getChanges(null, 1000);
+
+        assertEquals(1000, changes.getChanges().size());
+        assertEquals(1000, ChangeCursor.decode(changes.getNext()).takenOf("").size());
+        assertTrue(changes.getNext().length() < 100, changes.getNext());
+    }
+
+    @Test
+    void getChanges_withUnsettledChangesBetweenGaps_endsThePageBeforeTheCursorGrowsTooLong() {
+        long now = System.currentTimeMillis();
+        // every other id belongs to a transaction that has not committed yet
+        when(changesRepository.findAfter(0L, 1000)).thenReturn(LongStream.rangeClosed(1, 1000)
+                .mapToObj(n -> change(2 * n, n, now)).collect(Collectors.toList()));
+
+        UserChanges changes = service(new UsersProperties()).getChanges(null, 1000);
+
+        assertEquals(ChangeCursor.MAX_TAKEN_RUNS, changes.getChanges().size());
+        ChangeCursor next = ChangeCursor.decode(changes.getNext());
+        assertEquals(0L, next.positionOf(""));
+        assertEquals(ChangeCursor.MAX_TAKEN_RUNS, next.takenOf("").size());
+        assertTrue(changes.getNext().length() < 500, changes.getNext());
+    }
+}
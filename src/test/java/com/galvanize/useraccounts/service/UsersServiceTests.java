@@ -1,29 +1,60 @@
 package com.galvanize.useraccounts.service;
 
+import com.galvanize.useraccounts.availability.AvailabilityFilter;
+import com.galvanize.useraccounts.cache.UserCondensedCache;
+import com.galvanize.useraccounts.cache.UserLoadCoalescer;
 import com.galvanize.useraccounts.exception.AddressNotFoundException;
+import com.galvanize.useraccounts.exception.BatchTooLargeException;
+import com.galvanize.useraccounts.exception.DuplicateEmailException;
 import com.galvanize.useraccounts.exception.DuplicateUserException;
+import com.galvanize.useraccounts.exception.InvalidCursorException;
+import com.galvanize.useraccounts.exception.PreconditionFailedException;
 import com.galvanize.useraccounts.exception.UserNotFoundException;
 import com.galvanize.useraccounts.model.Address;
+import com.galvanize.useraccounts.model.Availability;
 import com.galvanize.useraccounts.model.User;
+import com.galvanize.useraccounts.model.UserChange;
 import com.galvanize.useraccounts.model.UserCondensed;
+import com.galvanize.useraccounts.model.UserCondensedBatch;
 import com.galvanize.useraccounts.repository.AddressRepository;
+import com.galvanize.useraccounts.repository.UserChangesRepository;
 import com.galvanize.useraccounts.repository.UsersRepository;
 import com.galvanize.useraccounts.request.UserPasswordRequest;
 import com.galvanize.useraccounts.request.UserRequest;
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.galvanize.useraccounts.datasource.ReadYourWrites;
+import com.galvanize.useraccounts.search.SearchCursor;
+import com.galvanize.useraccounts.search.UsernameTrie;
+import com.galvanize.useraccounts.search.UsernameTrigramIndex;
+import com.galvanize.useraccounts.shard.Shards;
+import com.galvanize.useraccounts.shard.UserDirectory;
+import org.hibernate.exception.ConstraintViolationException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
 import com.galvanize.useraccounts.UsersList;
 import org.springframework.test.context.ActiveProfiles;
 
+import javax.persistence.EntityManager;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
 import static org.junit.jupiter.api.Assertions.*;
@@ -37,14 +68,34 @@ public class UsersServiceTests {
     UsersRepository usersRepository;
     @Mock
     AddressRepository addressRepository;
+    @Mock
+    EntityManager entityManager;
+    @Mock
+    UserChangesRepository changesRepository;
 
     private UsersService usersService;
+    private UsernameTrigramIndex usernameIndex;
+    private UsernameTrie usernameTrie;
+    private UserCondensedCache condensedCache;
+    private AvailabilityFilter availabilityFilter;
+    private ReadYourWrites readYourWrites;
+    private Shards shards;
+    private UserDirectory directory;
 
     List<User> users;
 
     @BeforeEach
     void setup() {
-        usersService = new UsersService(usersRepository, addressRepository);
+        usernameIndex = new UsernameTrigramIndex();
+        usernameTrie = new UsernameTrie();
+        condensedCache = new UserCondensedCache(new UsersProperties());
+        availabilityFilter = new AvailabilityFilter(new UsersProperties());
+        readYourWrites = new ReadYourWrites(new UsersProperties());
+        // sharding is off by default, so all work runs on the single database
+        shards = new Shards(new UsersProperties(), mock(PlatformTransactionManager.class));
+        directory = new UserDirectory(new UsersProperties(), shards, mock(JdbcTemplate.class));
+        usersService = new UsersService(usersRepository, addressRepository, usernameIndex, usernameTrie, new UsersProperties(), entityManager,
+                condensedCache, new UserLoadCoalescer(), availabilityFilter, readYourWrites, shards, directory, changesRepository);
 
         users = new ArrayList<>();
 
@@ -73,28 +124,164 @@ public class UsersServiceTests {
         assertEquals(users.get(0).getUpdatedAt(), actualUser.getUpdatedAt());
     }
 
+    @Test
+    void createUser_recordsCreatedChange() {
+        when(usersRepository.save(any(User.class))).thenReturn(users.get(0));
+
+        usersService.createUser(users.get(0));
+
+        verify(changesRepository).append(users.get(0).getGuid(), UserChange.Type.CREATED);
+    }
+
     @Test
     void searchUsers_withString_returnsFoundUsers() {
         String username = "bob";
 
-        when(usersRepository.findByUsername(anyString())).thenReturn(users);
+        when(usersRepository.findPageByUsername(anyString(), any())).thenReturn(users);
 
-        UsersList actual = usersService.searchUsers(username);
+        UsersList actual = usersService.searchUsers(username, null, null);
 
         assertNotNull(actual);
         assertFalse(actual.isEmpty());
         assertEquals(users.size(), actual.size());
+        assertNull(actual.getNext());
+    }
+
+    @Test
+    void searchUsers_withLimit_returnsCursorToNextPage() {
+        when(usersRepository.findPageByUsername(anyString(), any())).thenReturn(users);
+
+        UsersList firstPage = usersService.searchUsers("bo", 2, null);
+
+        assertEquals(users.subList(0, 2), firstPage.getUsers());
+        verify(usersRepository).findPageByUsername("%bo%", PageRequest.of(0, 3));
+
+        when(usersRepository.findPageByUsernameAfter(anyString(), anyString(), anyLong(), any())).thenReturn(users.subList(2, 3));
+
+        UsersList secondPage = usersService.searchUsers("bo", 2, firstPage.getNext());
+
+        assertEquals(users.subList(2, 3), secondPage.getUsers());
+        assertNull(secondPage.getNext());
+        verify(usersRepository).findPageByUsernameAfter("%bo%", "bob", 2L, PageRequest.of(0, 3));
+    }
+
+    @Test
+    void searchUsers_withGarbageCursor_throwsError() {
+        assertThatExceptionOfType(InvalidCursorException.class)
+                .isThrownBy(() -> usersService.searchUsers("bob", null, "not a cursor"));
+    }
+
+    @Test
+    void streamUsers_withString_passesEachUserToConsumerAndDetachesIt() {
+        when(usersRepository.streamByUsername("%bob%")).thenReturn(users.stream());
+
+        List<User> consumed = new ArrayList<>();
+        usersService.streamUsers("BOB", consumed::add);
+
+        assertEquals(users, consumed);
+        users.forEach(user -> verify(entityManager).detach(user));
+    }
+
+    @Test
+    void streamUsers_closesCursor() {
+        boolean[] closed = {false};
+        when(usersRepository.streamByUsername("%%")).thenReturn(Stream.<User>empty().onClose(() -> closed[0] = true));
+
+        usersService.streamUsers(null, user -> fail("no users expected"));
+
+        assertTrue(closed[0]);
     }
 
     @Test
     void searchUsers_withString_returnsNoContent() {
         String username = "john";
 
-        when(usersRepository.findByUsername(anyString())).thenReturn(new ArrayList<>());
+        when(usersRepository.findPageByUsername(anyString(), any())).thenReturn(new ArrayList<>());
+
+        com.galvanize.useraccounts.UsersList actual = usersService.searchUsers(username, null, null);
+
+        assertNull(actual);
+    }
+
+    @Test
+    void searchUsers_withIndexedString_fetchesOnlyMatchingGuids() {
+        users.forEach(user -> usernameIndex.add(user.getGuid(), user.getUsername()));
+        usernameIndex.markReady();
+
+        when(usersRepository.findByGuidIn(anyCollection())).thenReturn(Arrays.asList(users.get(2), users.get(0), users.get(1)));
+
+        UsersList actual = usersService.searchUsers("Bob", null, null);
+
+        assertEquals(users, actual.getUsers());
+        verify(usersRepository).findByGuidIn(Arrays.asList(1L, 2L, 3L));
+        verify(usersRepository, never()).findPageByUsername(anyString(), any());
+    }
+
+    @Test
+    void searchUsers_withIndexedStringAndCursor_fetchesOnlyNextPage() {
+        users.forEach(user -> usernameIndex.add(user.getGuid(), user.getUsername()));
+        usernameIndex.markReady();
+
+        when(usersRepository.findByGuidIn(anyCollection())).thenReturn(Arrays.asList(users.get(2), users.get(1)));
+
+        String next = new SearchCursor("bakerbob", 1L).encode();
+        UsersList actual = usersService.searchUsers("Bob", 1, next);
+
+        assertEquals(Arrays.asList(users.get(1)), actual.getUsers());
+        assertNotNull(actual.getNext());
+        verify(usersRepository).findByGuidIn(Arrays.asList(2L, 3L));
+    }
+
+    @Test
+    void searchUsers_withStaleIndexEntryAtPageBoundary_stillReturnsNext() {
+        users.forEach(user -> usernameIndex.add(user.getGuid(), user.getUsername()));
+        usernameIndex.markReady();
+        // renamed in the database, but the index has not heard of it yet
+        users.get(1).setUsername("alice");
+
+        when(usersRepository.findByGuidIn(anyCollection())).thenAnswer(invocation -> {
+            Collection<Long> guids = invocation.getArgument(0);
+            return users.stream().filter(user -> guids.contains(user.getGuid())).collect(Collectors.toList());
+        });
+
+        UsersList actual = usersService.searchUsers("Bob", 1, null);
+
+        assertEquals(Arrays.asList(users.get(0)), actual.getUsers());
+        assertNotNull(actual.getNext());
+        verify(usersRepository).findByGuidIn(Arrays.asList(1L, 2L));
+        verify(usersRepository).findByGuidIn(Arrays.asList(3L));
+    }
+
+    @Test
+    void searchUsers_withIndexedString_returnsNoContentWithoutQuerying() {
+        users.forEach(user -> usernameIndex.add(user.getGuid(), user.getUsername()));
+        usernameIndex.markReady();
 
-        com.galvanize.useraccounts.UsersList actual = usersService.searchUsers(username);
+        UsersList actual = usersService.searchUsers("john", null, null);
 
         assertNull(actual);
+        verifyNoInteractions(usersRepository);
+    }
+
+    @Test
+    void typeahead_withReadyTrie_doesNotQueryDatabase() {
+        users.forEach(user -> usernameTrie.put(new UserCondensed(user.getGuid(), user.getUsername(), user.getAvatar(), user.getEmail())));
+        usernameTrie.markReady();
+
+        List<UserCondensed> actual = usersService.typeahead("BO", 1);
+
+        assertEquals(1, actual.size());
+        assertEquals("bob", actual.get(0).getUsername());
+        verifyNoInteractions(usersRepository);
+    }
+
+    @Test
+    void typeahead_beforeTrieIsLoaded_escapesPrefixForDatabase() {
+        when(usersRepository.findCondensedByUsernamePrefix(anyString(), any())).thenReturn(new ArrayList<>());
+
+        usersService.typeahead("Bob_1%", null);
+
+        verify(usersRepository).findCondensedByUsernamePrefix(eq("bob!_1!%%"), any());
     }
 
     @Test
@@ -119,6 +306,41 @@ public class UsersServiceTests {
         });
     }
 
+    @Test
+    void createUser_withTakenEmailConstraint_throwsDuplicateEmail() {
+        when(usersRepository.save(any(User.class))).thenThrow(uniqueViolation("PUBLIC.UK_USERS_EMAIL_INDEX_4 ON PUBLIC.USERS(EMAIL) VALUES 3"));
+
+        assertThatExceptionOfType(DuplicateEmailException.class)
+                .isThrownBy(() -> usersService.createUser(users.get(0)));
+        verify(usersRepository, never()).findByUsernameExactMatch(anyString());
+        verify(usersRepository, never()).findByEmailExactMatch(anyString());
+    }
+
+    @Test
+    void createUser_withTakenUsernameOrGuidConstraint_throwsDuplicateUser() {
+        when(usersRepository.save(any(User.class)))
+                .thenThrow(uniqueViolation("users.uk_users_username"))
+                .thenThrow(uniqueViolation("users.uk_users_guid"));
+
+        assertThatExceptionOfType(DuplicateUserException.class)
+                .isThrownBy(() -> usersService.createUser(users.get(0)));
+        assertThatExceptionOfType(DuplicateUserException.class)
+                .isThrownBy(() -> usersService.createUser(users.get(0)));
+    }
+
+    @Test
+    void createUser_withOtherIntegrityViolation_rethrows() {
+        when(usersRepository.save(any(User.class))).thenThrow(uniqueViolation("fk_address_user"));
+
+        assertThatExceptionOfType(DataIntegrityViolationException.class)
+                .isThrownBy(() -> usersService.createUser(users.get(0)));
+    }
+
+    private static DataIntegrityViolationException uniqueViolation(String constraint) {
+        return new DataIntegrityViolationException("could not execute statement",
+                new ConstraintViolationException("could not execute statement", new SQLException("duplicate"), constraint));
+    }
+
     @Test
     void deleteUser_withID_returnsAccepted() {
         User user = users.get(0);
@@ -127,6 +349,7 @@ public class UsersServiceTests {
         usersService.deleteUser(user.getId());
 
         verify(usersRepository).delete(any(User.class));
+        verify(changesRepository).append(user.getGuid(), UserChange.Type.DELETED);
     }
 
     @Test
@@ -143,7 +366,7 @@ public class UsersServiceTests {
     void getUser_withID_returnsUser() {
         User user = users.get(0);
 
-        when(usersRepository.findByGuid(anyLong())).thenReturn(Optional.of(user));
+        when(usersRepository.findWithAddressesByGuid(anyLong())).thenReturn(Optional.of(user));
 
         User foundUser = usersService.getUser(user.getId());
 
@@ -155,7 +378,7 @@ public class UsersServiceTests {
     @Test
     void getUser_withID_returnsNoContent() {
 
-        when(usersRepository.findByGuid(anyLong())).thenReturn(Optional.empty());
+        when(usersRepository.findWithAddressesByGuid(anyLong())).thenReturn(Optional.empty());
 
         User foundUser = usersService.getUser(12345L);
 
@@ -165,33 +388,80 @@ public class UsersServiceTests {
     @Test
     void updateUser_withIDAndBody_returnsUpdatedUser() {
         User user = users.get(0);
-        user.setFirstName("Andy");
-        user.setLastName("Nguyen");
-        user.setEmail("andynguyen@gmail.com");
 
         UserRequest request = new UserRequest("Andy", "Nguyen", "andynguyen@gmail.com", user.getBio(), user.isVerified(), user.getAvatar());
 
-        when(usersRepository.findByGuid(anyLong())).thenReturn(Optional.of(user));
-        when(usersRepository.save(any(User.class))).thenReturn(user);
+        when(usersRepository.findWithAddressesByGuid(anyLong())).thenReturn(Optional.of(user));
+        when(usersRepository.saveAndFlush(any(User.class))).thenReturn(user);
 
         User updatedUser = usersService.updateUser(user.getId(), request);
 
-        assertEquals(user.getFirstName(), updatedUser.getFirstName());
-        assertEquals(user.getLastName(), updatedUser.getLastName());
-        assertEquals(user.getEmail(), updatedUser.getEmail());
+        assertEquals("Andy", updatedUser.getFirstName());
+        assertEquals("Nguyen", updatedUser.getLastName());
+        assertEquals("andynguyen@gmail.com", updatedUser.getEmail());
         assertEquals(user.isVerified(), updatedUser.isVerified());
         assertEquals(user.getCreatedAt(), updatedUser.getCreatedAt());
         assertEquals(user.getUpdatedAt(), updatedUser.getUpdatedAt());
         assertEquals(user.getAvatar(), updatedUser.getAvatar());
     }
 
+    @Test
+    void updateUser_withOnlySomeFields_keepsTheOthers() {
+        User user = users.get(0);
+        String firstName = user.getFirstName();
+        String email = user.getEmail();
+
+        UserRequest request = new UserRequest();
+        request.setBio("new bio");
+
+        when(usersRepository.findWithAddressesByGuid(anyLong())).thenReturn(Optional.of(user));
+        when(usersRepository.saveAndFlush(user)).thenReturn(user);
+
+        User updatedUser = usersService.updateUser(user.getGuid(), request);
+
+        assertEquals("new bio", updatedUser.getBio());
+        assertEquals(firstName, updatedUser.getFirstName());
+        assertEquals(email, updatedUser.getEmail());
+    }
+
+    @Test
+    void updateUser_withNoChanges_doesNotWrite() {
+        User user = users.get(0);
+        user.setUpdatedAt(new Timestamp(1_000L));
+
+        UserRequest request = new UserRequest(user.getFirstName(), null, user.getEmail(), user.getBio(), null, user.getAvatar());
+
+        when(usersRepository.findWithAddressesByGuid(anyLong())).thenReturn(Optional.of(user));
+
+        User updatedUser = usersService.updateUser(user.getGuid(), request);
+
+        assertSame(user, updatedUser);
+        assertEquals(new Timestamp(1_000L), updatedUser.getUpdatedAt());
+        verify(usersRepository, never()).saveAndFlush(any(User.class));
+        verify(usersRepository, never()).save(any(User.class));
+    }
+
+    @Test
+    void updateUser_withStaleVersion_throwsPreconditionFailed() {
+        User user = users.get(0);
+        user.setVersion(3L);
+        UserRequest request = new UserRequest();
+        request.setBio("new bio");
+
+        when(usersRepository.findWithAddressesByGuid(anyLong())).thenReturn(Optional.of(user));
+
+        assertThatExceptionOfType(PreconditionFailedException.class)
+                .isThrownBy(() -> usersService.updateUser(user.getGuid(), request, Set.of(2L)));
+        verify(usersRepository, never()).saveAndFlush(any(User.class));
+    }
+
     @Test
     void updateUser_withIDAndBody_returnsNoContent() {
         User user = users.get(0);
 
         UserRequest request = new UserRequest("Andy", "Nguyen", "andynguyen@gmail.com", user.getBio(), user.isVerified(), user.getAvatar());
 
-        when(usersRepository.findByGuid(anyLong())).thenReturn(Optional.empty());
+        when(usersRepository.findWithAddressesByGuid(anyLong())).thenReturn(Optional.empty());
 
         User updatedUser = usersService.updateUser(1234L, request);
 
@@ -262,32 +532,38 @@ public class UsersServiceTests {
     void updateAddress_success() {
         User expected = new User(1L, "username", "John", "Smith", "jsmith@gmail.com");
         expected.setId(1L);
-        Address address = new Address("StreetName", "Honolulu", "Hawaii", "21343-343", null, null);
-        address.setId(1L);
-        expected.addAddress(address);
+        Address updatedAddress = new Address("Updated", "Miami", "Ohio", "dk3j4323", null, null);
+        Address stored = new Address("Updated", "Miami", "Ohio", "dk3j4323", null, null);
+        stored.setId(1L);
+        expected.addAddress(stored);
 
-        List<Address> addressList = new ArrayList<>();
-        addressList.add(address);
+        when(usersRepository.touch(eq(1L), any(Timestamp.class))).thenReturn(1);
+        when(addressRepository.updateOwned(1L, 1L, updatedAddress)).thenReturn(1);
+        when(usersRepository.findWithAddressesByGuid(1L)).thenReturn(Optional.of(expected));
 
-        Address updatedAddress = new Address("Updated", "Miami", "Ohio", "dk3j4323", null, null);
-        when(usersRepository.findByGuid(anyLong())).thenReturn(Optional.of(expected));
-        when(usersRepository.save(any(User.class))).thenReturn(expected);
+        User actual = usersService.updateAddress(1L, 1L, updatedAddress);
 
+        assertEquals("Updated", actual.getAddresses().get(0).getStreet());
+        assertEquals("Ohio", actual.getAddresses().get(0).getState());
+        assertEquals("Miami", actual.getAddresses().get(0).getCity());
+        assertEquals("dk3j4323", actual.getAddresses().get(0).getZipcode());
+        verify(usersRepository, never()).save(any(User.class));
+    }
 
-        User actual2 = usersService.updateAddress(1L, 1L, address);
+    @Test
+    void updateAddressOnly_returnsTheAddressWithoutLoadingTheUser() {
+        Address updatedAddress = new Address("Updated", "Miami", "Ohio", "dk3j4323", "#2", "work");
 
-        assertEquals(expected.getCreatedAt(), actual2.getCreatedAt());
-        assertEquals(expected.getUpdatedAt(), actual2.getUpdatedAt());
+        when(usersRepository.touch(eq(1L), any(Timestamp.class))).thenReturn(1);
+        when(addressRepository.updateOwned(1L, 7L, updatedAddress)).thenReturn(1);
 
-        User actual = usersService.updateAddress(1L, 1L, updatedAddress);
-        assertEquals(expected.getAddresses().get(0).getStreet(), actual.getAddresses().get(0).getStreet());
-        assertEquals(expected.getAddresses().get(0).getState(), actual.getAddresses().get(0).getState());
-        assertEquals(expected.getAddresses().get(0).getCity(), actual.getAddresses().get(0).getCity());
-        assertEquals(expected.getAddresses().get(0).getZipcode(), actual.getAddresses().get(0).getZipcode());
-        assertNotEquals(expected.getAddresses().get(0).getStreet(), "StreetName");
-        assertNotEquals(expected.getAddresses().get(0).getState(), "Honolulu");
-        assertNotEquals(expected.getAddresses().get(0).getCity(), "Hawaii");
-        assertNotEquals(expected.getAddresses().get(0).getZipcode(), "21343-343");
+        Address actual = usersService.updateAddressOnly(1L, 7L, updatedAddress);
+
+        assertEquals(7L, actual.getId());
+        assertEquals("Updated", actual.getStreet());
+        assertEquals("work", actual.getLabel());
+        verify(usersRepository, never()).findWithAddressesByGuid(anyLong());
+        verify(usersRepository, never()).findByGuid(anyLong());
     }
 
     @DisplayName("It fail to update the address of an user that does not exist")
@@ -296,25 +572,23 @@ public class UsersServiceTests {
         Address address = new Address("StreetName", "Honolulu", "Hawaii", "21343-343", null, null);
         address.setId(1L);
 
-        when(usersRepository.findByGuid(anyLong())).thenReturn(Optional.empty());
+        when(usersRepository.touch(anyLong(), any(Timestamp.class))).thenReturn(0);
 
         assertThatExceptionOfType(UserNotFoundException.class)
                 .isThrownBy(() -> {
                     usersService.updateAddress(1L, 1L, address);
                 });
+        verifyNoInteractions(addressRepository);
     }
 
     @DisplayName("It fail to update the address of an user when the aforementioned address does not exist")
     @Test
     void updateAddress_fails_noAddressFound() {
-        User expected = new User(1L, "username", "John", "Smith", "jsmith@gmail.com");
-        expected.setId(1L);
         Address address = new Address("StreetName", "Honolulu", "Hawaii", "21343-343", null, null);
-        address.setId(1L);
-        expected.addAddress(address);
 
-        when(usersRepository.findByGuid(anyLong())).thenReturn(Optional.of(expected));
-        when(addressRepository.findById(anyLong())).thenReturn(Optional.empty());
+        // the address either does not exist or belongs to someone else; the WHERE clause does not tell them apart
+        when(usersRepository.touch(anyLong(), any(Timestamp.class))).thenReturn(1);
+        when(addressRepository.updateOwned(1L, 18L, address)).thenReturn(0);
 
         assertThatExceptionOfType(AddressNotFoundException.class)
                 .isThrownBy(() -> {
@@ -325,39 +599,53 @@ public class UsersServiceTests {
     @DisplayName("It should delete the address of an user that exists")
     @Test
     void deleteAddress_success() {
-        User expected = new User(1L, "username", "John", "Smith", "jsmith@gmail.com");
-        expected.setId(1L);
+        when(usersRepository.touch(eq(2L), any(Timestamp.class))).thenReturn(1);
+        when(addressRepository.deleteOwned(2L, 1L)).thenReturn(1);
 
-        User actual = new User(1L, "actual", "John", "Smith", "jsmith@gmail.com");
-        actual.setId(2L);
+        usersService.deleteAddress(2L, 1L);
 
-        Address address = new Address("StreetName", "Honolulu", "Hawaii", "21343-343", null, null);
-        address.setId(1L);
-        actual.addAddress(address);
+        verify(addressRepository).deleteOwned(2L, 1L);
+        verify(usersRepository, never()).findByGuid(anyLong());
+        verify(usersRepository, never()).save(any(User.class));
+        verify(changesRepository).append(2L, UserChange.Type.ADDRESS_DELETED);
+    }
+
+    @Test
+    void deleteAddress_startsReadYourWritesWindowForTheUser() {
+        when(usersRepository.touch(eq(2L), any(Timestamp.class))).thenReturn(1);
+        when(addressRepository.deleteOwned(2L, 1L)).thenReturn(1);
 
-        when(usersRepository.findByGuid(anyLong())).thenReturn(Optional.of(actual));
-        when(addressRepository.findById(anyLong())).thenReturn(Optional.of(address));
-        doNothing().when(addressRepository).delete(address);
         usersService.deleteAddress(2L, 1L);
 
-        assertEquals(expected.getAddresses().size(), actual.getAddresses().size());
-        verify(addressRepository).delete(address);
+        assertTrue(readYourWrites.recentlyWrote(2L));
+        assertFalse(readYourWrites.recentlyWrote(1L));
+    }
 
-        expected.setCreatedAt(Timestamp.valueOf(LocalDateTime.now()));
-        expected.setUpdatedAt(Timestamp.valueOf(LocalDateTime.now()));
+    @Test
+    void deleteAddress_withStaleVersion_throwsPreconditionFailed() {
+        when(usersRepository.touchIfVersion(eq(2L), eq(Set.of(4L)), any(Timestamp.class))).thenReturn(0);
+        when(usersRepository.existsByGuid(2L)).thenReturn(true);
 
-        actual.setCreatedAt(expected.getCreatedAt());
-        actual.setUpdatedAt(expected.getUpdatedAt());
+        assertThatExceptionOfType(PreconditionFailedException.class)
+                .isThrownBy(() -> usersService.deleteAddress(2L, 1L, Set.of(4L)));
+        verifyNoInteractions(addressRepository);
+    }
 
-        assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
-        assertEquals(expected.getUpdatedAt(), actual.getUpdatedAt());
+    @Test
+    void deleteAddress_withCurrentVersion_deletes() {
+        when(usersRepository.touchIfVersion(eq(2L), eq(Set.of(4L)), any(Timestamp.class))).thenReturn(1);
+        when(addressRepository.deleteOwned(2L, 1L)).thenReturn(1);
+
+        usersService.deleteAddress(2L, 1L, Set.of(4L));
+
+        verify(usersRepository, never()).touch(anyLong(), any(Timestamp.class));
     }
 
     @DisplayName("It should fail to delete the address of an user that does not exist")
     @Test
     void deleteAddress_fail_noUser() {
 
-        when(usersRepository.findByGuid(anyLong())).thenReturn(Optional.empty());
+        when(usersRepository.touch(anyLong(), any(Timestamp.class))).thenReturn(0);
 
         assertThatExceptionOfType(UserNotFoundException.class)
                 .isThrownBy(() -> {
@@ -368,11 +656,8 @@ public class UsersServiceTests {
     @DisplayName("It should fail to delete an address that doesn't exist of an user")
     @Test
     void deleteAddress_fail_noAddress() {
-        User user = new User(1L, "user", "John", "Smith", "jsmith@gmail.com");
-        user.setId(2L);
-
-        when(usersRepository.findByGuid(anyLong())).thenReturn(Optional.of(user));
-        when(addressRepository.findById(anyLong())).thenReturn(Optional.empty());
+        when(usersRepository.touch(anyLong(), any(Timestamp.class))).thenReturn(1);
+        when(addressRepository.deleteOwned(1L, 18L)).thenReturn(0);
 
         assertThatExceptionOfType(AddressNotFoundException.class)
                 .isThrownBy(() -> {
@@ -384,10 +669,11 @@ public class UsersServiceTests {
     void getUserCondensed_withID_returnsUserCondensed() {
         User user = new User(1L, "user", "John", "Smith", "jsmith@gmail.com");
         user.setId(5L);
+        UserCondensed condensed = new UserCondensed(user.getGuid(), user.getUsername(), user.getAvatar(), user.getEmail());
 
-        when(usersRepository.findByGuid(anyLong())).thenReturn(Optional.of(user));
+        when(usersRepository.findCondensedByGuid(user.getGuid())).thenReturn(Optional.of(condensed));
 
-        UserCondensed foundUser = usersService.getUserCondensed(user.getId());
+        UserCondensed foundUser = usersService.getUserCondensed(user.getGuid());
 
         assertEquals(user.getGuid(), foundUser.getGuid());
         assertEquals(user.getUsername(), foundUser.getUsername());
@@ -397,11 +683,131 @@ public class UsersServiceTests {
 
     @Test
     void getUserCondensed_withID_returnsNoContent() {
-        when(usersRepository.findByGuid(anyLong())).thenReturn(Optional.empty());
+        when(usersRepository.findCondensedByGuid(anyLong())).thenReturn(Optional.empty());
 
         assertThatExceptionOfType(UserNotFoundException.class)
                 .isThrownBy(() -> {
                     usersService.getUserCondensed(12345L);
                 });
     }
+
+    @Test
+    void getUsersCondensed_withGuids_returnsFoundUsersAndMissingGuids() {
+        UserCondensed first = new UserCondensed(1L, "bakerBob", null, "bakerBob1@gmail.com");
+        UserCondensed third = new UserCondensed(3L, "bobBob", null, "bakerBob3@gmail.com");
+
+        when(usersRepository.findCondensedByGuidIn(Arrays.asList(3L, 42L, 1L))).thenReturn(Arrays.asList(first, third));
+
+        UserCondensedBatch batch = usersService.getUsersCondensed(Arrays.asList(3L, 42L, 1L, 3L));
+
+        assertEquals(Arrays.asList(3L, 1L), new ArrayList<>(batch.getUsers().keySet()));
+        assertEquals("bobBob", batch.getUsers().get(3L).getUsername());
+        assertEquals(Arrays.asList(42L), batch.getMissing());
+    }
+
+    @Test
+    void getUsersCondensed_withMoreGuidsThanChunk_queriesInChunks() {
+        UsersProperties properties = new UsersProperties();
+        properties.getCondensed().setBatchChunkSize(2);
+        usersService = new UsersService(usersRepository, addressRepository, usernameIndex, usernameTrie, properties, entityManager, condensedCache,
+                new UserLoadCoalescer(), availabilityFilter, readYourWrites, shards, directory, changesRepository);
+
+        when(usersRepository.findCondensedByGuidIn(anyCollection())).thenReturn(new ArrayList<>());
+
+        UserCondensedBatch batch = usersService.getUsersCondensed(Arrays.asList(1L, 2L, 3L, 4L, 5L));
+
+        verify(usersRepository).findCondensedByGuidIn(Arrays.asList(1L, 2L));
+        verify(usersRepository).findCondensedByGuidIn(Arrays.asList(3L, 4L));
+        verify(usersRepository).findCondensedByGuidIn(Arrays.asList(5L));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), batch.getMissing());
+    }
+
+    @Test
+    void getUsersCondensed_withTooManyGuids_throwsError() {
+        List<Long> guids = LongStream.rangeClosed(1, 501).boxed().collect(Collectors.toList());
+
+        assertThatExceptionOfType(BatchTooLargeException.class)
+                .isThrownBy(() -> usersService.getUsersCondensed(guids));
+        verifyNoInteractions(usersRepository);
+    }
+
+    @Test
+    void getUserCondensed_calledTwice_readsDatabaseOnce() {
+        UserCondensed condensed = new UserCondensed(1L, "bakerBob", null, "bakerBob1@gmail.com");
+        when(usersRepository.findCondensedByGuid(1L)).thenReturn(Optional.of(condensed));
+
+        usersService.getUserCondensed(1L);
+        UserCondensed foundUser = usersService.getUserCondensed(1L);
+
+        assertEquals("bakerBob", foundUser.getUsername());
+        verify(usersRepository, times(1)).findCondensedByGuid(1L);
+    }
+
+    @Test
+    void updateUser_evictsCachedCondensedUser() {
+        User user = users.get(0);
+        UserCondensed stale = new UserCondensed(user.getGuid(), user.getUsername(), null, user.getEmail());
+        UserCondensed fresh = new UserCondensed(user.getGuid(), user.getUsername(), "avatar.png", user.getEmail());
+        UserRequest request = new UserRequest("baker", "bob", user.getEmail(), null, false, "avatar.png");
+
+        when(usersRepository.findCondensedByGuid(user.getGuid())).thenReturn(Optional.of(stale), Optional.of(fresh));
+        when(usersRepository.findWithAddressesByGuid(user.getGuid())).thenReturn(Optional.of(user));
+        when(usersRepository.saveAndFlush(user)).thenReturn(user);
+
+        usersService.getUserCondensed(user.getGuid());
+        usersService.updateUser(user.getGuid(), request);
+
+        assertEquals("avatar.png", usersService.getUserCondensed(user.getGuid()).getAvatar());
+    }
+
+    @Test
+    void getUsersCondensed_withCachedUsers_loadsOnlyTheRest() {
+        UserCondensed first = new UserCondensed(1L, "bakerBob", null, "bakerBob1@gmail.com");
+        UserCondensed second = new UserCondensed(2L, "bob", null, "bakerBob2@gmail.com");
+        when(usersRepository.findCondensedByGuid(1L)).thenReturn(Optional.of(first));
+        usersService.getUserCondensed(1L);
+
+        when(usersRepository.findCondensedByGuidIn(Arrays.asList(2L, 3L))).thenReturn(Arrays.asList(second));
+
+        UserCondensedBatch batch = usersService.getUsersCondensed(Arrays.asList(1L, 2L, 3L));
+
+        assertEquals(Arrays.asList(1L, 2L), new ArrayList<>(batch.getUsers().keySet()));
+        assertEquals(Arrays.asList(3L), batch.getMissing());
+        assertSame(second, usersService.getUserCondensed(2L));
+        verify(usersRepository, never()).findCondensedByGuid(2L);
+    }
+
+    @Test
+    void checkAvailability_withNamesTheFilterHasNeverSeen_skipsDatabase() {
+        availabilityFilter.rebuild(Stream.of(new UserCondensed(1L, "bakerBob", null, "bakerBob1@gmail.com")));
+
+        Availability availability = usersService.checkAvailability("someoneNew", "someoneNew@gmail.com");
+
+        assertTrue(availability.getUsername());
+        assertTrue(availability.getEmail());
+        verifyNoInteractions(usersRepository);
+    }
+
+    @Test
+    void checkAvailability_withTakenNames_confirmsWithDatabase() {
+        User user = users.get(0);
+        availabilityFilter.rebuild(Stream.of(new UserCondensed(user.getGuid(), user.getUsername(), null, user.getEmail())));
+        when(usersRepository.findByUsernameExactMatch("BAKERBOB")).thenReturn(Optional.of(user));
+        when(usersRepository.findByEmailExactMatch(user.getEmail())).thenReturn(Optional.of(user));
+
+        Availability availability = usersService.checkAvailability("BAKERBOB", user.getEmail());
+
+        assertFalse(availability.getUsername());
+        assertFalse(availability.getEmail());
+    }
+
+    @Test
+    void checkAvailability_withOnlyUsername_leavesEmailUnanswered() {
+        when(usersRepository.findByUsernameExactMatch("bakerBob")).thenReturn(Optional.empty());
+
+        Availability availability = usersService.checkAvailability("bakerBob", null);
+
+        assertTrue(availability.getUsername());
+        assertNull(availability.getEmail());
+    }
 }
@@ -0,0 +1,46 @@
+package com.galvanize.useraccounts.shard;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.DefaultApplicationArguments;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ShardRebalanceRunnerTests {
+    private final ShardRebalancer rebalancer = mock(ShardRebalancer.class);
+    private final ShardRebalanceRunner runner = new ShardRebalanceRunner(rebalancer);
+
+    @Test
+    void isRequested_onlyForTheRebalanceOption() {
+        assertTrue(ShardRebalanceRunner.isRequested(new String[]{"--rebalance-shards=cleanup"}));
+        assertTrue(ShardRebalanceRunner.isRequested(new String[]{"--server.port=0", "--rebalance-shards"}));
+        assertFalse(ShardRebalanceRunner.isRequested(new String[]{"--rebalance-shards-later=copy", "rebalance-shards"}));
+    }
+
+    @Test
+    void run_reportsTheStepThroughTheExitCodeInsteadOfExiting() {
+        assertEquals(1, runner.getExitCode());
+
+        runner.run(new DefaultApplicationArguments("--rebalance-shards=cleanup"));
+
+        verify(rebalancer).cleanup();
+        verify(rebalancer, never()).copy();
+        assertEquals(0, runner.getExitCode());
+    }
+
+    @Test
+    void run_withoutAStep_copies() {
+        runner.run(new DefaultApplicationArguments("--rebalance-shards"));
+
+        verify(rebalancer).copy();
+        assertEquals(0, runner.getExitCode());
+    }
+
+    @Test
+    void run_withAnUnknownStep_failsWithoutRunningAnything() {
+        assertThrows(IllegalArgumentException.class, () -> runner.run(new DefaultApplicationArguments("--rebalance-shards=move")));
+
+        verifyNoInteractions(rebalancer);
+        assertEquals(1, runner.getExitCode());
+    }
+}
@@ -0,0 +1,136 @@
+package com.galvanize.useraccounts.shard;
+
+import com.galvanize.useraccounts.config.UsersProperties;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardRebalancerTests {
+    private static final int USERS = 40;
+
+    private ShardRoutingDataSource routing;
+    private Shards shards;
+    private JdbcTemplate jdbcTemplate;
+    private ShardRebalancer rebalancer;
+
+    private static HikariDataSource h2(String name) {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setJdbcUrl("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        pool.setUsername("sa");
+        pool.setPassword("sa");
+        return pool;
+    }
+
+    @BeforeEach
+    void setup() {
+        Map<String, HikariDataSource> pools = new TreeMap<>();
+        pools.put("a", h2("rebalance-a"));
+        pools.put("b", h2("rebalance-b"));
+        routing = new ShardRoutingDataSource(pools, "a");
+        routing.afterPropertiesSet();
+        DataSource dataSource = new LazyConnectionDataSourceProxy(routing);
+
+        UsersProperties properties = new UsersProperties();
+        properties.getSharding().setEnabled(true);
+        properties.getSharding().getShards().put("a", new UsersProperties.Shard());
+        properties.getSharding().getShards().put("b", new UsersProperties.Shard());
+        shards = new Shards(properties, new DataSourceTransactionManager(dataSource));
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        rebalancer = new ShardRebalancer(shards, jdbcTemplate, new UserDirectory(properties, shards, jdbcTemplate));
+
+        for (String shard : shards.names()) {
+            shards.onShard(shard, () -> {
+                jdbcTemplate.execute("DROP TABLE IF EXISTS address");
+                jdbcTemplate.execute("DROP TABLE IF EXISTS users");
+                jdbcTemplate.execute("CREATE TABLE users (id BIGINT PRIMARY KEY, guid BIGINT NOT NULL UNIQUE, " +
+                        "username VARCHAR(20) NOT NULL, email VARCHAR(30) NOT NULL, version BIGINT NOT NULL)");
+                jdbcTemplate.execute("CREATE TABLE address (id BIGINT PRIMARY KEY, user_id BIGINT NOT NULL, street VARCHAR(255))");
+                return null;
+            });
+        }
+
+        // every user starts on shard a, as if b had just been added
+        shards.onShard("a", () -> {
+            for (long guid = 1; guid <= USERS; guid++) {
+                jdbcTemplate.update("INSERT INTO users (id, guid, username, email, version) VALUES (?, ?, ?, ?, 0)",
+                        guid, guid, "user" + guid, "user" + guid + "@example.com");
+                jdbcTemplate.update("INSERT INTO address (id, user_id, street) VALUES (?, ?, ?)", guid, guid, guid + " Main St");
+            }
+            return null;
+        });
+    }
+
+    @AfterEach
+    void teardown() {
+        shards.destroy();
+        routing.close();
+    }
+
+    private List<Long> guidsOn(String shard) {
+        return shards.onShard(shard, () -> jdbcTemplate.queryForList("SELECT guid FROM users ORDER BY guid", Long.class));
+    }
+
+    private int ownedBy(String shard) {
+        int owned = 0;
+        for (long guid = 1; guid <= USERS; guid++) {
+            if (shards.shardOf(guid).equals(shard)) owned++;
+        }
+        return owned;
+    }
+
+    @Test
+    void copyThenCleanup_leavesEveryUserOnlyOnItsOwner() {
+        ShardRebalancer.Summary copied = rebalancer.copy();
+        ShardRebalancer.Summary cleaned = rebalancer.cleanup();
+
+        assertEquals(ownedBy("b"), copied.getMoved());
+        assertEquals(ownedBy("b"), cleaned.getMoved());
+        assertEquals(0, cleaned.getPending());
+        guidsOn("a").forEach(guid -> assertEquals("a", shards.shardOf(guid)));
+        guidsOn("b").forEach(guid -> assertEquals("b", shards.shardOf(guid)));
+        assertEquals(USERS, guidsOn("a").size() + guidsOn("b").size());
+    }
+
+    @Test
+    void copy_movesAddressesWithTheirUser() {
+        rebalancer.copy();
+
+        Long guid = guidsOn("b").get(0);
+        String street = shards.onShard("b", () -> jdbcTemplate.queryForObject(
+                "SELECT a.street FROM address a JOIN users u ON a.user_id = u.id WHERE u.guid = ?", String.class, guid));
+        assertEquals(guid + " Main St", street);
+    }
+
+    @Test
+    void copy_keepsTheOwnersNewerVersion() {
+        rebalancer.copy();
+        Long guid = guidsOn("b").get(0);
+        // the user was renamed on its new owner after the first pass
+        shards.onShard("b", () -> jdbcTemplate.update("UPDATE users SET username = 'renamed', version = 1 WHERE guid = ?", guid));
+
+        ShardRebalancer.Summary summary = rebalancer.copy();
+
+        assertEquals(0, summary.getMoved());
+        assertEquals("renamed", shards.onShard("b", () -> jdbcTemplate.queryForObject("SELECT username FROM users WHERE guid = ?", String.class, guid)));
+    }
+
+    @Test
+    void cleanup_beforeCopy_deletesNothing() {
+        ShardRebalancer.Summary summary = rebalancer.cleanup();
+
+        assertEquals(0, summary.getMoved());
+        assertEquals(ownedBy("b"), summary.getPending());
+        assertEquals(USERS, guidsOn("a").size());
+    }
+}
@@ -0,0 +1,56 @@
+package com.galvanize.useraccounts.shard;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardRingTests {
+    private static final int GUIDS = 100_000;
+
+    @Test
+    void shardOf_isTheSameForEveryRingWithTheSameShards() {
+        ShardRing ring = new ShardRing(Arrays.asList("a", "b", "c"), 128);
+        ShardRing reordered = new ShardRing(Arrays.asList("c", "a", "b"), 128);
+
+        for (long guid = 1; guid <= 1_000; guid++) assertEquals(ring.shardOf(guid), reordered.shardOf(guid));
+        assertEquals(Arrays.asList("a", "b", "c"), reordered.shards());
+    }
+
+    @Test
+    void shardOf_spreadsConsecutiveGuidsEvenly() {
+        ShardRing ring = new ShardRing(Arrays.asList("a", "b", "c", "d"), 128);
+        Map<String, Integer> counts = new HashMap<>();
+
+        for (long guid = 1; guid <= GUIDS; guid++) counts.merge(ring.shardOf(guid), 1, Integer::sum);
+
+        assertEquals(4, counts.size());
+        counts.values().forEach(count -> assertTrue(Math.abs(count - GUIDS / 4) < GUIDS / 4 * 0.25, counts.toString()));
+    }
+
+    @Test
+    void shardOf_afterAddingAShard_movesAboutOneInNGuidsAndOnlyToTheNewShard() {
+        ShardRing before = new ShardRing(Arrays.asList("a", "b", "c"), 128);
+        ShardRing after = new ShardRing(Arrays.asList("a", "b", "c", "d"), 128);
+        int moved = 0;
+
+        for (long guid = 1; guid <= GUIDS; guid++) {
+            String owner = after.shardOf(guid);
+            if (owner.equals(before.shardOf(guid))) continue;
+
+            assertEquals("d", owner);
+            moved++;
+        }
+
+        assertTrue(Math.abs(moved - GUIDS / 4) < GUIDS / 4 * 0.25, String.valueOf(moved));
+    }
+
+    @Test
+    void constructor_withoutShards_throws() {
+        assertThrows(IllegalArgumentException.class, () -> new ShardRing(Collections.emptyList(), 128));
+    }
+}